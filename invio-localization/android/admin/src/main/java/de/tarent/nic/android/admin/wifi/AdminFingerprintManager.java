@@ -121,6 +121,7 @@ public class AdminFingerprintManager extends FingerprintManager implements Histo
         final Fingerprint fingerprint = new Fingerprint(histogram, new NicGeoPointImpl(fingerprintLocation));
         final FingerprintItem fingerprintItem = new FingerprintItem(fingerprint);
         overlay.addItem(fingerprintItem);
+        invalidateFingerprintIndex();
         mapView.postInvalidate();
     }
 
@@ -159,4 +160,14 @@ public class AdminFingerprintManager extends FingerprintManager implements Histo
                 new DefaultResourceProxyImpl(activity));
     }
 
+    /**
+     * The admin-app shows all the fingerprints, so they all need their FingerprintItems.
+     *
+     * @return true
+     */
+    @Override
+    protected boolean isShowingFingerprints() {
+        return true;
+    }
+
 }
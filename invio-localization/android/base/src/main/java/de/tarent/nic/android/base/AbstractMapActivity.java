@@ -3,6 +3,8 @@ package de.tarent.nic.android.base;
 import android.app.Activity;
 import android.content.Intent;
 import android.os.Bundle;
+import android.os.Environment;
+import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -23,6 +25,11 @@ import de.tarent.nic.android.base.wifi.WifiCapturer;
 import org.osmdroid.tileprovider.MapTileProviderBase;
 import org.osmdroid.views.MapView;
 
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+
+import static de.tarent.nic.android.base.config.Property.CACHE_DIRECTORY;
 import static de.tarent.nic.android.base.config.Property.MAP_PROVIDER_SCHEMA;
 
 
@@ -60,6 +67,11 @@ public abstract class AbstractMapActivity extends Activity {
      */
     protected UserLocator userLocator;
 
+    /**
+     * The {@link UserPositionManager} shows the position that the {@link UserLocator} finds.
+     */
+    protected UserPositionManager userPositionManager;
+
     /**
      * The name of the map the current map. Will be used in the URL from which to download tiles, fingerprints,
      * etc. from the server.
@@ -130,6 +142,15 @@ public abstract class AbstractMapActivity extends Activity {
         return mapView;
     }
 
+    /**
+     * Get the {@link UserPositionManager}, which shows the position of the user.
+     *
+     * @return the {@link UserPositionManager}
+     */
+    public UserPositionManager getUserPositionManager() {
+        return userPositionManager;
+    }
+
     /**
      * Get the DeadReckoning-instance, creating it if it doesn't exist.
      * @param activity the activity where the DeadReckoning, if it has to be created, can get its resources from.
@@ -184,6 +205,17 @@ public abstract class AbstractMapActivity extends Activity {
         return wasScanning;
     }
 
+    /**
+     * Close the scan recording, if there is one, so that its last scans are written.
+     */
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (wifiCapturer != null) {
+            wifiCapturer.stopRecording();
+        }
+    }
+
     /**
      * Detach all tileProviders on stop to avoid leaks
      */
@@ -233,7 +265,7 @@ public abstract class AbstractMapActivity extends Activity {
             createOrRecoverFingerprintManager(savedInstanceState);
         }
 
-        final UserPositionManager userPositionManager = new UserPositionManager(this, mapView);
+        userPositionManager = new UserPositionManager(this, mapView);
         userLocator = new UserLocator(this, fingerprintManager, userPositionManager, WAY_MANAGER);
         initSensorCollectors(userLocator);
     }
@@ -245,11 +277,29 @@ public abstract class AbstractMapActivity extends Activity {
                     getResources().getInteger(R.integer.tracker_scanbuffer_maxage));
 
             myUserLocator.addSensorCollector(wifiCapturer);
+            if (getResources().getInteger(R.integer.tracker_scanTrace_record) == 1) {
+                startScanRecording();
+            }
         }
 
         myUserLocator.addSensorCollector(getDeadReckoning(this));
     }
 
+    /**
+     * Record the scans of the wifiCapturer into a new trace file in the cache directory, to replay them later.
+     */
+    private void startScanRecording() {
+        final File directory = new File(Environment.getExternalStorageDirectory(),
+                                        config().getPropertyValue(CACHE_DIRECTORY));
+        final File trace = new File(directory, "scans-" + System.currentTimeMillis() + ".trace");
+        try {
+            directory.mkdirs();
+            wifiCapturer.startRecording(new FileOutputStream(trace));
+        } catch (FileNotFoundException e) {
+            Log.e(getClass().getName(), "Could not record the scans into " + trace + ": " + e.getMessage());
+        }
+    }
+
     private void createOrRecoverFingerprintManager(Bundle savedInstanceState) {
         //TODO: Need to save map ressources in the Bundle
         new CachedDownloadMapResourceTask(this, mapServerClient, mapView, mapName).execute();
@@ -0,0 +1,259 @@
+package de.tarent.nic.android.base.cache;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.ReaderInputStream;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+
+/**
+ * A CachedResource is one file of a map that was downloaded from the mapserver and stored in the
+ * {@link MapResourceCache}. Next to the file there is a check file with the SHA-1 hash and the length of its content.
+ * The file and the check file are always replaced atomically, and the check file is written last, so a file without a
+ * check file, or with another length, is broken and doesn't count as cached at all. {@link #read()} also verifies the
+ * hash.
+ *
+ * The time when the check file was last written (or touched) is the time when the content was last compared with the
+ * server. Within {@link #getMaxAge()} after that, the resource is fresh and should be served from the cache without
+ * asking the server at all. After that it has to be downloaded again, but when the server still has the same content,
+ * the cached file is not rewritten. So everything that was derived from it (e.g. a fingerprint snapshot, which must
+ * not be older than the file) stays valid.
+ */
+public class CachedResource {
+
+    private static final String CHECK_SUFFIX = ".sha1";
+
+    private static final String HEX_DIGITS = "0123456789abcdef";
+
+    private static final int NIBBLE_BITS = 4;
+
+    private static final int NIBBLE_MASK = 0x0f;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final MapResourceCache cache;
+
+    private final String mapName;
+
+    private final File file;
+
+    private final File checkFile;
+
+    private final long maxAge;
+
+
+    /**
+     * Construct a new CachedResource. Use {@link MapResourceCache#getResource} to get one.
+     *
+     * @param cache the cache to which the resource belongs
+     * @param mapName the name of the map to which the resource belongs
+     * @param file the file which holds the cached content
+     * @param maxAge how long, in milliseconds, the content stays fresh after it was compared with the server
+     */
+    CachedResource(final MapResourceCache cache, final String mapName, final File file, final long maxAge) {
+        this.cache = cache;
+        this.mapName = mapName;
+        this.file = file;
+        this.checkFile = new File(file.getPath() + CHECK_SUFFIX);
+        this.maxAge = maxAge;
+    }
+
+
+    public File getFile() {
+        return file;
+    }
+
+    public long getMaxAge() {
+        return maxAge;
+    }
+
+    /**
+     * Is there any complete cached content, regardless of its age?
+     *
+     * @return true if the file exists and has the length that was recorded when it was written
+     */
+    public boolean exists() {
+        final String check = readCheck();
+        return (check != null) && file.exists() && (file.length() == getLength(check));
+    }
+
+    /**
+     * Has the cached content been compared with the server recently enough, so that we don't need to ask again? Every
+     * call counts as a hit or a miss of the cache.
+     *
+     * @return true if the resource is fresh
+     */
+    public boolean isFresh() {
+        final long age = System.currentTimeMillis() - checkFile.lastModified();
+        final boolean fresh = exists() && (age >= 0) && (age < maxAge);
+        if (fresh) {
+            cache.recordHit();
+        } else {
+            cache.recordMiss();
+        }
+        return fresh;
+    }
+
+    /**
+     * Update the cache with the content that was just downloaded. The file is only replaced if the content differs
+     * from the cached content; in any case the resource is fresh again afterwards.
+     *
+     * @param content the downloaded content
+     * @return true if the content has changed, false if the cached file already had that content
+     * @throws IOException if the cache could not be written
+     */
+    public boolean update(final String content) throws IOException {
+        // Encoded while it is written, so that large content is not copied into a byte array first:
+        return update(new ReaderInputStream(new StringReader(content), "UTF-8"));
+    }
+
+    /**
+     * Update the cache with the content that is being downloaded. The stream is read to its end, but not closed. The
+     * map is open while it is written, so that it can't be evicted in the meantime, not even to make room for itself.
+     *
+     * @param in the stream with the downloaded content
+     * @return true if the content has changed, false if the cached file already had that content
+     * @throws IOException if the stream could not be read or the cache could not be written
+     */
+    public boolean update(final InputStream in) throws IOException {
+        cache.open(mapName);
+        try {
+            return write(in);
+        } finally {
+            cache.close(mapName);
+        }
+    }
+
+    /**
+     * Open the cached content.
+     *
+     * @return the stream, which must be closed by the caller
+     * @throws FileNotFoundException if there is no complete cached content
+     */
+    public InputStream openStream() throws FileNotFoundException {
+        if (!exists()) {
+            throw new FileNotFoundException("No complete cached " + file);
+        }
+        cache.markUsed(mapName);
+        cache.recordServed(file.length());
+        return new FileInputStream(file);
+    }
+
+    /**
+     * Read the cached content and verify its hash.
+     *
+     * @return the content
+     * @throws IOException if there is no complete cached content, it is broken or could not be read
+     */
+    public String read() throws IOException {
+        final String check = readCheck();
+        final byte[] bytes;
+        final InputStream in = openStream();
+        try {
+            bytes = IOUtils.toByteArray(in);
+        } finally {
+            in.close();
+        }
+        final MessageDigest digest = createDigest();
+        digest.update(bytes);
+        if (!(toHex(digest.digest()) + " " + bytes.length).equals(check)) {
+            checkFile.delete();
+            throw new IOException("Cached " + file + " is broken");
+        }
+        return new String(bytes, "UTF-8");
+    }
+
+
+    private boolean write(final InputStream in) throws IOException {
+        final File directory = file.getParentFile();
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("CacheDir could not be created. Can't save " + file.getName() + ".");
+        }
+
+        final MessageDigest digest = createDigest();
+        long length = 0;
+        final File temp = MapResourceCache.getTempFile(file);
+        final OutputStream out = new FileOutputStream(temp);
+        try {
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, n);
+                out.write(buffer, 0, n);
+                length += n;
+            }
+        } finally {
+            out.close();
+        }
+        cache.recordDownload(length);
+
+        final String check = toHex(digest.digest()) + " " + length;
+        if (exists() && check.equals(readCheck())) {
+            temp.delete();
+            // Only mark it as fresh:
+            MapResourceCache.touch(checkFile);
+            cache.markUsed(mapName);
+            return false;
+        }
+
+        // Without the old check file a broken or half replaced file can never be taken for the old content:
+        checkFile.delete();
+        MapResourceCache.replace(temp, file);
+        MapResourceCache.writeAtomically(checkFile, check.getBytes("UTF-8"));
+        cache.markUsed(mapName);
+        cache.evict();
+        return true;
+    }
+
+    private String readCheck() {
+        if (!checkFile.exists()) {
+            return null;
+        }
+        try {
+            final InputStream in = new FileInputStream(checkFile);
+            try {
+                return IOUtils.toString(in, "UTF-8").trim();
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static long getLength(final String check) {
+        try {
+            return Long.parseLong(check.substring(check.indexOf(' ') + 1));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            // Every java platform must support SHA-1:
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(final byte[] bytes) {
+        final StringBuilder hex = new StringBuilder(2 * bytes.length);
+        for (final byte b : bytes) {
+            hex.append(HEX_DIGITS.charAt((b >> NIBBLE_BITS) & NIBBLE_MASK));
+            hex.append(HEX_DIGITS.charAt(b & NIBBLE_MASK));
+        }
+        return hex.toString();
+    }
+
+}
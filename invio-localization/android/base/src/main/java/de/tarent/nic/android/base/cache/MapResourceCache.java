@@ -0,0 +1,340 @@
+package de.tarent.nic.android.base.cache;
+
+import android.os.Environment;
+import android.util.Log;
+import de.tarent.nic.android.base.config.Config;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static de.tarent.nic.android.base.config.Property.CACHE_DIRECTORY;
+import static de.tarent.nic.android.base.config.Property.CACHE_MAX_AGE_MINUTES;
+import static de.tarent.nic.android.base.config.Property.CACHE_SIZE_MB;
+
+
+/**
+ * The MapResourceCache is the one place where the resources that are downloaded from the mapserver are stored locally.
+ * Every map (or map group, or level of a multi-level-map) has its own directory below the root of the cache, with its
+ * {@link CachedResource}s and whatever the download tasks derive from them (e.g. fingerprint snapshots or unzipped
+ * map data).
+ *
+ * The whole cache has a size budget. When a resource has been written and the cache is larger than the budget, the
+ * directories of the maps that were used least recently are deleted. Maps that are open (see {@link #open(String)})
+ * are never deleted, because their files are still in use. When a map was used is recorded in a file in its
+ * directory, which is touched when the map is opened, and otherwise only once per session.
+ *
+ * The cache counts hits (resources that were fresh, so the server was not asked), misses and bytes, which can be
+ * used to see how well it works.
+ */
+public class MapResourceCache {
+
+    private static final String TAG = "MapResourceCache";
+
+    private static final String LAST_USED_FILE = ".lastused";
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static final long MEGABYTE = 1024L * 1024L;
+
+    private static final long MINUTE = 60L * 1000L;
+
+    private static MapResourceCache instance;
+
+    private final File root;
+
+    private final long budget;
+
+    private final long maxAge;
+
+    // How often each map is open at the moment. Open maps must not be evicted:
+    private final Map<String, Integer> openMaps = new HashMap<String, Integer>();
+
+    // The maps whose last use has already been recorded by this instance:
+    private final Set<String> touchedMaps = new HashSet<String>();
+
+    private long hits;
+
+    private long misses;
+
+    private long bytesDownloaded;
+
+    private long bytesServed;
+
+    private long bytesEvicted;
+
+
+    /**
+     * Construct a new MapResourceCache.
+     *
+     * @param root the root directory of the cache
+     * @param budget the size, in bytes, beyond which maps are evicted
+     * @param maxAge how long, in milliseconds, a resource stays fresh after it was compared with the server
+     */
+    public MapResourceCache(final File root, final long budget, final long maxAge) {
+        this.root = root;
+        this.budget = budget;
+        this.maxAge = maxAge;
+    }
+
+    /**
+     * Get the cache of this app, below the external storage, as it is configured in the {@link Config}.
+     *
+     * @return the MapResourceCache
+     */
+    public static synchronized MapResourceCache getInstance() {
+        if (instance == null) {
+            final Config config = Config.getInstance();
+            instance = new MapResourceCache(
+                    new File(Environment.getExternalStorageDirectory(), config.getPropertyValue(CACHE_DIRECTORY)),
+                    config.getPropertyValueAsInt(CACHE_SIZE_MB) * MEGABYTE,
+                    config.getPropertyValueAsInt(CACHE_MAX_AGE_MINUTES) * MINUTE);
+        }
+        return instance;
+    }
+
+
+    /**
+     * Get a resource of a map.
+     *
+     * @param mapName the name of the map
+     * @param fileName the name of the file in the directory of the map
+     * @return the CachedResource, which may or may not exist yet
+     */
+    public CachedResource getResource(final String mapName, final String fileName) {
+        return new CachedResource(this, mapName, new File(getDirectory(mapName), fileName), maxAge);
+    }
+
+    /**
+     * Get the directory of a map, for files that are derived from its resources.
+     *
+     * @param mapName the name of the map
+     * @return the directory, which may not exist yet
+     */
+    public File getDirectory(final String mapName) {
+        return new File(root, mapName);
+    }
+
+    /**
+     * Open a map, so that it is not evicted until it is closed again, and record that it is used now. A map can be
+     * opened several times; it stays open until it has been closed as often.
+     *
+     * @param mapName the name of the map
+     * @return the directory of the map, which may not exist yet
+     */
+    public synchronized File open(final String mapName) {
+        final Integer count = openMaps.get(mapName);
+        openMaps.put(mapName, (count == null) ? 1 : (count + 1));
+        final File directory = getDirectory(mapName);
+        if (directory.exists()) {
+            touch(new File(directory, LAST_USED_FILE));
+            touchedMaps.add(mapName);
+        }
+        return directory;
+    }
+
+    /**
+     * Close a map that was opened with {@link #open(String)}, so that it may be evicted again.
+     *
+     * @param mapName the name of the map
+     */
+    public synchronized void close(final String mapName) {
+        final Integer count = openMaps.get(mapName);
+        if ((count == null) || (count <= 1)) {
+            openMaps.remove(mapName);
+        } else {
+            openMaps.put(mapName, count - 1);
+        }
+    }
+
+    public File getRoot() {
+        return root;
+    }
+
+    public long getBudget() {
+        return budget;
+    }
+
+    /**
+     * Get the current size of the cache, which is calculated from the files, so don't call this too often.
+     *
+     * @return the size in bytes
+     */
+    public synchronized long getSize() {
+        long size = 0;
+        final File[] directories = root.listFiles();
+        if (directories != null) {
+            for (final File directory : directories) {
+                size += FileUtils.sizeOf(directory);
+            }
+        }
+        return size;
+    }
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    public synchronized long getBytesDownloaded() {
+        return bytesDownloaded;
+    }
+
+    public synchronized long getBytesServed() {
+        return bytesServed;
+    }
+
+    public synchronized long getBytesEvicted() {
+        return bytesEvicted;
+    }
+
+    /**
+     * Delete the directories of the maps that were used least recently, and are not open, until the cache fits into
+     * its budget again.
+     */
+    public synchronized void evict() {
+        final File[] directories = root.listFiles();
+        if (directories == null) {
+            return;
+        }
+
+        long size = 0;
+        final Map<File, Long> sizes = new HashMap<File, Long>();
+        final Map<File, Long> lastUsed = new HashMap<File, Long>();
+        final List<File> candidates = new ArrayList<File>();
+        for (final File directory : directories) {
+            final long directorySize = FileUtils.sizeOf(directory);
+            size += directorySize;
+            if (directory.isDirectory() && !openMaps.containsKey(directory.getName())) {
+                sizes.put(directory, directorySize);
+                final File lastUsedFile = new File(directory, LAST_USED_FILE);
+                lastUsed.put(directory, lastUsedFile.exists() ? lastUsedFile.lastModified() : directory.lastModified());
+                candidates.add(directory);
+            }
+        }
+        if (size <= budget) {
+            return;
+        }
+
+        Collections.sort(candidates, new Comparator<File>() {
+            @Override
+            public int compare(final File a, final File b) {
+                return lastUsed.get(a).compareTo(lastUsed.get(b));
+            }
+        });
+        for (final File directory : candidates) {
+            if (size <= budget) {
+                break;
+            }
+            Log.i(TAG, "Evicting " + directory + " from the cache");
+            FileUtils.deleteQuietly(directory);
+            size -= sizes.get(directory);
+            bytesEvicted += sizes.get(directory);
+        }
+    }
+
+
+    synchronized void recordHit() {
+        hits++;
+    }
+
+    synchronized void recordMiss() {
+        misses++;
+    }
+
+    synchronized void recordDownload(final long bytes) {
+        bytesDownloaded += bytes;
+    }
+
+    synchronized void recordServed(final long bytes) {
+        bytesServed += bytes;
+    }
+
+    /**
+     * Mark a map as used, now. This is only recorded the first time in a session, so that reading a resource doesn't
+     * cost a write every time.
+     *
+     * @param mapName the name of the map
+     */
+    synchronized void markUsed(final String mapName) {
+        final File directory = getDirectory(mapName);
+        if (!touchedMaps.contains(mapName) && directory.exists()) {
+            touch(new File(directory, LAST_USED_FILE));
+            touchedMaps.add(mapName);
+        }
+    }
+
+    /**
+     * Set the modification time of a file to now, creating it if necessary.
+     *
+     * @param file the file
+     */
+    static void touch(final File file) {
+        if (!file.setLastModified(System.currentTimeMillis())) {
+            // The file does not exist, or the file system can't set the time:
+            try {
+                writeAtomically(file, new byte[0]);
+            } catch (IOException e) {
+                Log.w(TAG, "Could not touch " + file + ": " + e);
+            }
+        }
+    }
+
+    /**
+     * Write a file so that it has either its old or its new content, even if the app dies while writing.
+     *
+     * @param file the file
+     * @param bytes the new content
+     * @throws IOException if the file could not be written
+     */
+    static void writeAtomically(final File file, final byte[] bytes) throws IOException {
+        final File temp = getTempFile(file);
+        final FileOutputStream out = new FileOutputStream(temp);
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+        replace(temp, file);
+    }
+
+    /**
+     * Get the file where the new content of a file is written before it replaces the file.
+     *
+     * @param file the file
+     * @return the temporary file
+     */
+    static File getTempFile(final File file) {
+        return new File(file.getPath() + TEMP_SUFFIX);
+    }
+
+    /**
+     * Replace a file with another one, by renaming.
+     *
+     * @param temp the file with the new content
+     * @param file the file that shall be replaced
+     * @throws IOException if the file could not be replaced
+     */
+    static void replace(final File temp, final File file) throws IOException {
+        if (!temp.renameTo(file)) {
+            // Some file systems don't replace an existing file:
+            if (!file.delete() || !temp.renameTo(file)) {
+                temp.delete();
+                throw new IOException("Could not replace " + file);
+            }
+        }
+    }
+
+}
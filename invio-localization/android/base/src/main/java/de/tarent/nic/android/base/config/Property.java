@@ -16,7 +16,11 @@ public enum Property {
     MAP_DEFAULT_NAME(R.string.map_default_name),
     MAP_ZOOM_MIN(R.string.map_zoom_min, "0"),
     MAP_ZOOM_MAX(R.string.map_zoom_max, "0"),
-    MAP_FILE_ENDING(R.string.map_file_ending, ".jpg");
+    MAP_FILE_ENDING(R.string.map_file_ending, ".jpg"),
+    MAP_TILE_SAMPLE_SIZE(R.string.map_tile_sample_size, "1"),
+    CACHE_DIRECTORY(R.string.cache_directory, "sellfio"),
+    CACHE_SIZE_MB(R.string.cache_size_mb, "256"),
+    CACHE_MAX_AGE_MINUTES(R.string.cache_max_age_minutes, "15");
     private final int resourceId;
     private final String defaultValue;
 
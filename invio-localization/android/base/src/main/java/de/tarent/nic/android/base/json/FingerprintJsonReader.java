@@ -0,0 +1,135 @@
+package de.tarent.nic.android.base.json;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import de.tarent.nic.android.base.position.NicGeoPointImpl;
+import de.tarent.nic.entities.NicGeoPoint;
+import de.tarent.nic.tracker.wifi.FingerprintTable;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+
+/**
+ * The FingerprintJsonReader reads the fingerprints json, as it comes from the mapserver, token by token straight into
+ * a {@link FingerprintTable}. Unlike gson's data binding it never holds the whole json as a string, nor the
+ * fingerprints as Fingerprint-objects with maps of boxed levels, which for large maps takes hundreds of MB.
+ */
+public final class FingerprintJsonReader {
+
+    private FingerprintJsonReader() {
+    }
+
+
+    /**
+     * Read the fingerprints from a stream of UTF-8 encoded json. The stream is not closed.
+     *
+     * @param in the stream
+     * @return the complete FingerprintTable, which is empty if the stream was empty or contained "null"
+     * @throws IOException if the stream could not be read or is not a valid list of fingerprints
+     */
+    public static FingerprintTable read(final InputStream in) throws IOException {
+        return read(new InputStreamReader(in, "UTF-8"));
+    }
+
+    /**
+     * Read the fingerprints from json. The reader is not closed.
+     *
+     * @param in the reader
+     * @return the complete FingerprintTable, which is empty if the reader was empty or contained "null"
+     * @throws IOException if the reader could not be read or does not contain a valid list of fingerprints
+     */
+    public static FingerprintTable read(final Reader in) throws IOException {
+        final FingerprintTable table = new FingerprintTable();
+        final JsonReader reader = new JsonReader(in);
+        // Like gson itself, so that e.g. the NaNs which the FingerprintManager may write can be read again:
+        reader.setLenient(true);
+        try {
+            final JsonToken first;
+            try {
+                first = reader.peek();
+            } catch (EOFException e) {
+                return table;
+            }
+            if (first == JsonToken.NULL) {
+                reader.nextNull();
+                return table;
+            }
+
+            reader.beginArray();
+            while (reader.hasNext()) {
+                readFingerprint(reader, table);
+            }
+            reader.endArray();
+        } catch (IllegalStateException e) {
+            // The json is valid, but its structure is not what we expected:
+            throw new IOException("Invalid fingerprints: " + e.getMessage(), e);
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid fingerprints: " + e.getMessage(), e);
+        }
+        table.trimToSize();
+        return table;
+    }
+
+
+    private static void readFingerprint(final JsonReader reader, final FingerprintTable table) throws IOException {
+        String id = null;
+        NicGeoPoint point = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            final String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+            } else if ("histogram".equals(name)) {
+                readHistogram(reader, table);
+            } else if ("id".equals(name)) {
+                id = reader.nextString();
+            } else if ("point".equals(name)) {
+                point = readPoint(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        table.endFingerprint(id, point);
+    }
+
+    // The histogram is a map of BSSIDs to maps of levels (the names) to fractions: {"00:11:..":{"-93":0.2,...},...}
+    private static void readHistogram(final JsonReader reader, final FingerprintTable table) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            table.addAccessPoint(reader.nextName());
+            reader.beginObject();
+            while (reader.hasNext()) {
+                final int level = Integer.parseInt(reader.nextName());
+                table.addLevel(level, (float) reader.nextDouble());
+            }
+            reader.endObject();
+        }
+        reader.endObject();
+    }
+
+    // The same fields that the NicGeoPointDeserializer uses:
+    private static NicGeoPoint readPoint(final JsonReader reader) throws IOException {
+        int latitudeE6 = 0;
+        int longitudeE6 = 0;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            final String name = reader.nextName();
+            if ("mLatitudeE6".equals(name)) {
+                latitudeE6 = reader.nextInt();
+            } else if ("mLongitudeE6".equals(name)) {
+                longitudeE6 = reader.nextInt();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return new NicGeoPointImpl(latitudeE6, longitudeE6);
+    }
+
+}
@@ -7,9 +7,12 @@ import de.tarent.nic.android.base.task.OsmParserKeys;
 import de.tarent.nic.android.base.wifi.FingerprintItem;
 import de.tarent.nic.entities.Edge;
 import de.tarent.nic.entities.Fingerprint;
+import de.tarent.nic.tracker.wifi.FingerprintIndex;
+import de.tarent.nic.tracker.wifi.FingerprintTable;
 import org.osmdroid.util.BoundingBoxE6;
 import org.osmdroid.views.overlay.ItemizedIconOverlay;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -30,6 +33,13 @@ public class IndoorMap implements DownloadListener {
 
     private Set<Edge> edges;
 
+    private FingerprintIndex fingerprintIndex;
+
+    private FingerprintIndex levelDetectionIndex;
+
+    // The compact fingerprints, if they were set as a table instead of a list:
+    private FingerprintTable fingerprintTable;
+
 
     /**
      * Construct a new IndoorMap with a prefabricated overlay. For the kunden-app this overlay will usually not show
@@ -62,15 +72,37 @@ public class IndoorMap implements DownloadListener {
     }
 
     /**
-     * Set the list of fingerprints.
+     * Set the list of fingerprints. They are compiled into a new FingerprintIndex at the same time.
      *
      * @param fingerprints List<Fingerprint>
      */
-    public void setFingerprints(List<Fingerprint> fingerprints) {
+    public synchronized void setFingerprints(List<Fingerprint> fingerprints) {
         for (Fingerprint fingerprint : fingerprints) {
             final FingerprintItem fingerprintItem = new FingerprintItem(fingerprint);
             fingerprintOverlay.addItem(fingerprintItem);
         }
+
+        final int size = fingerprintOverlay.size();
+        final List<Fingerprint> allFingerprints = new ArrayList<Fingerprint>(size);
+        for (int i = 0; i < size; i++) {
+            allFingerprints.add(fingerprintOverlay.getItem(i).getFingerprint());
+        }
+        fingerprintIndex = new FingerprintIndex(allFingerprints);
+        levelDetectionIndex = null;
+        fingerprintTable = null;
+    }
+
+    /**
+     * Set the fingerprints from a complete FingerprintTable, replacing all previous ones, and compile them. No
+     * FingerprintItems are created for them, so they are not shown in the overlay.
+     *
+     * @param fingerprints the FingerprintTable
+     */
+    public synchronized void setFingerprints(final FingerprintTable fingerprints) {
+        fingerprintOverlay.removeAllItems();
+        fingerprintTable = fingerprints;
+        fingerprintIndex = new FingerprintIndex(fingerprints);
+        levelDetectionIndex = null;
     }
 
     public ItemizedIconOverlay<FingerprintItem> getFingerprintOverlay() {
@@ -85,6 +117,35 @@ public class IndoorMap implements DownloadListener {
         return maxZoomLevel;
     }
 
+    /**
+     * Get the compiled fingerprints of this map.
+     *
+     * @return the FingerprintIndex, or null if no fingerprints have been set yet.
+     */
+    public synchronized FingerprintIndex getFingerprintIndex() {
+        return fingerprintIndex;
+    }
+
+    /**
+     * Get the fingerprints of this map compiled for the detection of the level, which uses average instead of median
+     * histograms. This index is only built when it is needed for the first time, which is usually on the thread of
+     * the level detection.
+     *
+     * @return the FingerprintIndex, or null if no fingerprints have been set yet.
+     */
+    public synchronized FingerprintIndex getLevelDetectionIndex() {
+        if ((levelDetectionIndex == null) && (fingerprintTable != null)) {
+            levelDetectionIndex = new FingerprintIndex(fingerprintTable, FingerprintIndex.REDUCTION_AVERAGE);
+        } else if ((levelDetectionIndex == null) && (fingerprintIndex != null)) {
+            final List<Fingerprint> allFingerprints = new ArrayList<Fingerprint>(fingerprintIndex.size());
+            for (int i = 0; i < fingerprintIndex.size(); i++) {
+                allFingerprints.add(fingerprintIndex.getFingerprint(i));
+            }
+            levelDetectionIndex = new FingerprintIndex(allFingerprints, FingerprintIndex.REDUCTION_AVERAGE);
+        }
+        return levelDetectionIndex;
+    }
+
     public BoundingBoxE6 getBoundingBox() {
         return boundingBox;
     }
@@ -5,11 +5,15 @@ import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.reflect.TypeToken;
 import de.tarent.nic.android.base.json.NicGeoPointDeserializer;
+import de.tarent.nic.android.base.position.NicGeoPointFactory;
 import de.tarent.nic.android.base.task.DownloadListener;
 import de.tarent.nic.android.base.task.DownloadTask;
 import de.tarent.nic.android.base.task.OsmParserKeys;
 import de.tarent.nic.entities.Edge;
 import de.tarent.nic.entities.NicGeoPoint;
+import de.tarent.nic.tracker.mapmatching.GridWaySnap;
+import de.tarent.nic.tracker.mapmatching.WalkableMask;
+import de.tarent.nic.tracker.mapmatching.WaySnap;
 
 import java.lang.reflect.Type;
 import java.util.Collection;
@@ -25,6 +29,20 @@ public class WayManager implements DownloadListener<Map<String, Collection>> {
 
     protected Collection<Edge> edges;
 
+    /**
+     * The WaySnap for the current edges. It is created only once per set of edges, because it precalculates their
+     * geometry and remembers the last edge. setEdges only discards the old one; the new one is created when it is
+     * first needed, i.e. on the timer thread of the UserLocator rather than on the UI thread.
+     */
+    private WaySnap waySnap;
+
+    /**
+     * The WalkableMask for the current edges, which is also created only when it is first needed.
+     */
+    private WalkableMask walkableMask;
+
+    private double walkableWidth;
+
     /**
      * Create a new {@link WayManager}.
      */
@@ -83,7 +101,44 @@ public class WayManager implements DownloadListener<Map<String, Collection>> {
         return edges;
     }
 
-    public void setEdges(final Collection<Edge> edges) {
+    /**
+     * Set new edges. The WaySnap and the WalkableMask for the old edges are discarded.
+     *
+     * @param edges the edges of the current map
+     */
+    public synchronized void setEdges(final Collection<Edge> edges) {
         this.edges = edges;
+        waySnap = null;
+        walkableMask = null;
+    }
+
+    /**
+     * Get the WaySnap for the current edges. It is created by the first call after the edges have been set.
+     *
+     * @return the WaySnap, or null if there are no edges
+     */
+    public synchronized WaySnap getWaySnap() {
+        if ((waySnap == null) && (edges != null) && !edges.isEmpty()) {
+            waySnap = new GridWaySnap(new NicGeoPointFactory(), edges);
+        }
+        return waySnap;
+    }
+
+    /**
+     * Get the WalkableMask for the current edges, i.e. the raster of the corridors along them. It is created by the
+     * first call after the edges have been set, or when the width changes.
+     *
+     * @param width the width of the corridors, in meters
+     * @return the WalkableMask, or null if there are no edges or the width is not positive
+     */
+    public synchronized WalkableMask getWalkableMask(final double width) {
+        if ((edges == null) || edges.isEmpty() || !(width > 0)) {
+            return null;
+        }
+        if ((walkableMask == null) || (walkableWidth != width)) {
+            walkableMask = new WalkableMask(edges, width);
+            walkableWidth = width;
+        }
+        return walkableMask;
     }
 }
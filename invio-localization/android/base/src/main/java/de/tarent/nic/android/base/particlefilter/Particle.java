@@ -17,7 +17,7 @@ public class Particle {
      * @param y coordinate
      * @param weight representing the probability for being the right position
      */
-    public Particle( double x, double y, float weight) {
+    public Particle( double x, double y, double weight) {
         this.x = x;
         this.y = y;
         this.importanceWeight = weight;
@@ -7,15 +7,52 @@ import de.tarent.nic.android.base.R;
 import de.tarent.nic.android.base.position.NicGeoPointImpl;
 import de.tarent.nic.android.base.position.UserPositionManager;
 import de.tarent.nic.entities.NicGeoPoint;
+import de.tarent.nic.tracker.mapmatching.WalkableMask;
 
-import java.util.ArrayList;
+import java.util.AbstractList;
 import java.util.List;
 import java.util.Random;
 
 /**
  *  Particle Filter class for cleverly merging the wifi positions and the dead reckoning delta
+ *
+ *  The particles are not stored as objects but as a structure of arrays (x, y and weight), which are allocated once
+ *  and then reused, so that the updates don't allocate anything. The resampling writes into a second pair of
+ *  coordinate-arrays and then swaps them with the first, to do the resampling in place. Only when the particles are
+ *  shown, each update copies them into a snapshot for the drawing.
+ *
+ *  In the adaptive mode the number of particles follows the uncertainty (KLD-sampling, see Fox: "Adapting the Sample
+ *  Size in Particle Filters Through KLD-Sampling"): the resampling draws particles until the number of grid cells
+ *  that they occupy says that there are enough of them to approximate the distribution with the configured error.
+ *  A concentrated distribution needs only a few particles, a spread out one (e.g. after the initialization) many.
+ *
+ *  With a {@link WalkableMask} the motion is constrained to the floor plan: particles that are placed or moved
+ *  outside of the walkable area lose most of their weight, so that they don't survive the next resampling.
  */
 public class ParticleFilter {
+
+    private static final ParticleView NO_PARTICLES = new ParticleView() {
+        @Override
+        public int size() {
+            return 0;
+        }
+
+        @Override
+        public double getX(final int i) {
+            throw new IndexOutOfBoundsException("There are no particles");
+        }
+
+        @Override
+        public double getY(final int i) {
+            throw new IndexOutOfBoundsException("There are no particles");
+        }
+
+        @Override
+        public double getWeight(final int i) {
+            throw new IndexOutOfBoundsException("There are no particles");
+        }
+    };
+
     UserPositionManager userPositionManager;
 
     int numParticles;
@@ -27,7 +64,53 @@ public class ParticleFilter {
 
     boolean showParticlesEnabled;
 
-    List<Particle> particleList = new ArrayList<Particle>();
+    boolean adaptive;
+    int minParticles;
+    int maxParticles;
+    float kldBinSize;
+    float kldEpsilon;
+    // The upper (1 - delta)-quantile of the standard normal distribution:
+    double kldQuantile;
+
+    WalkableMask walkableMask;
+    // The factor for the weight of particles outside of the walkable area:
+    float offMapWeight;
+
+    /**
+     * The state of the particles. Only the first particleCount entries are valid.
+     */
+    private double[] xs;
+    private double[] ys;
+    private double[] weights;
+
+    /**
+     * Whether a particle has already lost weight for being outside of the walkable area since it was created or
+     * resampled, so that the penalty doesn't compound with every motion update.
+     */
+    private boolean[] penalized;
+
+    /**
+     * The second buffer for the coordinates, into which the resampling writes.
+     */
+    private double[] resampledXs;
+    private double[] resampledYs;
+
+    private int particleCount;
+
+    // The cumulative weights, for drawing the particles in the adaptive resampling:
+    private double[] cumulativeWeights;
+
+    // An open-addressing hash set of the grid cells that the adaptive resampling has occupied so far. A cell is in the
+    // set if its stamp is the current binStamp, so that the set can be emptied without touching the arrays:
+    private long[] binKeys;
+    private int[] binStamps;
+    private int binStamp;
+
+    /**
+     * A List-view on the particles. The filter itself works on the arrays; this is for code (and tests) that wants to
+     * look at or add individual particles. Its elements are copies, so changing them has no effect.
+     */
+    List<Particle> particleList = new ParticleList();
 
     private Random random = new Random();
 
@@ -50,6 +133,14 @@ public class ParticleFilter {
         if (numParticles <= 0) {
             throw new IllegalArgumentException("Number of particles has to be greater than 0!");
         }
+        allocate(numParticles);
+
+        kldBinSize = res.getInteger(R.integer.particles_kld_binSize)/100.f;
+        setKldErrorBounds(res.getInteger(R.integer.particles_kld_epsilon)/100.f,
+                          res.getInteger(R.integer.particles_kld_delta)/100.f);
+        setParticleLimits(res.getInteger(R.integer.particles_min), res.getInteger(R.integer.particles_max));
+        adaptive = res.getInteger(R.integer.particles_adaptive) == 1;
+        setOffMapWeight(res.getInteger(R.integer.particles_walkable_offMapWeight)/100.f);
     }
 
     /**
@@ -58,16 +149,21 @@ public class ParticleFilter {
      * @param curY wifi position for init
      */
     public void initialize(double curX, double curY) {
+        // Without knowing anything about the distribution yet, the adaptive mode has to start with all particles:
+        final int count = adaptive ? maxParticles : numParticles;
+        allocate(count);
 
-        for (int i = 0; i < numParticles; i++) {
+        final double weight = 1.0 / count;
+        for (int i = 0; i < count; i++) {
             // take the first wifi position and add gaussian noise to spread the particles around the initial position
             // all particles have the same uniform weight at the beginning
-            final double newX = nextGaussian() * sigmaInit * scale + curX;
-            final double newY = nextGaussian() * sigmaInit * scale + curY;
-            final Particle tmp = new Particle(newX, newY, 1.f/numParticles);
-
-            particleList.add(tmp);
+            xs[i] = nextGaussian() * sigmaInit * scale + curX;
+            ys[i] = nextGaussian() * sigmaInit * scale + curY;
+            weights[i] = weight;
+            penalized[i] = false;
         }
+        particleCount = count;
+        constrainToWalkableArea();
         showParticles();
     }
 
@@ -78,10 +174,12 @@ public class ParticleFilter {
      */
     public void updateAction(double x, double y) {
         // propagate position through motion model
-        for (Particle particle : particleList) {
+        for (int i = 0; i < particleCount; i++) {
             final double val = nextGaussian() * sigmaAction * scale;
-            particle.setXY(particle.getX() + x + val, particle.getY() + y + val);
+            xs[i] += x + val;
+            ys[i] += y + val;
         }
+        constrainToWalkableArea();
         showParticles();
     }
 
@@ -91,72 +189,199 @@ public class ParticleFilter {
      * @param y new wifi position y
      */
     public void updateSensor(double x, double y) {
-        float normalize = 0.f;
+        double normalize = 0;
 
         // determine the distance between each particle and the measured wifi-position
-        for (int i = 0; i < numParticles; i++) {
-            final double sqrX = (x - particleList.get(i).getX()) * (x - particleList.get(i).getX());
-            final double sqrY = (y - particleList.get(i).getY()) * (y - particleList.get(i).getY());
-            double sqrt = Math.sqrt(sqrX + sqrY);
+        for (int i = 0; i < particleCount; i++) {
+            final double dx = x - xs[i];
+            final double dy = y - ys[i];
+            double sqrt = Math.sqrt(dx * dx + dy * dy);
             // avoid division by zero
-            if (sqrt == 0.f) {
-                sqrt = 0.000001f;
+            if (sqrt == 0) {
+                sqrt = 0.000001;
             }
-            // take inverse distance as weight, so near particles have a higher weight
-            final double dist = 1.f/sqrt;
-
-            final double weight = dist;
-            particleList.get(i).setWeight(weight);
+            // take inverse distance as weight, so near particles have a higher weight. The old weight is kept as the
+            // prior, which matters for particles that have left the walkable area since the last resampling.
+            weights[i] *= 1.0 / sqrt;
 
-            normalize += weight;
+            normalize += weights[i];
         }
         // normalize the weights , as they represent a probability for each hypothesis being true
         normalizeWeights(normalize);
 
     }
 
-    private void normalizeWeights(float norm) {
-        for (int i = 0; i < numParticles; i++) {
-            particleList.get(i).setWeight(particleList.get(i).getWeight() / norm);
+    private void normalizeWeights(double norm) {
+        for (int i = 0; i < particleCount; i++) {
+            weights[i] /= norm;
         }
     }
 
     /**
-     * Takes the current particle set and resamples it with regard to the particles weights
+     * Reduce the weight of the particles outside of the walkable area. That is a lookup in the raster of the mask per
+     * particle. Each particle is only penalized once until the next resampling.
      */
-    public void resampling() {
-        final List<Particle> tmpParticleList = new ArrayList<Particle>();
-
-        // generate cumulative distribution function from particle weights
-        final double[] cdf = new double[numParticles];
+    private void constrainToWalkableArea() {
+        final WalkableMask mask = walkableMask;
+        if (mask == null) {
+            return;
+        }
+        boolean changed = false;
+        double normalize = 0;
+        for (int i = 0; i < particleCount; i++) {
+            if (!penalized[i] && !mask.isWalkable(xs[i], ys[i])) {
+                weights[i] *= offMapWeight;
+                penalized[i] = true;
+                changed = true;
+            }
+            normalize += weights[i];
+        }
+        if (changed) {
+            normalizeWeights(normalize);
+        }
+    }
 
-        cdf[0] = particleList.get(0).getWeight();
-        for (int i = 1; i < numParticles; i++) {
-            cdf[i] = cdf[i-1] + particleList.get(i).getWeight();
+    /**
+     * Takes the current particle set and resamples it with regard to the particles weights (systematic resampling).
+     */
+    public void resampling() {
+        if (particleCount == 0) {
+            return;
+        }
+        if (adaptive) {
+            resampleAdaptive();
+            return;
         }
+        allocate(numParticles);
+        final double step = 1.0 / numParticles;
 
         // sample a random value between 0 and 1/numParticles
-        final double[] u = new double[numParticles+1];
+        double u;
         do {
-            u[0] = nextRandom() * 1.f/numParticles;
+            u = nextRandom() * step;
         }
-        while(!(u[0] > 0));
-        int k = 0;
+        while(!(u > 0));
 
-        // draw samples from the cumulative distribution function with a fixed interval of 1/numParticles
+        // draw samples from the cumulative distribution function of the weights with a fixed interval of
+        // 1/numParticles. The cumulative weight is summed up on the fly, instead of storing the whole function.
+        int k = 0;
+        double cumulativeWeight = weights[0];
         for (int j = 0; j < numParticles; j++) {
-            while (u[j] > cdf[k]) {
+            // The last particle also takes what is left after rounding errors:
+            while ((u > cumulativeWeight) && (k < particleCount - 1)) {
                 k++;
+                cumulativeWeight += weights[k];
             }
             // add noise to the chosen particles
-            final double x = particleList.get(k).getX() + nextGaussian() * sigmaSensor * scale;
-            final double y = particleList.get(k).getY() + nextGaussian() * sigmaSensor * scale;
-            tmpParticleList.add(new Particle(x, y, 1.f/numParticles));
-            u[j+1] = u[j] + 1.f/numParticles;
+            resampledXs[j] = xs[k] + nextGaussian() * sigmaSensor * scale;
+            resampledYs[j] = ys[k] + nextGaussian() * sigmaSensor * scale;
+            u += step;
+        }
+
+        useResampledParticles(numParticles);
+    }
+
+    /**
+     * The KLD-sampling: draws particles, independently of each other, until they are enough for the number of grid
+     * cells that they occupy, but at least minParticles and at most maxParticles.
+     */
+    private void resampleAdaptive() {
+        allocate(maxParticles);
+        // At most one cell per particle, with a load factor of at most 1/2 so that the probing stays short:
+        final int tableSize = Integer.highestOneBit(maxParticles) * 4;
+        if ((binKeys == null) || (binKeys.length < tableSize)) {
+            binKeys = new long[tableSize];
+            binStamps = new int[tableSize];
+        }
+
+        double total = 0;
+        for (int i = 0; i < particleCount; i++) {
+            total += weights[i];
+            cumulativeWeights[i] = total;
+        }
+
+        binStamp++;
+        int bins = 0;
+        int required = minParticles;
+        int n = 0;
+        while ((n < required) && (n < maxParticles)) {
+            final int k = findCumulativeWeight(nextRandom() * total);
+            resampledXs[n] = xs[k] + nextGaussian() * sigmaSensor * scale;
+            resampledYs[n] = ys[k] + nextGaussian() * sigmaSensor * scale;
+            if (addBin(resampledXs[n], resampledYs[n])) {
+                bins++;
+                required = Math.max(minParticles, kldBound(bins));
+            }
+            n++;
+        }
+
+        useResampledParticles(n);
+    }
+
+    // The index of the first particle whose cumulative weight is not smaller than the target.
+    private int findCumulativeWeight(final double target) {
+        int low = 0;
+        int high = particleCount - 1;
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (cumulativeWeights[middle] < target) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    // Put the grid cell of a point into the set of occupied cells and tell if it was not there before.
+    private boolean addBin(final double x, final double y) {
+        final double binSize = Math.max(kldBinSize * scale, Double.MIN_VALUE);
+        final long key = ((long) Math.floor(x / binSize) << 32) ^ ((long) Math.floor(y / binSize) & 0xffffffffL);
+        final int mask = binKeys.length - 1;
+        final long hash = key * 0x9E3779B97F4A7C15L;
+        int slot = (int) (hash ^ (hash >>> 32)) & mask;
+        while (binStamps[slot] == binStamp) {
+            if (binKeys[slot] == key) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        binStamps[slot] = binStamp;
+        binKeys[slot] = key;
+        return true;
+    }
+
+    /**
+     * The number of particles that is needed so that, with probability 1 - delta, the error between the particles and
+     * the true distribution is at most epsilon, if the particles occupy the given number of grid cells. This is the
+     * Wilson-Hilferty approximation of the chi-square quantile, as used by Fox.
+     *
+     * @param bins the number of occupied cells
+     * @return the number of particles
+     */
+    int kldBound(final int bins) {
+        if (bins <= 1) {
+            return 1;
         }
+        final double a = 2.0 / (9.0 * (bins - 1));
+        final double b = 1.0 - a + Math.sqrt(a) * kldQuantile;
+        return (int) Math.min(Integer.MAX_VALUE, Math.ceil((bins - 1) / (2.0 * kldEpsilon) * b * b * b));
+    }
 
-        // set new resampled particle set
-        particleList = tmpParticleList;
+    // Make the resampled particles, which all have the same weight, the current ones.
+    private void useResampledParticles(final int count) {
+        double[] swap = xs;
+        xs = resampledXs;
+        resampledXs = swap;
+        swap = ys;
+        ys = resampledYs;
+        resampledYs = swap;
+        final double weight = 1.0 / count;
+        for (int j = 0; j < count; j++) {
+            weights[j] = weight;
+            penalized[j] = false;
+        }
+        particleCount = count;
 
         showParticles();
     }
@@ -181,7 +406,7 @@ public class ParticleFilter {
      * Clears the particle list to start a newly initialized tracking and to clear the drawn particles
      */
     public void clearParticles() {
-        particleList.clear();
+        particleCount = 0;
         showParticles();
     }
 
@@ -191,40 +416,272 @@ public class ParticleFilter {
 
     public void setNumParticles(int particles) {
         numParticles = particles;
+        allocate(particles);
     }
 
     public void setScale(float scale) {
         this.scale = scale;
     }
 
+    /**
+     * Switch between the fixed number of particles and the adaptive number of particles (KLD-sampling). The new mode
+     * is used from the next initialization or resampling on.
+     * @param enabled true for the adaptive number
+     */
+    public void setAdaptive(boolean enabled) {
+        adaptive = enabled;
+    }
+
+    public boolean isAdaptive() {
+        return adaptive;
+    }
 
+    /**
+     * Set the range for the number of particles in the adaptive mode.
+     * @param min the smallest number of particles, at least 1
+     * @param max the largest number of particles, which is also used for the initialization, at least min
+     */
+    public void setParticleLimits(int min, int max) {
+        if (min <= 0 || max < min) {
+            throw new IllegalArgumentException("Illegal particle limits: " + min + ".." + max);
+        }
+        minParticles = min;
+        maxParticles = max;
+    }
+
+    /**
+     * Set the error bounds of the KLD-sampling.
+     * @param epsilon the largest allowed error (Kullback-Leibler divergence) between the particles and the true
+     *                distribution, e.g. 0.05
+     * @param delta the allowed probability of exceeding epsilon, e.g. 0.01
+     */
+    public void setKldErrorBounds(float epsilon, float delta) {
+        if (!(epsilon > 0) || !(delta > 0 && delta < 0.5f)) {
+            throw new IllegalArgumentException("Illegal error bounds: epsilon " + epsilon + ", delta " + delta);
+        }
+        kldEpsilon = epsilon;
+        kldQuantile = normalQuantile(delta);
+    }
+
+    /**
+     * Set the walkable area, to which the motion of the particles is constrained.
+     * @param mask the mask of the walkable area, or null for no constraint
+     */
+    public void setWalkableMask(WalkableMask mask) {
+        walkableMask = mask;
+    }
+
+    /**
+     * Set the factor by which the weight of particles outside of the walkable area is reduced.
+     * @param weight the factor, greater than 0 and at most 1
+     */
+    public void setOffMapWeight(float weight) {
+        if (!(weight > 0 && weight <= 1)) {
+            throw new IllegalArgumentException("Illegal weight for particles outside of the walkable area: " + weight);
+        }
+        offMapWeight = weight;
+    }
+
+    /**
+     * Get the current number of particles, which changes in the adaptive mode.
+     * @return the number of particles
+     */
+    public int getParticleCount() {
+        return particleCount;
+    }
+
+    /**
+     * Get the spread of the particles: the weighted root mean square distance of the particles from their weighted
+     * mean, in the units of the coordinates.
+     * @return the spread, 0 without particles
+     */
+    public double getSpread() {
+        double totalWeight = 0;
+        double meanX = 0;
+        double meanY = 0;
+        for (int i = 0; i < particleCount; i++) {
+            totalWeight += weights[i];
+            meanX += weights[i] * xs[i];
+            meanY += weights[i] * ys[i];
+        }
+        if (!(totalWeight > 0)) {
+            return 0;
+        }
+        meanX /= totalWeight;
+        meanY /= totalWeight;
+
+        double variance = 0;
+        for (int i = 0; i < particleCount; i++) {
+            final double dx = xs[i] - meanX;
+            final double dy = ys[i] - meanY;
+            variance += weights[i] * (dx * dx + dy * dy);
+        }
+        return Math.sqrt(variance / totalWeight);
+    }
+
+    /**
+     * Get a snapshot of the current particles, which doesn't change when the filter goes on.
+     * @return the snapshot
+     */
+    public ParticleView getParticles() {
+        if (particleCount == 0) {
+            return NO_PARTICLES;
+        }
+        return new ParticleSnapshot(xs, ys, weights, particleCount);
+    }
+
+
+    // The UserPositionManager draws the particles on another thread than the one that runs the filter, so it gets a
+    // snapshot instead of the arrays that the filter goes on changing:
     private void showParticles() {
         if (showParticlesEnabled) {
-            userPositionManager.setParticles(particleList);
+            userPositionManager.setParticles(getParticles());
         }
         else {
-            final List<Particle> empty = new ArrayList<Particle>();
-            userPositionManager.setParticles(empty);
+            userPositionManager.setParticles(NO_PARTICLES);
         }
     }
 
     /**
-     * Calculates the actual position of the user by means of taking the mean position of the best particle cluster
+     * Calculates the actual position of the user by means of taking the weighted mean position of the best particle
+     * cluster. Right after a resampling all weights are the same; until then the particles outside of the walkable
+     * area count less.
      * @return current position of the user
      */
     public NicGeoPoint calculatePosition() {
         final NicGeoPoint currentPosition = new NicGeoPointImpl();
-        float meanX = 0.f;
-        float meanY = 0.f;
+        double totalWeight = 0;
+        double meanX = 0;
+        double meanY = 0;
 
         // assumption: unimodal distribution, therefore approximate position with a gaussian and take mean
-        for (int i = 0; i < particleList.size(); i++) {
-            meanX += particleList.get(i).getX();
-            meanY += particleList.get(i).getY();
+        for (int i = 0; i < particleCount; i++) {
+            totalWeight += weights[i];
+            meanX += weights[i] * xs[i];
+            meanY += weights[i] * ys[i];
+        }
+        if (totalWeight > 0) {
+            currentPosition.setXY(meanX / totalWeight, meanY / totalWeight);
         }
-        currentPosition.setXY(meanX/numParticles, meanY/numParticles);
 
         return currentPosition;
     }
 
-}
\ No newline at end of file
+
+    // Make sure that the arrays can hold at least capacity particles, keeping the current ones.
+    private void allocate(final int capacity) {
+        if ((xs != null) && (xs.length >= capacity)) {
+            return;
+        }
+        xs = copyOf(xs, capacity);
+        ys = copyOf(ys, capacity);
+        weights = copyOf(weights, capacity);
+        final boolean[] oldPenalized = penalized;
+        penalized = new boolean[capacity];
+        if (oldPenalized != null) {
+            System.arraycopy(oldPenalized, 0, penalized, 0, particleCount);
+        }
+        resampledXs = new double[capacity];
+        resampledYs = new double[capacity];
+        cumulativeWeights = new double[capacity];
+    }
+
+    private double[] copyOf(final double[] array, final int capacity) {
+        final double[] copy = new double[capacity];
+        if (array != null) {
+            System.arraycopy(array, 0, copy, 0, particleCount);
+        }
+        return copy;
+    }
+
+
+    /**
+     * The upper p-quantile of the standard normal distribution, i.e. the z with P(Z > z) = p, for 0 < p < 0.5. This is
+     * the rational approximation 26.2.23 from Abramowitz and Stegun, with an error below 4.5e-4.
+     */
+    static double normalQuantile(final double p) {
+        final double t = Math.sqrt(-2 * Math.log(p));
+        return t - (2.515517 + 0.802853 * t + 0.010328 * t * t)
+                   / (1 + 1.432788 * t + 0.189269 * t * t + 0.001308 * t * t * t);
+    }
+
+
+    /**
+     * The ParticleView on a copy of the arrays of the filter. All fields are final, so that the snapshot can be handed
+     * to another thread as it is.
+     */
+    private static final class ParticleSnapshot implements ParticleView {
+        private final double[] xs;
+        private final double[] ys;
+        private final double[] weights;
+
+        ParticleSnapshot(final double[] xs, final double[] ys, final double[] weights, final int count) {
+            this.xs = copyOfRange(xs, count);
+            this.ys = copyOfRange(ys, count);
+            this.weights = copyOfRange(weights, count);
+        }
+
+        private static double[] copyOfRange(final double[] array, final int count) {
+            final double[] copy = new double[count];
+            System.arraycopy(array, 0, copy, 0, count);
+            return copy;
+        }
+
+        @Override
+        public int size() {
+            return xs.length;
+        }
+
+        @Override
+        public double getX(final int i) {
+            return xs[i];
+        }
+
+        @Override
+        public double getY(final int i) {
+            return ys[i];
+        }
+
+        @Override
+        public double getWeight(final int i) {
+            return weights[i];
+        }
+    }
+
+    /**
+     * The List-view on the arrays. New particles can only be added at the end.
+     */
+    private class ParticleList extends AbstractList<Particle> {
+        @Override
+        public Particle get(final int i) {
+            if ((i < 0) || (i >= particleCount)) {
+                throw new IndexOutOfBoundsException("Index " + i + ", size " + particleCount);
+            }
+            return new Particle(xs[i], ys[i], weights[i]);
+        }
+
+        @Override
+        public int size() {
+            return particleCount;
+        }
+
+        @Override
+        public void add(final int i, final Particle particle) {
+            if (i != particleCount) {
+                throw new UnsupportedOperationException("Particles can only be added at the end");
+            }
+            allocate(particleCount + 1);
+            xs[i] = particle.getX();
+            ys[i] = particle.getY();
+            weights[i] = particle.getWeight();
+            penalized[i] = false;
+            particleCount++;
+        }
+
+        @Override
+        public void clear() {
+            particleCount = 0;
+        }
+    }
+
+}
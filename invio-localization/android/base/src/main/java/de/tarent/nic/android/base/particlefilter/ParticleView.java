@@ -0,0 +1,41 @@
+package de.tarent.nic.android.base.particlefilter;
+
+
+/**
+ * A read-only snapshot of the particles of a {@link ParticleFilter}. It doesn't change when the filter goes on
+ * working, so it can be read on another thread, e.g. for drawing.
+ */
+public interface ParticleView {
+
+    /**
+     * The current number of particles.
+     *
+     * @return the number of particles
+     */
+    int size();
+
+    /**
+     * The x-coordinate of a particle.
+     *
+     * @param i the index of the particle, 0..size()-1
+     * @return the x-coordinate
+     */
+    double getX(int i);
+
+    /**
+     * The y-coordinate of a particle.
+     *
+     * @param i the index of the particle, 0..size()-1
+     * @return the y-coordinate
+     */
+    double getY(int i);
+
+    /**
+     * The importance weight of a particle.
+     *
+     * @param i the index of the particle, 0..size()-1
+     * @return the weight
+     */
+    double getWeight(int i);
+
+}
@@ -8,7 +8,8 @@ import android.graphics.Point;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import de.tarent.nic.android.base.R;
-import de.tarent.nic.android.base.particlefilter.Particle;
+import de.tarent.nic.android.base.particlefilter.ParticleView;
+import de.tarent.nic.android.base.tileprovider.TilePrefetcher;
 import de.tarent.nic.entities.NicGeoPoint;
 import org.osmdroid.DefaultResourceProxyImpl;
 import org.osmdroid.api.IGeoPoint;
@@ -44,7 +45,9 @@ public class UserPositionManager {
 
     private SortedSet<NicGeoPoint> neighboursWithOutliers;
 
-    private List<Particle> particles = new ArrayList<Particle>();
+    private volatile ParticleView particles;
+
+    private volatile TilePrefetcher tilePrefetcher;
 
 
     /**
@@ -97,8 +100,23 @@ public class UserPositionManager {
         this.neighboursWithOutliers = neighboursWithOutliers;
     }
 
-    public void setParticles(List<Particle> particles) {
-        this.particles = new ArrayList(particles);
+    /**
+     * Set the particles that are to be drawn. The particle filter passes a new snapshot after every update, which
+     * replaces the old one as a whole, so the overlay never draws a half updated state.
+     *
+     * @param particles the snapshot of the particles, or null for none
+     */
+    public void setParticles(final ParticleView particles) {
+        this.particles = particles;
+    }
+
+    /**
+     * Set the TilePrefetcher that shall follow the position of the user.
+     *
+     * @param tilePrefetcher the {@link TilePrefetcher}, or null for none
+     */
+    public void setTilePrefetcher(final TilePrefetcher tilePrefetcher) {
+        this.tilePrefetcher = tilePrefetcher;
     }
 
     /**
@@ -112,6 +130,11 @@ public class UserPositionManager {
         overlay.removeAllItems();
         overlay.addItems(userPositionItems);
         mapView.postInvalidate();
+
+        final TilePrefetcher prefetcher = tilePrefetcher;
+        if ((prefetcher != null) && !userPositionItems.isEmpty()) {
+            prefetcher.onPositionChanged(userPositionItems.get(0).getGeoPoint(), mapView.getZoomLevel());
+        }
     }
 
     /**
@@ -202,11 +225,15 @@ public class UserPositionManager {
             sp.setColor(color);
             sp.setStrokeWidth(4);
 
-            if (particles != null && particles.size() > 0) {
-                for (Particle particle : particles) {
-                    final NicGeoPoint geoParticle = new NicGeoPointImpl();
-                    geoParticle.setXY(particle.getX(), particle.getY());
-                    final Point particlePoint = projection.toMapPixels((IGeoPoint)geoParticle, null);
+            final ParticleView shown = particles;
+            if (shown != null && shown.size() > 0) {
+                // One point for all particles, because there may be thousands of them:
+                final NicGeoPoint geoParticle = new NicGeoPointImpl();
+                final Point particlePoint = new Point();
+                final int size = shown.size();
+                for (int i = 0; i < size; i++) {
+                    geoParticle.setXY(shown.getX(i), shown.getY(i));
+                    projection.toMapPixels((IGeoPoint) geoParticle, particlePoint);
                     canvas.drawPoint(particlePoint.x, particlePoint.y, sp);
                 }
             }
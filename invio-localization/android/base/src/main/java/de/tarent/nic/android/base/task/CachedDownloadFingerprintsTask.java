@@ -1,17 +1,20 @@
 package de.tarent.nic.android.base.task;
 
 import android.app.Activity;
-import android.os.Environment;
 import android.util.Log;
+import de.tarent.nic.android.base.cache.CachedResource;
+import de.tarent.nic.android.base.cache.MapResourceCache;
+import de.tarent.nic.android.base.json.FingerprintJsonReader;
+import de.tarent.nic.android.base.position.NicGeoPointFactory;
 import de.tarent.nic.android.base.wifi.FingerprintManager;
 import de.tarent.nic.android.base.wifi.MultiLevelFingerprintManager;
 import de.tarent.nic.mapserver.MapServerClient;
 import de.tarent.nic.mapserver.exception.NicException;
+import de.tarent.nic.tracker.wifi.FingerprintSnapshot;
+import de.tarent.nic.tracker.wifi.FingerprintTable;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 
@@ -19,13 +22,18 @@ import java.io.InputStream;
 /**
  * The CachedDownloadFingerprintsTask tries do download the fingerprints and store it locally. When the download failed
  * the file that was stored last time will be used. So it is more of a "fallback" than a "cache"...
+ *
+ * The stored json is a {@link CachedResource} in the {@link MapResourceCache}, so the server is not asked again while
+ * it is fresh. Next to the json, a {@link FingerprintSnapshot} of the parsed fingerprints is stored. Unless the
+ * download has brought a changed json, the fingerprints are mapped from the snapshot instead of parsing the json
+ * again.
  */
 public class CachedDownloadFingerprintsTask extends DownloadFingerprintsTask {
 
-    private static final String APP_FOLDER = "sellfio";
-
     private static final String FINGERPRINTS_DATA_FILE = "fingerprints_data";
 
+    private static final String SNAPSHOT_SUFFIX = ".snapshot";
+
     /**
      * Construct a new {@link CachedDownloadFingerprintsTask}, which belongs to a specific FingerprintManager
      *
@@ -40,7 +48,7 @@ public class CachedDownloadFingerprintsTask extends DownloadFingerprintsTask {
                                           final Activity activity,
                                           final MapServerClient mapServerClient,
                                           final String mapName,
-                                          DownloadListener<String> listener,
+                                          DownloadListener<FingerprintTable> listener,
                                           int level) {
         super(fingerprintManager, activity, mapServerClient, mapName, listener, level);
     }
@@ -61,52 +69,89 @@ public class CachedDownloadFingerprintsTask extends DownloadFingerprintsTask {
     }
 
     /**
-     * Get the json with the fingerprints from somewhere. It will first try download it from the server and store it
-     * locally. Regardless of the download success it will then provide the locally stored file, which may or may not
-     * have been updated.
-     * TODO: maybe check for updates before downloading the whole file again...
+     * Get the json with the fingerprints from somewhere. Unless the locally stored file is fresh, it will first try
+     * download it from the server and store it locally. Regardless of the download success it will then provide the
+     * locally stored file, which may or may not have been updated.
      *
      * @return the InputStream from which the json can be read.
      * @throws java.io.FileNotFoundException when the cached json file cannot be read
      */
     @Override
     protected InputStream getInputStream() throws FileNotFoundException {
-        final File cache = new File(Environment.getExternalStorageDirectory() + File.separator +
-                APP_FOLDER + File.separator + mapName + File.separator + FINGERPRINTS_DATA_FILE);
-
-        try {
-            final String json = mapServerClient.downloadFingerprintsData(mapName);
-            persistFingerprintsJson(json, cache);
-        } catch (IOException e) {
-            Log.e(this.getClass().getName(), "Download/persistence of fingerprints failed for " + mapName, e);
-        } catch (NicException e) {
-            Log.e(this.getClass().getName(), "Download/persistence of fingerprints failed for " + mapName, e);
+        final CachedResource cache = getCache();
+        if (!cache.isFresh()) {
+            download(cache);
         }
 
-        final InputStream stream = new FileInputStream(cache);
+        final InputStream stream = cache.openStream();
         return stream;
     }
 
-    private void persistFingerprintsJson(String json, File cache) throws IOException {
-        ensureThatCacheDirExists(cache);
-        final FileOutputStream out = new FileOutputStream(cache);
+    /**
+     * Read the fingerprints. When the download has changed the stored json, they are parsed from the new json and a
+     * new snapshot is written for the next time. Otherwise (the stored json is fresh, the server still has the same
+     * json or the download failed) the snapshot is used, as long as it is not older than the stored json. The map is
+     * open in the {@link MapResourceCache} meanwhile, so that the json and the snapshot are not evicted under our feet.
+     *
+     * @return the complete FingerprintTable
+     * @throws IOException when neither the snapshot nor the stored json could be read
+     */
+    @Override
+    protected FingerprintTable readFingerprints() throws IOException {
+        MapResourceCache.getInstance().open(mapName);
         try {
-            out.write(json.getBytes("UTF-8"));
+            return readFingerprints(getCache());
         } finally {
-            out.close();
+            MapResourceCache.getInstance().close(mapName);
         }
     }
 
-    private void ensureThatCacheDirExists(File cache) throws IOException {
-        final File cacheDir = cache.getParentFile();
-        if (!cacheDir.exists()) {
-            if (cache.getParentFile().mkdirs()) {
-                Log.d(getClass().getName(), "Created directory " + APP_FOLDER);
-            } else {
-                Log.e(getClass().getName(), "CacheDir could not be created. Can't save fingerprints_data.");
-                throw new IOException("CacheDir could not be created. Can't save fingerprints_data.");
+    private FingerprintTable readFingerprints(final CachedResource cache) throws IOException {
+        final File snapshot = new File(cache.getFile().getPath() + SNAPSHOT_SUFFIX);
+
+        final boolean changed = !cache.isFresh() && download(cache);
+        if (!changed && snapshot.exists() && (snapshot.lastModified() >= cache.getFile().lastModified())) {
+            try {
+                return FingerprintSnapshot.open(snapshot, new NicGeoPointFactory());
+            } catch (IOException e) {
+                Log.w(this.getClass().getName(), "Fingerprint snapshot for " + mapName + " is unusable: " + e);
             }
         }
+
+        final InputStream in = cache.openStream();
+        final FingerprintTable fingerprints;
+        try {
+            fingerprints = FingerprintJsonReader.read(in);
+        } finally {
+            in.close();
+        }
+        try {
+            FingerprintSnapshot.write(fingerprints, snapshot);
+        } catch (IOException e) {
+            Log.e(this.getClass().getName(), "Fingerprint snapshot could not be written for " + mapName, e);
+        }
+        return fingerprints;
+    }
+
+    private CachedResource getCache() {
+        return MapResourceCache.getInstance().getResource(mapName, FINGERPRINTS_DATA_FILE);
+    }
+
+    /**
+     * Download the json and store it in the cache, unless the cache already has the same content.
+     *
+     * @param cache the cache
+     * @return true if the cached json has been changed
+     */
+    private boolean download(final CachedResource cache) {
+        try {
+            return cache.update(mapServerClient.downloadFingerprintsData(mapName));
+        } catch (IOException e) {
+            Log.e(this.getClass().getName(), "Download/persistence of fingerprints failed for " + mapName, e);
+        } catch (NicException e) {
+            Log.e(this.getClass().getName(), "Download/persistence of fingerprints failed for " + mapName, e);
+        }
+        return false;
     }
 
 }
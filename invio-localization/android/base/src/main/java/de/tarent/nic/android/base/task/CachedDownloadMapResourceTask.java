@@ -2,31 +2,25 @@ package de.tarent.nic.android.base.task;
 
 
 import android.app.Activity;
-import android.os.Environment;
 import android.util.Log;
+import de.tarent.nic.android.base.cache.CachedResource;
+import de.tarent.nic.android.base.cache.MapResourceCache;
 import de.tarent.nic.android.base.map.IndoorMap;
 import de.tarent.nic.mapserver.MapServerClient;
 import de.tarent.nic.mapserver.exception.NicException;
-import org.apache.commons.io.IOUtils;
 import org.osmdroid.views.MapView;
 
-import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.StringWriter;
 
 
 /**
  * The CachedDownloadMapResourceTask is a DownloadMapResourceTask that has a fallback to a local tilemapresource.xml if
- * that is available from an earlier download.
- * Note: we should probably pull the cache-feature out of the 3 download-tasks into one class and reuse it.
+ * that is available from an earlier download. While the local xml is fresh (see {@link CachedResource}) the server is
+ * not asked at all.
  */
 public class CachedDownloadMapResourceTask extends DownloadMapResourceTask {
 
-    private static final String APP_FOLDER = "sellfio";
-
     private static final String MAPRESOURCE_FILE = "tilemapresource.xml";
 
     /**
@@ -61,16 +55,21 @@ public class CachedDownloadMapResourceTask extends DownloadMapResourceTask {
 
     @Override
     protected String getXml(String mapName) throws FileNotFoundException {
-        final File cache = new File(Environment.getExternalStorageDirectory() + File.separator +
-                APP_FOLDER + File.separator + mapName + File.separator + MAPRESOURCE_FILE);
-
-        try {
-            final String xml = super.getXml(mapName);
-            persistMapresourceXml(xml, cache);
-        } catch (IOException e) {
-            Log.e(this.getClass().getName(), "Download/persistence of tilemapresource.xml failed for " + mapName, e);
-        } catch (NicException e) {
-            Log.e(this.getClass().getName(), "Download/persistence of tilemapresource.xml failed for " + mapName, e);
+        final CachedResource cache = MapResourceCache.getInstance().getResource(mapName, MAPRESOURCE_FILE);
+
+        if (!cache.isFresh()) {
+            try {
+                final String xml = super.getXml(mapName);
+                cache.update(xml);
+                // No need to read back what we just wrote:
+                return xml;
+            } catch (IOException e) {
+                Log.e(this.getClass().getName(), "Download/persistence of tilemapresource.xml failed for " + mapName,
+                      e);
+            } catch (NicException e) {
+                Log.e(this.getClass().getName(), "Download/persistence of tilemapresource.xml failed for " + mapName,
+                      e);
+            }
         }
 
         final String cachedXml = readCachedXml(cache);
@@ -78,40 +77,16 @@ public class CachedDownloadMapResourceTask extends DownloadMapResourceTask {
         return cachedXml;
     }
 
-    private String readCachedXml(File cache) {
-        final StringWriter stringWriter = new StringWriter();
+    private String readCachedXml(CachedResource cache) {
         try {
-            IOUtils.copy(new FileInputStream(cache), stringWriter, "UTF-8");
-            return stringWriter.toString();
+            return cache.read();
         } catch (FileNotFoundException e) {
             Log.e(this.getClass().getName(),
-                  "Reading of local tilemapresource.xml failed for " + cache.getAbsolutePath(), e);
+                  "Reading of local tilemapresource.xml failed for " + cache.getFile().getAbsolutePath(), e);
         } catch (IOException e) {
             Log.e(this.getClass().getName(),
-                  "Reading of local tilemapresource.xml failed for " + cache.getAbsolutePath(), e);
+                  "Reading of local tilemapresource.xml failed for " + cache.getFile().getAbsolutePath(), e);
         }
         return "";
     }
-
-    private void persistMapresourceXml(String xml, File cache) throws IOException {
-        ensureThatCacheDirExists(cache);
-        final FileOutputStream out = new FileOutputStream(cache);
-        try {
-            out.write(xml.getBytes("UTF-8"));
-        } finally {
-            out.close();
-        }
-    }
-
-    private void ensureThatCacheDirExists(File cache) throws IOException {
-        final File cacheDir = cache.getParentFile();
-        if (!cacheDir.exists()) {
-            if (cache.getParentFile().mkdirs()) {
-                Log.d(getClass().getName(), "Created directory " + APP_FOLDER);
-            } else {
-                Log.e(getClass().getName(), "CacheDir could not be created. Can't save tilemapresource.xml.");
-                throw new IOException("CacheDir could not be created. Can't save tilemapresource.xml.");
-            }
-        }
-    }
 }
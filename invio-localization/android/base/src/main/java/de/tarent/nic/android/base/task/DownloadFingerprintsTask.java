@@ -4,24 +4,26 @@ import android.app.Activity;
 import android.util.Log;
 import android.widget.Toast;
 import de.tarent.nic.android.base.R;
+import de.tarent.nic.android.base.json.FingerprintJsonReader;
 import de.tarent.nic.android.base.wifi.FingerprintManager;
 import de.tarent.nic.android.base.wifi.MultiLevelFingerprintManager;
 import de.tarent.nic.mapserver.MapServerClient;
 import de.tarent.nic.mapserver.exception.NicException;
-import org.apache.commons.io.IOUtils;
+import de.tarent.nic.tracker.wifi.FingerprintTable;
+import org.apache.commons.io.input.ReaderInputStream;
 
-import java.io.ByteArrayInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.StringWriter;
+import java.io.StringReader;
 import java.io.UnsupportedEncodingException;
 
 
 /**
- * This is the AsyncTask which downloads the fingerprints from the server, in the background.
+ * This is the AsyncTask which downloads the fingerprints from the server, in the background. The fingerprints are read
+ * from the stream straight into a compact {@link FingerprintTable}, which is also the result of the task.
  */
-public class DownloadFingerprintsTask extends DownloadTask<Void, Void, String> {
+public class DownloadFingerprintsTask extends DownloadTask<Void, Void, FingerprintTable> {
 
     public static final String TAG = "DownloadFingerprintsTask";
 
@@ -67,7 +69,7 @@ public class DownloadFingerprintsTask extends DownloadTask<Void, Void, String> {
                                     Activity activity,
                                     MapServerClient mapServerClient,
                                     String mapName,
-                                    DownloadListener<String> listener,
+                                    DownloadListener<FingerprintTable> listener,
                                     int level) {
         this(fingerprintManager, activity, mapServerClient, mapName);
         this.level = level;
@@ -75,24 +77,39 @@ public class DownloadFingerprintsTask extends DownloadTask<Void, Void, String> {
     }
 
     @Override
-    protected String doInBackground(Void... params) {
-        final StringWriter stringWriter = new StringWriter();
+    protected FingerprintTable doInBackground(Void... params) {
+        FingerprintTable fingerprints = new FingerprintTable();
         try {
-            IOUtils.copy(getInputStream(), stringWriter, "UTF-8");
+            fingerprints = readFingerprints();
         } catch (IOException e) {
             success = false;
             Log.e(TAG, "Failed to read fingerprints: " + e);
         }
-        final String fingerprintsJson = stringWriter.toString();
 
         if (level != null) {
-            ((MultiLevelFingerprintManager) fingerprintManager).setFingerprintsJson(fingerprintsJson, level);
+            ((MultiLevelFingerprintManager) fingerprintManager).setFingerprints(fingerprints, level);
         } else {
-            fingerprintManager.setFingerprintsJson(fingerprintsJson);
+            fingerprintManager.setFingerprints(fingerprints);
             showToast();
         }
 
-        return fingerprintsJson;
+        return fingerprints;
+    }
+
+    /**
+     * Read the fingerprints from the json of {@link #getInputStream()}. Override this method to get them in another
+     * form, e.g. from a snapshot.
+     *
+     * @return the complete FingerprintTable
+     * @throws IOException when the fingerprints could not be read
+     */
+    protected FingerprintTable readFingerprints() throws IOException {
+        final InputStream in = getInputStream();
+        try {
+            return FingerprintJsonReader.read(in);
+        } finally {
+            in.close();
+        }
     }
 
     private void showToast() {
@@ -127,13 +144,16 @@ public class DownloadFingerprintsTask extends DownloadTask<Void, Void, String> {
      * Get the {@link InputStream} with the fingerprints from somewhere. In this case: from the mapserver.
      * But you can override this method to get it from somewhere else.
      *
+     * The MapServerClient only gives us the json as a String. It is encoded chunk by chunk while it is read, so that
+     * there is never a second, complete copy of it as bytes.
+     *
      * @return the InputStream from which the fingerprints can be read.
      * @throws UnsupportedEncodingException when the given encoding is invalid
      * @throws FileNotFoundException        when overwriting methods cannot find the existing fingerprints data file
      */
     protected InputStream getInputStream() throws UnsupportedEncodingException, FileNotFoundException {
         final String json = downloadFingerprints();
-        final InputStream stream = new ByteArrayInputStream(json.getBytes("UTF-8"));
+        final InputStream stream = new ReaderInputStream(new StringReader(json), "UTF-8");
         return stream;
     }
 
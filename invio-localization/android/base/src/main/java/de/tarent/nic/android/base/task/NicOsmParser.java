@@ -1,22 +1,21 @@
 package de.tarent.nic.android.base.task;
 
 import android.util.Log;
+import android.util.Xml;
 import de.tarent.nic.android.base.position.NicGeoPointImpl;
 import de.tarent.nic.entities.Edge;
 import de.tarent.nic.entities.NicGeoPoint;
-import org.osmdroid.util.GeoPoint;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import static org.apache.commons.io.IOUtils.closeQuietly;
 
@@ -24,36 +23,47 @@ import static org.apache.commons.io.IOUtils.closeQuietly;
  * The OsmParser parses the xml that was created by josm and extracts all the objects that we need:
  * - edges
  * - north angle as int
+ * - indoor scale as float
  *
- * The parser makes some assumptions, in order to avoid full xml-parsing, which would be bloated and/or hard to test:
- * <br/><br/>
- * - all relevant tags are always on a line of their own (so we can parse it line by line)<br/>
- * - all nodes (shared points) are defined before any ways (so we already know them, when they are referenced)<br/>
- * - all IDs are negative integers (because that's how JOSM seems to do it)<br/>
- * - inside a <way> the <tag>-tag always comes after all the <nd>-tags (we use <tag> as the finish marker for
- *   "this is a valid way and we now have all the points on it".)
+ * The xml is read in one pass with a pull parser, so it doesn't matter how it is formatted, in which order the
+ * attributes and tags are written, or whether the ways come before or after the nodes which they reference. The
+ * nodes are kept in a table of primitive values, and only the nodes that are really used by an edge or that have tags
+ * become {@link NicGeoPoint}s.
+ *
+ * Subclasses can extract more objects from the tags by overriding {@link #handleTags(Map, NicGeoPointImpl)}.
  */
 public class NicOsmParser implements OsmParser, OsmParserKeys {
 
     private static final String TAG = NicOsmParser.class.getName();
 
-    // With these patterns we can extract the attribute-values from our relevant xml-tags:
-    private static final Pattern NODE_PATTERN =
-            Pattern.compile("<node id='-(\\d+)'.*? lat='(-?[\\d.E+-]+)' lon='(-?[\\d.E+-]+)'( /)?>");
-    private static final Pattern ND_PATTERN =
-            Pattern.compile("<nd ref='-(\\d+)' />");
-    private static final Pattern NORTH_ANGLE_PATTERN =
-            Pattern.compile("<tag k='north_angle' v='(-?\\d+)' />");
-    private static final Pattern INDOOR_SCALE_PATTERN =
-            Pattern.compile("<tag k='indoor_scale' v='(\\d.+)' />");
+    private static final String NODE = "node";
+    private static final String WAY = "way";
+    private static final String RELATION = "relation";
+    private static final String ND = "nd";
+    private static final String TAG_ELEMENT = "tag";
+
+    // Only the ways with this tag are edges:
+    private static final String EDGE_KEY = "indoor";
+    private static final String EDGE_VALUE = "Gang";
+
+    private static final String NORTH_ANGLE_KEY = "north_angle";
+    private static final String INDOOR_SCALE_KEY = "indoor_scale";
+
+    private static final int INITIAL_WAY_SIZE = 16;
 
     private List<Edge> edges;
-    private List<GeoPoint> wayPoints;
-    private Map<String, GeoPoint> points;
 
     private Integer northAngle;
     private Float indoorScale;
 
+    // The state of the current parse run:
+    private NodeTable nodes;
+    private List<long[]> edgeWays;
+    private final Map<String, String> tags = new HashMap<String, String>();
+    private long[] wayRefs = new long[INITIAL_WAY_SIZE];
+    private int wayRefCount;
+    private int currentNode;
+
     public List<Edge> getEdges() {
         return edges;
     }
@@ -96,132 +106,259 @@ public class NicOsmParser implements OsmParser, OsmParserKeys {
     }
 
     /**
-     * Parse an osm-xml stream line by line and extract:
-     * - the edges that are defined with the tag k='indoor' v='Gang'.
+     * Parse an osm-xml stream and extract:
+     * - the edges that are defined by the ways with the tag k='indoor' v='Gang'.
+     * - everything that {@link #handleTags(Map, NicGeoPointImpl)} finds in the tags of the nodes, ways and relations.
      *
      * @param in the xml data
-     * @throws java.io.IOException if something goes wrong while reading from the stream
+     * @throws java.io.IOException if something goes wrong while reading from the stream or it is not well-formed xml
      */
     public void parse(final InputStream in) throws IOException {
+        nodes = new NodeTable();
+        edgeWays = new ArrayList<long[]>();
+        currentNode = -1;
+        try {
+            final XmlPullParser xml = Xml.newPullParser();
+            // Without an encoding the parser takes the one from the xml declaration:
+            xml.setInput(in, null);
+            readDocument(xml);
 
-        final BufferedReader br = new BufferedReader(new InputStreamReader(in, "UTF-8"));
-
-        // Read the nodes, which come first in the xml, before the ways:
-        readNodes(br);
-
-        // Then read the ways which contain point lists, from which we can create our edges.
-        readWaysToGetEdges(br);
-
-        // Might want to use the IOUtilWrapper here for testing, but it's in the mapserver...
-        closeQuietly(in);
-        closeQuietly(br);
+            // Only now we know all the nodes, wherever they were in the xml:
+            edges = new ArrayList<Edge>();
+            for (final long[] way : edgeWays) {
+                addEdges(way);
+            }
+        } catch (XmlPullParserException e) {
+            throw new IOException("Could not parse the osm-xml: " + e.getMessage(), e);
+        } finally {
+            nodes = null;
+            edgeWays = null;
+            closeQuietly(in);
+        }
     }
 
     /**
-     * Read the nodes, which come first in the xml, before the ways. Store them, for use with the ways or in
-     * special case extract north angle information stored inside on node.
+     * Extract the objects that a tagged element defines. The NicOsmParser extracts the north angle and the indoor
+     * scale, subclasses can extract more, but should call this method, too.
      *
-     * @param reader the BufferedReader with the xml
-     * @throws IOException if there is something wrong with the reader
+     * @param tags the tags of the element, by their keys. The map is reused for the next element, so it must not be
+     *             stored.
+     * @param point the point, if the element is a node, or null for ways and relations
      */
-    private void readNodes(final BufferedReader reader) throws IOException {
-        points = new HashMap<String, GeoPoint>();
-        String line = reader.readLine();
-
-        while ((line != null) && (!line.contains("<way"))) {
-            if (line.contains("k='north_angle'")) {
-                extractNorth(line);
-            } else if (line.contains("k='indoor_scale'")) {
-                extractIndoorScale(line);
-            } else {
-                extractPoint(line);
-            }
-            reader.mark(256);
-            line = reader.readLine();
-        }
-        // We reset the stream to unread the last line, which will probably be the first line of the first way.
-        reader.reset();
-    }
+    protected void handleTags(final Map<String, String> tags, final NicGeoPointImpl point) {
+        final String angle = tags.get(NORTH_ANGLE_KEY);
+        if (angle != null) {
+            try {
+                northAngle = Integer.valueOf(angle.trim());
+            } catch (IllegalArgumentException e) {
+                Log.e(TAG, "Could not parse north angle value: " + angle
+                        + " . Exception: " + e.getMessage());
+            }
+        }
 
-    private void extractPoint(final String currentLine) {
-        final Matcher m = NODE_PATTERN.matcher(currentLine);
-        if (m.find()) {
-            addPoint(m);
+        final String scale = tags.get(INDOOR_SCALE_KEY);
+        if (scale != null) {
+            try {
+                indoorScale = Float.valueOf(scale.trim());
+            } catch (IllegalArgumentException e) {
+                Log.e(TAG, "Could not parse indoor scale value: " + scale
+                        + " . Exception: " + e.getMessage());
+            }
         }
     }
 
-    private void addPoint(final Matcher m) {
-        final float lat = Float.parseFloat(m.group(2));
-        final float lon = Float.parseFloat(m.group(3));
-        points.put(m.group(1), new NicGeoPointImpl(lat, lon));
+
+    private void readDocument(final XmlPullParser xml) throws XmlPullParserException, IOException {
+        int event = xml.getEventType();
+        while (event != XmlPullParser.END_DOCUMENT) {
+            if (event == XmlPullParser.START_TAG) {
+                startElement(xml);
+            } else if (event == XmlPullParser.END_TAG) {
+                endElement(xml.getName());
+            }
+            event = xml.next();
+        }
     }
 
-    /**
-     * Read the ways which contain point lists, from which we can create our edges.
-     * This method might read past the lines that it really needs! If we later want to read on then this needs to
-     * be fixed.
-     *
-     * @param reader the BufferedReader with the xml
-     * @throws IOException if there is something wrong with the reader
-     */
-    private void readWaysToGetEdges(final BufferedReader reader) throws IOException {
-        edges = new ArrayList<Edge>();
-        String line = reader.readLine();
+    private void startElement(final XmlPullParser xml) {
+        final String name = xml.getName();
+        if (NODE.equals(name)) {
+            tags.clear();
+            currentNode = readNode(xml);
+        } else if (WAY.equals(name) || RELATION.equals(name)) {
+            tags.clear();
+            wayRefCount = 0;
+        } else if (ND.equals(name)) {
+            addWayRef(xml.getAttributeValue(null, "ref"));
+        } else if (TAG_ELEMENT.equals(name)) {
+            final String key = xml.getAttributeValue(null, "k");
+            if (key != null) {
+                tags.put(key, xml.getAttributeValue(null, "v"));
+            }
+        }
+    }
 
-        while (line != null) {
-            parseLine(line, points);
-            line = reader.readLine();
+    private void endElement(final String name) {
+        if (NODE.equals(name)) {
+            if (!tags.isEmpty()) {
+                handleTags(tags, (currentNode < 0) ? null : nodes.getPoint(currentNode));
+            }
+            currentNode = -1;
+        } else if (WAY.equals(name)) {
+            if (EDGE_VALUE.equals(tags.get(EDGE_KEY))) {
+                edgeWays.add(Arrays.copyOf(wayRefs, wayRefCount));
+            }
+            if (!tags.isEmpty()) {
+                handleTags(tags, null);
+            }
+        } else if (RELATION.equals(name) && !tags.isEmpty()) {
+            handleTags(tags, null);
         }
     }
 
-    private void parseLine(final String line, final Map<String, GeoPoint> points) {
-        if (line.contains("<way ")) {
-            wayPoints = new ArrayList<GeoPoint>();
-        } else if (line.contains("<tag k='indoor' v='Gang' />")) {
-            addEdges();
-        } else if (line.contains("<nd ")) {
-            extractWayPoint(line, points);
+    private int readNode(final XmlPullParser xml) {
+        final String id = xml.getAttributeValue(null, "id");
+        final String lat = xml.getAttributeValue(null, "lat");
+        final String lon = xml.getAttributeValue(null, "lon");
+        if ((id == null) || (lat == null) || (lon == null)) {
+            // E.g. a deleted node, which has no position:
+            return -1;
+        }
+        try {
+            return nodes.put(Long.parseLong(id), Float.parseFloat(lat), Float.parseFloat(lon));
+        } catch (NumberFormatException e) {
+            Log.e(TAG, "Could not parse node " + id + ". Exception: " + e.getMessage());
+            return -1;
         }
     }
 
-    private void extractNorth(final String line){
-        final Matcher m = NORTH_ANGLE_PATTERN.matcher(line);
-        if (m.find()) {
-            final String angle = m.group(1);
-            try {
-                northAngle = Integer.parseInt(angle);
-            } catch (IllegalArgumentException e) {
-                Log.e(TAG, "Could not parse north angle value: " + angle
-                        +" . Exception: " + e.getMessage());
+    private void addWayRef(final String ref) {
+        if (ref == null) {
+            return;
+        }
+        try {
+            if (wayRefCount == wayRefs.length) {
+                wayRefs = Arrays.copyOf(wayRefs, 2 * wayRefs.length);
             }
+            wayRefs[wayRefCount] = Long.parseLong(ref);
+            wayRefCount++;
+        } catch (NumberFormatException e) {
+            Log.e(TAG, "Could not parse node reference " + ref + ". Exception: " + e.getMessage());
         }
     }
 
-    private void extractIndoorScale(String line) {
-        final Matcher m = INDOOR_SCALE_PATTERN.matcher(line);
-        if (m.find()) {
-            final String scale = m.group(1);
-            try {
-                indoorScale = Float.parseFloat(scale);
-            } catch (IllegalArgumentException e) {
-                Log.e(TAG, "Could not parse indoor scale value: " + scale
-                        +" . Exception: " + e.getMessage());
+    private void addEdges(final long[] way) {
+        NicGeoPoint previous = null;
+        for (final long ref : way) {
+            final int index = nodes.indexOf(ref);
+            if (index < 0) {
+                Log.w(TAG, "A way references the unknown node " + ref);
+                previous = null;
+                continue;
             }
+            final NicGeoPoint point = nodes.getPoint(index);
+            if (previous != null) {
+                edges.add(new Edge(previous, point));
+            }
+            previous = point;
         }
     }
 
-    private void extractWayPoint(final String line, final Map<String, GeoPoint> points) {
-        final Matcher m = ND_PATTERN.matcher(line);
-        if (m.find()) {
-            final String id = m.group(1);
-            wayPoints.add(points.get(id));
+
+    /**
+     * The NodeTable holds the positions of all nodes, by their ids, in primitive arrays (open addressing with linear
+     * probing), so that maps with many nodes don't need a boxed id, an entry and a point for every one of them.
+     * The point of a node is only created when it is needed, and then it is the same point for every edge.
+     */
+    private static final class NodeTable {
+
+        private static final int INITIAL_CAPACITY = 1024;
+
+        // The id of an empty slot. Real ids are much smaller.
+        private static final long EMPTY = Long.MIN_VALUE;
+
+        private static final int GOLDEN_RATIO = 0x9e3779b9;
+
+        private static final int HALF_LONG_BITS = 32;
+
+        private long[] ids;
+        private float[] lats;
+        private float[] lons;
+        private NicGeoPointImpl[] points;
+        private int size;
+
+        NodeTable() {
+            allocate(INITIAL_CAPACITY);
+        }
+
+        /**
+         * Add a node, or move it if the id is already known.
+         *
+         * @return the index of the node
+         */
+        int put(final long id, final float lat, final float lon) {
+            // Keep the table at most half full, so that the probe sequences stay short:
+            if (2 * (size + 1) > ids.length) {
+                grow();
+            }
+            final int index = find(id);
+            if (ids[index] == EMPTY) {
+                ids[index] = id;
+                size++;
+            }
+            lats[index] = lat;
+            lons[index] = lon;
+            points[index] = null;
+            return index;
+        }
+
+        /**
+         * @return the index of the node, or -1 if it is unknown
+         */
+        int indexOf(final long id) {
+            final int index = find(id);
+            return (ids[index] == EMPTY) ? -1 : index;
+        }
+
+        NicGeoPointImpl getPoint(final int index) {
+            if (points[index] == null) {
+                points[index] = new NicGeoPointImpl(lats[index], lons[index]);
+            }
+            return points[index];
+        }
+
+        private int find(final long id) {
+            final int mask = ids.length - 1;
+            int index = ((int) (id ^ (id >>> HALF_LONG_BITS)) * GOLDEN_RATIO) & mask;
+            while ((ids[index] != EMPTY) && (ids[index] != id)) {
+                index = (index + 1) & mask;
+            }
+            return index;
+        }
+
+        private void allocate(final int capacity) {
+            ids = new long[capacity];
+            Arrays.fill(ids, EMPTY);
+            lats = new float[capacity];
+            lons = new float[capacity];
+            points = new NicGeoPointImpl[capacity];
         }
-    }
 
-    private void addEdges() {
-        final int numberOfEdges = wayPoints.size() - 1;
-        for (int i = 0; i < numberOfEdges; i++) {
-            edges.add(new Edge((NicGeoPoint)wayPoints.get(i), (NicGeoPoint)wayPoints.get(i + 1)));
+        private void grow() {
+            final long[] oldIds = ids;
+            final float[] oldLats = lats;
+            final float[] oldLons = lons;
+            final NicGeoPointImpl[] oldPoints = points;
+            allocate(2 * oldIds.length);
+            for (int i = 0; i < oldIds.length; i++) {
+                if (oldIds[i] != EMPTY) {
+                    final int index = find(oldIds[i]);
+                    ids[index] = oldIds[i];
+                    lats[index] = oldLats[i];
+                    lons[index] = oldLons[i];
+                    points[index] = oldPoints[i];
+                }
+            }
         }
     }
 
@@ -1,9 +1,8 @@
 package de.tarent.nic.android.base.tileprovider;
 
 import android.content.res.AssetManager;
-import android.graphics.BitmapFactory;
+import android.graphics.Bitmap;
 import android.graphics.drawable.Drawable;
-import org.osmdroid.tileprovider.ExpirableBitmapDrawable;
 import org.osmdroid.tileprovider.IRegisterReceiver;
 import org.osmdroid.tileprovider.MapTileRequestState;
 import org.osmdroid.tileprovider.modules.MapTileFileStorageProviderBase;
@@ -11,16 +10,17 @@ import org.osmdroid.tileprovider.modules.MapTileModuleProviderBase;
 import org.osmdroid.tileprovider.tilesource.ITileSource;
 
 import java.io.IOException;
-import java.io.InputStream;
 
 /**
- * This TileProvider looks into the asset-directory for the map-tiles.
+ * This TileProvider looks into the asset-directory for the map-tiles. The tiles are decoded by the {@link TileDecoder}
+ * of a {@link TileBitmapCache}, which keeps them.
  *
  * @author Sven Schumann, <s.schumann@tarent.de>
  */
 public class AssetTileProvider extends MapTileFileStorageProviderBase {
     private NicTileSource tileSource;
     private final AssetManager assetManager;
+    private final TileBitmapCache bitmapCache;
 
     /**
      * Custom constructor
@@ -31,10 +31,24 @@ public class AssetTileProvider extends MapTileFileStorageProviderBase {
      */
     public AssetTileProvider(final IRegisterReceiver registerReceiver, final NicTileSource tileSource,
                              AssetManager assetManager) {
+        this(registerReceiver, tileSource, assetManager, TileBitmapCache.getInstance());
+    }
+
+    /**
+     * Custom constructor
+     *
+     * @param registerReceiver the {@link IRegisterReceiver}
+     * @param tileSource       the {@link NicTileSource}
+     * @param assetManager     the {@link AssetManager}
+     * @param bitmapCache      the cache for the decoded tiles
+     */
+    public AssetTileProvider(final IRegisterReceiver registerReceiver, final NicTileSource tileSource,
+                             final AssetManager assetManager, final TileBitmapCache bitmapCache) {
         super(registerReceiver, NUMBER_OF_TILE_FILESYSTEM_THREADS, TILE_FILESYSTEM_MAXIMUM_QUEUE_SIZE);
 
         setTileSource(tileSource);
         this.assetManager = assetManager;
+        this.bitmapCache = bitmapCache;
     }
 
     @Override
@@ -85,12 +99,17 @@ public class AssetTileProvider extends MapTileFileStorageProviderBase {
 
         @Override
         protected Drawable loadTile(MapTileRequestState req) throws CantContinueException {
-            InputStream inputStream;
             try {
                 final String filePath = tileSource.getTileRelativeFilenameString(req.getMapTile());
+                final String key = "asset:" + filePath;
 
-                inputStream = assetManager.open(filePath);
-                return new ExpirableBitmapDrawable(BitmapFactory.decodeStream(inputStream));
+                final Drawable tile = bitmapCache.getTile(key);
+                if (tile != null) {
+                    return tile;
+                }
+                // The decoder closes the stream:
+                final Bitmap decoded = bitmapCache.getDecoder().decode(assetManager.open(filePath));
+                return (decoded == null) ? null : bitmapCache.putAndGetTile(key, decoded);
             } catch (final IOException e) {
                 return null;
             }
@@ -0,0 +1,301 @@
+package de.tarent.nic.android.base.tileprovider;
+
+import android.graphics.Bitmap;
+import android.graphics.drawable.Drawable;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The TileBitmapCache keeps the most recently decoded tiles, up to a size in bytes, so that a tile which the MapView
+ * needs again doesn't have to be read and decoded again. The key of a tile is its path.
+ *
+ * The bitmaps in the cache belong to the cache. The MapView gets them without a copy, as {@link TileDrawable}s, to
+ * which they are lent by the {@link TileBitmapPool}. The bitmaps that the cache evicts are reused by its
+ * {@link TileDecoder} for the next tiles, as soon as the MapView doesn't use them anymore.
+ *
+ * Tiles can also be put into the cache before they are needed (see {@link TilePrefetcher}). The cache counts how many
+ * of them were really needed before they were evicted, and how many bytes the unused ones take up.
+ *
+ * This is a LinkedHashMap in access order instead of an android.util.LruCache, which needs API level 12. All methods
+ * can be called by several threads.
+ */
+public class TileBitmapCache {
+
+    // The part of the heap that the shared cache may use:
+    private static final int HEAP_FRACTION = 8;
+
+    // The part of the cache size that the evicted bitmaps may take up until they are reused:
+    private static final int POOL_FRACTION = 4;
+
+    private static TileBitmapCache instance;
+
+    private final int maxSize;
+
+    // The tiles, the least recently used first, their size and the statistics. Guarded by tiles.
+    private final LinkedHashMap<String, Bitmap> tiles = new LinkedHashMap<String, Bitmap>(16, 0.75f, true);
+    private int size;
+    private int hitCount;
+    private int missCount;
+
+    private final TileBitmapPool pool;
+
+    private final TileDecoder decoder;
+
+    // A bitmap must not be given to the pool between being taken from the cache and being lent:
+    private final Object lendLock = new Object();
+
+    // The prefetched tiles that have not been needed yet, and their size. Guarded by prefetched.
+    private final Set<String> prefetched = new HashSet<String>();
+    private long prefetchedBytes;
+    private long prefetches;
+    private long prefetchHits;
+
+
+    /**
+     * Construct a new TileBitmapCache.
+     *
+     * @param maxSize the maximum size of all bitmaps in the cache, in bytes
+     */
+    public TileBitmapCache(final int maxSize) {
+        this(maxSize, new TileBitmapPool(maxSize / POOL_FRACTION));
+    }
+
+    /**
+     * Construct a new TileBitmapCache with a given pool, e.g. for tests.
+     *
+     * @param maxSize the maximum size of all bitmaps in the cache, in bytes
+     * @param pool the pool for the evicted bitmaps
+     */
+    TileBitmapCache(final int maxSize, final TileBitmapPool pool) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("The size of the cache must be positive, not " + maxSize);
+        }
+        this.maxSize = maxSize;
+        this.pool = pool;
+        decoder = new TileDecoder(pool);
+    }
+
+    /**
+     * Get the cache that is shared by all tile providers of this app, so that the tiles of a map are still cached when
+     * the map is shown again by a new provider.
+     *
+     * @return the TileBitmapCache
+     */
+    public static synchronized TileBitmapCache getInstance() {
+        if (instance == null) {
+            instance = new TileBitmapCache((int) (Runtime.getRuntime().maxMemory() / HEAP_FRACTION));
+        }
+        return instance;
+    }
+
+    /**
+     * Get the decoder for the tiles of this cache, which reuses the bitmaps that the cache has evicted.
+     *
+     * @return the {@link TileDecoder}
+     */
+    public TileDecoder getDecoder() {
+        return decoder;
+    }
+
+    /**
+     * Get a cached tile, which becomes the most recently used one.
+     *
+     * @param path the path of the tile
+     * @return the bitmap, which belongs to the cache, or null if the tile is not cached
+     */
+    public Bitmap get(final String path) {
+        synchronized (tiles) {
+            final Bitmap bitmap = tiles.get(path);
+            if (bitmap == null) {
+                missCount++;
+            } else {
+                hitCount++;
+            }
+            return bitmap;
+        }
+    }
+
+    /**
+     * Put a tile into the cache and evict the least recently used tiles, as long as the cache is too large.
+     *
+     * @param path the path of the tile
+     * @param bitmap the decoded tile, which then belongs to the cache
+     * @return the bitmap that was cached for this path before, or null
+     */
+    public Bitmap put(final String path, final Bitmap bitmap) {
+        final Bitmap previous;
+        final List<Map.Entry<String, Bitmap>> evicted = new ArrayList<Map.Entry<String, Bitmap>>();
+        synchronized (tiles) {
+            size += sizeOf(bitmap);
+            previous = tiles.put(path, bitmap);
+            if (previous != null) {
+                size -= sizeOf(previous);
+            }
+            final Iterator<Map.Entry<String, Bitmap>> iterator = tiles.entrySet().iterator();
+            while ((size > maxSize) && iterator.hasNext()) {
+                final Map.Entry<String, Bitmap> eldest = iterator.next();
+                size -= sizeOf(eldest.getValue());
+                evicted.add(new AbstractMap.SimpleImmutableEntry<String, Bitmap>(eldest));
+                iterator.remove();
+            }
+        }
+        // Like the LruCache, the removed tiles are handled outside of the lock:
+        if ((previous != null) && (previous != bitmap)) {
+            entryRemoved(path, previous);
+        }
+        for (Map.Entry<String, Bitmap> entry : evicted) {
+            entryRemoved(entry.getKey(), entry.getValue());
+        }
+        return previous;
+    }
+
+    /**
+     * Get the size of all cached tiles.
+     *
+     * @return the size in bytes
+     */
+    public int size() {
+        synchronized (tiles) {
+            return size;
+        }
+    }
+
+    public int maxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Get how often a tile was found in the cache.
+     *
+     * @return the number of hits
+     */
+    public int hitCount() {
+        synchronized (tiles) {
+            return hitCount;
+        }
+    }
+
+    /**
+     * Get how often a tile was not found in the cache.
+     *
+     * @return the number of misses
+     */
+    public int missCount() {
+        synchronized (tiles) {
+            return missCount;
+        }
+    }
+
+    /**
+     * Get a cached tile for the MapView.
+     *
+     * @param path the path of the tile
+     * @return the {@link TileDrawable}, or null if the tile is not cached
+     */
+    public Drawable getTile(final String path) {
+        synchronized (lendLock) {
+            final Bitmap bitmap = get(path);
+            if ((bitmap == null) || bitmap.isRecycled()) {
+                return null;
+            }
+            synchronized (prefetched) {
+                if (prefetched.remove(path)) {
+                    prefetchHits++;
+                    prefetchedBytes -= sizeOf(bitmap);
+                }
+            }
+            return lend(bitmap);
+        }
+    }
+
+    /**
+     * Put a tile that was just decoded into the cache and get it for the MapView. The decoded bitmap is lent before it
+     * is put, so it doesn't matter if the tile is evicted or replaced right away.
+     *
+     * @param path the path of the tile
+     * @param bitmap the decoded tile, which then belongs to the cache
+     * @return the {@link TileDrawable}
+     */
+    public Drawable putAndGetTile(final String path, final Bitmap bitmap) {
+        synchronized (lendLock) {
+            final Drawable tile = lend(bitmap);
+            put(path, bitmap);
+            return tile;
+        }
+    }
+
+    /**
+     * Put a tile into the cache that is not needed yet, but probably will be soon.
+     *
+     * @param path the path of the tile
+     * @param bitmap the decoded tile, which then belongs to the cache
+     */
+    public void putPrefetched(final String path, final Bitmap bitmap) {
+        put(path, bitmap);
+        synchronized (prefetched) {
+            if (prefetched.add(path)) {
+                prefetchedBytes += sizeOf(bitmap);
+            }
+            prefetches++;
+        }
+    }
+
+    /**
+     * Get the size of the prefetched tiles in the cache that have not been needed yet.
+     *
+     * @return the size in bytes
+     */
+    public long getPrefetchedBytes() {
+        synchronized (prefetched) {
+            return prefetchedBytes;
+        }
+    }
+
+    /**
+     * Get the part of the prefetched tiles that were needed before they were evicted.
+     *
+     * @return the hit rate between 0 and 1, or 0 if nothing was prefetched yet
+     */
+    public float getPrefetchHitRate() {
+        synchronized (prefetched) {
+            return (prefetches == 0) ? 0 : ((float) prefetchHits / prefetches);
+        }
+    }
+
+
+    /**
+     * Give a tile that was evicted or replaced to the pool.
+     *
+     * @param path the path of the tile
+     * @param oldBitmap the bitmap that is not in the cache anymore
+     */
+    private void entryRemoved(final String path, final Bitmap oldBitmap) {
+        synchronized (prefetched) {
+            // A prefetched tile that was never needed:
+            if (prefetched.remove(path)) {
+                prefetchedBytes -= sizeOf(oldBitmap);
+            }
+        }
+        synchronized (lendLock) {
+            pool.put(oldBitmap);
+        }
+    }
+
+    private static int sizeOf(final Bitmap bitmap) {
+        return bitmap.getRowBytes() * bitmap.getHeight();
+    }
+
+    private Drawable lend(final Bitmap bitmap) {
+        final TileDrawable tile = new TileDrawable(bitmap);
+        pool.lend(tile, bitmap);
+        return tile;
+    }
+
+}
@@ -0,0 +1,190 @@
+package de.tarent.nic.android.base.tileprovider;
+
+import android.graphics.Bitmap;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The TileBitmapPool keeps bitmaps that are not used anymore, so that new tiles can be decoded into them instead of
+ * allocating new bitmaps (see {@link android.graphics.BitmapFactory.Options#inBitmap}). Since tiles all have the same
+ * size, there are usually only one or two kinds of bitmaps in the pool, by size and config.
+ *
+ * The bitmaps that the {@link TileBitmapCache} evicts come here. The MapView may still show some of them, so a bitmap
+ * can be lent to a user, e.g. a {@link TileDrawable}, while it is in the cache. A bitmap that is put into the pool
+ * while it is lent only becomes available once all its users have been garbage collected. All methods are
+ * synchronized.
+ */
+public class TileBitmapPool {
+
+    private final long maxBytes;
+
+    private final Map<String, LinkedList<Bitmap>> bitmaps = new HashMap<String, LinkedList<Bitmap>>();
+
+    // The users of the lent bitmaps are enqueued here once they have been garbage collected:
+    private final ReferenceQueue<Object> unreachableUsers = new ReferenceQueue<Object>();
+
+    // The loans must stay reachable themselves until their users are collected:
+    private final Set<Loan> loans = new HashSet<Loan>();
+
+    // How many users each lent bitmap has:
+    private final Map<Bitmap, Integer> lent = new IdentityHashMap<Bitmap, Integer>();
+
+    // The bitmaps that were put into the pool while they were still lent:
+    private final Set<Bitmap> waiting = Collections.newSetFromMap(new IdentityHashMap<Bitmap, Boolean>());
+
+    private long bytes;
+
+    private long hits;
+
+    private long misses;
+
+
+    /**
+     * Construct a new TileBitmapPool.
+     *
+     * @param maxBytes the maximum size of all bitmaps in the pool, in bytes
+     */
+    public TileBitmapPool(final long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Take a bitmap out of the pool.
+     *
+     * @param width the width of the bitmap
+     * @param height the height of the bitmap
+     * @param config the config of the bitmap
+     * @return a mutable bitmap that belongs to the caller, or null if there is none of this kind
+     */
+    public synchronized Bitmap get(final int width, final int height, final Bitmap.Config config) {
+        reclaim();
+        final LinkedList<Bitmap> list = bitmaps.get(getKey(width, height, config));
+        if ((list == null) || list.isEmpty()) {
+            misses++;
+            return null;
+        }
+        final Bitmap bitmap = list.removeFirst();
+        bytes -= getSize(bitmap);
+        hits++;
+        return bitmap;
+    }
+
+    /**
+     * Give a bitmap to the pool. Bitmaps that can't be reused, or that don't fit into the pool anymore, are recycled.
+     * A bitmap that is still lent is only taken once its users are gone.
+     *
+     * @param bitmap the bitmap, which belongs to the pool afterwards
+     */
+    public synchronized void put(final Bitmap bitmap) {
+        reclaim();
+        if (lent.containsKey(bitmap)) {
+            waiting.add(bitmap);
+            return;
+        }
+        add(bitmap);
+    }
+
+    /**
+     * Lend a bitmap that is not in the pool yet to a user, who must not recycle or change it. The bitmap isn't reused
+     * before the user has been garbage collected, even if it is put into the pool in the meantime.
+     *
+     * @param user the user of the bitmap
+     * @param bitmap the bitmap
+     */
+    public synchronized void lend(final Object user, final Bitmap bitmap) {
+        reclaim();
+        loans.add(new Loan(user, bitmap, unreachableUsers));
+        final Integer users = lent.get(bitmap);
+        lent.put(bitmap, (users == null) ? 1 : (users + 1));
+    }
+
+    /**
+     * Get the number of bitmaps that are lent to users that have not been garbage collected yet.
+     *
+     * @return the number of bitmaps
+     */
+    public synchronized int getLentCount() {
+        reclaim();
+        return lent.size();
+    }
+
+    /**
+     * Get the part of the requests that could be served from the pool.
+     *
+     * @return the hit rate between 0 and 1, or 0 if nothing was requested yet
+     */
+    public synchronized float getHitRate() {
+        final long requests = hits + misses;
+        return (requests == 0) ? 0 : ((float) hits / requests);
+    }
+
+
+    /**
+     * Take the bitmaps whose users have been garbage collected, if they were put into the pool in the meantime.
+     */
+    private void reclaim() {
+        Loan loan;
+        while ((loan = (Loan) unreachableUsers.poll()) != null) {
+            loans.remove(loan);
+            final int users = lent.get(loan.bitmap) - 1;
+            if (users > 0) {
+                lent.put(loan.bitmap, users);
+            } else {
+                lent.remove(loan.bitmap);
+                if (waiting.remove(loan.bitmap)) {
+                    add(loan.bitmap);
+                }
+            }
+        }
+    }
+
+    private void add(final Bitmap bitmap) {
+        if (bitmap.isRecycled()) {
+            return;
+        }
+        final long size = getSize(bitmap);
+        if (!bitmap.isMutable() || (bitmap.getConfig() == null) || (bytes + size > maxBytes)) {
+            bitmap.recycle();
+            return;
+        }
+        final String key = getKey(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+        LinkedList<Bitmap> list = bitmaps.get(key);
+        if (list == null) {
+            list = new LinkedList<Bitmap>();
+            bitmaps.put(key, list);
+        }
+        list.add(bitmap);
+        bytes += size;
+    }
+
+    private static String getKey(final int width, final int height, final Bitmap.Config config) {
+        return width + "x" + height + ":" + config;
+    }
+
+    private static long getSize(final Bitmap bitmap) {
+        return (long) bitmap.getRowBytes() * bitmap.getHeight();
+    }
+
+
+    /**
+     * A bitmap that is lent to a user, which is enqueued when the user has been garbage collected.
+     */
+    private static final class Loan extends WeakReference<Object> {
+
+        private final Bitmap bitmap;
+
+        private Loan(final Object user, final Bitmap bitmap, final ReferenceQueue<Object> queue) {
+            super(user, queue);
+            this.bitmap = bitmap;
+        }
+    }
+
+}
@@ -0,0 +1,149 @@
+package de.tarent.nic.android.base.tileprovider;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.apache.commons.io.IOUtils.closeQuietly;
+import static org.apache.commons.io.IOUtils.toByteArray;
+
+/**
+ * The TileDecoder decodes the image files of the tiles into bitmaps, reusing the bitmaps of a {@link TileBitmapPool}
+ * where possible, so that panning around the map doesn't allocate a new bitmap for every tile. The tiles can be
+ * decoded with a lower resolution (see {@link #setSampleSize(int)}), e.g. for screens with a low density.
+ *
+ * The decoder counts how long the decoding takes and how often a bitmap could be reused, and logs it from time to
+ * time. All methods can be called by several threads.
+ */
+public class TileDecoder {
+
+    private static final String TAG = TileDecoder.class.getName();
+
+    // After this many tiles the statistics are logged:
+    private static final int STATISTICS_INTERVAL = 100;
+
+    // Build.VERSION_CODES.KITKAT, which we can't reference on our platform version. Before that only bitmaps of
+    // exactly the same size can be reused, which means that the tiles can't be scaled down at the same time.
+    private static final int KITKAT = 19;
+
+    private final TileBitmapPool pool;
+
+    private volatile int sampleSize = 1;
+
+    private long decodes;
+
+    private long decodeMillis;
+
+
+    /**
+     * Construct a new TileDecoder.
+     *
+     * @param pool the {@link TileBitmapPool} with the bitmaps that may be reused
+     */
+    public TileDecoder(final TileBitmapPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Set by which factor the tiles are scaled down when they are decoded.
+     *
+     * @param sampleSize 1 for the full resolution, 2 for half the width and height, and so on
+     */
+    public void setSampleSize(final int sampleSize) {
+        if (sampleSize < 1) {
+            throw new IllegalArgumentException("The sample size must be at least 1, not " + sampleSize);
+        }
+        this.sampleSize = sampleSize;
+    }
+
+    /**
+     * Decode a tile.
+     *
+     * @param in the image file of the tile, which is closed afterwards
+     * @return the bitmap, or null if the image can't be decoded
+     * @throws IOException if the stream can't be read
+     */
+    public Bitmap decode(final InputStream in) throws IOException {
+        final byte[] data;
+        try {
+            // The tiles are small, and from the bytes we can decode a second time, if the reused bitmap doesn't fit:
+            data = toByteArray(in);
+        } finally {
+            closeQuietly(in);
+        }
+
+        final long start = SystemClock.uptimeMillis();
+        final int sample = sampleSize;
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, data.length, options);
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sample;
+        options.inMutable = true;
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        if ((sample == 1) || (Build.VERSION.SDK_INT >= KITKAT)) {
+            // The tiles are decoded to their size divided by the sample size:
+            options.inBitmap = pool.get(options.outWidth / sample, options.outHeight / sample,
+                                        options.inPreferredConfig);
+        }
+        Bitmap bitmap;
+        try {
+            bitmap = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        } catch (IllegalArgumentException e) {
+            if (options.inBitmap == null) {
+                throw e;
+            }
+            // The image can't be decoded into this bitmap after all, e.g. because it is a gif:
+            pool.put(options.inBitmap);
+            options.inBitmap = null;
+            bitmap = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        }
+        if ((bitmap == null) && (options.inBitmap != null)) {
+            pool.put(options.inBitmap);
+        }
+
+        synchronized (this) {
+            decodes++;
+            decodeMillis += SystemClock.uptimeMillis() - start;
+            if (decodes % STATISTICS_INTERVAL == 0) {
+                Log.d(TAG, decodes + " tiles decoded in " + getAverageDecodeMillis() + " ms on average, "
+                        + "pool hit rate: " + getPoolHitRate());
+            }
+        }
+        return bitmap;
+    }
+
+    /**
+     * Get how many tiles have been decoded.
+     *
+     * @return the number of tiles, including those that could not be decoded
+     */
+    public synchronized long getDecodeCount() {
+        return decodes;
+    }
+
+    /**
+     * Get how long it took on average to decode a tile.
+     *
+     * @return the time in milliseconds, or 0 if nothing was decoded yet
+     */
+    public synchronized float getAverageDecodeMillis() {
+        return (decodes == 0) ? 0 : ((float) decodeMillis / decodes);
+    }
+
+    /**
+     * Get the part of the tiles that were decoded into a reused bitmap.
+     *
+     * @return the hit rate of the {@link TileBitmapPool} between 0 and 1
+     */
+    public float getPoolHitRate() {
+        return pool.getHitRate();
+    }
+
+}
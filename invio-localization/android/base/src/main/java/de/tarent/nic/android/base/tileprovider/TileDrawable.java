@@ -0,0 +1,68 @@
+package de.tarent.nic.android.base.tileprovider;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.ColorFilter;
+import android.graphics.Paint;
+import android.graphics.PixelFormat;
+import android.graphics.drawable.Drawable;
+
+/**
+ * The TileDrawable shows a tile straight from the bitmap in the {@link TileBitmapCache}, without a copy. The MapView
+ * recycles the bitmaps of the BitmapDrawables that it doesn't show anymore, so this is deliberately no BitmapDrawable.
+ * Instead, the bitmap is lent to the drawable by the {@link TileBitmapPool}, which only reuses it after the cache has
+ * evicted it and the drawable has been garbage collected.
+ */
+public class TileDrawable extends Drawable {
+
+    private final Bitmap bitmap;
+
+    private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+
+    /**
+     * Construct a new TileDrawable.
+     *
+     * @param bitmap the tile, which must not be recycled or changed as long as the drawable is used
+     */
+    TileDrawable(final Bitmap bitmap) {
+        this.bitmap = bitmap;
+    }
+
+    public Bitmap getBitmap() {
+        return bitmap;
+    }
+
+    @Override
+    public void draw(final Canvas canvas) {
+        canvas.drawBitmap(bitmap, null, getBounds(), paint);
+    }
+
+    @Override
+    public void setAlpha(final int alpha) {
+        paint.setAlpha(alpha);
+        invalidateSelf();
+    }
+
+    @Override
+    public void setColorFilter(final ColorFilter colorFilter) {
+        paint.setColorFilter(colorFilter);
+        invalidateSelf();
+    }
+
+    @Override
+    public int getOpacity() {
+        return bitmap.hasAlpha() ? PixelFormat.TRANSLUCENT : PixelFormat.OPAQUE;
+    }
+
+    @Override
+    public int getIntrinsicWidth() {
+        return bitmap.getWidth();
+    }
+
+    @Override
+    public int getIntrinsicHeight() {
+        return bitmap.getHeight();
+    }
+
+}
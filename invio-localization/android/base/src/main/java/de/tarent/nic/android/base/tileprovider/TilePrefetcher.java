@@ -0,0 +1,178 @@
+package de.tarent.nic.android.base.tileprovider;
+
+import android.graphics.Point;
+import android.util.Log;
+import org.osmdroid.api.IGeoPoint;
+import org.osmdroid.tileprovider.MapTile;
+import org.osmdroid.util.TileSystem;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The TilePrefetcher decodes the tiles that the user will probably see next, before the MapView asks for them, so
+ * that there are no grey tiles while the user walks or when the level changes. It follows the positions of the user:
+ * the next positions are extrapolated from the last two, and the tiles along that way are prefetched at the current
+ * and the next zoom level. The tiles around the current position are also prefetched on the other levels that the
+ * user is likely to change to.
+ *
+ * Only a few threads decode tiles, and only the latest requests are kept when they can't keep up. The prefetched
+ * tiles that have not been needed yet never take up more than the byte budget of the {@link TileBitmapCache}.
+ */
+public class TilePrefetcher {
+
+    private static final String TAG = TilePrefetcher.class.getName();
+
+    // How many positions we look ahead:
+    private static final int LOOKAHEAD = 3;
+
+    // How many tiles may wait to be prefetched. Older requests are dropped, because they are probably outdated:
+    private static final int QUEUE_SIZE = 32;
+
+    private static final long KEEP_ALIVE_SECONDS = 1;
+
+    // How long shutdown() waits for the tiles that are being decoded:
+    private static final long SHUTDOWN_TIMEOUT_MILLIS = 500;
+
+    private final TileBitmapCache bitmapCache;
+
+    private final long byteBudget;
+
+    private final ThreadPoolExecutor executor;
+
+    private NicTileSource tileSource;
+
+    private ZipTileArchive archive;
+
+    private List<ZipTileArchive> otherLevels = Collections.emptyList();
+
+    // The last position, to extrapolate the next ones:
+    private IGeoPoint lastPosition;
+
+
+    /**
+     * Construct a new TilePrefetcher.
+     *
+     * @param bitmapCache the cache into which the tiles are prefetched
+     * @param threads how many tiles may be decoded at the same time
+     * @param byteBudget how many bytes the prefetched tiles that have not been needed yet may take up
+     */
+    public TilePrefetcher(final TileBitmapCache bitmapCache, final int threads, final long byteBudget) {
+        this.bitmapCache = bitmapCache;
+        this.byteBudget = byteBudget;
+        executor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(QUEUE_SIZE), new ThreadPoolExecutor.DiscardOldestPolicy());
+        // The threads end when the user stands still:
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Set the level that is shown and the levels that the user is likely to change to.
+     *
+     * @param tileSource the {@link NicTileSource}, which knows the layout of the tiles of all levels
+     * @param archive the tiles of the level that is shown
+     * @param otherLevels the tiles of the likely next levels, or an empty list if the level is certain
+     */
+    public synchronized void setLevels(final NicTileSource tileSource, final ZipTileArchive archive,
+                                       final List<ZipTileArchive> otherLevels) {
+        this.tileSource = tileSource;
+        this.archive = archive;
+        this.otherLevels = otherLevels;
+        executor.getQueue().clear();
+    }
+
+    /**
+     * Take note of a new position of the user and prefetch the tiles that will be needed next.
+     *
+     * @param position the position
+     * @param zoomLevel the zoom level that is shown
+     */
+    public synchronized void onPositionChanged(final IGeoPoint position, final int zoomLevel) {
+        if (archive == null) {
+            lastPosition = position;
+            return;
+        }
+
+        final int dLat = (lastPosition == null) ? 0 : (position.getLatitudeE6() - lastPosition.getLatitudeE6());
+        final int dLon = (lastPosition == null) ? 0 : (position.getLongitudeE6() - lastPosition.getLongitudeE6());
+        lastPosition = position;
+
+        // The tiles of the way ahead, at the current zoom level first, because they are needed first:
+        final int maxZoomLevel = tileSource.getMaximumZoomLevel();
+        for (int zoom = zoomLevel; zoom <= Math.min(zoomLevel + 1, maxZoomLevel); zoom++) {
+            final Set<MapTile> tiles = new LinkedHashSet<MapTile>();
+            for (int step = 1; step <= LOOKAHEAD; step++) {
+                tiles.add(getTile(position.getLatitudeE6() + step * dLat,
+                                  position.getLongitudeE6() + step * dLon, zoom));
+            }
+            prefetch(archive, tiles);
+        }
+
+        // The surroundings of the user on the other levels:
+        if (!otherLevels.isEmpty()) {
+            final MapTile center = getTile(position.getLatitudeE6(), position.getLongitudeE6(), zoomLevel);
+            final List<MapTile> tiles = new ArrayList<MapTile>();
+            for (int x = center.getX() - 1; x <= center.getX() + 1; x++) {
+                for (int y = center.getY() - 1; y <= center.getY() + 1; y++) {
+                    tiles.add(new MapTile(zoomLevel, x, y));
+                }
+            }
+            for (final ZipTileArchive level : otherLevels) {
+                prefetch(level, tiles);
+            }
+        }
+    }
+
+    /**
+     * Get the part of the prefetched tiles that were needed before they were evicted from the cache.
+     *
+     * @return the hit rate between 0 and 1
+     */
+    public float getHitRate() {
+        return bitmapCache.getPrefetchHitRate();
+    }
+
+    /**
+     * Stop prefetching and wait a little while for the tiles that are being decoded, so that the archives can be
+     * closed afterwards. The TilePrefetcher can't be used anymore afterwards.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+        try {
+            if (!executor.awaitTermination(SHUTDOWN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                Log.w(TAG, "Prefetching did not stop within " + SHUTDOWN_TIMEOUT_MILLIS + " ms");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Log.i(TAG, "Prefetch hit rate: " + getHitRate());
+    }
+
+
+    private MapTile getTile(final int latitudeE6, final int longitudeE6, final int zoomLevel) {
+        final Point pixel = TileSystem.LatLongToPixelXY(latitudeE6 / 1E6, longitudeE6 / 1E6, zoomLevel, null);
+        final Point tile = TileSystem.PixelXYToTileXY(pixel.x, pixel.y, pixel);
+        return new MapTile(zoomLevel, tile.x, tile.y);
+    }
+
+    private void prefetch(final ZipTileArchive level, final Iterable<MapTile> tiles) {
+        for (final MapTile tile : tiles) {
+            final String path = ZipTileProvider.getPath(tileSource, tile);
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (bitmapCache.getPrefetchedBytes() < byteBudget) {
+                        level.prefetch(path);
+                    }
+                }
+            });
+        }
+    }
+
+}
@@ -1,6 +1,7 @@
 package de.tarent.nic.android.base.tileprovider;
 
 import android.content.Context;
+import android.util.DisplayMetrics;
 import de.tarent.nic.android.base.config.Config;
 import de.tarent.nic.android.base.config.ValueProvider;
 import org.osmdroid.ResourceProxy;
@@ -16,6 +17,7 @@ import org.osmdroid.tileprovider.tilesource.ITileSource;
 import org.osmdroid.tileprovider.util.SimpleRegisterReceiver;
 
 import static de.tarent.nic.android.base.config.Property.MAP_FILE_ENDING;
+import static de.tarent.nic.android.base.config.Property.MAP_TILE_SAMPLE_SIZE;
 import static de.tarent.nic.android.base.config.Property.MAP_TILE_SIZE_PIXEL;
 import static de.tarent.nic.android.base.config.Property.MAP_ZOOM_MAX;
 import static de.tarent.nic.android.base.config.Property.MAP_ZOOM_MIN;
@@ -48,6 +50,7 @@ public class TileProviderFactory {
     public TileProviderFactory(final Context context, final ValueProvider config) {
         this.context = context;
         this.config = config;
+        TileBitmapCache.getInstance().getDecoder().setSampleSize(getSampleSize());
     }
 
     /**
@@ -93,6 +96,49 @@ public class TileProviderFactory {
         return mapTileProviderArray;
     }
 
+    /**
+     * Build a new TileProvider that reads the tiles directly from a zip. Tiles that are not in the zip are still
+     * downloaded from the server, like by the {@link #buildWebTileProvider(String, String)}.
+     *
+     * @param archive   the {@link ZipTileArchive} with the tiles
+     * @param urlSchema the url schema for the map tiles
+     * @param mapName   The name of the requested map.
+     * @return the tile provider
+     */
+    public MapTileProviderBase buildZipTileProvider(final ZipTileArchive archive, final String urlSchema,
+                                                    final String mapName) {
+        final NicTileSource tileSource = getNicTileSource(urlSchema, mapName);
+        final IRegisterReceiver registerReceiver = new SimpleRegisterReceiver(context);
+        final ZipTileProvider zipProvider = new ZipTileProvider(registerReceiver, tileSource, archive);
+        final MapTileFilesystemProvider fileSystemProvider =
+                new MapTileFilesystemProvider(registerReceiver, tileSource);
+        final MapTileDownloader downloaderProvider = getMapTileDownloader(tileSource);
+        final MapTileProviderArray mapTileProviderArray = new MapTileProviderArray(tileSource, registerReceiver,
+                new MapTileModuleProviderBase[]{
+                        zipProvider,           //erst das zip
+                        fileSystemProvider,    //dann der cache
+                        downloaderProvider     //...und wenn es nötig ist im netz
+                });
+        return mapTileProviderArray;
+    }
+
+    /**
+     * Get by which factor the tiles shall be scaled down when they are decoded.
+     *
+     * @return the configured sample size, or the one that fits to the density of the display if 0 is configured
+     */
+    private int getSampleSize() {
+        final Integer sampleSize = config.getPropertyValueAsInt(MAP_TILE_SAMPLE_SIZE);
+        if ((sampleSize == null) || (sampleSize < 0)) {
+            return 1;
+        } else if (sampleSize == 0) {
+            // A low density display doesn't show the details of the tiles anyway:
+            final int densityDpi = context.getResources().getDisplayMetrics().densityDpi;
+            return (densityDpi <= DisplayMetrics.DENSITY_LOW) ? 2 : 1;
+        }
+        return sampleSize;
+    }
+
     private MapTileDownloader getMapTileDownloader(final ITileSource tileSource) {
         // Create a file cache modular provider
         //FIXME: Der Cache-Mechanismus speichert die Tiles unter "/osmdroid/<kartenname>". Dies sollte man unterbinden,
@@ -0,0 +1,135 @@
+package de.tarent.nic.android.base.tileprovider;
+
+import android.graphics.Bitmap;
+import android.graphics.drawable.Drawable;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * The ZipTileArchive gives access to the tiles in one directory of a zip, e.g. the tiles of one map in the zip with
+ * the data of a map group. The tiles are in the same layout as in the asset-directory
+ * (&lt;zoom&gt;/&lt;x&gt;/&lt;y&gt;.&lt;ending&gt;).
+ *
+ * The entries of the directory are indexed the first time a tile is needed, so that a missing tile doesn't cost any
+ * I/O. The tiles are decoded by the {@link TileDecoder} of a {@link TileBitmapCache}, which keeps them. All methods
+ * can be called by several threads. Once the zip has been closed, all tiles are missing.
+ */
+public class ZipTileArchive {
+
+    private static final String TAG = ZipTileArchive.class.getName();
+
+    private final ZipFile zipFile;
+    private final String directory;
+    private final TileBitmapCache bitmapCache;
+
+    // The tile entries by their paths inside the directory, or null as long as they have not been indexed:
+    private Map<String, ZipEntry> entries;
+
+
+    /**
+     * Construct a new ZipTileArchive.
+     *
+     * @param zipFile     the zip with the tiles, which must stay open as long as the archive is used
+     * @param directory   the directory of the tiles in the zip, e.g. "EG/tiles/", or "" for the root of the zip
+     * @param bitmapCache the cache for the decoded tiles
+     */
+    public ZipTileArchive(final ZipFile zipFile, final String directory, final TileBitmapCache bitmapCache) {
+        this.zipFile = zipFile;
+        this.directory = directory;
+        this.bitmapCache = bitmapCache;
+    }
+
+    public TileBitmapCache getBitmapCache() {
+        return bitmapCache;
+    }
+
+    /**
+     * Get a tile, from the cache or from the zip.
+     *
+     * @param path the path of the tile inside the directory, e.g. "17/68734/85142.png"
+     * @return the {@link TileDrawable}, or null if there is no such tile in the zip
+     */
+    public Drawable getTile(final String path) {
+        final ZipEntry entry = getEntries().get(path);
+        if (entry == null) {
+            return null;
+        }
+
+        final String key = getKey(entry);
+        final Drawable tile = bitmapCache.getTile(key);
+        if (tile != null) {
+            return tile;
+        }
+        final Bitmap decoded = decode(entry);
+        return (decoded == null) ? null : bitmapCache.putAndGetTile(key, decoded);
+    }
+
+    /**
+     * Decode a tile into the cache before it is needed, unless it is already cached.
+     *
+     * @param path the path of the tile inside the directory
+     * @return true if the tile was decoded, false if it is missing, unreadable or was already cached
+     */
+    public boolean prefetch(final String path) {
+        final ZipEntry entry = getEntries().get(path);
+        if (entry == null) {
+            return false;
+        }
+
+        final String key = getKey(entry);
+        if (bitmapCache.get(key) != null) {
+            return false;
+        }
+        final Bitmap bitmap = decode(entry);
+        if (bitmap == null) {
+            return false;
+        }
+        bitmapCache.putPrefetched(key, bitmap);
+        return true;
+    }
+
+
+    private String getKey(final ZipEntry entry) {
+        return zipFile.getName() + '!' + entry.getName();
+    }
+
+    private Bitmap decode(final ZipEntry entry) {
+        try {
+            return bitmapCache.getDecoder().decode(zipFile.getInputStream(entry));
+        } catch (IOException e) {
+            Log.e(TAG, "Could not read the tile " + entry.getName() + ": " + e.getMessage());
+            return null;
+        } catch (IllegalStateException e) {
+            // The zip has been closed, e.g. while a tile was prefetched:
+            return null;
+        }
+    }
+
+    private synchronized Map<String, ZipEntry> getEntries() {
+        if (entries == null) {
+            final Map<String, ZipEntry> index = new HashMap<String, ZipEntry>();
+            try {
+                final Enumeration<? extends ZipEntry> zipEntries = zipFile.entries();
+                while (zipEntries.hasMoreElements()) {
+                    final ZipEntry entry = zipEntries.nextElement();
+                    if (!entry.isDirectory() && entry.getName().startsWith(directory)) {
+                        index.put(entry.getName().substring(directory.length()), entry);
+                    }
+                }
+            } catch (IllegalStateException e) {
+                // The zip has been closed, so there are no tiles anymore:
+                return Collections.emptyMap();
+            }
+            entries = index;
+        }
+        return entries;
+    }
+
+}
@@ -0,0 +1,110 @@
+package de.tarent.nic.android.base.tileprovider;
+
+import android.graphics.drawable.Drawable;
+import org.osmdroid.tileprovider.IRegisterReceiver;
+import org.osmdroid.tileprovider.MapTile;
+import org.osmdroid.tileprovider.MapTileRequestState;
+import org.osmdroid.tileprovider.modules.MapTileFileStorageProviderBase;
+import org.osmdroid.tileprovider.modules.MapTileModuleProviderBase;
+import org.osmdroid.tileprovider.tilesource.ITileSource;
+
+import java.io.File;
+
+/**
+ * This TileProvider reads the map-tiles directly from a zip, e.g. the zip with the data of a map group, so that they
+ * never have to be unzipped. The zip is accessed through a {@link ZipTileArchive}, which also caches the decoded
+ * tiles.
+ */
+public class ZipTileProvider extends MapTileFileStorageProviderBase {
+
+    private NicTileSource tileSource;
+    private final ZipTileArchive archive;
+
+    /**
+     * Custom constructor
+     *
+     * @param registerReceiver the {@link IRegisterReceiver}
+     * @param tileSource       the {@link NicTileSource}
+     * @param archive          the {@link ZipTileArchive} with the tiles
+     */
+    public ZipTileProvider(final IRegisterReceiver registerReceiver, final NicTileSource tileSource,
+                           final ZipTileArchive archive) {
+        super(registerReceiver, NUMBER_OF_TILE_FILESYSTEM_THREADS, TILE_FILESYSTEM_MAXIMUM_QUEUE_SIZE);
+
+        setTileSource(tileSource);
+        this.archive = archive;
+    }
+
+    @Override
+    public int getMaximumZoomLevel() {
+        return tileSource.getMaximumZoomLevel();
+    }
+
+    @Override
+    public int getMinimumZoomLevel() {
+        return tileSource.getMinimumZoomLevel();
+    }
+
+    @Override
+    protected String getName() {
+        return "Zipprovider";
+    }
+
+    @Override
+    protected String getThreadGroupName() {
+        return "zip";
+    }
+
+    @Override
+    protected Runnable getTileLoader() {
+        return new TileLoader();
+    }
+
+    @Override
+    public boolean getUsesDataConnection() {
+        return false;
+    }
+
+    @Override
+    public final void setTileSource(final ITileSource tileSource) {
+        if (tileSource instanceof NicTileSource) {
+            this.tileSource = (NicTileSource) tileSource;
+        } else {
+            throw new IllegalArgumentException("TileSource " + tileSource + " is not supported!");
+        }
+    }
+
+    /**
+     * Load a tile, from the cache or from the zip.
+     *
+     * @param tile the tile
+     * @return the drawable, or null if there is no such tile in the zip
+     */
+    Drawable loadTile(final MapTile tile) {
+        return archive.getTile(getPath(tileSource, tile));
+    }
+
+    /**
+     * Get the path of a tile inside the directory of a {@link ZipTileArchive}.
+     *
+     * @param tileSource the {@link NicTileSource}, which knows the layout of the tiles
+     * @param tile the tile
+     * @return the path, e.g. "17/68734/85142.png"
+     */
+    static String getPath(final NicTileSource tileSource, final MapTile tile) {
+        // The relative filename starts with the name of the tile source, which the zip doesn't need:
+        final String filename = tileSource.getTileRelativeFilenameString(tile);
+        return filename.substring(filename.indexOf(File.separatorChar) + 1);
+    }
+
+    /**
+     * Private class for loading tiles.
+     */
+    private class TileLoader extends MapTileModuleProviderBase.TileLoader {
+
+        @Override
+        protected Drawable loadTile(MapTileRequestState req) throws CantContinueException {
+            return ZipTileProvider.this.loadTile(req.getMapTile());
+        }
+    }
+}
@@ -12,19 +12,22 @@ import android.net.NetworkInfo;
 import android.util.Log;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
-import com.google.gson.reflect.TypeToken;
+import com.google.gson.JsonSyntaxException;
 import de.tarent.nic.android.base.R;
-import de.tarent.nic.android.base.json.NicGeoPointDeserializer;
+import de.tarent.nic.android.base.json.FingerprintJsonReader;
 import de.tarent.nic.android.base.task.CachedDownloadFingerprintsTask;
 import de.tarent.nic.entities.Fingerprint;
-import de.tarent.nic.entities.NicGeoPoint;
+import de.tarent.nic.entities.Histogram;
 import de.tarent.nic.mapserver.MapServerClient;
+import de.tarent.nic.tracker.wifi.FingerprintIndex;
+import de.tarent.nic.tracker.wifi.FingerprintTable;
 import org.osmdroid.DefaultResourceProxyImpl;
 import org.osmdroid.views.MapView;
 import org.osmdroid.views.overlay.ItemizedIconOverlay;
 import org.osmdroid.views.safecanvas.ISafeCanvas;
 
-import java.lang.reflect.Type;
+import java.io.IOException;
+import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -47,6 +50,12 @@ public class FingerprintManager implements ItemizedIconOverlay.OnItemGestureList
      */
     protected MapServerClient mapServerClient;
 
+    /**
+     * The compiled form of the fingerprints in the overlay, which is what the UserLocator matches against. It is built
+     * when the fingerprints are set and dropped whenever they change. null means that it has to be rebuilt.
+     */
+    protected FingerprintIndex fingerprintIndex;
+
 
     /**
      * Construct a new FingerprintManager.
@@ -99,6 +108,7 @@ public class FingerprintManager implements ItemizedIconOverlay.OnItemGestureList
      */
     public void removeFingerprintFromOverlay(final FingerprintItem item) {
         overlay.removeItem(item);
+        invalidateFingerprintIndex();
         mapView.postInvalidate();
     }
 
@@ -107,18 +117,27 @@ public class FingerprintManager implements ItemizedIconOverlay.OnItemGestureList
      */
     public void removeAllFingerprintFromOverlay() {
         overlay.removeAllItems();
+        invalidateFingerprintIndex();
         mapView.postInvalidate();
     }
 
 
     /**
      * Get the list of Fingerprints that this manager holds. Note that this is not a simple getter. It needs to do some
-     * work to extract this list from the mapview-overlay.
+     * work to extract this list from the mapview-overlay, or to create the Fingerprints from the FingerprintIndex if
+     * they are not shown.
      *
      * @return the list of Fingerprint-objects.
      */
     public List<Fingerprint> getFingerprints() {
         final List<Fingerprint> fingerprints = new ArrayList<Fingerprint>();
+        final FingerprintIndex index = fingerprintIndex;
+        if (!isShowingFingerprints() && (index != null)) {
+            for (int i = 0; i < index.size(); i++) {
+                fingerprints.add(index.getFingerprint(i));
+            }
+            return fingerprints;
+        }
         // Maybe we don't have an active overlay yet:
         if (overlay != null) {
             final int size = overlay.size();
@@ -129,6 +148,40 @@ public class FingerprintManager implements ItemizedIconOverlay.OnItemGestureList
         return fingerprints;
     }
 
+    /**
+     * Follow the level of the building on which the user is, with the next scan, and switch the fingerprints if the
+     * level has changed. This is called for every scan, in the background. A single map has only one level, so this
+     * implementation does nothing.
+     *
+     * @param histogram the histogram of the current scan
+     * @return true if the level has changed
+     */
+    public boolean trackLevel(final Histogram histogram) {
+        return false;
+    }
+
+    /**
+     * Get the compiled index of the current fingerprints. If the fingerprints have changed since the index was built
+     * it will be rebuilt now.
+     *
+     * @return the FingerprintIndex
+     */
+    public FingerprintIndex getFingerprintIndex() {
+        FingerprintIndex index = fingerprintIndex;
+        if (index == null) {
+            index = new FingerprintIndex(getFingerprints());
+            fingerprintIndex = index;
+        }
+        return index;
+    }
+
+    /**
+     * Drop the current FingerprintIndex. Call this whenever the fingerprints in the overlay were changed.
+     */
+    protected void invalidateFingerprintIndex() {
+        fingerprintIndex = null;
+    }
+
 
     /**
      * Get a json-string that contains a serialization of the current fingerprints.
@@ -148,26 +201,71 @@ public class FingerprintManager implements ItemizedIconOverlay.OnItemGestureList
      * @param json the fingerprints as json
      */
     public void setFingerprintsJson(final String json) {
-        final List<Fingerprint> fingerprints = parseJson(json);
-        if (fingerprints != null) {
-            for (Fingerprint fingerprint : fingerprints) {
-                final FingerprintItem fingerprintItem = new FingerprintItem(fingerprint);
-                overlay.addItem(fingerprintItem);
+        // Compile the fingerprints right away, so that the first scan doesn't have to wait for it:
+        setFingerprints(readFingerprintsJson(json));
+    }
+
+    /**
+     * Add fingerprints that were read into a FingerprintTable, e.g. by the {@link FingerprintJsonReader}, and compile
+     * them.
+     *
+     * @param fingerprints the complete FingerprintTable
+     */
+    public void setFingerprints(final FingerprintTable fingerprints) {
+        setFingerprints(new FingerprintIndex(fingerprints));
+    }
+
+    /**
+     * Add fingerprints that have already been parsed and compiled, e.g. in the background when the map was loaded.
+     * If there were no fingerprints before then the index is used as it is, so nothing has to be parsed or compiled
+     * again. FingerprintItems are only created for the overlay if the fingerprints are shown.
+     *
+     * @param index the compiled fingerprints
+     */
+    public void setFingerprints(final FingerprintIndex index) {
+        final List<Fingerprint> previous = getFingerprints();
+        if (isShowingFingerprints()) {
+            for (int i = 0; i < index.size(); i++) {
+                overlay.addItem(new FingerprintItem(index.getFingerprint(i)));
+            }
+        }
+        if (previous.isEmpty()) {
+            fingerprintIndex = index;
+        } else {
+            for (int i = 0; i < index.size(); i++) {
+                previous.add(index.getFingerprint(i));
             }
+            fingerprintIndex = new FingerprintIndex(previous);
         }
         mapView.postInvalidate();
     }
 
 
     /**
-     * The current number of fingerprints. TODO: really? How does overlay.size() work?
+     * The current number of fingerprints.
      *
      * @return the number of fingerprints
      */
     public int size() {
+        final FingerprintIndex index = fingerprintIndex;
+        if (!isShowingFingerprints() && (index != null)) {
+            return index.size();
+        }
         return overlay.size();
     }
 
+    /**
+     * Whether the fingerprints are shown on the map, as FingerprintItems in the overlay. Only then the items are
+     * created, and the overlay holds all the fingerprints; otherwise they are only kept in the much smaller
+     * FingerprintIndex. The customer-apps don't show them, so this returns false. Overwrite this method to return
+     * true if your overlay really draws the fingerprints.
+     *
+     * @return false
+     */
+    protected boolean isShowingFingerprints() {
+        return false;
+    }
+
     /**
      * Detach all registered providers
      */
@@ -214,21 +312,21 @@ public class FingerprintManager implements ItemizedIconOverlay.OnItemGestureList
 
 
     /**
-     * Create Fingerprints from json-string.
+     * Read fingerprints from a json-string into a FingerprintTable.
      *
      * @param json the json that contains the serialized fingerprints
-     * @return the List of Fingerprints
+     * @return the FingerprintTable, which is empty if the json was null or empty
+     * @throws JsonSyntaxException if the json is not a valid list of fingerprints
      */
-    protected List<Fingerprint> parseJson(final String json) {
-        // We need this TypeToken-thingy because it is not possible to have a Class-object for a generic type.
-        // But we must tell gson what kind of object it is supposed to create. That's how we can do is:
-        final Type genericFingerprintArrayListType = new TypeToken<ArrayList<Fingerprint>>() {
-        }.getType();
-        final GsonBuilder gsonBuilder = new GsonBuilder();
-        gsonBuilder.registerTypeAdapter(NicGeoPoint.class, new NicGeoPointDeserializer());
-
-        final List<Fingerprint> fingerprints = gsonBuilder.create().fromJson(json, genericFingerprintArrayListType);
-        return fingerprints;
+    protected static FingerprintTable readFingerprintsJson(final String json) {
+        if (json == null) {
+            return new FingerprintTable();
+        }
+        try {
+            return FingerprintJsonReader.read(new StringReader(json));
+        } catch (IOException e) {
+            throw new JsonSyntaxException(e);
+        }
     }
 
     /**
@@ -21,13 +21,13 @@ import de.tarent.nic.android.base.task.DownloadMapResourceTask;
 import de.tarent.nic.android.base.task.DownloadTask;
 import de.tarent.nic.android.base.task.OsmParser;
 import de.tarent.nic.android.base.tileprovider.TileProviderFactory;
-import de.tarent.nic.entities.Fingerprint;
 import de.tarent.nic.entities.Histogram;
 import de.tarent.nic.mapserver.MapServerClient;
+import de.tarent.nic.tracker.level.LevelTracker;
+import de.tarent.nic.tracker.neighbour.NeighbourSearch;
+import de.tarent.nic.tracker.wifi.FingerprintIndex;
+import de.tarent.nic.tracker.wifi.FingerprintTable;
 import de.tarent.nic.tracker.wifi.HistogramConsumer;
-import de.tarent.nic.tracker.wifi.RouterLevelHistogram;
-import de.tarent.nic.tracker.wifi.divergence.KullbackLeibler;
-import de.tarent.nic.tracker.wifi.divergence.RouterLevelDivergence;
 import org.osmdroid.DefaultResourceProxyImpl;
 import org.osmdroid.tileprovider.MapTileProviderBase;
 import org.osmdroid.tileprovider.tilesource.ITileSource;
@@ -39,8 +39,6 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.SortedMap;
-import java.util.TreeMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -80,7 +78,7 @@ public class MultiLevelFingerprintManager extends FingerprintManager implements
     /**
      * Where we currently are.
      */
-    private Integer currentLevel = null;
+    private volatile Integer currentLevel = null;
 
     /**
      * The ProgressDialog that is shown until we have downloaded everything from our mapserver.
@@ -101,6 +99,20 @@ public class MultiLevelFingerprintManager extends FingerprintManager implements
 
     private OsmParser osmParser;
 
+    private NeighbourSearch neighbourSearch;
+
+    /**
+     * The LevelTracker for the fingerprints of all levels. It is created when it is first needed after the downloads,
+     * and dropped when fingerprints change.
+     */
+    private LevelTracker levelTracker;
+
+    /**
+     * How many consecutive scans must detect another level before the tracking switches to it. 0 means that the
+     * level is only detected by switchLevel.
+     */
+    private final int levelSwitchScans;
+
 
     /**
      * Construct a new MultiLevelFingerprintManager.
@@ -119,6 +131,10 @@ public class MultiLevelFingerprintManager extends FingerprintManager implements
 
         super(activity, mapServerClient, mapView, mapName, false);
         this.osmParser = osmParser;
+        neighbourSearch = new NeighbourSearch(
+                activity.getResources().getInteger(R.integer.tracker_matching_mode),
+                activity.getResources().getInteger(R.integer.tracker_matching_parallelThreshold));
+        levelSwitchScans = activity.getResources().getInteger(R.integer.tracker_level_switchScans);
         downloadTasksList = new ArrayList<AsyncTask>();
         final Pattern baseNamePattern = Pattern.compile("(.*) \\[\\d,.*\\d\\]");
         final Matcher m = baseNamePattern.matcher(mapName);
@@ -155,9 +171,21 @@ public class MultiLevelFingerprintManager extends FingerprintManager implements
      * @param level the level of the building for which these are the fingerprints
      */
     public void setFingerprintsJson(final String json, final int level) {
-        final List<Fingerprint> fingerprints = parseJson(json);
+        setFingerprints(readFingerprintsJson(json), level);
+    }
+
+    /**
+     * Set the fingerprints for a specific level, from a complete FingerprintTable.
+     *
+     * @param fingerprints the FingerprintTable
+     * @param level the level of the building for which these are the fingerprints
+     */
+    public void setFingerprints(final FingerprintTable fingerprints, final int level) {
         final IndoorMap map = maps.get(level);
         map.setFingerprints(fingerprints);
+        synchronized (this) {
+            levelTracker = null;
+        }
     }
 
     /**
@@ -183,15 +211,9 @@ public class MultiLevelFingerprintManager extends FingerprintManager implements
         if (progressDialog == null) {
             wifiCapturer.stopSensors();
 
-            final RouterLevelHistogram rlh = RouterLevelHistogram.makeAverageHistogram(histogram);
-            final SortedMap<Float, Integer> divergenceMap = new TreeMap<Float, Integer>();
-
-            for (int level = minLevel; level <= maxLevel; level++) {
-                calculateLevelDivergence(level, rlh, divergenceMap);
-            }
-
-            if (!divergenceMap.isEmpty()) {
-                setLevel(findClosestLevel(divergenceMap));
+            final Integer level = getLevelTracker().detectLevel(histogram);
+            if (level != null) {
+                setLevel(level);
             }
 
             if (mapActivityWasScanning) {
@@ -200,6 +222,27 @@ public class MultiLevelFingerprintManager extends FingerprintManager implements
         }
     }
 
+    /**
+     * Follow the level with the LevelTracker, which only switches to another level when several scans in a row were
+     * made there. This runs in the background, with the fingerprints of all levels.
+     *
+     * @param histogram the histogram of the current scan
+     * @return true if the level has changed
+     */
+    @Override
+    public boolean trackLevel(final Histogram histogram) {
+        // Nothing to track before all levels are there, or if the tracking is switched off:
+        if ((progressDialog != null) || (levelSwitchScans <= 0)) {
+            return false;
+        }
+        final Integer level = getLevelTracker().update(histogram);
+        if ((level == null) || level.equals(currentLevel)) {
+            return false;
+        }
+        showLevel(level);
+        return true;
+    }
+
     /**
      * Set a specific level, exchanging the active overlay and thereby the fingerprints too.
      *
@@ -207,10 +250,37 @@ public class MultiLevelFingerprintManager extends FingerprintManager implements
      */
     public void setLevel(final int level) {
         if ((level <= maxLevel) && (level >= minLevel)) {
-            currentLevel = level;
-            final Handler mainHandler = new Handler(Looper.getMainLooper());
-            mainHandler.post(getNewRunnable());
+            synchronized (this) {
+                // A new LevelTracker starts with the currentLevel anyway:
+                if (levelTracker != null) {
+                    levelTracker.setLevel(level);
+                }
+            }
+            showLevel(level);
+        }
+    }
+
+    private void showLevel(final int level) {
+        currentLevel = level;
+        final Handler mainHandler = new Handler(Looper.getMainLooper());
+        mainHandler.post(getNewRunnable());
+    }
+
+    /**
+     * Get the LevelTracker, which compiles the fingerprints of all levels for the level detection when it is created.
+     *
+     * @return the LevelTracker
+     */
+    private synchronized LevelTracker getLevelTracker() {
+        if (levelTracker == null) {
+            final Map<Integer, FingerprintIndex> indexes = new HashMap<Integer, FingerprintIndex>();
+            for (int level = minLevel; level <= maxLevel; level++) {
+                indexes.put(level, maps.get(level).getLevelDetectionIndex());
+            }
+            levelTracker = new LevelTracker(indexes, neighbourSearch, Math.max(1, levelSwitchScans));
+            levelTracker.setLevel(currentLevel);
         }
+        return levelTracker;
     }
 
     // TODO: strange name...
@@ -221,6 +291,7 @@ public class MultiLevelFingerprintManager extends FingerprintManager implements
                 final IndoorMap map = maps.get(currentLevel);
                 configureMapView(map);
                 overlay = map.getFingerprintOverlay();
+                fingerprintIndex = map.getFingerprintIndex();
                 mapView.invalidate();
                 final WayManager wayManager = ((AbstractMapActivity) activity).getWayManager();
                 if (wayManager != null) {
@@ -273,57 +344,7 @@ public class MultiLevelFingerprintManager extends FingerprintManager implements
         for(AsyncTask task : downloadTasksList){
             task.cancel(true);
         }
-    }
-
-
-    /**
-     * Calculate the divergence from one histogram to all the fingerprints on one level and add them to a map.
-     * @param level the level to analyse
-     * @param rlh the current histogram
-     * @param divergenceMap map of divergence -> level where we add the data for the level
-     */
-    private void calculateLevelDivergence(final int level,
-                                          final RouterLevelHistogram rlh,
-                                          final SortedMap<Float, Integer> divergenceMap) {
-        overlay = maps.get(level).getFingerprintOverlay();
-        final List<Fingerprint> fingerprints = getFingerprints();
-
-        final RouterLevelDivergence divergenceAlgorithm = new KullbackLeibler();
-
-        for (Fingerprint fingerprint : fingerprints) {
-            final RouterLevelHistogram fingerprintRlh =
-                    RouterLevelHistogram.makeAverageHistogram(fingerprint.getHistogram());
-            divergenceAlgorithm.init(rlh, fingerprintRlh);
-            // A confidence < 0.4 is not considered relevant enough:
-            if (divergenceAlgorithm.getConfidence() > 0.4f) {
-                // TODO: in case of identical divergence this will overwrite the old value!!
-                divergenceMap.put(divergenceAlgorithm.getDivergence(), level);
-            }
-        }
-    }
-
-    /**
-     * Find the level that we most probably are on. At the moment that is the first level to reach 5 fingerprints,
-     * counted from the beginning of the divergenceMap.
-     * @param divergenceMap a sorted mapping of divergence to level number
-     * @return the current level number
-     */
-    private int findClosestLevel(final SortedMap<Float, Integer> divergenceMap) {
-        final Map<Integer, Integer> hitList = new HashMap<Integer, Integer>();
-
-        for (Integer level : divergenceMap.values()) {
-            Integer count = hitList.get(level);
-            if (count == null) {
-                count = 0;
-            }
-            hitList.put(level, ++count);
-            if (count == 5) {
-                return level;
-            }
-        }
-
-        // Too few fingerprints for any level to reach 3!?
-        return divergenceMap.get(divergenceMap.firstKey());
+        neighbourSearch.shutdown();
     }
 
 
@@ -12,23 +12,23 @@ import de.tarent.nic.android.base.position.UserPositionItem;
 import de.tarent.nic.android.base.position.UserPositionManager;
 import de.tarent.nic.android.base.sensor.DeadReckoning;
 import de.tarent.nic.android.base.sensor.SensorCollector;
-import de.tarent.nic.entities.Edge;
-import de.tarent.nic.entities.Fingerprint;
 import de.tarent.nic.entities.Histogram;
 import de.tarent.nic.entities.NicGeoPoint;
 import de.tarent.nic.tracker.interpolation.PositionInterpolator;
 import de.tarent.nic.tracker.interpolation.ReciprocalInterpolation;
-import de.tarent.nic.tracker.mapmatching.SimpleWaySnap;
+import de.tarent.nic.tracker.mapmatching.WaySnap;
+import de.tarent.nic.tracker.neighbour.Neighbour;
+import de.tarent.nic.tracker.neighbour.NeighbourSearch;
 import de.tarent.nic.tracker.outlier.CentroidMedianEliminator;
 import de.tarent.nic.tracker.outlier.OutlierEliminator;
 import de.tarent.nic.tracker.outlier.PlasmonaOutlierEliminator;
+import de.tarent.nic.tracker.pipeline.LocalizationPipeline;
+import de.tarent.nic.tracker.wifi.CandidateFilter;
+import de.tarent.nic.tracker.wifi.FingerprintIndex;
 import de.tarent.nic.tracker.wifi.HistogramConsumer;
-import de.tarent.nic.tracker.wifi.RouterLevelHistogram;
-import de.tarent.nic.tracker.wifi.divergence.KullbackLeibler;
-import de.tarent.nic.tracker.wifi.divergence.RouterLevelDivergence;
+import de.tarent.nic.tracker.wifi.LevelVector;
 
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -46,16 +46,17 @@ public class UserLocator implements HistogramConsumer {
 
     public static final String TAG = UserLocator.class.getCanonicalName();
 
-    public static final int OUTLIER_MODE_NO_DETECTION = 1;
-    public static final int OUTLIER_MODE_CME = 2;
-    public static final int OUTLIER_MODE_PLASMONA = 3;
+    // The modes are the same as in the LocalizationPipeline, which does the wifi-localization without android:
+    public static final int OUTLIER_MODE_NO_DETECTION = LocalizationPipeline.OUTLIER_MODE_NO_DETECTION;
+    public static final int OUTLIER_MODE_CME = LocalizationPipeline.OUTLIER_MODE_CME;
+    public static final int OUTLIER_MODE_PLASMONA = LocalizationPipeline.OUTLIER_MODE_PLASMONA;
 
-    public static final int STATISTIC_FILTER_MODE_NO_FILTER = 1;
-    public static final int STATISTIC_FILTER_MODE_MEDIAN = 2;
-    public static final int STATISTIC_FILTER_MODE_AVERAGE = 3;
+    public static final int STATISTIC_FILTER_MODE_NO_FILTER = LocalizationPipeline.STATISTIC_FILTER_MODE_NO_FILTER;
+    public static final int STATISTIC_FILTER_MODE_MEDIAN = LocalizationPipeline.STATISTIC_FILTER_MODE_MEDIAN;
+    public static final int STATISTIC_FILTER_MODE_AVERAGE = LocalizationPipeline.STATISTIC_FILTER_MODE_AVERAGE;
 
-    public static final int MAP_MATCHING_MODE_NONE = 1;
-    public static final int MAP_MATCHING_MODE_SIMPLE_WAY_SNAP = 2;
+    public static final int MAP_MATCHING_MODE_NONE = LocalizationPipeline.MAP_MATCHING_MODE_NONE;
+    public static final int MAP_MATCHING_MODE_SIMPLE_WAY_SNAP = LocalizationPipeline.MAP_MATCHING_MODE_SIMPLE_WAY_SNAP;
 
     public static final int LOCALIZATION_MODE_PARTICLEFILTER = 1;
     public static final int LOCALIZATION_MODE_WIFI = 2;
@@ -77,6 +78,8 @@ public class UserLocator implements HistogramConsumer {
     NicGeoPoint currentPoint;
     // This is the next result from the wifi-tracking only.
     NicGeoPoint nextWifiPoint;
+    // This is the histogram of that result, for the detection of the level.
+    Histogram nextLevelHistogram;
 
 
     Set<SensorCollector> sensorCollectors = new HashSet<SensorCollector>();
@@ -120,6 +123,15 @@ public class UserLocator implements HistogramConsumer {
 
     private ParticleFilter particleFilter;
 
+    /**
+     * The width of the corridors along the ways, in meters, to which the particles are constrained.
+     */
+    private float walkableWidth;
+
+    private CandidateFilter candidateFilter;
+
+    private NeighbourSearch neighbourSearch;
+
 
     /**
      * Construct a new UserLocator.
@@ -160,7 +172,9 @@ public class UserLocator implements HistogramConsumer {
         this.history = history;
 
         particleFilter = new ParticleFilter(ctx, userPositionManager);
+        walkableWidth = ctx.getResources().getInteger(R.integer.particles_walkable_width) / 100f;
         this.localizationMode = ctx.getResources().getInteger(R.integer.localizationMode);
+        setMatchingMode(ctx.getResources().getInteger(R.integer.tracker_matching_mode));
     }
 
 
@@ -253,6 +267,8 @@ public class UserLocator implements HistogramConsumer {
             Log.e(TAG, "STOP TRACKING USER LOCATOR!");
             isTracking = false;
 
+            neighbourSearch.shutdown();
+
             userPositionManager.disablePosition();
         }
     }
@@ -269,6 +285,7 @@ public class UserLocator implements HistogramConsumer {
             if (currentPoint == null) {
                 initPosition();
             }
+            trackLevel();
             synchronized (wifiPointLock) {
                 if (localizationMode == LOCALIZATION_MODE_PARTICLEFILTER) {
                     trackWithParticleFilter();
@@ -287,7 +304,28 @@ public class UserLocator implements HistogramConsumer {
         }
     }
 
+    /**
+     * The permanent level detection. It runs here, on the timer thread, rather than in addHistogram, which is called
+     * on the UI thread, because it needs to compare the scan with the fingerprints of all levels.
+     */
+    private void trackLevel() {
+        final Histogram histogram;
+        synchronized (wifiPointLock) {
+            histogram = nextLevelHistogram;
+            nextLevelHistogram = null;
+        }
+        if ((histogram != null) && (fingerprintManager != null) && fingerprintManager.trackLevel(histogram)) {
+            // The particles are still on the old level:
+            resetParticleFilter();
+        }
+    }
+
     private void trackWithParticleFilter() { //NOSONAR
+        if (wayManager != null) {
+            // The particles live in map coordinates, so the corridors are scaled like the sigmas. The WayManager
+            // builds a new mask when the scale, and thereby the width, changes:
+            particleFilter.setWalkableMask(wayManager.getWalkableMask(walkableWidth * scale));
+        }
         if (nextWifiPoint != null) {
             if (!pfInit) {
                 if (scale > 0.f) {
@@ -333,13 +371,17 @@ public class UserLocator implements HistogramConsumer {
 
     @Override
     public void addHistogram(final Histogram histogram) {
-        // TODO: wenn wir permanente (etagen-)autodetection haben wollten dann waere das ungefaehr hier, aber eigentlich
-        //       ist das bloed, um die initialen daten zu setzen, daher passiert aktuell noch nix.
-        final SortedSet<NicGeoPoint> divergenceSet = calculateDivergences(histogram);
-
-        final SortedSet<NicGeoPoint> nextNeighbours = getNearestNeighbours(divergenceSet);
-        userPositionManager.setNeighboursWithOutliers(new TreeSet<NicGeoPoint>(nextNeighbours));
+        final List<Neighbour<NicGeoPoint>> nextNeighbours = getNearestNeighbours(histogram);
+        userPositionManager.setNeighboursWithOutliers(toPointSet(nextNeighbours));
 
+        if (nextNeighbours.isEmpty()) {
+            // No fingerprint shares enough access points with the scan, so there is no new position, and the last one
+            // is kept. The scan may still belong to another level, though:
+            synchronized (wifiPointLock) {
+                nextLevelHistogram = histogram;
+            }
+            return;
+        }
         removeOutliers(nextNeighbours);
 
         // TODO: make the interpolator configurable:
@@ -347,10 +389,12 @@ public class UserLocator implements HistogramConsumer {
         final NicGeoPoint point = interpolator.interpolatePosition(nextNeighbours);
         synchronized (wifiPointLock) {
             nextWifiPoint = point;
+            // The level is detected by the localisationLoop:
+            nextLevelHistogram = histogram;
         }
-        // We need a copy of the neighbours so that they can be used for drawing, while outliers are removed, etc. in
-        // the next iteration:
-        lastNeighbours = new TreeSet<NicGeoPoint>(nextNeighbours);
+        // The neighbours only reference the points of the fingerprints, which must not be used for drawing. So we
+        // keep copies of them for the next iteration:
+        lastNeighbours = toPointSet(nextNeighbours);
     }
 
 
@@ -391,26 +435,59 @@ public class UserLocator implements HistogramConsumer {
     }
 
     /**
-     * Gets a set number of nearestNeighbours from the complete divergenceSet given. Because it is a {@link SortedSet}
-     * only those closest to the point are taken.
+     * Choose whether the fingerprints are compared with the histograms sequentially or in parallel. The parallel mode
+     * only uses several threads if there are at least as many candidates as configured by the resource
+     * tracker_matching_parallelThreshold. Both modes find exactly the same neighbours.
      *
-     * -> yes, that's correct. It's more of a "cut off all the neighbours farther away than the first N".
-     * @param divergenceSet the complete set of neighbours
-     * @return the nearest neighbours
+     * @param matchingMode NeighbourSearch.MATCHING_MODE_SEQUENTIAL or NeighbourSearch.MATCHING_MODE_PARALLEL
      */
-    protected SortedSet<NicGeoPoint> getNearestNeighbours(final SortedSet<NicGeoPoint> divergenceSet) {
+    public void setMatchingMode(final int matchingMode) {
+        if (neighbourSearch != null) {
+            neighbourSearch.shutdown();
+        }
+        neighbourSearch = new NeighbourSearch(matchingMode,
+                ctx.getResources().getInteger(R.integer.tracker_matching_parallelThreshold));
+    }
 
-        final SortedSet<NicGeoPoint> nearestNeighbours = new TreeSet<NicGeoPoint>();
+    /**
+     * Compare a histogram with the fingerprints and find the nearest of them. The number of neighbours is
+     * configured by the resource tracker_num_neighbours. The points of the fingerprints are not modified, because the
+     * divergences are stored in the neighbours.
+     * Only the fingerprints that are selected by the {@link CandidateFilter} are compared with the histogram.
+     *
+     * @param histogram the current measurement
+     * @return the nearest neighbours, sorted by divergence: nearest first
+     */
+    protected List<Neighbour<NicGeoPoint>> getNearestNeighbours(final Histogram histogram) {
+        // The fingerprints were already reduced to sorted LevelVectors when the index was built:
+        final FingerprintIndex index = fingerprintManager.getFingerprintIndex();
+        final LevelVector measurement = index.encode(histogram);
 
-        // TODO: find a direct way to get the nearest X entries, instead of looping:
-        int neighbourCount = ctx.getResources().getInteger(R.integer.tracker_num_neighbours);
-        for (final NicGeoPoint point : divergenceSet) {
-            nearestNeighbours.add(point);
-            if (--neighbourCount == 0) {
-                break;
-            }
+        final CandidateFilter filter = getCandidateFilter(index);
+        final int count = filter.select(measurement);
+        // TODO: make divergence-algorithm configurable (when we have more than this one...):
+        final List<Neighbour<NicGeoPoint>> neighbours =
+                neighbourSearch.search(index, measurement, filter.getCandidates(), count,
+                                       ctx.getResources().getInteger(R.integer.tracker_num_neighbours),
+                                       NeighbourSearch.ANY_CONFIDENCE);
+        return neighbours;
+    }
+
+    /**
+     * Get the CandidateFilter for the current FingerprintIndex. A new one is created whenever the index changes.
+     * Its thresholds are configured by the resources tracker_candidates_*.
+     *
+     * @param index the current FingerprintIndex
+     * @return the CandidateFilter, whose evaluated/skipped counts cover all measurements since the index changed
+     */
+    protected CandidateFilter getCandidateFilter(final FingerprintIndex index) {
+        if ((candidateFilter == null) || (candidateFilter.getIndex() != index)) {
+            candidateFilter = new CandidateFilter(index,
+                    ctx.getResources().getInteger(R.integer.tracker_candidates_minSharedAccessPoints),
+                    ctx.getResources().getInteger(R.integer.tracker_candidates_strongestAccessPoints),
+                    ctx.getResources().getInteger(R.integer.tracker_candidates_minStrongestSharePercent) / 100f);
         }
-        return nearestNeighbours;
+        return candidateFilter;
     }
 
     private void startTimer() {
@@ -436,25 +513,16 @@ public class UserLocator implements HistogramConsumer {
         }
     }
 
-    private SortedSet<NicGeoPoint> calculateDivergences(final Histogram histogram) {
-        final SortedSet<NicGeoPoint> divergenceSet = new TreeSet<NicGeoPoint>();
-
-        final List<Fingerprint> fingerprints = fingerprintManager.getFingerprints();
-        // TODO: make divergence-algorithm configurable (when we have more than this one...):
-        final RouterLevelDivergence divergenceAlgorithm = new KullbackLeibler();
-        // TODO: make histogram-type configurable:
-        final RouterLevelHistogram rlh = RouterLevelHistogram.makeMedianHistogram(histogram);
-
-        for (final Fingerprint fingerprint : fingerprints) {
-            // TODO: make histogram-type configurable:
-            final RouterLevelHistogram fingerprintRlh =
-                    RouterLevelHistogram.makeMedianHistogram(fingerprint.getHistogram());
-            divergenceAlgorithm.init(rlh, fingerprintRlh);
-            final NicGeoPoint point = fingerprint.getPoint();
-            point.setDivergence(divergenceAlgorithm.getDivergence());
-            divergenceSet.add(point);
+    // Make new points from the neighbours, with their divergences, for the UserPositionManager.
+    private SortedSet<NicGeoPoint> toPointSet(final List<Neighbour<NicGeoPoint>> neighbours) {
+        final SortedSet<NicGeoPoint> points = new TreeSet<NicGeoPoint>();
+        for (final Neighbour<NicGeoPoint> neighbour : neighbours) {
+            final NicGeoPoint point = new NicGeoPointImpl(neighbour.getPoint().getLatitudeE6(),
+                                                          neighbour.getPoint().getLongitudeE6());
+            point.setDivergence(neighbour.getDivergence());
+            points.add(point);
         }
-        return divergenceSet;
+        return points;
     }
 
     /**
@@ -462,9 +530,9 @@ public class UserLocator implements HistogramConsumer {
      * candidates set.
      * DEFAULT algorithm is CentroidMedianEliminator
      *
-     * @param nearestNeighbours set of fingerprints, already containing possible nearest neighbours
+     * @param nearestNeighbours list of neighbours, already containing possible nearest neighbours
      */
-    private void removeOutliers(final SortedSet<NicGeoPoint> nearestNeighbours) {
+    private void removeOutliers(final List<Neighbour<NicGeoPoint>> nearestNeighbours) {
         OutlierEliminator eliminator;
         switch (outlierMode){
             case OUTLIER_MODE_NO_DETECTION:
@@ -526,10 +594,9 @@ public class UserLocator implements HistogramConsumer {
      */
     NicGeoPoint calculateSimpleWaySnapPoint(final NicGeoPoint point) {
         if (wayManager != null) {
-            final Collection<Edge> edges = wayManager.getEdges();
-            if (edges != null && !edges.isEmpty()) {
-                final SimpleWaySnap sws = new SimpleWaySnap(new NicGeoPointFactory(), edges);
-                return sws.snap(point);
+            final WaySnap waySnap = wayManager.getWaySnap();
+            if (waySnap != null) {
+                return waySnap.snap(point);
             }
         } else {
             Log.e(TAG, "MapMatchingMode is MAP_MATCHING_MODE_SIMPLE_WAY_SNAP but not WayManager is defined!");
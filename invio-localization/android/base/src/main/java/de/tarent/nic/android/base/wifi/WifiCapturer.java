@@ -12,9 +12,12 @@ import android.util.Log;
 import de.tarent.nic.android.base.sensor.SensorCollector;
 import de.tarent.nic.entities.Histogram;
 import de.tarent.nic.entities.WifiScanResult;
+import de.tarent.nic.tracker.trace.ScanTraceWriter;
 import de.tarent.nic.tracker.wifi.HistogramBuilder;
 import de.tarent.nic.tracker.wifi.HistogramConsumer;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -73,6 +76,11 @@ public class WifiCapturer implements SensorCollector {
      */
     private WifiReceiver wifiReceiver;
 
+    /**
+     * The optional recorder, which appends every scan to a binary trace so that field problems can be replayed later.
+     */
+    private ScanTraceWriter recorder;
+
 
     /**
      * Construct a new WifiCapturer for a specific Activity. This constructor cannot be used for tracking, only for
@@ -142,6 +150,56 @@ public class WifiCapturer implements SensorCollector {
     }
 
 
+    /**
+     * Start recording all following scans into a compact binary trace, which can be read again with the
+     * {@link de.tarent.nic.tracker.trace.ScanTraceReader}. The recording costs a few KB per minute and is written by a
+     * background thread, so it can stay on during normal use. A running recording is stopped first.
+     *
+     * @param out the stream for the trace, e.g. a FileOutputStream. It will be closed by {@link #stopRecording()}.
+     */
+    public void startRecording(final OutputStream out) {
+        stopRecording();
+        recorder = new ScanTraceWriter(out);
+    }
+
+    /**
+     * Stop recording the scans, write the remaining ones and close the stream. Does nothing if there is no recording.
+     */
+    public void stopRecording() {
+        if (recorder == null) {
+            return;
+        }
+        try {
+            recorder.close();
+            if (recorder.getDroppedScans() > 0) {
+                Log.w(TAG, "Dropped " + recorder.getDroppedScans() + " scans from the recording");
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "The scan recording failed: " + e.getMessage());
+        }
+        recorder = null;
+    }
+
+    public boolean isRecording() {
+        return recorder != null;
+    }
+
+    /**
+     * Append a scan to the recording. The list is walked by index, because even an Iterator would be an allocation
+     * per scan.
+     *
+     * @param scanResults the List of scan results that the WifiManager supplied
+     */
+    private void record(final List<ScanResult> scanResults) {
+        recorder.beginScan(System.currentTimeMillis());
+        for (int i = 0; i < scanResults.size(); i++) {
+            final ScanResult scanResult = scanResults.get(i);
+            recorder.addAccessPoint(scanResult.BSSID, scanResult.level);
+        }
+        recorder.endScan();
+    }
+
+
     /**
      * The callback-class that will receive the SCAN_RESULTS_AVAILABLE_ACTION notifications. It will integrate the
      * scan results into the Capturers HistogramBuilder and will start a new scan, until the planned scan-number
@@ -159,6 +217,9 @@ public class WifiCapturer implements SensorCollector {
         public void onReceive(final Context c, final Intent intent) {
             final List<ScanResult> scan = wifi.getScanResults();
 
+            if (recorder != null) {
+                record(scan);
+            }
             histogramBuilder.addScanResults(copyScanResults(scan));
 
             // Without a progressDialog we will just keep on scanning until stopScan() has turned off the callbacks to
@@ -0,0 +1,131 @@
+package de.tarent.nic.android.base.cache;
+
+import de.tarent.nic.mapserver.MapServerClient;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(RobolectricTestRunner.class)
+public class CachedResourceTest {
+
+    private static final String MAP_NAME = "test";
+
+    private static final long MAX_AGE = 60 * 1000L;
+
+    @Mock
+    public MapServerClient mapServerClient;
+
+    private File root;
+
+    private MapResourceCache cache;
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        when(mapServerClient.downloadMapData(MAP_NAME)).thenReturn("<osm version='0.6'/>");
+
+        // A directory that does not exist yet, like the cache of an app that has never downloaded anything:
+        root = File.createTempFile("mapresourcecache", "");
+        root.delete();
+        cache = new MapResourceCache(root, Long.MAX_VALUE, MAX_AGE);
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.deleteQuietly(root);
+    }
+
+
+    @Test
+    public void testTheFirstUpdateWritesTheFile() throws Exception {
+        final CachedResource resource = cache.getResource(MAP_NAME, "mapdata.xml");
+        assertFalse(resource.exists());
+        assertFalse(resource.isFresh());
+
+        assertTrue(resource.update(mapServerClient.downloadMapData(MAP_NAME)));
+
+        assertTrue(resource.exists());
+        assertTrue(resource.isFresh());
+        assertEquals("<osm version='0.6'/>", resource.read());
+        assertFalse(new File(resource.getFile().getPath() + ".tmp").exists());
+    }
+
+    @Test
+    public void testTheSameContentIsNotWrittenAgain() throws Exception {
+        final CachedResource resource = new MapResourceCache(root, Long.MAX_VALUE, 0).getResource(MAP_NAME, "x.xml");
+        resource.update(mapServerClient.downloadMapData(MAP_NAME));
+        resource.getFile().setLastModified(1000L);
+
+        assertFalse(resource.update(mapServerClient.downloadMapData(MAP_NAME)));
+        assertEquals(1000L, resource.getFile().lastModified());
+
+        when(mapServerClient.downloadMapData(MAP_NAME)).thenReturn("<osm version='0.6'><node/></osm>");
+        assertTrue(resource.update(mapServerClient.downloadMapData(MAP_NAME)));
+        assertEquals("<osm version='0.6'><node/></osm>", resource.read());
+    }
+
+    @Test
+    public void testTheServerIsOnlyAskedWhenTheResourceIsNotFresh() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            final CachedResource resource = cache.getResource(MAP_NAME, "mapdata.xml");
+            if (!resource.isFresh()) {
+                resource.update(mapServerClient.downloadMapData(MAP_NAME));
+            }
+        }
+        verify(mapServerClient, times(1)).downloadMapData(MAP_NAME);
+        assertEquals(2, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals("<osm version='0.6'/>".length(), cache.getBytesDownloaded());
+
+        // Without a maximum age it is never fresh:
+        assertFalse(new MapResourceCache(root, Long.MAX_VALUE, 0).getResource(MAP_NAME, "mapdata.xml").isFresh());
+    }
+
+    @Test
+    public void testATruncatedFileDoesNotExist() throws Exception {
+        final CachedResource resource = cache.getResource(MAP_NAME, "mapdata.xml");
+        resource.update(mapServerClient.downloadMapData(MAP_NAME));
+
+        final RandomAccessFile raf = new RandomAccessFile(resource.getFile(), "rw");
+        try {
+            raf.setLength(raf.length() - 1);
+        } finally {
+            raf.close();
+        }
+
+        assertFalse(resource.exists());
+        assertFalse(resource.isFresh());
+    }
+
+    @Test(expected = IOException.class)
+    public void testABrokenFileIsNotRead() throws Exception {
+        final CachedResource resource = cache.getResource(MAP_NAME, "mapdata.xml");
+        resource.update(mapServerClient.downloadMapData(MAP_NAME));
+        // The same length, but not the same content:
+        FileUtils.writeStringToFile(resource.getFile(), "<osm version='0.7'/>", "UTF-8");
+
+        resource.read();
+    }
+
+    @Test(expected = IOException.class)
+    public void testReadWithoutCache() throws IOException {
+        cache.getResource(MAP_NAME, "mapdata.xml").read();
+    }
+
+}
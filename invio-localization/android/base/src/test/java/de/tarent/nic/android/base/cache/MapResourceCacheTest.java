@@ -0,0 +1,124 @@
+package de.tarent.nic.android.base.cache;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class MapResourceCacheTest {
+
+    private static final long MAX_AGE = 60 * 1000L;
+
+    private static final String CONTENT = "0123456789012345678901234567890123456789012345678901234567890123456789";
+
+    private File root;
+
+    @Before
+    public void setUp() throws Exception {
+        root = File.createTempFile("mapresourcecache", "");
+        root.delete();
+
+        // Three maps, which were used one after the other in an earlier session:
+        final MapResourceCache earlier = new MapResourceCache(root, Long.MAX_VALUE, MAX_AGE);
+        long time = System.currentTimeMillis() - 3 * MAX_AGE;
+        for (final String mapName : new String[] {"b", "a", "c"}) {
+            earlier.getResource(mapName, "mapdata.xml").update(CONTENT);
+            new File(earlier.getDirectory(mapName), ".lastused").setLastModified(time);
+            time += MAX_AGE;
+        }
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.deleteQuietly(root);
+    }
+
+
+    @Test
+    public void testTheLeastRecentlyUsedMapsAreEvicted() throws Exception {
+        final long size = new MapResourceCache(root, Long.MAX_VALUE, MAX_AGE).getSize();
+        final MapResourceCache cache = new MapResourceCache(root, size, MAX_AGE);
+
+        // A new map, which doesn't fit anymore:
+        cache.getResource("d", "mapdata.xml").update(CONTENT);
+
+        assertFalse(new File(root, "b").exists());
+        assertTrue(new File(root, "a").exists());
+        assertTrue(new File(root, "c").exists());
+        assertTrue(cache.getResource("d", "mapdata.xml").exists());
+        assertTrue(cache.getSize() <= cache.getBudget());
+        assertEquals(size / 3, cache.getBytesEvicted());
+    }
+
+    @Test
+    public void testTheMapsThatAreOpenAreNotEvicted() throws Exception {
+        final MapResourceCache cache = new MapResourceCache(root, 1, MAX_AGE);
+        cache.open("b");
+
+        cache.getResource("d", "mapdata.xml").update(CONTENT);
+
+        assertTrue(new File(root, "b").exists());
+        assertFalse(new File(root, "a").exists());
+        assertFalse(new File(root, "c").exists());
+        assertTrue(cache.getResource("d", "mapdata.xml").exists());
+    }
+
+    @Test
+    public void testTheMapsThatWereUsedAndClosedAreEvicted() throws Exception {
+        final MapResourceCache cache = new MapResourceCache(root, 1, MAX_AGE);
+        cache.open("b");
+        cache.open("b");
+        assertEquals(CONTENT, cache.getResource("a", "mapdata.xml").read());
+        cache.close("b");
+        cache.close("b");
+
+        cache.getResource("d", "mapdata.xml").update(CONTENT);
+
+        assertFalse(new File(root, "a").exists());
+        assertFalse(new File(root, "b").exists());
+        assertFalse(new File(root, "c").exists());
+    }
+
+    @Test
+    public void testTheLastUseIsOnlyRecordedOncePerSession() throws Exception {
+        final MapResourceCache cache = new MapResourceCache(root, Long.MAX_VALUE, MAX_AGE);
+        final File lastUsed = new File(cache.getDirectory("a"), ".lastused");
+
+        cache.getResource("a", "mapdata.xml").read();
+        final long time = System.currentTimeMillis() - MAX_AGE;
+        lastUsed.setLastModified(time);
+        cache.getResource("a", "mapdata.xml").read();
+
+        assertEquals(time / 1000, lastUsed.lastModified() / 1000);
+    }
+
+    @Test
+    public void testNothingIsEvictedWithinTheBudget() throws Exception {
+        final MapResourceCache cache = new MapResourceCache(root, Long.MAX_VALUE, MAX_AGE);
+
+        cache.getResource("d", "mapdata.xml").update(CONTENT);
+
+        assertEquals(4, root.listFiles().length);
+        assertEquals(0, cache.getBytesEvicted());
+    }
+
+    @Test
+    public void testServedBytes() throws Exception {
+        final MapResourceCache cache = new MapResourceCache(root, Long.MAX_VALUE, MAX_AGE);
+
+        assertEquals(CONTENT, cache.getResource("a", "mapdata.xml").read());
+        cache.getResource("b", "mapdata.xml").openStream().close();
+
+        assertEquals(2 * CONTENT.length(), cache.getBytesServed());
+    }
+
+}
@@ -1,18 +1,30 @@
 package de.tarent.nic.android.base.mapmatching;
 
+import de.tarent.nic.android.base.position.NicGeoPointImpl;
 import de.tarent.nic.android.base.task.DownloadMapDataTask;
 import de.tarent.nic.android.base.task.DownloadTask;
 import de.tarent.nic.android.base.task.OsmParserKeys;
 import de.tarent.nic.entities.Edge;
+import de.tarent.nic.entities.NicGeoPoint;
+import de.tarent.nic.tracker.mapmatching.WalkableMask;
+import de.tarent.nic.tracker.mapmatching.WaySnap;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.robolectric.RobolectricTestRunner;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
@@ -53,4 +65,50 @@ public class WayManagerTest {
         verify(wayManagerSpy, times(0)).setEdges(edges);
     }
 
+    @Test
+    public void testThatTheWaySnapIsReusedUntilTheEdgesChange() {
+        final WayManager wayManager = new WayManager();
+        assertNull(wayManager.getWaySnap());
+
+        final List<Edge> edges = new ArrayList<Edge>();
+        edges.add(new Edge(new NicGeoPointImpl(0, 0), new NicGeoPointImpl(0, 1000)));
+        wayManager.setEdges(edges);
+        final WaySnap waySnap = wayManager.getWaySnap();
+
+        assertSame(waySnap, wayManager.getWaySnap());
+        final NicGeoPoint snapped = waySnap.snap(new NicGeoPointImpl(100, 500));
+        assertEquals(0, snapped.getLatitudeE6());
+        assertEquals(500, snapped.getLongitudeE6());
+
+        wayManager.setEdges(new ArrayList<Edge>(edges));
+        assertNotSame(waySnap, wayManager.getWaySnap());
+
+        wayManager.setEdges(new ArrayList<Edge>());
+        assertNull(wayManager.getWaySnap());
+    }
+
+    @Test
+    public void testThatTheWalkableMaskIsReusedUntilTheEdgesOrTheWidthChange() {
+        final WayManager wayManager = new WayManager();
+        assertNull(wayManager.getWalkableMask(2));
+
+        final NicGeoPoint a = new NicGeoPointImpl();
+        a.setXY(0, 0);
+        final NicGeoPoint b = new NicGeoPointImpl();
+        b.setXY(50, 0);
+        final List<Edge> edges = new ArrayList<Edge>();
+        edges.add(new Edge(a, b));
+        wayManager.setEdges(edges);
+        final WalkableMask mask = wayManager.getWalkableMask(2);
+
+        assertSame(mask, wayManager.getWalkableMask(2));
+        assertTrue(mask.isWalkable(25, 0.5));
+        assertFalse(mask.isWalkable(25, 5));
+        assertNull(wayManager.getWalkableMask(0));
+
+        assertNotSame(mask, wayManager.getWalkableMask(4));
+        wayManager.setEdges(new ArrayList<Edge>(edges));
+        assertNotSame(mask, wayManager.getWalkableMask(2));
+    }
+
 }
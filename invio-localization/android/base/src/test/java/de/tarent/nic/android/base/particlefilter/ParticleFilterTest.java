@@ -2,18 +2,26 @@ package de.tarent.nic.android.base.particlefilter;
 
 
 import android.content.Context;
+import de.tarent.nic.android.base.position.NicGeoPointImpl;
 import de.tarent.nic.android.base.position.UserPositionManager;
+import de.tarent.nic.entities.Edge;
 import de.tarent.nic.entities.NicGeoPoint;
+import de.tarent.nic.tracker.mapmatching.WalkableMask;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.robolectric.Robolectric;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
 
@@ -150,6 +158,170 @@ public class ParticleFilterTest {
         assertEquals(5.f, pos.getY(), 0.2f);
     }
 
+    @Test
+    public void testParticleViewIsASnapshot() {
+        pf = new ParticleFilterTestable();
+        pf.setNumParticles(2);
+        pf.setShowParticles(true);
+
+        pf.particleList.add(new Particle(1.f, 2.f, 0.9f));
+        pf.particleList.add(new Particle(3.f, 4.f, 0.1f));
+
+        final ParticleView view = pf.getParticles();
+        assertEquals(2, view.size());
+        assertEquals(3.f, view.getX(1), 0.0001f);
+        assertEquals(4.f, view.getY(1), 0.0001f);
+        assertEquals(0.1f, view.getWeight(1), 0.0001f);
+
+        pf.sigmaSensor = 1.f;
+        pf.setScale(1.f);
+        pf.resampling();
+
+        // The old snapshot doesn't change, the UserPositionManager gets a new one:
+        assertEquals(3.f, view.getX(1), 0.0001f);
+        assertEquals(0.1f, view.getWeight(1), 0.0001f);
+        final ArgumentCaptor<ParticleView> shown = ArgumentCaptor.forClass(ParticleView.class);
+        verify(userPosManager).setParticles(shown.capture());
+        assertEquals(2, shown.getValue().size());
+        assertEquals(1.1f, shown.getValue().getX(0), 0.0001f);
+        assertEquals(1.1f, shown.getValue().getX(1), 0.0001f);
+        assertEquals(0.5f, shown.getValue().getWeight(0), 0.0001f);
+
+        pf.clearParticles();
+        assertEquals(2, shown.getValue().size());
+        assertEquals(0, pf.getParticles().size());
+    }
+
+    @Test
+    public void testMoreParticles() {
+        pf = new ParticleFilterTestable();
+        pf.setNumParticles(2);
+        pf.setScale(1.f);
+        pf.sigmaInit = 1.f;
+        pf.sigmaSensor = 1.f;
+        pf.initialize(0, 0);
+
+        pf.setNumParticles(5000);
+        pf.resampling();
+
+        assertEquals(5000, pf.particleList.size());
+        assertEquals(0.0002f, pf.particleList.get(4999).getWeight(), 0.000001f);
+        assertEquals(0.2f, pf.particleList.get(4999).getX(), 0.0001f);
+    }
+
+    @Test
+    public void testKldBound() {
+        pf = new ParticleFilterTestable();
+        pf.setKldErrorBounds(0.05f, 0.01f);
+
+        assertEquals(2.326, ParticleFilter.normalQuantile(0.01), 0.001);
+        assertEquals(1, pf.kldBound(1));
+        assertEquals(66, pf.kldBound(2));
+        assertEquals(217, pf.kldBound(10));
+    }
+
+    @Test
+    public void testAdaptiveParticleCountShrinksWhenConcentrated() {
+        pf = new ParticleFilterTestable();
+        pf.setAdaptive(true);
+        pf.setParticleLimits(10, 1000);
+        pf.setScale(1.f);
+        pf.sigmaInit = 1.f;
+        pf.sigmaSensor = 1.f;
+
+        pf.initialize(0, 0);
+        assertEquals(1000, pf.getParticleCount());
+
+        // All particles are at the same position, in a single cell of the grid:
+        pf.updateSensor(0, 0);
+        pf.resampling();
+        assertEquals(10, pf.getParticleCount());
+        assertEquals(0.1f, pf.particleList.get(0).getWeight(), 0.0001f);
+        assertEquals(0.0, pf.getSpread(), 0.0001);
+    }
+
+    @Test
+    public void testAdaptiveParticleCountGrowsWhenSpread() {
+        pf = new ParticleFilterTestable() {
+            private double random;
+
+            @Override
+            protected double nextRandom() {
+                // Evenly spread values, so that different particles are drawn:
+                random = (random + 0.618034) % 1;
+                return random;
+            }
+        };
+        pf.setAdaptive(true);
+        pf.setParticleLimits(10, 500);
+        pf.setScale(1.f);
+        pf.kldBinSize = 1.f;
+        pf.sigmaSensor = 0.f;
+
+        for (int i = 0; i < 200; i++) {
+            pf.particleList.add(new Particle(i * 100, 0, 1.0 / 200));
+        }
+        assertEquals(5773.5, pf.getSpread(), 0.1);
+
+        pf.resampling();
+        assertEquals(500, pf.getParticleCount());
+        assertEquals(0.002f, pf.particleList.get(499).getWeight(), 0.0001f);
+    }
+
+    @Test
+    public void testParticlesOutsideOfTheWalkableAreaLoseWeight() {
+        pf = new ParticleFilterTestable();
+        pf.setNumParticles(2);
+        pf.setScale(1.f);
+        pf.sigmaAction = 1.f;
+        pf.setOffMapWeight(0.05f);
+
+        // A corridor along the x-axis, 2m wide:
+        final List<Edge> edges = new ArrayList<Edge>();
+        edges.add(new Edge(makePoint(0, 0), makePoint(100, 0)));
+        pf.setWalkableMask(new WalkableMask(edges, 2));
+
+        pf.particleList.add(new Particle(10.f, 0.f, 0.5f));
+        pf.particleList.add(new Particle(10.f, 50.f, 0.5f));
+
+        pf.updateAction(1, 0);
+        assertEquals(0.952f, pf.particleList.get(0).getWeight(), 0.001f);
+        assertEquals(0.048f, pf.particleList.get(1).getWeight(), 0.001f);
+        assertEquals(2.48f, pf.calculatePosition().getY(), 0.1f);
+
+        // The sensor update keeps that, although both particles have the same distance from the measurement:
+        pf.updateSensor(11.1, 25.1);
+        assertEquals(0.952f, pf.particleList.get(0).getWeight(), 0.001f);
+    }
+
+    @Test
+    public void testThatTheOffMapPenaltyDoesNotCompound() {
+        pf = new ParticleFilterTestable();
+        pf.setNumParticles(2);
+        pf.setScale(1.f);
+        pf.sigmaAction = 1.f;
+        pf.setOffMapWeight(0.05f);
+
+        final List<Edge> edges = new ArrayList<Edge>();
+        edges.add(new Edge(makePoint(0, 0), makePoint(100, 0)));
+        pf.setWalkableMask(new WalkableMask(edges, 2));
+
+        pf.particleList.add(new Particle(10.f, 0.f, 0.5f));
+        pf.particleList.add(new Particle(10.f, 50.f, 0.5f));
+
+        pf.updateAction(1, 0);
+        pf.updateAction(1, 0);
+        pf.updateAction(1, 0);
+        // The particle outside has only lost its weight once:
+        assertEquals(0.048f, pf.particleList.get(1).getWeight(), 0.001f);
+    }
+
+    private NicGeoPoint makePoint(final double x, final double y) {
+        final NicGeoPoint point = new NicGeoPointImpl();
+        point.setXY(x, y);
+        return point;
+    }
+
     class ParticleFilterTestable extends ParticleFilter {
         public double nextRandomValue = 0.5f;
         public double nextGaussianValue = 0.1f;
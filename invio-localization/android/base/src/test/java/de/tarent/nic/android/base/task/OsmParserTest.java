@@ -40,6 +40,14 @@ public class OsmParserTest {
             "  </node>\n" +
             "</osm>\n";
 
+    // The same kind of data, but formatted differently than josm does it: the ways come first, the tag of the way is
+    // in front of its nodes, the attributes are in another order and the ids are positive.
+    public String unusualLayoutXML = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+            "<osm version=\"0.6\"><way id=\"7\"><tag k=\"indoor\" v=\"Gang\"/><nd ref=\"1\"/><nd ref=\"2\"/>" +
+            "<nd ref=\"3\"/></way><way id=\"8\"><nd ref=\"1\"/><nd ref=\"3\"/></way>\n" +
+            "<node lon=\"6.75\" lat=\"51.25\" id=\"1\"/><node lat=\"51.26\" id=\"2\" lon=\"6.76\"/>" +
+            "<node id=\"3\" lat=\"51.27\" lon=\"6.77\"><tag k=\"north_angle\" v=\"-45\"/></node></osm>";
+
     @Before
     public void setUp() throws Exception {
 
@@ -131,4 +139,29 @@ public class OsmParserTest {
         assertNull(scaleList.get(0));
     }
 
+    @Test
+    public void testThatTheLayoutOfTheXmlDoesNotMatter() throws IOException {
+        parser.parse(new ByteArrayInputStream(unusualLayoutXML.getBytes("UTF-8")));
+
+        Map<String, Collection> resultMap = parser.getResults();
+        List<Edge> edges = (List<Edge>) resultMap.get(OsmParserKeys.EDGES);
+
+        // Only the way with the indoor-tag has edges:
+        assertEquals(2, edges.size());
+        assertEquals(new NicGeoPointImpl(51.25f, 6.75f), edges.get(0).getPointA());
+        assertEquals(new NicGeoPointImpl(51.26f, 6.76f), edges.get(0).getPointB());
+        assertEquals(new NicGeoPointImpl(51.26f, 6.76f), edges.get(1).getPointA());
+        assertEquals(new NicGeoPointImpl(51.27f, 6.77f), edges.get(1).getPointB());
+        // The edges share their points:
+        assertSame(edges.get(0).getPointB(), edges.get(1).getPointA());
+
+        List<Integer> northAngleList = (List<Integer>) resultMap.get(OsmParserKeys.NORTH_ANGLE);
+        assertEquals(Integer.valueOf(-45), northAngleList.get(0));
+    }
+
+    @Test(expected = IOException.class)
+    public void testThatBrokenXmlIsAnError() throws IOException {
+        parser.parse(new ByteArrayInputStream("<osm><node id='1' lat='1' lon='2'></osm>".getBytes("UTF-8")));
+    }
+
 }
@@ -0,0 +1,103 @@
+package de.tarent.nic.android.base.tileprovider;
+
+import android.graphics.Bitmap;
+import android.graphics.drawable.Drawable;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import static de.tarent.nic.android.base.tileprovider.TileBitmapPoolTest.mockBitmap;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+@RunWith(RobolectricTestRunner.class)
+public class TileBitmapCacheTest {
+
+    private static final int TILE_SIZE = 256;
+
+    private static final int TILE_BYTES = 4 * TILE_SIZE * TILE_SIZE;
+
+    private TileBitmapPool pool;
+
+    private TileBitmapCache cache;
+
+    @Before
+    public void setUp() {
+        pool = new TileBitmapPool(2 * TILE_BYTES);
+        cache = new TileBitmapCache(2 * TILE_BYTES, pool);
+    }
+
+
+    @Test
+    public void testHitAndMiss() {
+        final Bitmap bitmap = mockBitmap(TILE_SIZE, true);
+
+        assertNull(cache.getTile("a"));
+        final Drawable decoded = cache.putAndGetTile("a", bitmap);
+        final Drawable cached = cache.getTile("a");
+
+        // The MapView gets the cached bitmap itself, not a copy:
+        assertSame(bitmap, ((TileDrawable) decoded).getBitmap());
+        assertSame(bitmap, ((TileDrawable) cached).getBitmap());
+        assertEquals(1, cache.hitCount());
+        assertEquals(1, cache.missCount());
+    }
+
+    @Test
+    public void testThatTheLeastRecentlyUsedTileIsEvicted() {
+        final Bitmap second = mockBitmap(TILE_SIZE, true);
+        cache.put("a", mockBitmap(TILE_SIZE, true));
+        cache.put("b", second);
+        cache.getTile("a");
+
+        cache.put("c", mockBitmap(TILE_SIZE, true));
+
+        assertNull(cache.getTile("b"));
+        assertEquals(2 * TILE_BYTES, cache.size());
+        // Nobody has used "b", so the decoder may reuse its bitmap right away:
+        assertSame(second, pool.get(TILE_SIZE, TILE_SIZE, Bitmap.Config.ARGB_8888));
+    }
+
+    @Test
+    public void testThatAnEvictedTileIsNotReusedWhileTheMapViewShowsIt() {
+        final Bitmap first = mockBitmap(TILE_SIZE, true);
+        final Drawable shown = cache.putAndGetTile("a", first);
+        cache.put("b", mockBitmap(TILE_SIZE, true));
+
+        cache.put("c", mockBitmap(TILE_SIZE, true));
+
+        assertNull(cache.getTile("a"));
+        assertNull(pool.get(TILE_SIZE, TILE_SIZE, Bitmap.Config.ARGB_8888));
+        assertSame(first, ((TileDrawable) shown).getBitmap());
+    }
+
+    @Test
+    public void testThatAnEvictedTileThatIsNotShownIsReused() {
+        final Bitmap first = mockBitmap(TILE_SIZE, true);
+        cache.put("a", first);
+        cache.put("b", mockBitmap(TILE_SIZE, true));
+
+        cache.put("c", mockBitmap(TILE_SIZE, true));
+
+        assertSame(first, pool.get(TILE_SIZE, TILE_SIZE, Bitmap.Config.ARGB_8888));
+    }
+
+    @Test
+    public void testPrefetchedTiles() {
+        cache.putPrefetched("a", mockBitmap(TILE_SIZE, true));
+        cache.putPrefetched("b", mockBitmap(TILE_SIZE, true));
+        assertEquals(2 * TILE_BYTES, cache.getPrefetchedBytes());
+
+        cache.getTile("a");
+        assertEquals(TILE_BYTES, cache.getPrefetchedBytes());
+        assertEquals(0.5f, cache.getPrefetchHitRate(), 0.001f);
+
+        // A prefetched tile that is evicted doesn't count anymore:
+        cache.put("c", mockBitmap(TILE_SIZE, true));
+        cache.put("d", mockBitmap(TILE_SIZE, true));
+        assertEquals(0, cache.getPrefetchedBytes());
+    }
+
+}
@@ -0,0 +1,113 @@
+package de.tarent.nic.android.base.tileprovider;
+
+import android.graphics.Bitmap;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(RobolectricTestRunner.class)
+public class TileBitmapPoolTest {
+
+    private static final int TILE_SIZE = 256;
+
+    private static final int TILE_BYTES = 4 * TILE_SIZE * TILE_SIZE;
+
+
+    @Test
+    public void testThatABitmapIsReused() {
+        final TileBitmapPool pool = new TileBitmapPool(2 * TILE_BYTES);
+        final Bitmap bitmap = mockBitmap(TILE_SIZE, true);
+
+        pool.put(bitmap);
+
+        assertSame(bitmap, pool.get(TILE_SIZE, TILE_SIZE, Bitmap.Config.ARGB_8888));
+        assertNull(pool.get(TILE_SIZE, TILE_SIZE, Bitmap.Config.ARGB_8888));
+        assertEquals(0.5f, pool.getHitRate(), 0.001f);
+        verify(bitmap, never()).recycle();
+    }
+
+    @Test
+    public void testThatOnlyBitmapsOfTheSameKindAreReused() {
+        final TileBitmapPool pool = new TileBitmapPool(2 * TILE_BYTES);
+        pool.put(mockBitmap(TILE_SIZE, true));
+
+        assertNull(pool.get(TILE_SIZE / 2, TILE_SIZE / 2, Bitmap.Config.ARGB_8888));
+        assertNull(pool.get(TILE_SIZE, TILE_SIZE, Bitmap.Config.RGB_565));
+    }
+
+    @Test
+    public void testThatImmutableBitmapsAreRecycled() {
+        final TileBitmapPool pool = new TileBitmapPool(2 * TILE_BYTES);
+        final Bitmap bitmap = mockBitmap(TILE_SIZE, false);
+
+        pool.put(bitmap);
+
+        verify(bitmap).recycle();
+        assertNull(pool.get(TILE_SIZE, TILE_SIZE, Bitmap.Config.ARGB_8888));
+    }
+
+    @Test
+    public void testThatBitmapsBeyondTheMaximumSizeAreRecycled() {
+        final TileBitmapPool pool = new TileBitmapPool(TILE_BYTES);
+        final Bitmap first = mockBitmap(TILE_SIZE, true);
+        final Bitmap second = mockBitmap(TILE_SIZE, true);
+
+        pool.put(first);
+        pool.put(second);
+
+        verify(first, never()).recycle();
+        verify(second).recycle();
+    }
+
+    @Test
+    public void testThatALentBitmapIsNotReusedWhileItIsUsed() {
+        final TileBitmapPool pool = new TileBitmapPool(2 * TILE_BYTES);
+        final Bitmap bitmap = mockBitmap(TILE_SIZE, true);
+        final Object user = new Object();
+
+        pool.lend(user, bitmap);
+        pool.put(bitmap);
+
+        assertNull(pool.get(TILE_SIZE, TILE_SIZE, Bitmap.Config.ARGB_8888));
+        assertEquals(1, pool.getLentCount());
+        verify(bitmap, never()).recycle();
+        // The user must still be reachable here:
+        assertEquals(Object.class, user.getClass());
+    }
+
+    @Test
+    public void testThatALentBitmapIsReusedOnceItsUserIsGone() throws InterruptedException {
+        final TileBitmapPool pool = new TileBitmapPool(2 * TILE_BYTES);
+        final Bitmap bitmap = mockBitmap(TILE_SIZE, true);
+
+        pool.lend(new Object(), bitmap);
+        pool.put(bitmap);
+        for (int i = 0; (i < 50) && (pool.getLentCount() > 0); i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+
+        assertEquals(0, pool.getLentCount());
+        assertSame(bitmap, pool.get(TILE_SIZE, TILE_SIZE, Bitmap.Config.ARGB_8888));
+    }
+
+
+    static Bitmap mockBitmap(final int size, final boolean mutable) {
+        final Bitmap bitmap = mock(Bitmap.class);
+        when(bitmap.getWidth()).thenReturn(size);
+        when(bitmap.getHeight()).thenReturn(size);
+        when(bitmap.getRowBytes()).thenReturn(4 * size);
+        when(bitmap.getConfig()).thenReturn(Bitmap.Config.ARGB_8888);
+        when(bitmap.isMutable()).thenReturn(mutable);
+        return bitmap;
+    }
+
+}
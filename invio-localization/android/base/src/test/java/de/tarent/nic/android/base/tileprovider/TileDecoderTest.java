@@ -0,0 +1,50 @@
+package de.tarent.nic.android.base.tileprovider;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class TileDecoderTest {
+
+    @Test
+    public void testThatTheStreamIsClosed() throws IOException {
+        final boolean[] closed = new boolean[1];
+        final ByteArrayInputStream in = new ByteArrayInputStream(new byte[]{1, 2, 3}) {
+            @Override
+            public void close() throws IOException {
+                closed[0] = true;
+                super.close();
+            }
+        };
+
+        new TileDecoder(new TileBitmapPool(1024)).decode(in);
+
+        assertTrue(closed[0]);
+    }
+
+    @Test
+    public void testThatTheDecodingIsCounted() throws IOException {
+        final TileDecoder decoder = new TileDecoder(new TileBitmapPool(1024));
+        assertEquals(0, decoder.getDecodeCount());
+        assertEquals(0, decoder.getAverageDecodeMillis(), 0);
+
+        decoder.decode(new ByteArrayInputStream(new byte[]{1, 2, 3}));
+        decoder.decode(new ByteArrayInputStream(new byte[]{4, 5, 6}));
+
+        assertEquals(2, decoder.getDecodeCount());
+        // There was nothing in the pool yet:
+        assertEquals(0, decoder.getPoolHitRate(), 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSampleSizeMustBePositive() {
+        new TileDecoder(new TileBitmapPool(1024)).setSampleSize(0);
+    }
+}
@@ -0,0 +1,100 @@
+package de.tarent.nic.android.base.tileprovider;
+
+import android.graphics.Point;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.osmdroid.ResourceProxy;
+import org.osmdroid.tileprovider.MapTile;
+import org.osmdroid.util.GeoPoint;
+import org.osmdroid.util.TileSystem;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(RobolectricTestRunner.class)
+public class TilePrefetcherTest {
+
+    private static final int ZOOM = 18;
+
+    private static final GeoPoint POSITION = new GeoPoint(50722088, 7061521);
+
+    private NicTileSource tileSource;
+    private File file;
+    private ZipFile zipFile;
+    private TileBitmapCache cache;
+    private TilePrefetcher prefetcher;
+
+    @Before
+    public void setUp() throws IOException {
+        tileSource = new NicTileSource("EG", ResourceProxy.string.unknown, 0, ZOOM, 256, ".png");
+        // Only the tile at the position is in the zip, at the zoom level that is shown:
+        file = File.createTempFile("tiles", ".zip");
+        final ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file));
+        out.putNextEntry(new ZipEntry("EG/tiles/" + ZipTileProvider.getPath(tileSource, getTile(POSITION))));
+        out.write(new byte[]{1, 2, 3});
+        out.closeEntry();
+        out.close();
+        zipFile = new ZipFile(file);
+        cache = new TileBitmapCache(1024 * 1024);
+        prefetcher = new TilePrefetcher(cache, 1, 1024 * 1024);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        prefetcher.shutdown();
+        zipFile.close();
+        file.delete();
+    }
+
+
+    @Test
+    public void testThatNothingIsPrefetchedWithoutALevel() {
+        prefetcher.onPositionChanged(POSITION, ZOOM);
+        prefetcher.shutdown();
+
+        assertEquals(0, cache.getDecoder().getDecodeCount());
+    }
+
+    @Test
+    public void testThatTheTileAtThePositionIsPrefetched() {
+        final ZipTileArchive archive = new ZipTileArchive(zipFile, "EG/tiles/", cache);
+        prefetcher.setLevels(tileSource, archive, Collections.<ZipTileArchive>emptyList());
+
+        prefetcher.onPositionChanged(POSITION, ZOOM);
+        prefetcher.shutdown();
+
+        // The tiles that are not in the zip are not decoded:
+        assertEquals(1, cache.getDecoder().getDecodeCount());
+    }
+
+    @Test
+    public void testThatTheOtherLevelsArePrefetched() {
+        final ZipTileArchive shown = new ZipTileArchive(zipFile, "OG/tiles/", cache);
+        final ZipTileArchive other = new ZipTileArchive(zipFile, "EG/tiles/", cache);
+        prefetcher.setLevels(tileSource, shown, Collections.singletonList(other));
+
+        prefetcher.onPositionChanged(POSITION, ZOOM);
+        prefetcher.shutdown();
+
+        assertEquals(1, cache.getDecoder().getDecodeCount());
+    }
+
+
+    private MapTile getTile(final GeoPoint position) {
+        final Point pixel = TileSystem.LatLongToPixelXY(position.getLatitudeE6() / 1E6,
+                                                        position.getLongitudeE6() / 1E6, ZOOM, null);
+        final Point tile = TileSystem.PixelXYToTileXY(pixel.x, pixel.y, pixel);
+        return new MapTile(ZOOM, tile.x, tile.y);
+    }
+
+}
@@ -0,0 +1,99 @@
+package de.tarent.nic.android.base.tileprovider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.osmdroid.ResourceProxy;
+import org.osmdroid.tileprovider.IRegisterReceiver;
+import org.osmdroid.tileprovider.MapTile;
+import org.osmdroid.tileprovider.tilesource.ITileSource;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@RunWith(RobolectricTestRunner.class)
+public class ZipTileProviderTest {
+
+    private File file;
+    private ZipFile zipFile;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("tiles", ".zip");
+        final ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file));
+        out.putNextEntry(new ZipEntry("EG/tiles/tilemapresource.xml"));
+        out.write("<TileMap/>".getBytes("UTF-8"));
+        out.closeEntry();
+        out.close();
+        zipFile = new ZipFile(file);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        zipFile.close();
+        file.delete();
+    }
+
+    @Test
+    public void testZoomLevels() {
+        NicTileSource tileSource = mock(NicTileSource.class);
+        when(tileSource.getMaximumZoomLevel()).thenReturn(10);
+        when(tileSource.getMinimumZoomLevel()).thenReturn(0);
+
+        // Only required by the super-constructor:
+        IRegisterReceiver registerReceiver = mock(IRegisterReceiver.class);
+
+        ZipTileProvider ztp = new ZipTileProvider(registerReceiver, tileSource,
+                new ZipTileArchive(zipFile, "EG/tiles/", new TileBitmapCache(1024)));
+
+        assertEquals(10, ztp.getMaximumZoomLevel());
+        assertEquals(0, ztp.getMinimumZoomLevel());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSetWrongTileSource() {
+        // Only required by the super-constructor:
+        IRegisterReceiver registerReceiver = mock(IRegisterReceiver.class);
+
+        NicTileSource goodTileSource = mock(NicTileSource.class);
+        ITileSource badTileSource = mock(ITileSource.class);
+
+        ZipTileProvider ztp = new ZipTileProvider(registerReceiver, goodTileSource,
+                new ZipTileArchive(zipFile, "EG/tiles/", new TileBitmapCache(1024)));
+        ztp.setTileSource(badTileSource);
+    }
+
+    @Test
+    public void testMissingTile() {
+        MapTile tile = new MapTile(3, 1, 2);
+        NicTileSource tileSource = mock(NicTileSource.class);
+        when(tileSource.getTileRelativeFilenameString(tile)).thenReturn("EG/3/1/5.png");
+
+        // Only required by the super-constructor:
+        IRegisterReceiver registerReceiver = mock(IRegisterReceiver.class);
+
+        ZipTileProvider ztp = new ZipTileProvider(registerReceiver, tileSource,
+                new ZipTileArchive(zipFile, "EG/tiles/", new TileBitmapCache(1024)));
+
+        assertNull(ztp.loadTile(tile));
+    }
+
+    @Test
+    public void testPathWithoutTheNameOfTheTileSource() {
+        MapTile tile = new MapTile(3, 1, 2);
+        NicTileSource tileSource = new NicTileSource("EG", ResourceProxy.string.unknown, 0, 5, 256, ".png");
+
+        assertEquals("3/1/5.png", ZipTileProvider.getPath(tileSource, tile));
+    }
+}
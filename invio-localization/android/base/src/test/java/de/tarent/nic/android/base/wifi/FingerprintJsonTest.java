@@ -3,13 +3,18 @@ package de.tarent.nic.android.base.wifi;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.reflect.TypeToken;
+import de.tarent.nic.android.base.json.FingerprintJsonReader;
 import de.tarent.nic.android.base.json.NicGeoPointDeserializer;
 import de.tarent.nic.android.base.position.NicGeoPointImpl;
 import de.tarent.nic.entities.Fingerprint;
 import de.tarent.nic.entities.Histogram;
 import de.tarent.nic.entities.NicGeoPoint;
+import de.tarent.nic.tracker.wifi.FingerprintTable;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
 import java.lang.reflect.Type;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -52,6 +57,44 @@ public class FingerprintJsonTest {
         assertEquals(0.2f, fingerprints.get(2).getHistogram().get("f0:7d:68:50:ac:ac").get(-71), 0.000001f);
     }
 
+    // The FingerprintManager reads the fingerprints with the streaming reader, also when it is used more than once.
+    @Test
+    public void testReadFingerprintsJson() {
+        for (int i = 0; i < 2; i++) {
+            final FingerprintTable table = FingerprintManager.readFingerprintsJson(json);
+
+            assertEquals(3, table.size());
+            assertEquals("my histo 1", table.getFingerprint(0).getId());
+            assertEquals(-59414062, table.getFingerprint(1).getPoint().getLongitudeE6());
+        }
+        assertEquals(0, FingerprintManager.readFingerprintsJson("").size());
+        assertEquals(0, FingerprintManager.readFingerprintsJson(null).size());
+    }
+
+    // The streaming reader must read the same fingerprints as gson.
+    @Test
+    public void testStreamingReader() throws IOException {
+        final List<Fingerprint> expected = parseWithGson(json);
+
+        final FingerprintTable table = FingerprintJsonReader.read(new ByteArrayInputStream(json.getBytes("UTF-8")));
+
+        assertEquals(expected.size(), table.size());
+        for (int i = 0; i < table.size(); i++) {
+            final Fingerprint fingerprint = table.getFingerprint(i);
+            assertEquals(expected.get(i).getId(), fingerprint.getId());
+            assertEquals(expected.get(i).getPoint().getLatitudeE6(), fingerprint.getPoint().getLatitudeE6());
+            assertEquals(expected.get(i).getPoint().getLongitudeE6(), fingerprint.getPoint().getLongitudeE6());
+            assertEquals(expected.get(i).getHistogram(), fingerprint.getHistogram());
+        }
+        assertEquals(0, FingerprintJsonReader.read(new StringReader("")).size());
+        assertEquals(0, FingerprintJsonReader.read(new StringReader("null")).size());
+    }
+
+    @Test(expected = IOException.class)
+    public void testStreamingReaderRejectsOtherJson() throws IOException {
+        FingerprintJsonReader.read(new StringReader("{\"histogram\":{}}"));
+    }
+
     // Serialize two simple fingerprints, deserialize them again, and compare the result.
     @Test
     public void testSerialize() {
@@ -76,6 +119,13 @@ public class FingerprintJsonTest {
     }
 
 
+    private List<Fingerprint> parseWithGson(final String json) {
+        final Type fooType = new TypeToken<ArrayList<Fingerprint>>() {}.getType();
+        final GsonBuilder gsonBuilder = new GsonBuilder();
+        gsonBuilder.registerTypeAdapter(NicGeoPoint.class, new NicGeoPointDeserializer());
+        return gsonBuilder.create().fromJson(json, fooType);
+    }
+
     private List<Fingerprint> setupFingerprints() {
         List<Fingerprint> l = new ArrayList<Fingerprint>();
         Fingerprint f1 = new Fingerprint(new Histogram("h1"), new NicGeoPointImpl(10, 20));
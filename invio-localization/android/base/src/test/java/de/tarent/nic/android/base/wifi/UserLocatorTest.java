@@ -15,6 +15,8 @@ import de.tarent.nic.entities.Edge;
 import de.tarent.nic.entities.Fingerprint;
 import de.tarent.nic.entities.Histogram;
 import de.tarent.nic.entities.NicGeoPoint;
+import de.tarent.nic.tracker.neighbour.Neighbour;
+import de.tarent.nic.tracker.wifi.FingerprintIndex;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -23,8 +25,10 @@ import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
@@ -52,6 +56,8 @@ public class UserLocatorTest {
 
     private SortedSet<NicGeoPoint> nearestNeighboursLatLong;
 
+    private List<Neighbour<NicGeoPoint>> nearestNeighbours;
+
     private Set<Edge> edges;
 
     private Activity activity;
@@ -75,6 +81,7 @@ public class UserLocatorTest {
 
 
         when(context.getResources()).thenReturn(Robolectric.application.getResources());
+        when(fingerprintManager.getFingerprintIndex()).thenReturn(new FingerprintIndex(new ArrayList<Fingerprint>()));
 
         new UserLocator(context, fingerprintManager, userPositionManager, wayManager);
 
@@ -92,6 +99,11 @@ public class UserLocatorTest {
         nearestNeighboursLatLong.add(nicGeoPoint2);
         nearestNeighboursLatLong.add(nicGeoPoint3);
 
+        nearestNeighbours = new ArrayList<Neighbour<NicGeoPoint>>();
+        for (NicGeoPoint point : nearestNeighboursLatLong) {
+            nearestNeighbours.add(new Neighbour<NicGeoPoint>(point, point.getDivergence(), nearestNeighbours.size()));
+        }
+
         edges = new HashSet<Edge>();
         edges.add(new Edge(nicGeoPoint2, nicGeoPoint3));
 
@@ -120,7 +132,7 @@ public class UserLocatorTest {
         Fingerprint fingerprint = new Fingerprint(mock(Histogram.class), mock(NicGeoPointImpl.class));
         fingerprints.add(fingerprint);
 
-        when(fingerprintManager.getFingerprints()).thenReturn(fingerprints);
+        when(fingerprintManager.getFingerprintIndex()).thenReturn(new FingerprintIndex(fingerprints));
         when(wayManager.getEdges()).thenReturn(edges);
 
         Histogram histogram = new Histogram();
@@ -161,13 +173,13 @@ public class UserLocatorTest {
 
         SortedSet<NicGeoPoint> expectedNearestNeighbours = new TreeSet<NicGeoPoint>(nearestNeighboursLatLong);
 
-        doReturn(nearestNeighboursLatLong).when(userLocatorSpy).getNearestNeighbours(any(SortedSet.class));
+        doReturn(nearestNeighbours).when(userLocatorSpy).getNearestNeighbours(any(Histogram.class));
         when(wayManager.getEdges()).thenReturn(edges);
 
         Histogram histogram = new Histogram();
         userLocatorSpy.addHistogram(histogram);
 
-        assertEquals(expectedNearestNeighbours, nearestNeighboursLatLong);
+        assertEquals(expectedNearestNeighbours, pointsOf(nearestNeighbours));
     }
 
     @Test
@@ -178,13 +190,13 @@ public class UserLocatorTest {
         SortedSet<NicGeoPoint> expectedNearestNeighbours = new TreeSet<NicGeoPoint>(nearestNeighboursLatLong);
         expectedNearestNeighbours.remove(expectedNearestNeighbours.first()); // The first is 0,0 which is the outlier.
 
-        doReturn(nearestNeighboursLatLong).when(userLocatorSpy).getNearestNeighbours(any(SortedSet.class));
+        doReturn(nearestNeighbours).when(userLocatorSpy).getNearestNeighbours(any(Histogram.class));
         when(wayManager.getEdges()).thenReturn(edges);
 
         Histogram histogram = new Histogram();
         userLocatorSpy.addHistogram(histogram);
 
-        assertEquals(expectedNearestNeighbours, nearestNeighboursLatLong);
+        assertEquals(expectedNearestNeighbours, pointsOf(nearestNeighbours));
     }
 
     @Test
@@ -195,14 +207,14 @@ public class UserLocatorTest {
         SortedSet<NicGeoPoint> expectedNearestNeighbours = new TreeSet<NicGeoPoint>(nearestNeighboursLatLong);
         expectedNearestNeighbours.remove(expectedNearestNeighbours.first()); // The first is 0,0 which is the outlier.
 
-        doReturn(nearestNeighboursLatLong).when(userLocatorSpy).getNearestNeighbours(any(SortedSet.class));
+        doReturn(nearestNeighbours).when(userLocatorSpy).getNearestNeighbours(any(Histogram.class));
         when(wayManager.getEdges()).thenReturn(edges);
 
         Histogram histogram = new Histogram();
         userLocatorSpy.addHistogram(histogram);
 
 
-        assertEquals(expectedNearestNeighbours, nearestNeighboursLatLong);
+        assertEquals(expectedNearestNeighbours, pointsOf(nearestNeighbours));
     }
 
     @Test
@@ -276,7 +288,13 @@ public class UserLocatorTest {
         userLocator = new UserLocator(context, fingerprintManager, userPositionManager, wayManager, history);
         userLocator.startTracking();
 
-        SortedSet<NicGeoPoint> nearestNeighboursOut = userLocator.getNearestNeighbours(nearestNeighboursLatLong);
+        List<Fingerprint> fingerprints = new ArrayList<Fingerprint>();
+        for (NicGeoPoint point : nearestNeighboursLatLong) {
+            fingerprints.add(new Fingerprint(makeHistogram(-40 - fingerprints.size()), point));
+        }
+        when(fingerprintManager.getFingerprintIndex()).thenReturn(new FingerprintIndex(fingerprints));
+
+        List<Neighbour<NicGeoPoint>> nearestNeighboursOut = userLocator.getNearestNeighbours(makeHistogram(-40));
         assertEquals(2, nearestNeighboursOut.size());
     }
 
@@ -290,10 +308,41 @@ public class UserLocatorTest {
         userLocator = new UserLocator(context, fingerprintManager, userPositionManager, wayManager, history);
         userLocator.startTracking();
 
-        SortedSet<NicGeoPoint> nearestNeighboursOut = userLocator.getNearestNeighbours(nearestNeighboursLatLong);
+        List<Fingerprint> fingerprints = new ArrayList<Fingerprint>();
+        for (NicGeoPoint point : nearestNeighboursLatLong) {
+            fingerprints.add(new Fingerprint(makeHistogram(-40 - fingerprints.size()), point));
+        }
+        when(fingerprintManager.getFingerprintIndex()).thenReturn(new FingerprintIndex(fingerprints));
+
+        List<Neighbour<NicGeoPoint>> nearestNeighboursOut = userLocator.getNearestNeighbours(makeHistogram(-40));
         assertEquals(1, nearestNeighboursOut.size());
     }
 
+    @Test
+    public void testThatAScanWithOnlyUnknownAccessPointsKeepsTheLastPosition() {
+        // Not tracking, so that the localisationLoop doesn't take the wifi point away in the meantime:
+        userLocator = new UserLocator(context, fingerprintManager, userPositionManager, wayManager, history);
+
+        List<Fingerprint> fingerprints = new ArrayList<Fingerprint>();
+        for (NicGeoPoint point : nearestNeighboursLatLong) {
+            fingerprints.add(new Fingerprint(makeHistogram(-40 - fingerprints.size()), point));
+        }
+        when(fingerprintManager.getFingerprintIndex()).thenReturn(new FingerprintIndex(fingerprints));
+        NicGeoPoint lastWifiPoint = new NicGeoPointImpl(5000000, 5000000);
+        userLocator.nextWifiPoint = lastWifiPoint;
+
+        Map<Integer, Float> levels = new HashMap<Integer, Float>();
+        levels.put(-40, 1f);
+        Histogram histogram = new Histogram();
+        histogram.put("ff:ff:ff:ff:ff:fe", levels);
+        histogram.put("ff:ff:ff:ff:ff:ff", levels);
+        userLocator.addHistogram(histogram);
+
+        assertSame(lastWifiPoint, userLocator.nextWifiPoint);
+        // The scan may still belong to another level:
+        assertSame(histogram, userLocator.nextLevelHistogram);
+    }
+
     @Test
     public void testAddRemoveSensorCollector() {
         userLocator.addSensorCollector(deadReckoning);
@@ -405,6 +454,31 @@ public class UserLocatorTest {
         assertNull(userLocator.nextWifiPoint);
     }
 
+    @Test
+    public void testLevelIsTrackedInTheLocalizationLoop() {
+        userLocator.setLocalizationMethod(userLocator.LOCALIZATION_MODE_PARTICLEFILTER);
+        userLocator.setScale(1.f);
+        NicGeoPoint nextWifi = new NicGeoPointImpl();
+        nextWifi.setXY(1.f, 1.f);
+        userLocator.nextWifiPoint = nextWifi;
+        userLocator.localisationLoop();
+        assertTrue(userLocator.getParticleFilter().getParticleCount() > 0);
+
+        // A scan on another level resets the particle filter:
+        Histogram histogram = makeHistogram(-50);
+        when(fingerprintManager.trackLevel(histogram)).thenReturn(true);
+        userLocator.nextLevelHistogram = histogram;
+        userLocator.localisationLoop();
+
+        verify(fingerprintManager).trackLevel(histogram);
+        assertNull(userLocator.nextLevelHistogram);
+        assertEquals(0, userLocator.getParticleFilter().getParticleCount());
+
+        // Without a new scan there is nothing to track:
+        userLocator.localisationLoop();
+        verify(fingerprintManager, times(1)).trackLevel(any(Histogram.class));
+    }
+
     @Test
     public void testNoMapMatchingType() {
         NicGeoPoint test = new NicGeoPointImpl();
@@ -423,6 +497,23 @@ public class UserLocatorTest {
         assertEquals(12.f, result.getY(), 0.15f);
     }
 
+    private SortedSet<NicGeoPoint> pointsOf(List<Neighbour<NicGeoPoint>> neighbours) {
+        SortedSet<NicGeoPoint> points = new TreeSet<NicGeoPoint>();
+        for (Neighbour<NicGeoPoint> neighbour : neighbours) {
+            points.add(neighbour.getPoint());
+        }
+        return points;
+    }
+
+    private Histogram makeHistogram(int level) {
+        Map<Integer, Float> levels = new HashMap<Integer, Float>();
+        levels.put(level, 1f);
+        Histogram histogram = new Histogram();
+        histogram.put("00:01:02:03:04:05", levels);
+        histogram.put("a0:b0:c0:d0:e0:f0", levels);
+        return histogram;
+    }
+
     class ParticleFilterTestable extends ParticleFilter {
         public double nextRandomValue = 0.5f;
         public double nextGaussianValue = 0.05f;
@@ -439,4 +530,5 @@ public class UserLocatorTest {
             return nextGaussianValue;
         }
     }
+
 }
@@ -9,6 +9,8 @@ import android.hardware.SensorManager;
 import android.net.wifi.ScanResult;
 import android.net.wifi.WifiManager;
 import de.tarent.nic.entities.Histogram;
+import de.tarent.nic.tracker.pipeline.ScanBatch;
+import de.tarent.nic.tracker.trace.ScanTraceReader;
 import de.tarent.nic.tracker.wifi.HistogramConsumer;
 import org.junit.Before;
 import org.junit.Test;
@@ -17,12 +19,16 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.robolectric.RobolectricTestRunner;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
 import static junit.framework.Assert.assertNotNull;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.never;
@@ -292,6 +298,35 @@ public class WifiCapturerTest {
         verify(wifiManager, times(2)).startScan();
     }
 
+    /**
+     * The recording should contain every scan, with the original levels.
+     */
+    @Test
+    public void testRecording() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        wifiCapturer.startRecording(out);
+        wifiCapturer.startSensors();
+        receiver = getReceiver();
+
+        List<ScanResult> scanResult1 = makeScanResult(scan1, -50);
+        List<ScanResult> scanResult2 = makeScanResult(scan2, -40);
+        when(wifiManager.getScanResults()).thenReturn(scanResult1, scanResult2);
+        receiver.onReceive(null, null);
+        receiver.onReceive(null, null);
+
+        assertTrue(wifiCapturer.isRecording());
+        wifiCapturer.stopRecording();
+        assertFalse(wifiCapturer.isRecording());
+
+        List<ScanBatch> scans = new ScanTraceReader(new ByteArrayInputStream(out.toByteArray())).readAll();
+        assertEquals(2, scans.size());
+        assertEquals("00:01:02:03:04:05", scans.get(0).getScanResults().get(0).getBssid());
+        assertEquals(-50, scans.get(0).getScanResults().get(0).getLevel());
+        assertEquals(-40, scans.get(1).getScanResults().get(0).getLevel());
+        // The histograms are still built as before:
+        verify(consumer, times(2)).addHistogram(any(Histogram.class));
+    }
+
     /**
      * The wifiCapturer should not unregister stuff that was not registered.
      */
@@ -0,0 +1,203 @@
+package de.tarent.nic.tracker.benchmark;
+
+import de.tarent.nic.entities.Edge;
+import de.tarent.nic.entities.Fingerprint;
+import de.tarent.nic.entities.Histogram;
+import de.tarent.nic.entities.WifiScanResult;
+import de.tarent.nic.tracker.geopoint.XYPoint;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+
+/**
+ * The BenchmarkData creates random but reproducible input for the benchmarks: scans, histograms, fingerprints,
+ * neighbours and edges that roughly look like what we get in a real building.
+ */
+public final class BenchmarkData {
+
+    /**
+     * The size of the simulated building in meters.
+     */
+    public static final int AREA_SIZE = 200;
+
+    // The south-west corner of the simulated building:
+    private static final XYPoint ORIGIN = new XYPoint(50.72, 7.06);
+
+    private static final int WEAKEST_LEVEL = -95;
+
+    private static final int LEVEL_RANGE = 65;
+
+    // The levels of one access point vary by this much between the scans of a histogram:
+    private static final int LEVEL_NOISE = 4;
+
+    private static final int SCANS_PER_FINGERPRINT = 5;
+
+    // The standard deviation of the distance in meters between good neighbours and their center:
+    private static final double NEIGHBOUR_SPREAD = 5;
+
+    private final Random random;
+
+
+    /**
+     * Construct new BenchmarkData.
+     *
+     * @param seed the seed for the random numbers, so that every run of a benchmark gets the same data
+     */
+    public BenchmarkData(final long seed) {
+        random = new Random(seed);
+    }
+
+
+    /**
+     * Make the BSSID of an access point.
+     *
+     * @param accessPoint the number of the access point
+     * @return the BSSID
+     */
+    public static String bssId(final int accessPoint) {
+        return String.format("00:1c:28:%02x:%02x:%02x",
+                             (accessPoint >> 16) & 0xff, (accessPoint >> 8) & 0xff, accessPoint & 0xff);
+    }
+
+    /**
+     * Make one scan, that sees a random subset of the access points.
+     *
+     * @param accessPoints the number of access points in the building
+     * @param visible the number of access points in the scan
+     * @return the scan results
+     */
+    public List<WifiScanResult> makeScan(final int accessPoints, final int visible) {
+        final List<WifiScanResult> scan = new ArrayList<WifiScanResult>(visible);
+        for (final int accessPoint : pick(accessPoints, visible)) {
+            scan.add(new WifiScanResult(bssId(accessPoint), WEAKEST_LEVEL + random.nextInt(LEVEL_RANGE)));
+        }
+        return scan;
+    }
+
+    /**
+     * Make a histogram, as if it had been built from several scans at the same place.
+     *
+     * @param id the id of the histogram
+     * @param accessPoints the number of access points in the building
+     * @param visible the number of access points in the histogram
+     * @return the new Histogram
+     */
+    public Histogram makeHistogram(final String id, final int accessPoints, final int visible) {
+        final Histogram histogram = new Histogram(id);
+        for (final int accessPoint : pick(accessPoints, visible)) {
+            final int level = WEAKEST_LEVEL + random.nextInt(LEVEL_RANGE);
+            final Map<Integer, Float> levels = new HashMap<Integer, Float>();
+            for (int scan = 0; scan < SCANS_PER_FINGERPRINT; scan++) {
+                final int noisyLevel = level + random.nextInt(LEVEL_NOISE);
+                final Float fraction = levels.get(noisyLevel);
+                levels.put(noisyLevel, ((fraction == null) ? 0f : fraction) + 1f / SCANS_PER_FINGERPRINT);
+            }
+            histogram.put(bssId(accessPoint), levels);
+        }
+        return histogram;
+    }
+
+    /**
+     * Make fingerprints at random positions.
+     *
+     * @param count the number of fingerprints
+     * @param accessPoints the number of access points in the building
+     * @param visible the number of access points in each fingerprint
+     * @return the new fingerprints
+     */
+    public List<Fingerprint> makeFingerprints(final int count, final int accessPoints, final int visible) {
+        final List<Fingerprint> fingerprints = new ArrayList<Fingerprint>(count);
+        for (int i = 0; i < count; i++) {
+            fingerprints.add(new Fingerprint(makeHistogram("FP-" + i, accessPoints, visible), makePoint()));
+        }
+        return fingerprints;
+    }
+
+    /**
+     * Make neighbours, i.e. points with a divergence, as they are found for a measurement. Most of them are close to
+     * each other, some are outliers anywhere in the building.
+     *
+     * @param count the number of neighbours
+     * @return the new neighbours, sorted by divergence
+     */
+    public SortedSet<XYPoint> makeNeighbours(final int count) {
+        final SortedSet<XYPoint> neighbours = new TreeSet<XYPoint>();
+        final XYPoint center = makePoint();
+        while (neighbours.size() < count) {
+            final XYPoint point;
+            if (random.nextInt(5) == 0) {
+                point = makePoint();
+            } else {
+                point = new XYPoint();
+                point.setXY(center.getX() + random.nextGaussian() * NEIGHBOUR_SPREAD,
+                            center.getY() + random.nextGaussian() * NEIGHBOUR_SPREAD);
+            }
+            point.setDivergence(random.nextDouble());
+            neighbours.add(point);
+        }
+        return neighbours;
+    }
+
+    /**
+     * Make a network of ways, as a grid of corridors with some of their crossings connected.
+     *
+     * @param count the number of edges
+     * @return the new edges
+     */
+    public Set<Edge> makeEdges(final int count) {
+        final int gridSize = (int) Math.ceil(Math.sqrt(count)) + 1;
+        final double spacing = (double) AREA_SIZE / gridSize;
+        final Set<Edge> edges = new HashSet<Edge>();
+        while (edges.size() < count) {
+            final int x = random.nextInt(gridSize);
+            final int y = random.nextInt(gridSize);
+            final XYPoint a = makePoint(x * spacing, y * spacing);
+            final XYPoint b = random.nextBoolean() ? makePoint((x + 1) * spacing, y * spacing)
+                                                   : makePoint(x * spacing, (y + 1) * spacing);
+            edges.add(new Edge(a, b));
+        }
+        return edges;
+    }
+
+    /**
+     * Make a point somewhere in the building.
+     *
+     * @return the new point
+     */
+    public XYPoint makePoint() {
+        return makePoint(random.nextDouble() * AREA_SIZE, random.nextDouble() * AREA_SIZE);
+    }
+
+    /**
+     * Make a point in the building.
+     *
+     * @param x the distance in meters from the west wall
+     * @param y the distance in meters from the south wall
+     * @return the new point
+     */
+    public static XYPoint makePoint(final double x, final double y) {
+        final XYPoint point = new XYPoint();
+        point.setXY(ORIGIN.getX() + x, ORIGIN.getY() + y);
+        return point;
+    }
+
+
+    // Pick a number of different access points.
+    private Set<Integer> pick(final int accessPoints, final int visible) {
+        final Set<Integer> picked = new HashSet<Integer>();
+        final int count = Math.min(accessPoints, visible);
+        while (picked.size() < count) {
+            picked.add(random.nextInt(accessPoints));
+        }
+        return picked;
+    }
+
+}
@@ -0,0 +1,41 @@
+package de.tarent.nic.tracker.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+
+
+/**
+ * The BenchmarkRunner is the main class of the benchmarks.jar. It accepts the same arguments as the JMH main class,
+ * but always adds the GC profiler, because the allocation rate is as important for us as the throughput: every
+ * allocation in the tracking loop costs battery and causes GC pauses on the devices.
+ */
+public final class BenchmarkRunner {
+
+    private BenchmarkRunner() {
+    }
+
+
+    /**
+     * Run the benchmarks.
+     *
+     * @param args the JMH command line options, see "-h"
+     * @throws CommandLineOptionException if the options are not valid
+     * @throws RunnerException if a benchmark fails
+     * @throws IOException if the help can't be printed
+     */
+    public static void main(final String[] args) throws CommandLineOptionException, RunnerException, IOException {
+        final CommandLineOptions commandLine = new CommandLineOptions(args);
+        if (commandLine.shouldHelp()) {
+            commandLine.showHelp();
+            return;
+        }
+        new Runner(new OptionsBuilder().parent(commandLine).addProfiler(GCProfiler.class).build()).run();
+    }
+
+}
@@ -0,0 +1,96 @@
+package de.tarent.nic.tracker.benchmark;
+
+import de.tarent.nic.entities.Fingerprint;
+import de.tarent.nic.entities.Histogram;
+import de.tarent.nic.tracker.wifi.FingerprintIndex;
+import de.tarent.nic.tracker.wifi.LevelVector;
+import de.tarent.nic.tracker.wifi.RouterLevelHistogram;
+import de.tarent.nic.tracker.wifi.divergence.KullbackLeibler;
+import de.tarent.nic.tracker.wifi.divergence.SortedKullbackLeibler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Benchmarks for comparing one measurement with all the fingerprints of a map, which is what the UserLocator does for
+ * every new histogram.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DivergenceBenchmark {
+
+    /**
+     * The number of fingerprints of the map.
+     */
+    @Param({"100", "1000", "10000"})
+    public int fingerprints;
+
+    /**
+     * The number of access points that are visible in each fingerprint. Three times as many exist in the building.
+     */
+    @Param({"20", "100"})
+    public int accessPoints;
+
+    private RouterLevelHistogram[] fingerprintHistograms;
+
+    private RouterLevelHistogram measurement;
+
+    private FingerprintIndex index;
+
+    private LevelVector measurementVector;
+
+
+    @Setup(Level.Trial)
+    public void setup() {
+        final BenchmarkData data = new BenchmarkData(42);
+        final List<Fingerprint> fingerprintList = data.makeFingerprints(fingerprints, accessPoints * 3, accessPoints);
+        final Histogram histogram = data.makeHistogram("measurement", accessPoints * 3, accessPoints);
+
+        fingerprintHistograms = new RouterLevelHistogram[fingerprints];
+        for (int i = 0; i < fingerprints; i++) {
+            fingerprintHistograms[i] = RouterLevelHistogram.makeMedianHistogram(fingerprintList.get(i).getHistogram());
+        }
+        measurement = RouterLevelHistogram.makeMedianHistogram(histogram);
+
+        index = new FingerprintIndex(fingerprintList);
+        measurementVector = index.encode(histogram);
+    }
+
+
+    @Benchmark
+    public void kullbackLeibler(final Blackhole blackhole) {
+        final KullbackLeibler divergence = new KullbackLeibler();
+        for (final RouterLevelHistogram fingerprint : fingerprintHistograms) {
+            divergence.init(measurement, fingerprint);
+            blackhole.consume(divergence.getDivergence());
+        }
+    }
+
+    @Benchmark
+    public void sortedKullbackLeibler(final Blackhole blackhole) {
+        final SortedKullbackLeibler divergence = new SortedKullbackLeibler();
+        for (int i = 0; i < fingerprints; i++) {
+            divergence.init(measurementVector, index.getVector(i));
+            blackhole.consume(divergence.getDivergence());
+        }
+    }
+
+}
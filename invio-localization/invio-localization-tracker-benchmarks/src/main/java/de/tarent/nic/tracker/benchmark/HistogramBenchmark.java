@@ -0,0 +1,126 @@
+package de.tarent.nic.tracker.benchmark;
+
+import de.tarent.nic.entities.Histogram;
+import de.tarent.nic.entities.WifiScanResult;
+import de.tarent.nic.tracker.wifi.HistogramBuilder;
+import de.tarent.nic.tracker.wifi.RouterLevelHistogram;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Benchmarks for building histograms from scans and for reducing them to RouterLevelHistograms.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HistogramBenchmark {
+
+    // The time between two scans in milliseconds:
+    private static final int SCAN_INTERVAL = 1000;
+
+    /**
+     * The number of access points that are visible in each scan.
+     */
+    @Param({"10", "50", "200"})
+    public int accessPoints;
+
+    /**
+     * The number of scans in the HistogramBuilder, i.e. tracker_scanbuffer_maxage / scan interval.
+     */
+    @Param({"5", "20"})
+    public int scans;
+
+    private List<List<WifiScanResult>> scanResults;
+
+    private HistogramBuilder builder;
+
+    private HistogramBuilder slidingBuilder;
+
+    private Histogram histogram;
+
+    private int next;
+
+    private long time;
+
+
+    @Setup(Level.Trial)
+    public void setupTrial() {
+        final BenchmarkData data = new BenchmarkData(42);
+        scanResults = new ArrayList<List<WifiScanResult>>(scans);
+        for (int i = 0; i < scans; i++) {
+            // The scans see different subsets of the access points in the building:
+            scanResults.add(data.makeScan(accessPoints * 2, accessPoints));
+        }
+        histogram = data.makeHistogram("histogram", accessPoints * 2, accessPoints);
+    }
+
+    @Setup(Level.Iteration)
+    public void setupIteration() {
+        builder = new HistogramBuilder("benchmark");
+        for (final List<WifiScanResult> scan : scanResults) {
+            builder.addScanResults(scan);
+        }
+        // This one always contains the given number of scans, like the one in the WifiCapturer during tracking:
+        slidingBuilder = new HistogramBuilder("benchmark", scans * SCAN_INTERVAL - 1);
+        time = 0;
+        for (final List<WifiScanResult> scan : scanResults) {
+            time += SCAN_INTERVAL;
+            slidingBuilder.addScanResults(time, scan);
+        }
+    }
+
+
+    /**
+     * One step of the tracking: a new scan slides into the window, the oldest one out, and a histogram is built.
+     */
+    @Benchmark
+    public Histogram addScanAndBuild() {
+        next = (next + 1) % scans;
+        time += SCAN_INTERVAL;
+        return slidingBuilder.addScanResults(time, scanResults.get(next)).build(time);
+    }
+
+    /**
+     * Like {@link #addScanAndBuild()}, but without the Histogram.
+     */
+    @Benchmark
+    public RouterLevelHistogram addScanAndBuildMedianHistogram() {
+        next = (next + 1) % scans;
+        time += SCAN_INTERVAL;
+        return slidingBuilder.addScanResults(time, scanResults.get(next)).buildMedianHistogram(time);
+    }
+
+    @Benchmark
+    public Histogram build() {
+        return builder.build();
+    }
+
+    @Benchmark
+    public RouterLevelHistogram makeMedianHistogram() {
+        return RouterLevelHistogram.makeMedianHistogram(histogram);
+    }
+
+    @Benchmark
+    public RouterLevelHistogram makeAverageHistogram() {
+        return RouterLevelHistogram.makeAverageHistogram(histogram);
+    }
+
+}
@@ -0,0 +1,88 @@
+package de.tarent.nic.tracker.benchmark;
+
+import de.tarent.nic.tracker.geopoint.XYPoint;
+import de.tarent.nic.tracker.geopoint.XYPointFactory;
+import de.tarent.nic.tracker.interpolation.LinearInterpolation;
+import de.tarent.nic.tracker.interpolation.MetricInterpolation;
+import de.tarent.nic.tracker.interpolation.PositionInterpolator;
+import de.tarent.nic.tracker.interpolation.ReciprocalInterpolation;
+import de.tarent.nic.tracker.neighbour.Neighbour;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Benchmarks for the three PositionInterpolators, with the neighbours as points and as {@link Neighbour}s.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InterpolationBenchmark {
+
+    /**
+     * The number of fingerprints that were selected as neighbours, i.e. tracker_num_neighbours.
+     */
+    @Param({"5", "20", "100"})
+    public int fingerprints;
+
+    /**
+     * The interpolator to measure.
+     */
+    @Param({"linear", "metric", "reciprocal"})
+    public String interpolation;
+
+    private SortedSet<XYPoint> points;
+
+    private List<Neighbour<XYPoint>> neighbours;
+
+    private PositionInterpolator<XYPoint> interpolator;
+
+
+    @Setup(Level.Trial)
+    public void setup() {
+        points = new BenchmarkData(42).makeNeighbours(fingerprints);
+        neighbours = new ArrayList<Neighbour<XYPoint>>(fingerprints);
+        for (final XYPoint point : points) {
+            neighbours.add(new Neighbour<XYPoint>(point, point.getDivergence(), neighbours.size()));
+        }
+
+        final XYPointFactory factory = new XYPointFactory();
+        if ("linear".equals(interpolation)) {
+            interpolator = new LinearInterpolation<XYPoint>(factory);
+        } else if ("metric".equals(interpolation)) {
+            interpolator = new MetricInterpolation<XYPoint>(factory);
+        } else {
+            interpolator = new ReciprocalInterpolation<XYPoint>(factory);
+        }
+    }
+
+
+    @Benchmark
+    public XYPoint interpolatePoints() {
+        return interpolator.interpolatePosition(points);
+    }
+
+    @Benchmark
+    public XYPoint interpolateNeighbours() {
+        return interpolator.interpolatePosition(neighbours);
+    }
+
+}
@@ -0,0 +1,88 @@
+package de.tarent.nic.tracker.benchmark;
+
+import de.tarent.nic.tracker.geopoint.XYPoint;
+import de.tarent.nic.tracker.geopoint.XYPointFactory;
+import de.tarent.nic.tracker.neighbour.Neighbour;
+import de.tarent.nic.tracker.outlier.CentroidMedianEliminator;
+import de.tarent.nic.tracker.outlier.PlasmonaOutlierEliminator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Benchmarks for the outlier eliminators. They modify their input, so every invocation works on a fresh copy of the
+ * neighbours; the copy is part of the measured time and allocation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OutlierBenchmark {
+
+    /**
+     * The number of fingerprints that were selected as neighbours, i.e. tracker_num_neighbours.
+     */
+    @Param({"5", "20", "100"})
+    public int fingerprints;
+
+    private SortedSet<XYPoint> points;
+
+    private List<Neighbour<XYPoint>> neighbours;
+
+    private CentroidMedianEliminator<XYPoint> centroidMedianEliminator;
+
+    private PlasmonaOutlierEliminator<XYPoint> plasmonaOutlierEliminator;
+
+
+    @Setup(Level.Trial)
+    public void setup() {
+        points = new BenchmarkData(42).makeNeighbours(fingerprints);
+        neighbours = new ArrayList<Neighbour<XYPoint>>(fingerprints);
+        for (final XYPoint point : points) {
+            neighbours.add(new Neighbour<XYPoint>(point, point.getDivergence(), neighbours.size()));
+        }
+        centroidMedianEliminator = new CentroidMedianEliminator<XYPoint>(new XYPointFactory(), 2);
+        plasmonaOutlierEliminator = new PlasmonaOutlierEliminator<XYPoint>(new XYPointFactory());
+    }
+
+
+    @Benchmark
+    public Set<XYPoint> centroidMedianPoints() {
+        return centroidMedianEliminator.removeOutliers(new TreeSet<XYPoint>(points));
+    }
+
+    @Benchmark
+    public List<Neighbour<XYPoint>> centroidMedianNeighbours() {
+        return centroidMedianEliminator.removeOutliers(new ArrayList<Neighbour<XYPoint>>(neighbours));
+    }
+
+    @Benchmark
+    public Set<XYPoint> plasmonaPoints() {
+        return plasmonaOutlierEliminator.removeOutliers(new TreeSet<XYPoint>(points));
+    }
+
+    @Benchmark
+    public List<Neighbour<XYPoint>> plasmonaNeighbours() {
+        return plasmonaOutlierEliminator.removeOutliers(new ArrayList<Neighbour<XYPoint>>(neighbours));
+    }
+
+}
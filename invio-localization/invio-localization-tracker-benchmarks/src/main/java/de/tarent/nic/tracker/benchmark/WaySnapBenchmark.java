@@ -0,0 +1,95 @@
+package de.tarent.nic.tracker.benchmark;
+
+import de.tarent.nic.entities.Edge;
+import de.tarent.nic.entities.NicGeoPoint;
+import de.tarent.nic.tracker.geopoint.XYPoint;
+import de.tarent.nic.tracker.geopoint.XYPointFactory;
+import de.tarent.nic.tracker.mapmatching.GridWaySnap;
+import de.tarent.nic.tracker.mapmatching.SimpleWaySnap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Benchmark for snapping positions onto the ways of a map. The positions move through the building in small steps,
+ * as they do when a user walks around, so that the sticky last edge of the snappers is exercised realistically.
+ * The SimpleWaySnap looks at every edge; the GridWaySnap only at the edges in the grid cells around the position.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WaySnapBenchmark {
+
+    private static final int POSITIONS = 1024;
+
+    // The distance in meters between two positions:
+    private static final double STEP = 1;
+
+    /**
+     * The number of edges of the map.
+     */
+    @Param({"100", "1000", "10000"})
+    public int edges;
+
+    private SimpleWaySnap simpleWaySnap;
+
+    private GridWaySnap gridWaySnap;
+
+    private XYPoint[] positions;
+
+    private int next;
+
+
+    @Setup(Level.Trial)
+    public void setup() {
+        final Collection<Edge> map = new BenchmarkData(42).makeEdges(edges);
+        simpleWaySnap = new SimpleWaySnap(new XYPointFactory(), map);
+        gridWaySnap = new GridWaySnap(new XYPointFactory(), map);
+
+        // A walk in a big circle through the building:
+        positions = new XYPoint[POSITIONS];
+        double x = BenchmarkData.AREA_SIZE / 2.0;
+        double y = 0;
+        for (int i = 0; i < POSITIONS; i++) {
+            final double angle = (2 * Math.PI * i) / POSITIONS;
+            x = clamp(x + STEP * Math.cos(angle));
+            y = clamp(y + STEP * Math.sin(angle));
+            positions[i] = BenchmarkData.makePoint(x, y);
+        }
+    }
+
+
+    @Benchmark
+    public NicGeoPoint simpleSnap() {
+        next = (next + 1) % POSITIONS;
+        return simpleWaySnap.snap(positions[next]);
+    }
+
+    @Benchmark
+    public NicGeoPoint gridSnap() {
+        next = (next + 1) % POSITIONS;
+        return gridWaySnap.snap(positions[next]);
+    }
+
+
+    private static double clamp(final double coordinate) {
+        return Math.max(0, Math.min(BenchmarkData.AREA_SIZE, coordinate));
+    }
+
+}
@@ -2,7 +2,9 @@ package de.tarent.nic.tracker.interpolation;
 
 import de.tarent.nic.entities.NicGeoPoint;
 import de.tarent.nic.tracker.geopoint.PointFactory;
+import de.tarent.nic.tracker.neighbour.Neighbour;
 
+import java.util.List;
 import java.util.SortedSet;
 
 
@@ -60,4 +62,33 @@ public class LinearInterpolation<T extends NicGeoPoint> implements PositionInter
         return result;
     }
 
+    @Override
+    public T interpolatePosition(final List<Neighbour<T>> neighbours) {
+
+        final T result = pointFactory.newPoint();
+
+        if (neighbours.size() > 0) {
+            int weight = neighbours.size();
+
+            // See "Gauss":
+            final int normalizationFactor = (weight * (weight + 1)) / 2;
+
+            float x = 0;
+            float y = 0;
+
+            for (Neighbour<T> neighbour : neighbours) {
+                x += weight * neighbour.getPoint().getX();
+                y += weight * neighbour.getPoint().getY();
+                weight--;
+            }
+
+            x = x / normalizationFactor;
+            y = y / normalizationFactor;
+
+            result.setXY(x, y);
+        }
+
+        return result;
+    }
+
 }
@@ -2,7 +2,9 @@ package de.tarent.nic.tracker.interpolation;
 
 import de.tarent.nic.entities.NicGeoPoint;
 import de.tarent.nic.tracker.geopoint.PointFactory;
+import de.tarent.nic.tracker.neighbour.Neighbour;
 
+import java.util.List;
 import java.util.SortedSet;
 
 /**
@@ -58,6 +60,41 @@ public class MetricInterpolation<T extends NicGeoPoint> implements PositionInter
         return result;
     }
 
+    @Override
+    public T interpolatePosition(final List<Neighbour<T>> neighbours) {
+
+        final T result =  pointFactory.newPoint();
+
+        // If we have fewer than 2 points we don't need to do any real interpolation work:
+        final int size = neighbours.size();
+        if (size == 1) {
+            final NicGeoPoint singlePoint = neighbours.get(0).getPoint();
+            result.setXY(singlePoint.getX(), singlePoint.getY());
+        } else if (size > 1) {
+            // The same as doInterpolatePosition, with the divergences of the neighbours:
+            float distanceSum = 0;
+            for (Neighbour<T> neighbour : neighbours) {
+                distanceSum += neighbour.getDivergence();
+            }
+
+            final float totalDifferenceSum = distanceSum * (size - 1);
+
+            float x = 0;
+            float y = 0;
+
+            for (Neighbour<T> neighbour : neighbours) {
+                final double weight = (distanceSum - neighbour.getDivergence()) / totalDifferenceSum;
+
+                x += weight * neighbour.getPoint().getX();
+                y += weight * neighbour.getPoint().getY();
+            }
+
+            result.setXY(x, y);
+        }
+
+        return result;
+    }
+
 
     private T doInterpolatePosition(final SortedSet<T> points) {
 
@@ -1,7 +1,9 @@
 package de.tarent.nic.tracker.interpolation;
 
 import de.tarent.nic.entities.NicGeoPoint;
+import de.tarent.nic.tracker.neighbour.Neighbour;
 
+import java.util.List;
 import java.util.SortedSet;
 
 /**
@@ -25,4 +27,17 @@ public interface PositionInterpolator<T extends NicGeoPoint>  {
      */
     T interpolatePosition(SortedSet<T> points);
 
+    /**
+     * Interpolate a new position from a list of neighbours. This does the same as
+     * {@link #interpolatePosition(SortedSet)}, but the divergences are taken from the neighbours, not from the points.
+     * Neither the neighbours nor their points are modified.
+     *
+     * @param neighbours the neighbours, sorted by their divergence: nearest first, farthest last.
+     *                   If this list is empty then the result is undefined (either null or a point at 0,0, or
+     *                   whatever).
+     * @return a new NicGeoPoint that most closely matches the given distances, according to the concrete
+     *         interpolation-algorithm.
+     */
+    T interpolatePosition(List<Neighbour<T>> neighbours);
+
 }
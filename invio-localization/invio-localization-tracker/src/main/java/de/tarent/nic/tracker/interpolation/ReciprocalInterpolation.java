@@ -2,7 +2,9 @@ package de.tarent.nic.tracker.interpolation;
 
 import de.tarent.nic.entities.NicGeoPoint;
 import de.tarent.nic.tracker.geopoint.PointFactory;
+import de.tarent.nic.tracker.neighbour.Neighbour;
 
+import java.util.List;
 import java.util.SortedSet;
 
 
@@ -27,14 +29,14 @@ import java.util.SortedSet;
  */
 public class ReciprocalInterpolation<T extends NicGeoPoint> implements PositionInterpolator<T> {
 
-    private PointFactory<T> pointFactory;
+    private PointFactory<? extends T> pointFactory;
 
     /**
      * Construct a new ReciprocalInterpolation. Can/should be reused multiple times.
      *
      * @param factory is a the PointFactory which is to be used for the creation of new NicGeoPoints
      */
-    public ReciprocalInterpolation(final PointFactory<T> factory) {
+    public ReciprocalInterpolation(final PointFactory<? extends T> factory) {
         this.pointFactory = factory;
     }
 
@@ -71,6 +73,43 @@ public class ReciprocalInterpolation<T extends NicGeoPoint> implements PositionI
         return getResultingPoint(x, y);
     }
 
+    @Override
+    public T interpolatePosition(final List<Neighbour<T>> neighbours) {
+
+        if (neighbours.size() == 0) {
+            return pointFactory.newPoint();
+        }
+
+        float normalizationFactor = 0;
+
+        float x = 0;
+        float y = 0;
+
+        for (final Neighbour<T> neighbour : neighbours) {
+            final T point = neighbour.getPoint();
+
+            // A divergence of 0.0 means that we are exactly at this fingerprint. We return a copy of its position
+            // because the point itself belongs to the fingerprint and must not be modified by anyone.
+            if (neighbour.getDivergence() == 0.0) {
+                final T result = pointFactory.newPoint();
+                result.setLatitudeE6(point.getLatitudeE6());
+                result.setLongitudeE6(point.getLongitudeE6());
+                return result;
+            }
+
+            final double weight = 1 / neighbour.getDivergence();
+            normalizationFactor += weight;
+
+            x += weight * point.getX();
+            y += weight * point.getY();
+        }
+
+        x = x / normalizationFactor;
+        y = y / normalizationFactor;
+
+        return getResultingPoint(x, y);
+    }
+
     private T getResultingPoint(final float x, final float y) {
         final T result = pointFactory.newPoint();
         result.setXY(x, y);
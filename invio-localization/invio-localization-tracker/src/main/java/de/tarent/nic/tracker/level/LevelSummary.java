@@ -0,0 +1,162 @@
+package de.tarent.nic.tracker.level;
+
+import de.tarent.nic.entities.Histogram;
+import de.tarent.nic.tracker.wifi.FingerprintTable;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+
+/**
+ * The LevelSummary is a compact description of the fingerprints of one level (floor), for the detection of the level
+ * while the fingerprints themselves are not loaded: it only knows which access points are received on the level, and
+ * the strongest average level with which each of them was measured there. It doesn't keep the
+ * {@link FingerprintTable} from which it was made.
+ *
+ * A scan is on the level whose summary it matches best (see {@link #detectLevel}). That is less exact than the
+ * {@link LevelTracker}, but it needs only a few bytes per access point instead of all the fingerprints of all levels.
+ */
+public final class LevelSummary {
+
+    /**
+     * The level of an access point that is not received at all, in dB. It is weaker than every level that is measured.
+     */
+    public static final float MISSING_LEVEL = -100f;
+
+    // A rough estimate of the heap for one access point: the BSSID, its array entry and its level:
+    private static final int ACCESS_POINT_BYTES = 96;
+
+    private static final int SUMMARY_BYTES = 32;
+
+    // The BSSIDs, sorted, and the strongest average level of each:
+    private final String[] bssIds;
+
+    private final float[] levels;
+
+
+    /**
+     * Construct a new LevelSummary from the fingerprints of a level.
+     *
+     * @param fingerprints the complete FingerprintTable, which is only read here
+     */
+    public LevelSummary(final FingerprintTable fingerprints) {
+        final Map<String, Float> strongest = new TreeMap<String, Float>();
+        for (int i = 0; i < fingerprints.size(); i++) {
+            // The fingerprints are created one at a time, so that there is never more than one of them:
+            for (Map.Entry<String, Float> entry : averageLevels(fingerprints.getFingerprint(i).getHistogram())) {
+                final Float level = strongest.get(entry.getKey());
+                if ((level == null) || (entry.getValue() > level)) {
+                    strongest.put(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+        bssIds = strongest.keySet().toArray(new String[strongest.size()]);
+        levels = new float[bssIds.length];
+        int n = 0;
+        for (Float level : strongest.values()) {
+            levels[n++] = level;
+        }
+    }
+
+
+    /**
+     * Find the level of a scan: that is the level whose summary has the smallest root mean square difference to the
+     * average levels of the scan. An access point of the scan that is not received on a level counts as
+     * {@link #MISSING_LEVEL} there.
+     *
+     * @param summaries the summaries of the levels. Levels without fingerprints may be missing or null.
+     * @param histogram the histogram of the scan
+     * @return the level, or null if no level knows any access point of the scan
+     */
+    public static Integer detectLevel(final Map<Integer, LevelSummary> summaries, final Histogram histogram) {
+        final Iterable<Map.Entry<String, Float>> scan = averageLevels(histogram);
+        Integer closestLevel = null;
+        float closestDifference = Float.MAX_VALUE;
+        for (Map.Entry<Integer, LevelSummary> entry : new TreeMap<Integer, LevelSummary>(summaries).entrySet()) {
+            final LevelSummary summary = entry.getValue();
+            if ((summary == null) || !summary.knowsAny(scan)) {
+                continue;
+            }
+            final float difference = summary.getDifference(scan);
+            if (difference < closestDifference) {
+                closestLevel = entry.getKey();
+                closestDifference = difference;
+            }
+        }
+        return closestLevel;
+    }
+
+    /**
+     * The number of access points that are received on this level.
+     *
+     * @return the number of access points
+     */
+    public int size() {
+        return bssIds.length;
+    }
+
+    /**
+     * Get the strongest average level with which an access point was measured on this level.
+     *
+     * @param bssId the BSSID of the access point
+     * @return the level in dB, or {@link #MISSING_LEVEL} if the access point is not received on this level
+     */
+    public float getLevel(final String bssId) {
+        final int n = Arrays.binarySearch(bssIds, bssId);
+        return (n < 0) ? MISSING_LEVEL : levels[n];
+    }
+
+    /**
+     * Estimate how much memory this summary needs.
+     *
+     * @return the size in bytes, roughly
+     */
+    public long getMemorySize() {
+        return SUMMARY_BYTES + ACCESS_POINT_BYTES * (long) bssIds.length;
+    }
+
+
+    private boolean knowsAny(final Iterable<Map.Entry<String, Float>> scan) {
+        for (Map.Entry<String, Float> entry : scan) {
+            if (Arrays.binarySearch(bssIds, entry.getKey()) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private float getDifference(final Iterable<Map.Entry<String, Float>> scan) {
+        float sum = 0;
+        int count = 0;
+        for (Map.Entry<String, Float> entry : scan) {
+            final float difference = entry.getValue() - getLevel(entry.getKey());
+            sum += difference * difference;
+            count++;
+        }
+        return (float) Math.sqrt(sum / count);
+    }
+
+    /**
+     * Reduce a histogram to the average level of each access point, weighted by the fractions of the levels.
+     *
+     * @param histogram the histogram
+     * @return the average levels, by BSSID
+     */
+    private static Iterable<Map.Entry<String, Float>> averageLevels(final Histogram histogram) {
+        final Map<String, Float> averages = new TreeMap<String, Float>();
+        for (Map.Entry<String, Map<Integer, Float>> entry : histogram.entrySet()) {
+            float average = 0;
+            float fractions = 0;
+            for (Map.Entry<Integer, Float> level : entry.getValue().entrySet()) {
+                average += level.getKey() * level.getValue();
+                fractions += level.getValue();
+            }
+            if (fractions > 0) {
+                averages.put(entry.getKey(), average / fractions);
+            }
+        }
+        return averages.entrySet();
+    }
+
+}
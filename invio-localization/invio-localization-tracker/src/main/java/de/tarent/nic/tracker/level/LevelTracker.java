@@ -0,0 +1,207 @@
+package de.tarent.nic.tracker.level;
+
+import de.tarent.nic.entities.Histogram;
+import de.tarent.nic.entities.NicGeoPoint;
+import de.tarent.nic.tracker.neighbour.Neighbour;
+import de.tarent.nic.tracker.neighbour.NeighbourSearch;
+import de.tarent.nic.tracker.wifi.FingerprintIndex;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+
+/**
+ * The LevelTracker follows the level (floor) of a building on which the user is, scan by scan. It keeps one compiled
+ * {@link FingerprintIndex} per level, usually with the average reduction, and finds the few nearest fingerprints of
+ * each level for every scan. The level that first collects {@link #LEVEL_HITS} of the nearest fingerprints of all
+ * levels is the level of that scan.
+ *
+ * Single scans can be wrong, especially near stairs and escalators, where the access points of two levels are
+ * received. So the tracked level only changes when several consecutive scans agree on a new level (hysteresis).
+ * All methods are synchronized, because the scans and manual level changes usually come from different threads.
+ */
+public class LevelTracker {
+
+    /**
+     * The level on which this many fingerprints match first is the level of a scan.
+     */
+    public static final int LEVEL_HITS = 5;
+
+    /**
+     * A confidence below this is not considered relevant enough.
+     */
+    public static final float MIN_CONFIDENCE = 0.4f;
+
+    private final SortedMap<Integer, FingerprintIndex> indexes;
+
+    private final NeighbourSearch neighbourSearch;
+
+    private final int switchScans;
+
+    private Integer level;
+
+    // The level that the recent scans have detected instead of the current one, and how many did so in a row:
+    private Integer candidateLevel;
+    private int candidateScans;
+
+
+    /**
+     * Construct a new LevelTracker.
+     *
+     * @param indexes the compiled fingerprints of each level. Levels without fingerprints may be missing or null.
+     * @param neighbourSearch the NeighbourSearch for the nearest fingerprints of each level
+     * @param switchScans how many consecutive scans must detect another level before we switch to it; at least 1
+     */
+    public LevelTracker(final Map<Integer, FingerprintIndex> indexes,
+                        final NeighbourSearch neighbourSearch,
+                        final int switchScans) {
+        if (switchScans < 1) {
+            throw new IllegalArgumentException("At least one scan is needed to switch the level, not " + switchScans);
+        }
+        this.indexes = new TreeMap<Integer, FingerprintIndex>();
+        for (Map.Entry<Integer, FingerprintIndex> entry : indexes.entrySet()) {
+            if ((entry.getValue() != null) && (entry.getValue().size() > 0)) {
+                this.indexes.put(entry.getKey(), entry.getValue());
+            }
+        }
+        this.neighbourSearch = neighbourSearch;
+        this.switchScans = switchScans;
+    }
+
+
+    /**
+     * Add the next scan and follow the level. The first level that is detected is taken at once; after that another
+     * level is only taken when switchScans consecutive scans have detected it.
+     *
+     * @param histogram the histogram of the current scan
+     * @return the current level, which is null until a level has been detected
+     */
+    public synchronized Integer update(final Histogram histogram) {
+        final Integer detected = detectLevel(histogram);
+        if (detected == null) {
+            return level;
+        }
+
+        if ((level == null) || detected.equals(level)) {
+            level = detected;
+            candidateLevel = null;
+            candidateScans = 0;
+            return level;
+        }
+
+        if (detected.equals(candidateLevel)) {
+            candidateScans++;
+        } else {
+            candidateLevel = detected;
+            candidateScans = 1;
+        }
+        if (candidateScans >= switchScans) {
+            level = candidateLevel;
+            candidateLevel = null;
+            candidateScans = 0;
+        }
+        return level;
+    }
+
+    /**
+     * Find the level of a single scan, without any hysteresis. This does not change the tracked level.
+     *
+     * @param histogram the histogram of the scan
+     * @return the level, or null if no level has a fingerprint that matches the scan
+     */
+    public synchronized Integer detectLevel(final Histogram histogram) {
+        final SortedMap<Integer, List<Neighbour<NicGeoPoint>>> levelNeighbours =
+                new TreeMap<Integer, List<Neighbour<NicGeoPoint>>>();
+        boolean found = false;
+        for (Map.Entry<Integer, FingerprintIndex> entry : indexes.entrySet()) {
+            final FingerprintIndex index = entry.getValue();
+            final List<Neighbour<NicGeoPoint>> neighbours =
+                    neighbourSearch.search(index, index.encode(histogram), LEVEL_HITS, MIN_CONFIDENCE);
+            levelNeighbours.put(entry.getKey(), neighbours);
+            found |= !neighbours.isEmpty();
+        }
+        return found ? findClosestLevel(levelNeighbours) : null;
+    }
+
+    /**
+     * Get the current level.
+     *
+     * @return the level, or null if none has been detected or set yet
+     */
+    public synchronized Integer getLevel() {
+        return level;
+    }
+
+    /**
+     * Set the current level, e.g. when the user has chosen it. The scans so far don't count for a switch anymore.
+     *
+     * @param level the level
+     */
+    public synchronized void setLevel(final Integer level) {
+        this.level = level;
+        candidateLevel = null;
+        candidateScans = 0;
+    }
+
+    /**
+     * Get the levels that have fingerprints.
+     *
+     * @return the levels, in ascending order
+     */
+    public synchronized List<Integer> getLevels() {
+        return Collections.unmodifiableList(new ArrayList<Integer>(indexes.keySet()));
+    }
+
+
+    /**
+     * Find the level that we most probably are on. That is the first level to reach LEVEL_HITS fingerprints, counted
+     * from the nearest fingerprint of all levels. The LEVEL_HITS nearest fingerprints of each level are enough to know
+     * that.
+     *
+     * @param levelNeighbours the nearest fingerprints of each level, nearest first
+     * @return the level
+     */
+    private Integer findClosestLevel(final SortedMap<Integer, List<Neighbour<NicGeoPoint>>> levelNeighbours) {
+        // How many fingerprints of each level we have counted so far:
+        final Map<Integer, Integer> hitList = new TreeMap<Integer, Integer>();
+        Integer closestLevel = null;
+
+        while (true) {
+            // Take the next nearest fingerprint of all levels:
+            Integer nextLevel = null;
+            Neighbour<NicGeoPoint> next = null;
+            for (Map.Entry<Integer, List<Neighbour<NicGeoPoint>>> entry : levelNeighbours.entrySet()) {
+                final Integer count = hitList.get(entry.getKey());
+                final int hits = (count == null) ? 0 : count;
+                if ((hits < entry.getValue().size()) &&
+                    ((next == null) || (entry.getValue().get(hits).getDivergence() < next.getDivergence()))) {
+                    nextLevel = entry.getKey();
+                    next = entry.getValue().get(hits);
+                }
+            }
+            if (nextLevel == null) {
+                break;
+            }
+            if (closestLevel == null) {
+                closestLevel = nextLevel;
+            }
+
+            Integer count = hitList.get(nextLevel);
+            if (count == null) {
+                count = 0;
+            }
+            hitList.put(nextLevel, ++count);
+            if (count == LEVEL_HITS) {
+                return nextLevel;
+            }
+        }
+
+        // Too few fingerprints for any level to reach LEVEL_HITS:
+        return closestLevel;
+    }
+
+}
@@ -0,0 +1,286 @@
+package de.tarent.nic.tracker.mapmatching;
+
+import de.tarent.nic.entities.Edge;
+import de.tarent.nic.entities.NicGeoPoint;
+import de.tarent.nic.tracker.geopoint.PointFactory;
+
+import java.util.Collection;
+
+
+/**
+ * The GridWaySnap snaps points onto the nearest edge, with the same results as the {@link SimpleWaySnap}, but it
+ * does not have to look at all the edges to do so. The geometry of the edges is precalculated into arrays, and the
+ * edges are sorted into a uniform grid of cells. A query searches the cells in rings around the point and stops as
+ * soon as no unvisited cell can contain an edge that is nearer than the best one so far.
+ *
+ * Like the SimpleWaySnap it is sticky: when several edges have the same distance, the edge of the previous snap wins.
+ * Otherwise the edge that comes first in the collection wins. Because of that state an instance must not be used by
+ * several threads at the same time. It should be created once for a set of edges and then be used for all points.
+ */
+public class GridWaySnap implements WaySnap {
+
+    // The number of edges per cell that the grid aims for:
+    private static final int EDGES_PER_CELL = 2;
+
+    private static final int NONE = -1;
+
+    private final PointFactory<? extends NicGeoPoint> pointFactory;
+
+    private final Edge[] edges;
+
+    // Point A of each edge and the vector from A to B, in E6-units:
+    private final double[] ax;
+    private final double[] ay;
+    private final double[] dx;
+    private final double[] dy;
+
+    // The squared length of each edge:
+    private final double[] lengthSquared;
+
+    // The grid: its origin, the size of its (square) cells, and its number of columns and rows:
+    private double minX;
+    private double minY;
+    private double cellSize;
+    private int columns;
+    private int rows;
+
+    // The edges of cell (column, row) are cellEdges[cellStart[c]] to cellEdges[cellStart[c + 1] - 1], where
+    // c = row * columns + column.
+    private int[] cellStart;
+    private int[] cellEdges;
+
+    // For each edge, the number of the last query that has looked at it, so that edges in several cells are only
+    // measured once per query:
+    private final int[] visited;
+
+    private int query;
+
+    private int lastEdge = NONE;
+
+
+    /**
+     * Construct a new GridWaySnap and build its grid.
+     *
+     * @param factory is a the PointFactory which is to be used for the creation of new NicGeoPoints
+     * @param edges the set of edges to which we will later want to snap our points. It may be null or empty, then the
+     *              points are not snapped at all.
+     */
+    public GridWaySnap(final PointFactory<? extends NicGeoPoint> factory, final Collection<Edge> edges) {
+        this.pointFactory = factory;
+        this.edges = (edges == null) ? new Edge[0] : edges.toArray(new Edge[edges.size()]);
+
+        final int size = this.edges.length;
+        ax = new double[size];
+        ay = new double[size];
+        dx = new double[size];
+        dy = new double[size];
+        lengthSquared = new double[size];
+        visited = new int[size];
+
+        for (int i = 0; i < size; i++) {
+            final NicGeoPoint a = this.edges[i].getPointA();
+            final NicGeoPoint b = this.edges[i].getPointB();
+            ax[i] = a.getLatitudeE6();
+            ay[i] = a.getLongitudeE6();
+            dx[i] = b.getLatitudeE6() - ax[i];
+            dy[i] = b.getLongitudeE6() - ay[i];
+            lengthSquared[i] = dx[i] * dx[i] + dy[i] * dy[i];
+        }
+
+        if (size > 0) {
+            buildGrid();
+        }
+    }
+
+
+    /**
+     * Snap the given point onto the nearest edge. If there are two edges with the same distance the point will snap
+     * to the last saved edge, if that is one of those, and otherwise to the one that comes first in the collection.
+     *
+     * @param point the point which was measured and needs to be snapped to the valid path.
+     * @return the nearest point that lies on one of the edges
+     */
+    @Override
+    public NicGeoPoint snap(final NicGeoPoint point) {
+        if (edges.length == 0) {
+            return point;
+        }
+        final double cx = point.getLatitudeE6();
+        final double cy = point.getLongitudeE6();
+        final int column = clamp((int) Math.floor((cx - minX) / cellSize), columns);
+        final int row = clamp((int) Math.floor((cy - minY) / cellSize), rows);
+
+        query++;
+        int best = NONE;
+        float bestDistance = Float.POSITIVE_INFINITY;
+
+        for (int ring = 0; ; ring++) {
+            final double ringDistance = ringDistance(cx, cy, column, row, ring);
+            // An edge exactly as far as the best one still matters for the tie-breaking, even after rounding:
+            if (Double.isInfinite(ringDistance) || (ringDistance > bestDistance + Math.ulp(bestDistance))) {
+                break;
+            }
+            for (int r = Math.max(0, row - ring); r <= Math.min(rows - 1, row + ring); r++) {
+                // Only the border of the ring is new; the inside was searched by the smaller rings:
+                final boolean border = (r == row - ring) || (r == row + ring);
+                final int step = border ? 1 : (2 * ring);
+                for (int c = column - ring; c <= column + ring; c += step) {
+                    if ((c < 0) || (c >= columns)) {
+                        continue;
+                    }
+                    final int cell = r * columns + c;
+                    for (int e = cellStart[cell]; e < cellStart[cell + 1]; e++) {
+                        final int edge = cellEdges[e];
+                        if (visited[edge] == query) {
+                            continue;
+                        }
+                        visited[edge] = query;
+                        final float distance = distance(edge, cx, cy);
+                        if (isBetter(edge, distance, best, bestDistance)) {
+                            best = edge;
+                            bestDistance = distance;
+                        }
+                    }
+                }
+            }
+        }
+
+        lastEdge = best;
+        return nearestPoint(best, cx, cy);
+    }
+
+    /**
+     * Get the edge onto which the last point was snapped.
+     *
+     * @return the edge, or null if nothing was snapped yet
+     */
+    public Edge getLastEdge() {
+        return (lastEdge == NONE) ? null : edges[lastEdge];
+    }
+
+
+    private boolean isBetter(final int edge, final float distance, final int best, final float bestDistance) {
+        if (best == NONE || distance < bestDistance) {
+            return true;
+        }
+        if (distance > bestDistance) {
+            return false;
+        }
+        // A tie:
+        return (edge == lastEdge) || ((best != lastEdge) && (edge < best));
+    }
+
+    // The same calculation as in SimpleWaySnap, so that the distances, and therefore the ties, are exactly the same.
+    private float distance(final int edge, final double cx, final double cy) {
+        final double r = parameter(edge, cx, cy);
+        final double lx = ax[edge] + r * dx[edge];
+        final double ly = ay[edge] + r * dy[edge];
+        return (float) Math.sqrt((lx - cx) * (lx - cx) + (ly - cy) * (ly - cy));
+    }
+
+    private NicGeoPoint nearestPoint(final int edge, final double cx, final double cy) {
+        final double r = parameter(edge, cx, cy);
+        final NicGeoPoint nearestPoint = pointFactory.newPoint();
+        nearestPoint.setLatitudeE6((int) (ax[edge] + r * dx[edge]));
+        nearestPoint.setLongitudeE6((int) (ay[edge] + r * dy[edge]));
+        return nearestPoint;
+    }
+
+    // The parameter r of the point on the edge that is closest to C, if the edge is given as "A+r*(B-A)", clipped to
+    // the edge. An edge without length is treated as its point A.
+    private double parameter(final int edge, final double cx, final double cy) {
+        if (lengthSquared[edge] == 0) {
+            return 0;
+        }
+        final double r = ((cx - ax[edge]) * dx[edge] + (cy - ay[edge]) * dy[edge]) / lengthSquared[edge];
+        return Math.max(0, Math.min(1, r));
+    }
+
+    /**
+     * The smallest distance that any cell of a ring can have from the point. Because the start cell is the cell that
+     * is nearest to the point, this grows with the ring.
+     *
+     * @return the distance, or infinity if the ring lies completely outside of the grid
+     */
+    private double ringDistance(final double cx, final double cy, final int column, final int row, final int ring) {
+        if (ring == 0) {
+            return 0;
+        }
+        double distance = Double.POSITIVE_INFINITY;
+        if (column - ring >= 0) {
+            distance = Math.min(distance, Math.max(0, cx - (minX + (column - ring + 1) * cellSize)));
+        }
+        if (column + ring < columns) {
+            distance = Math.min(distance, Math.max(0, (minX + (column + ring) * cellSize) - cx));
+        }
+        if (row - ring >= 0) {
+            distance = Math.min(distance, Math.max(0, cy - (minY + (row - ring + 1) * cellSize)));
+        }
+        if (row + ring < rows) {
+            distance = Math.min(distance, Math.max(0, (minY + (row + ring) * cellSize) - cy));
+        }
+        return distance;
+    }
+
+    private void buildGrid() {
+        minX = Double.POSITIVE_INFINITY;
+        minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        double totalLength = 0;
+        for (int i = 0; i < edges.length; i++) {
+            minX = Math.min(minX, Math.min(ax[i], ax[i] + dx[i]));
+            minY = Math.min(minY, Math.min(ay[i], ay[i] + dy[i]));
+            maxX = Math.max(maxX, Math.max(ax[i], ax[i] + dx[i]));
+            maxY = Math.max(maxY, Math.max(ay[i], ay[i] + dy[i]));
+            totalLength += Math.sqrt(lengthSquared[i]);
+        }
+
+        // Cells for about EDGES_PER_CELL edges each, but not much smaller than an edge, so that an edge doesn't have
+        // to be stored in too many cells:
+        final double width = maxX - minX;
+        final double height = maxY - minY;
+        cellSize = Math.max(1, Math.max(Math.sqrt(width * height * EDGES_PER_CELL / edges.length),
+                                         totalLength / edges.length));
+        columns = (int) (width / cellSize) + 1;
+        rows = (int) (height / cellSize) + 1;
+
+        // Count the edges per cell first, then fill them in:
+        cellStart = new int[columns * rows + 1];
+        for (int i = 0; i < edges.length; i++) {
+            forEachCell(i, null);
+        }
+        for (int cell = 0; cell < columns * rows; cell++) {
+            cellStart[cell + 1] += cellStart[cell];
+        }
+        cellEdges = new int[cellStart[columns * rows]];
+        final int[] fill = new int[columns * rows];
+        for (int i = 0; i < edges.length; i++) {
+            forEachCell(i, fill);
+        }
+    }
+
+    // Visit all cells that the bounding box of an edge overlaps. Without fill the counts in cellStart[cell + 1] are
+    // increased, with fill the edge is stored.
+    private void forEachCell(final int edge, final int[] fill) {
+        final int fromColumn = clamp((int) ((Math.min(ax[edge], ax[edge] + dx[edge]) - minX) / cellSize), columns);
+        final int toColumn = clamp((int) ((Math.max(ax[edge], ax[edge] + dx[edge]) - minX) / cellSize), columns);
+        final int fromRow = clamp((int) ((Math.min(ay[edge], ay[edge] + dy[edge]) - minY) / cellSize), rows);
+        final int toRow = clamp((int) ((Math.max(ay[edge], ay[edge] + dy[edge]) - minY) / cellSize), rows);
+        for (int r = fromRow; r <= toRow; r++) {
+            for (int c = fromColumn; c <= toColumn; c++) {
+                final int cell = r * columns + c;
+                if (fill == null) {
+                    cellStart[cell + 1]++;
+                } else {
+                    cellEdges[cellStart[cell] + fill[cell]++] = edge;
+                }
+            }
+        }
+    }
+
+    private static int clamp(final int index, final int size) {
+        return Math.max(0, Math.min(size - 1, index));
+    }
+
+}
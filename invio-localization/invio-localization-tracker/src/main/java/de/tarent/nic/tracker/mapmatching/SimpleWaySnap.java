@@ -13,10 +13,10 @@ import java.util.TreeMap;
 
 /**
  * This simple algorithm snaps a {@link NicGeoPoint} onto the nearest edge.
- * If the edges don't change then the same instance should be used to snap all the points, to allow for performance
- * improvements later.
+ * If the edges don't change then the same instance should be used to snap all the points, because of the sticky
+ * last edge. It looks at every edge for every point; for large sets of edges the {@link GridWaySnap} is faster.
  */
-public class SimpleWaySnap {
+public class SimpleWaySnap implements WaySnap {
 
     /**
      * The edges represent all the valid ways, where the users position may lie.
@@ -42,7 +42,6 @@ public class SimpleWaySnap {
 
     /**
      * Construct a new SimpleWaySnap.
-     * // TODO, performance: do some precalculation on the edges and store it in some child-class, to speed up the math.
      *
      * @param factory is a the PointFactory which is to be used for the creation of new NicGeoPoints
      * @param edges the set of edges to which we will later want to snap our points.
@@ -60,6 +59,7 @@ public class SimpleWaySnap {
      * @param point the point which was measured and needs to be snapped to the valid path.
      * @return the nearest point that lies on one of the edges
      */
+    @Override
     public NicGeoPoint snap(NicGeoPoint point) {
         if (edges != null) {
             edgesByDistance = new TreeMap<Float, Edge>();
@@ -0,0 +1,178 @@
+package de.tarent.nic.tracker.mapmatching;
+
+import de.tarent.nic.entities.Edge;
+import de.tarent.nic.entities.NicGeoPoint;
+
+import java.util.Collection;
+
+
+/**
+ * The WalkableMask is a raster of the area in which one can walk, so that positions, e.g. the particles of a particle
+ * filter, can be checked against the floor plan in constant time. The walkable area are the corridors along the
+ * edges: everything that is at most half the corridor width away from an edge. It is rasterised once into a bitmap of
+ * square cells, in the metric xy-coordinates of the points (see {@link NicGeoPoint#getX()}).
+ *
+ * A cell is walkable if any part of it may be in a corridor, so the mask is a bit too generous rather than too strict.
+ * Everything outside of the bounding box of the corridors is not walkable. An instance is immutable after its
+ * construction and can be used by several threads.
+ */
+public class WalkableMask {
+
+    // The number of cells per corridor width, if the area is small enough for that:
+    private static final int CELLS_PER_WIDTH = 4;
+
+    // The largest number of cells, i.e. 2MB for the bitmap. Larger areas get larger cells.
+    private static final long MAX_CELLS = 1L << 24;
+
+    private final double minX;
+    private final double minY;
+    private final double cellSize;
+    private final int columns;
+    private final int rows;
+
+    // One bit per cell, row by row:
+    private final long[] cells;
+
+
+    /**
+     * Construct a new WalkableMask and rasterise the corridors along the edges.
+     *
+     * @param edges the edges of the ways; may be null or empty, then nothing is walkable
+     * @param width the width of the corridors, in meters
+     */
+    public WalkableMask(final Collection<Edge> edges, final double width) {
+        if (!(width > 0)) {
+            throw new IllegalArgumentException("The corridor width must be positive, but is " + width);
+        }
+        final int size = (edges == null) ? 0 : edges.size();
+        final double[] ax = new double[size];
+        final double[] ay = new double[size];
+        final double[] bx = new double[size];
+        final double[] by = new double[size];
+        final double halfWidth = width / 2;
+
+        double minX = Double.POSITIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        int i = 0;
+        if (edges != null) {
+            for (final Edge edge : edges) {
+                final NicGeoPoint a = edge.getPointA();
+                final NicGeoPoint b = edge.getPointB();
+                ax[i] = a.getX();
+                ay[i] = a.getY();
+                bx[i] = b.getX();
+                by[i] = b.getY();
+                minX = Math.min(minX, Math.min(ax[i], bx[i]) - halfWidth);
+                minY = Math.min(minY, Math.min(ay[i], by[i]) - halfWidth);
+                maxX = Math.max(maxX, Math.max(ax[i], bx[i]) + halfWidth);
+                maxY = Math.max(maxY, Math.max(ay[i], by[i]) + halfWidth);
+                i++;
+            }
+        }
+
+        if (size == 0) {
+            this.minX = 0;
+            this.minY = 0;
+            this.cellSize = 1;
+            this.columns = 0;
+            this.rows = 0;
+            this.cells = new long[0];
+            return;
+        }
+
+        double cellSize = width / CELLS_PER_WIDTH;
+        while (cellCount(maxX - minX, maxY - minY, cellSize) > MAX_CELLS) {
+            cellSize *= 2;
+        }
+        this.minX = minX;
+        this.minY = minY;
+        this.cellSize = cellSize;
+        this.columns = (int) ((maxX - minX) / cellSize) + 1;
+        this.rows = (int) ((maxY - minY) / cellSize) + 1;
+        this.cells = new long[(columns * rows + 63) / 64];
+
+        // A cell is walkable if its center is within the corridor, plus half the diagonal of the cell:
+        final double reach = halfWidth + cellSize * Math.sqrt(0.5);
+        for (int edge = 0; edge < size; edge++) {
+            rasterise(ax[edge], ay[edge], bx[edge], by[edge], halfWidth, reach * reach);
+        }
+    }
+
+
+    /**
+     * Check if a position is in the walkable area.
+     *
+     * @param x the x-coordinate, in meters
+     * @param y the y-coordinate, in meters
+     * @return true if the cell of the position is walkable
+     */
+    public boolean isWalkable(final double x, final double y) {
+        final double column = Math.floor((x - minX) / cellSize);
+        final double row = Math.floor((y - minY) / cellSize);
+        if ((column < 0) || (column >= columns) || (row < 0) || (row >= rows)) {
+            return false;
+        }
+        final int cell = (int) row * columns + (int) column;
+        return (cells[cell >>> 6] & (1L << cell)) != 0;
+    }
+
+    /**
+     * Check if a point is in the walkable area.
+     *
+     * @param point the point
+     * @return true if the cell of the point is walkable
+     */
+    public boolean isWalkable(final NicGeoPoint point) {
+        return isWalkable(point.getX(), point.getY());
+    }
+
+    /**
+     * Get the size of the cells, which may be larger than requested for very large areas.
+     *
+     * @return the length of the side of a cell, in meters
+     */
+    public double getCellSize() {
+        return cellSize;
+    }
+
+
+    private static double cellCount(final double width, final double height, final double cellSize) {
+        return (Math.floor(width / cellSize) + 1) * (Math.floor(height / cellSize) + 1);
+    }
+
+    // Mark all cells whose centers are at most sqrt(reachSquared) away from the edge from A to B.
+    private void rasterise(final double ax, final double ay, final double bx, final double by,
+                           final double halfWidth, final double reachSquared) {
+        final int fromColumn = clamp((int) ((Math.min(ax, bx) - halfWidth - minX) / cellSize) - 1, columns);
+        final int toColumn = clamp((int) ((Math.max(ax, bx) + halfWidth - minX) / cellSize) + 1, columns);
+        final int fromRow = clamp((int) ((Math.min(ay, by) - halfWidth - minY) / cellSize) - 1, rows);
+        final int toRow = clamp((int) ((Math.max(ay, by) + halfWidth - minY) / cellSize) + 1, rows);
+
+        final double dx = bx - ax;
+        final double dy = by - ay;
+        final double lengthSquared = dx * dx + dy * dy;
+        for (int row = fromRow; row <= toRow; row++) {
+            final double cy = minY + (row + 0.5) * cellSize;
+            for (int column = fromColumn; column <= toColumn; column++) {
+                final double cx = minX + (column + 0.5) * cellSize;
+                double r = 0;
+                if (lengthSquared > 0) {
+                    r = Math.max(0, Math.min(1, ((cx - ax) * dx + (cy - ay) * dy) / lengthSquared));
+                }
+                final double ex = ax + r * dx - cx;
+                final double ey = ay + r * dy - cy;
+                if (ex * ex + ey * ey <= reachSquared) {
+                    final int cell = row * columns + column;
+                    cells[cell >>> 6] |= 1L << cell;
+                }
+            }
+        }
+    }
+
+    private static int clamp(final int index, final int size) {
+        return Math.max(0, Math.min(size - 1, index));
+    }
+
+}
@@ -0,0 +1,19 @@
+package de.tarent.nic.tracker.mapmatching;
+
+import de.tarent.nic.entities.NicGeoPoint;
+
+
+/**
+ * A WaySnap moves a measured position onto the ways of the map, where the user can actually be.
+ */
+public interface WaySnap {
+
+    /**
+     * Snap the given point onto the nearest edge.
+     *
+     * @param point the point which was measured and needs to be snapped to the valid path.
+     * @return the nearest point that lies on one of the edges, or the point itself if there are no edges
+     */
+    NicGeoPoint snap(NicGeoPoint point);
+
+}
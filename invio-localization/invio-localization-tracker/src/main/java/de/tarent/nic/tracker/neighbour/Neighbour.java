@@ -0,0 +1,84 @@
+package de.tarent.nic.tracker.neighbour;
+
+import de.tarent.nic.entities.NicGeoPoint;
+
+
+/**
+ * A Neighbour is the result of comparing a measurement with one fingerprint: the position of the fingerprint together
+ * with the divergence between the two. It is immutable, and the divergence is stored here instead of in the point, so
+ * that the points of the fingerprints are never modified by the matching and can be shared between threads.
+ *
+ * Neighbours are ordered by their divergence (nearest first). Equal divergences are ordered by the index of the
+ * fingerprint, so that the order is always well-defined.
+ *
+ * @param <T> the concrete type of points
+ */
+public final class Neighbour<T extends NicGeoPoint> implements Comparable<Neighbour<T>> {
+
+    private final T point;
+
+    private final double divergence;
+
+    private final int index;
+
+
+    /**
+     * Construct a new Neighbour.
+     *
+     * @param point the position of the fingerprint, which will not be modified
+     * @param divergence the divergence between the measurement and the fingerprint
+     * @param index the index of the fingerprint, e.g. in a FingerprintIndex; only used to break ties in the ordering
+     */
+    public Neighbour(final T point, final double divergence, final int index) {
+        this.point = point;
+        this.divergence = divergence;
+        this.index = index;
+    }
+
+
+    public T getPoint() {
+        return point;
+    }
+
+    public double getDivergence() {
+        return divergence;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * Compare two neighbours by divergence and index, as described in {@link #compare(double, int, double, int)}.
+     * {@inheritDoc}
+     */
+    @Override
+    public int compareTo(final Neighbour<T> other) {
+        return compare(divergence, index, other.divergence, other.index);
+    }
+
+    /**
+     * The ordering of neighbours: smaller divergences first (NaN is the largest divergence), and for equal
+     * divergences the smaller index first.
+     *
+     * @param divergence1 the divergence of the first neighbour
+     * @param index1 the index of the first neighbour
+     * @param divergence2 the divergence of the second neighbour
+     * @param index2 the index of the second neighbour
+     * @return < 0 if the first neighbour is nearer, > 0 if the second is nearer, 0 if they are the same
+     */
+    public static int compare(final double divergence1, final int index1,
+                              final double divergence2, final int index2) {
+        final int result = Double.compare(divergence1, divergence2);
+        if (result != 0) {
+            return result;
+        }
+        return (index1 < index2) ? -1 : ((index1 == index2) ? 0 : 1);
+    }
+
+    @Override
+    public String toString() {
+        return "Neighbour " + index + ": " + point + ", divergence " + divergence;
+    }
+
+}
@@ -0,0 +1,209 @@
+package de.tarent.nic.tracker.neighbour;
+
+import de.tarent.nic.entities.NicGeoPoint;
+import de.tarent.nic.tracker.wifi.FingerprintIndex;
+import de.tarent.nic.tracker.wifi.LevelVector;
+import de.tarent.nic.tracker.wifi.divergence.SortedKullbackLeibler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+
+/**
+ * The NeighbourSearch compares a measurement with the fingerprints of a {@link FingerprintIndex} and selects the
+ * nearest of them. It can do so sequentially, or, for large fingerprint databases, in parallel: the fingerprints are
+ * split into one chunk per thread, each chunk selects its own nearest neighbours, and these are merged afterwards.
+ * Because the neighbours are totally ordered (by divergence and index), the merged result is always exactly the same
+ * as the sequential one.
+ *
+ * The threads are created when they are first needed and live until {@link #shutdown()}. They are daemon threads, so
+ * a forgotten shutdown will not keep the application alive.
+ */
+public class NeighbourSearch {
+
+    public static final int MATCHING_MODE_SEQUENTIAL = 1;
+    public static final int MATCHING_MODE_PARALLEL = 2;
+
+    /**
+     * Below this number of fingerprints the overhead of the threads is larger than what they can save.
+     */
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 2000;
+
+    /**
+     * Use this as minimum confidence to keep all neighbours, even those that have no access point in common with the
+     * measurement.
+     */
+    public static final float ANY_CONFIDENCE = -1f;
+
+    private static final int ONE_THREAD = 1;
+
+    private final int matchingMode;
+
+    private final int parallelThreshold;
+
+    private final int threads;
+
+    private ExecutorService executor;
+
+
+    /**
+     * Construct a new NeighbourSearch that uses as many threads as there are processors.
+     *
+     * @param matchingMode one of the MATCHING_MODE_* constants
+     * @param parallelThreshold the minimum number of fingerprints for which the parallel mode really uses threads
+     */
+    public NeighbourSearch(final int matchingMode, final int parallelThreshold) {
+        this(matchingMode, parallelThreshold, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Construct a new NeighbourSearch.
+     *
+     * @param matchingMode one of the MATCHING_MODE_* constants
+     * @param parallelThreshold the minimum number of fingerprints for which the parallel mode really uses threads
+     * @param threads the number of threads for the parallel mode, > 0
+     */
+    public NeighbourSearch(final int matchingMode, final int parallelThreshold, final int threads) {
+        if ((matchingMode != MATCHING_MODE_SEQUENTIAL) && (matchingMode != MATCHING_MODE_PARALLEL)) {
+            throw new IllegalArgumentException("Unknown matching mode " + matchingMode);
+        }
+        if (threads < ONE_THREAD) {
+            throw new IllegalArgumentException("The number of threads must be positive, but was " + threads);
+        }
+        this.matchingMode = matchingMode;
+        this.parallelThreshold = parallelThreshold;
+        this.threads = threads;
+    }
+
+
+    /**
+     * Find the nearest neighbours of a measurement among all fingerprints.
+     *
+     * @param index the FingerprintIndex
+     * @param measurement the measurement, encoded by the same index
+     * @param k the number of neighbours
+     * @param minConfidence only fingerprints with a confidence above this are neighbours; see {@link #ANY_CONFIDENCE}
+     * @return the nearest neighbours, nearest first
+     */
+    public List<Neighbour<NicGeoPoint>> search(final FingerprintIndex index, final LevelVector measurement,
+                                               final int k, final float minConfidence) {
+        return search(index, measurement, null, index.size(), k, minConfidence);
+    }
+
+    /**
+     * Find the nearest neighbours of a measurement among some candidates, e.g. those of a
+     * {@link de.tarent.nic.tracker.wifi.CandidateFilter}.
+     *
+     * @param index the FingerprintIndex
+     * @param measurement the measurement, encoded by the same index
+     * @param candidates the indices of the candidates in the FingerprintIndex, or null for all fingerprints
+     * @param count the number of candidates, i.e. how many entries of the candidates are used
+     * @param k the number of neighbours
+     * @param minConfidence only fingerprints with a confidence above this are neighbours; see {@link #ANY_CONFIDENCE}
+     * @return the nearest neighbours, nearest first
+     */
+    public List<Neighbour<NicGeoPoint>> search(final FingerprintIndex index, final LevelVector measurement,
+                                               final int[] candidates, final int count,
+                                               final int k, final float minConfidence) {
+        if ((matchingMode == MATCHING_MODE_SEQUENTIAL) || (count < parallelThreshold) || (threads == ONE_THREAD)) {
+            return score(index, measurement, candidates, 0, count, k, minConfidence).getNeighbours();
+        }
+
+        final int chunkSize = (count + threads - 1) / threads;
+        final List<Callable<NeighbourSelector<NicGeoPoint>>> chunks =
+                new ArrayList<Callable<NeighbourSelector<NicGeoPoint>>>(threads);
+        for (int from = 0; from < count; from += chunkSize) {
+            final int start = from;
+            final int end = Math.min(count, from + chunkSize);
+            chunks.add(new Callable<NeighbourSelector<NicGeoPoint>>() {
+                @Override
+                public NeighbourSelector<NicGeoPoint> call() {
+                    return score(index, measurement, candidates, start, end, k, minConfidence);
+                }
+            });
+        }
+
+        final NeighbourSelector<NicGeoPoint> merged = new NeighbourSelector<NicGeoPoint>(k);
+        try {
+            for (final Future<NeighbourSelector<NicGeoPoint>> result : getExecutor().invokeAll(chunks)) {
+                merged.addAll(result.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while matching the fingerprints", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException("Matching the fingerprints failed", e.getCause());
+        } catch (RejectedExecutionException e) {
+            // We have been shut down in the meantime, but this measurement can still be finished:
+            return score(index, measurement, candidates, 0, count, k, minConfidence).getNeighbours();
+        }
+        return merged.getNeighbours();
+    }
+
+    /**
+     * Stop the threads. The NeighbourSearch can still be used afterwards; it will start new threads when necessary.
+     */
+    public synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+    }
+
+    public int getMatchingMode() {
+        return matchingMode;
+    }
+
+    public int getParallelThreshold() {
+        return parallelThreshold;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+
+    // Score the candidates from start (inclusive) to end (exclusive). Every call has its own divergence algorithm,
+    // because that is not thread-safe.
+    private static NeighbourSelector<NicGeoPoint> score(final FingerprintIndex index, final LevelVector measurement,
+                                                        final int[] candidates, final int start, final int end,
+                                                        final int k, final float minConfidence) {
+        final SortedKullbackLeibler divergenceAlgorithm = new SortedKullbackLeibler();
+        final NeighbourSelector<NicGeoPoint> selector = new NeighbourSelector<NicGeoPoint>(k);
+        for (int c = start; c < end; c++) {
+            final int i = (candidates == null) ? c : candidates[c];
+            divergenceAlgorithm.init(measurement, index.getVector(i));
+            if (divergenceAlgorithm.getConfidence() > minConfidence) {
+                selector.offer(index.getPoint(i), divergenceAlgorithm.getDivergence(), i);
+            }
+        }
+        return selector;
+    }
+
+    private synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                private int number;
+
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    final Thread thread = new Thread(runnable, "neighbourSearch-" + (++number));
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return executor;
+    }
+
+}
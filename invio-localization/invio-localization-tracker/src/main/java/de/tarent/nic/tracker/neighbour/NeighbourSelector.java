@@ -0,0 +1,164 @@
+package de.tarent.nic.tracker.neighbour;
+
+import de.tarent.nic.entities.NicGeoPoint;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * The NeighbourSelector finds the k nearest neighbours among any number of fingerprints, without sorting all of them.
+ * It keeps the best k candidates in a bounded max-heap, whose root is the worst of them. Every new candidate only
+ * needs to be compared with that root, so that selecting k out of n fingerprints costs O(n log k) instead of
+ * O(n log n), and no objects are created until the result is requested.
+ *
+ * A selector can be reused for the next measurement after {@link #reset()}. It is not thread-safe, but several
+ * selectors can be combined with {@link #addAll(NeighbourSelector)}.
+ *
+ * @param <T> the concrete type of points
+ */
+public class NeighbourSelector<T extends NicGeoPoint> {
+
+    private final int capacity;
+
+    // A list, because there are no generic arrays; it always has the capacity as its size:
+    private final List<T> points;
+
+    private final double[] divergences;
+
+    private final int[] indices;
+
+    private int size;
+
+
+    /**
+     * Construct a new NeighbourSelector.
+     *
+     * @param capacity the number of neighbours that are to be selected (the k in k-nearest-neighbours), > 0
+     */
+    public NeighbourSelector(final int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("The number of neighbours must be positive, but was " + capacity);
+        }
+        this.capacity = capacity;
+        points = new ArrayList<T>(Collections.<T>nCopies(capacity, null));
+        divergences = new double[capacity];
+        indices = new int[capacity];
+    }
+
+
+    /**
+     * Offer a new candidate. It will be kept if it is nearer than the worst of the current candidates, or if there
+     * are not yet enough candidates.
+     *
+     * @param point the position of the fingerprint
+     * @param divergence the divergence between the measurement and the fingerprint
+     * @param index the index of the fingerprint, used to break ties between equal divergences
+     */
+    public void offer(final T point, final double divergence, final int index) {
+        if (size < capacity) {
+            siftUp(size++, point, divergence, index);
+        } else if (Neighbour.compare(divergence, index, divergences[0], indices[0]) < 0) {
+            siftDown(0, point, divergence, index);
+        }
+    }
+
+    /**
+     * Offer all the candidates of another selector, e.g. one that has processed a different part of the fingerprints.
+     *
+     * @param other the other NeighbourSelector
+     */
+    public void addAll(final NeighbourSelector<T> other) {
+        for (int i = 0; i < other.size; i++) {
+            offer(other.points.get(i), other.divergences[i], other.indices[i]);
+        }
+    }
+
+    /**
+     * Remove all candidates, so that the selector can be used for the next measurement.
+     */
+    public void reset() {
+        for (int i = 0; i < size; i++) {
+            points.set(i, null);
+        }
+        size = 0;
+    }
+
+    /**
+     * The number of candidates that are currently selected. This is never more than the capacity.
+     *
+     * @return the size
+     */
+    public int size() {
+        return size;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Get the selected neighbours.
+     *
+     * @return a new list of the neighbours, sorted by divergence: nearest first
+     */
+    public List<Neighbour<T>> getNeighbours() {
+        final List<Neighbour<T>> neighbours = new ArrayList<Neighbour<T>>(size);
+        for (int i = 0; i < size; i++) {
+            neighbours.add(new Neighbour<T>(points.get(i), divergences[i], indices[i]));
+        }
+        Collections.sort(neighbours);
+        return neighbours;
+    }
+
+
+    // Move the hole at position i up towards the root, until the candidate can be placed there.
+    private void siftUp(final int position, final T point, final double divergence, final int index) {
+        int i = position;
+        while (i > 0) {
+            final int parent = (i - 1) / 2;
+            if (Neighbour.compare(divergence, index, divergences[parent], indices[parent]) <= 0) {
+                break;
+            }
+            move(parent, i);
+            i = parent;
+        }
+        set(i, point, divergence, index);
+    }
+
+    // Move the hole at position i down towards the leaves, until the candidate can be placed there.
+    private void siftDown(final int position, final T point, final double divergence, final int index) {
+        int i = position;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                break;
+            }
+            final int right = child + 1;
+            if ((right < size) &&
+                (Neighbour.compare(divergences[right], indices[right], divergences[child], indices[child]) > 0)) {
+                child = right;
+            }
+            if (Neighbour.compare(divergence, index, divergences[child], indices[child]) >= 0) {
+                break;
+            }
+            move(child, i);
+            i = child;
+        }
+        set(i, point, divergence, index);
+    }
+
+    private void move(final int from, final int to) {
+        points.set(to, points.get(from));
+        divergences[to] = divergences[from];
+        indices[to] = indices[from];
+    }
+
+    private void set(final int i, final T point, final double divergence, final int index) {
+        points.set(i, point);
+        divergences[i] = divergence;
+        indices[i] = index;
+    }
+
+}
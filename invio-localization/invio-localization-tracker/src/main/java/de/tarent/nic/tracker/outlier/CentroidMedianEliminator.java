@@ -3,8 +3,10 @@ package de.tarent.nic.tracker.outlier;
 import de.tarent.nic.entities.NicGeoPoint;
 import de.tarent.nic.tracker.geopoint.PointFactory;
 import de.tarent.nic.tracker.geopoint.PointList;
+import de.tarent.nic.tracker.neighbour.Neighbour;
 
 import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
 
 /**
@@ -47,12 +49,10 @@ public class CentroidMedianEliminator<T extends NicGeoPoint> implements OutlierE
         // independent median coordinates for each dimension.
         final T centroid = candidateList.getMedianPoint();
 
-        // 2. Calculate the median of the distances between each candidate and the centroid.
-        final double medianCentroidDistance = candidateList.calculateMedianReferencePointDistance(centroid);
+        // 2. Calculate the threshold from the median of the distances between each candidate and the centroid.
+        final double thresholdDistance = calculateThresholdDistance(candidateList, centroid);
 
         // 3. Eliminate all coordinates further then the threshold distance.
-        final double thresholdDistance = medianThresholdFactor * medianCentroidDistance;
-
         final Iterator<T> it = candidates.iterator();
         while (it.hasNext()) {
             final NicGeoPoint point = it.next();
@@ -65,4 +65,37 @@ public class CentroidMedianEliminator<T extends NicGeoPoint> implements OutlierE
 
         return candidates;
     }
+
+    @Override
+    public List<Neighbour<T>> removeOutliers(final List<Neighbour<T>> candidates) {
+
+        // Eliminator not applicable on two or less candidates.
+        if (candidates.size() <= 2) {
+            return candidates;
+        }
+
+        final PointList<T> candidateList = new PointList<T>(pointFactory);
+        for (final Neighbour<T> candidate : candidates) {
+            candidateList.add(candidate.getPoint());
+        }
+
+        // The same three steps as above, see removeOutliers(Set):
+        final T centroid = candidateList.getMedianPoint();
+        final double thresholdDistance = calculateThresholdDistance(candidateList, centroid);
+
+        final Iterator<Neighbour<T>> it = candidates.iterator();
+        while (it.hasNext()) {
+            if (it.next().getPoint().calculateDistanceTo(centroid) > thresholdDistance) {
+                it.remove();
+            }
+        }
+
+        return candidates;
+    }
+
+
+    private double calculateThresholdDistance(final PointList<T> candidateList, final T centroid) {
+        final double medianCentroidDistance = candidateList.calculateMedianReferencePointDistance(centroid);
+        return medianThresholdFactor * medianCentroidDistance;
+    }
 }
@@ -1,7 +1,9 @@
 package de.tarent.nic.tracker.outlier;
 
 import de.tarent.nic.entities.NicGeoPoint;
+import de.tarent.nic.tracker.neighbour.Neighbour;
 
+import java.util.List;
 import java.util.Set;
 
 /**
@@ -24,4 +26,13 @@ public interface OutlierEliminator<T extends NicGeoPoint> {
      */
     Set<T> removeOutliers(final Set<T> candidates);
 
+    /**
+     * Eliminates possible outliers from the given list of neighbours. The neighbours and their points are not
+     * modified, only the list.
+     *
+     * @param candidates the list of neighbours
+     * @return the same list, reduced by the outliers
+     */
+    List<Neighbour<T>> removeOutliers(final List<Neighbour<T>> candidates);
+
 }
@@ -3,10 +3,14 @@ package de.tarent.nic.tracker.outlier;
 import de.tarent.nic.entities.NicGeoPoint;
 import de.tarent.nic.tracker.geopoint.PointFactory;
 import de.tarent.nic.tracker.geopoint.PointList;
+import de.tarent.nic.tracker.neighbour.Neighbour;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 
@@ -52,11 +56,48 @@ public class PlasmonaOutlierEliminator<T extends NicGeoPoint> implements Outlier
 
         final List<PointDoublePair> medianDistanceDivergences = calculateDistanceDivergences(centroidDistances);
 
-        removeOutliers(medianDistanceDivergences, candidateSet);
+        candidateSet.removeAll(findOutliers(medianDistanceDivergences));
 
         return candidateSet;
     }
 
+    /**
+     * Cluster the neighbours by removing any outliers, in the same way as {@link #removeOutliers(Set)}.
+     *
+     * @param neighbours the list with n closest neighbours/fingerprints
+     * @return the reduced list, if any outliers were found
+     */
+    @Override
+    public List<Neighbour<T>> removeOutliers(final List<Neighbour<T>> neighbours) {
+        if (neighbours.size() <= 2) {
+            return neighbours;
+        }
+
+        final PointList<T> candidates = new PointList<T>(pointFactory);
+        for (final Neighbour<T> neighbour : neighbours) {
+            candidates.add(neighbour.getPoint());
+        }
+
+        final List<PointDoublePair> centroidDistances = calculateCentroidDistances(candidates);
+
+        final List<PointDoublePair> medianDistanceDivergences = calculateDistanceDivergences(centroidDistances);
+
+        // The points of different fingerprints might be equal, so we must look for the very same instances:
+        final Map<NicGeoPoint, Boolean> outliers = new IdentityHashMap<NicGeoPoint, Boolean>();
+        for (final NicGeoPoint outlier : findOutliers(medianDistanceDivergences)) {
+            outliers.put(outlier, Boolean.TRUE);
+        }
+
+        final Iterator<Neighbour<T>> it = neighbours.iterator();
+        while (it.hasNext()) {
+            if (outliers.containsKey(it.next().getPoint())) {
+                it.remove();
+            }
+        }
+
+        return neighbours;
+    }
+
     /**
      * For each candidate calculate and store its distance to the centroid.
      * If we would sort the distance-map then the candidates closest to the center of the cluster would come first. The
@@ -101,13 +142,14 @@ public class PlasmonaOutlierEliminator<T extends NicGeoPoint> implements Outlier
     }
 
     /**
-     * Remove those candidates from the set that are outliers, according to the list of medianDistanceDivergences.
+     * Find those candidates that are outliers, according to the list of medianDistanceDivergences.
      * @param medianDistanceDivergences the list that was generated by calculateDistanceDivergences (how much the
      *                                  centroid-distance of each point diverges from the median centroid-distance).
-     * @param candidateSet the point-set from which the outliers are to be removed.
+     * @return the points that are outliers
      */
-    private void removeOutliers(final List<PointDoublePair> medianDistanceDivergences,
-                               final Set<T> candidateSet) {
+    private List<NicGeoPoint> findOutliers(final List<PointDoublePair> medianDistanceDivergences) {
+        final List<NicGeoPoint> outliers = new ArrayList<NicGeoPoint>();
+
         // Now we get the median divergence from the median distance... that can probably be seen as a measure of
         // how dense our cluster is. (Although a ring of points would have a very low value here as well, because
         // all points would have the same distance to the centroid and therefore the same divergence (zero) from
@@ -126,10 +168,11 @@ public class PlasmonaOutlierEliminator<T extends NicGeoPoint> implements Outlier
                 // I don't understand the formula, though. Too much medianism ;-)
                 final double outlierScore = ((medianDistanceDivergences.get(h).d / absvaluemedian) - min) / (max - min);
                 if (outlierScore > 0.8) {
-                    candidateSet.remove(medianDistanceDivergences.get(h).point);
+                    outliers.add(medianDistanceDivergences.get(h).point);
                 }
             }
         }
+        return outliers;
     }
 
     /**
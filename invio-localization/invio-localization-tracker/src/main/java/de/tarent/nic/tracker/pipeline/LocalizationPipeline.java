@@ -0,0 +1,376 @@
+package de.tarent.nic.tracker.pipeline;
+
+import de.tarent.nic.entities.Edge;
+import de.tarent.nic.entities.NicGeoPoint;
+import de.tarent.nic.tracker.geopoint.PointFactory;
+import de.tarent.nic.tracker.geopoint.PointList;
+import de.tarent.nic.tracker.interpolation.PositionInterpolator;
+import de.tarent.nic.tracker.interpolation.ReciprocalInterpolation;
+import de.tarent.nic.tracker.mapmatching.GridWaySnap;
+import de.tarent.nic.tracker.neighbour.Neighbour;
+import de.tarent.nic.tracker.neighbour.NeighbourSearch;
+import de.tarent.nic.tracker.outlier.CentroidMedianEliminator;
+import de.tarent.nic.tracker.outlier.OutlierEliminator;
+import de.tarent.nic.tracker.outlier.PlasmonaOutlierEliminator;
+import de.tarent.nic.tracker.wifi.CandidateFilter;
+import de.tarent.nic.tracker.wifi.FingerprintIndex;
+import de.tarent.nic.tracker.wifi.HistogramBuilder;
+import de.tarent.nic.tracker.wifi.LevelVector;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+
+/**
+ * The LocalizationPipeline turns wifi scans into positions, without any android dependencies. It does the same as the
+ * wifi-only localization of the UserLocator: it builds histograms from the scans, finds the nearest fingerprints,
+ * removes outliers, interpolates the position, snaps it onto the ways and filters it with the recent positions. The
+ * steps can be configured with the same modes as in the UserLocator.
+ *
+ * The pipeline itself only holds the configuration and the fingerprints and edges, which are never modified. Each
+ * trace is processed by its own {@link Session}, which holds the state of one user (recent scans and positions), so
+ * that many traces can be replayed in parallel with {@link #replayAll(List)}. The configuration must not be changed
+ * while traces are replayed.
+ */
+public class LocalizationPipeline {
+
+    public static final int OUTLIER_MODE_NO_DETECTION = 1;
+    public static final int OUTLIER_MODE_CME = 2;
+    public static final int OUTLIER_MODE_PLASMONA = 3;
+
+    public static final int STATISTIC_FILTER_MODE_NO_FILTER = 1;
+    public static final int STATISTIC_FILTER_MODE_MEDIAN = 2;
+    public static final int STATISTIC_FILTER_MODE_AVERAGE = 3;
+
+    public static final int MAP_MATCHING_MODE_NONE = 1;
+    public static final int MAP_MATCHING_MODE_SIMPLE_WAY_SNAP = 2;
+
+    // The defaults are the same as in the configuration of the android apps:
+    public static final int DEFAULT_NUM_NEIGHBOURS = 5;
+    public static final double DEFAULT_MEDIAN_THRESHOLD_FACTOR = 2;
+    public static final int DEFAULT_HISTORY_SIZE = 5;
+    public static final int DEFAULT_SCAN_BUFFER_MAX_AGE = 6000;
+    public static final int DEFAULT_MIN_SHARED_ACCESS_POINTS = 3;
+    public static final int DEFAULT_STRONGEST_ACCESS_POINTS = 3;
+    public static final float DEFAULT_MIN_STRONGEST_SHARE = 0.6f;
+
+    private final FingerprintIndex index;
+
+    private final Collection<Edge> edges;
+
+    private final PointFactory<? extends NicGeoPoint> pointFactory;
+
+    private int outlierMode = OUTLIER_MODE_CME;
+
+    private int statisticFilterMode = STATISTIC_FILTER_MODE_MEDIAN;
+
+    private int mapMatchingMode = MAP_MATCHING_MODE_SIMPLE_WAY_SNAP;
+
+    private int numNeighbours = DEFAULT_NUM_NEIGHBOURS;
+
+    private double medianThresholdFactor = DEFAULT_MEDIAN_THRESHOLD_FACTOR;
+
+    private int historySize = DEFAULT_HISTORY_SIZE;
+
+    private int scanBufferMaxAge = DEFAULT_SCAN_BUFFER_MAX_AGE;
+
+    private int minSharedAccessPoints = DEFAULT_MIN_SHARED_ACCESS_POINTS;
+
+    private int strongestAccessPoints = DEFAULT_STRONGEST_ACCESS_POINTS;
+
+    private float minStrongestShare = DEFAULT_MIN_STRONGEST_SHARE;
+
+    private NeighbourSearch neighbourSearch =
+            new NeighbourSearch(NeighbourSearch.MATCHING_MODE_SEQUENTIAL, NeighbourSearch.DEFAULT_PARALLEL_THRESHOLD);
+
+
+    /**
+     * Construct a new LocalizationPipeline.
+     *
+     * @param index the fingerprints of the map
+     * @param edges the ways of the map, onto which the positions are snapped; null or empty if there are none
+     * @param pointFactory the PointFactory for the positions, e.g. an XYPointFactory
+     */
+    public LocalizationPipeline(final FingerprintIndex index, final Collection<Edge> edges,
+                                final PointFactory<? extends NicGeoPoint> pointFactory) {
+        this.index = index;
+        this.edges = edges;
+        this.pointFactory = pointFactory;
+    }
+
+
+    /**
+     * Start a new session, for one user or trace.
+     *
+     * @return the new Session
+     */
+    public Session newSession() {
+        return new Session();
+    }
+
+    /**
+     * Replay one trace in a new session.
+     *
+     * @param trace the scans, in chronological order
+     * @return the positions, one for each scan for which a position could be calculated
+     */
+    public List<TimedPosition> replay(final Iterable<ScanBatch> trace) {
+        final Session session = newSession();
+        final List<TimedPosition> positions = new ArrayList<TimedPosition>();
+        for (final ScanBatch batch : trace) {
+            final TimedPosition position = session.addScan(batch);
+            if (position != null) {
+                positions.add(position);
+            }
+        }
+        return positions;
+    }
+
+    /**
+     * Replay many traces, each in its own session, on as many threads as there are processors.
+     *
+     * @param traces the traces
+     * @return the positions of each trace, in the order of the traces
+     */
+    public List<List<TimedPosition>> replayAll(final List<? extends Iterable<ScanBatch>> traces) {
+        return replayAll(traces, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Replay many traces, each in its own session. The results are the same as if each trace had been replayed with
+     * {@link #replay(Iterable)}, one after the other.
+     *
+     * @param traces the traces
+     * @param threads the number of threads, > 0
+     * @return the positions of each trace, in the order of the traces
+     */
+    public List<List<TimedPosition>> replayAll(final List<? extends Iterable<ScanBatch>> traces, final int threads) {
+        final List<Callable<List<TimedPosition>>> replays = new ArrayList<Callable<List<TimedPosition>>>();
+        for (final Iterable<ScanBatch> trace : traces) {
+            replays.add(new Callable<List<TimedPosition>>() {
+                @Override
+                public List<TimedPosition> call() {
+                    return replay(trace);
+                }
+            });
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final List<List<TimedPosition>> results = new ArrayList<List<TimedPosition>>(traces.size());
+            for (final Future<List<TimedPosition>> result : executor.invokeAll(replays)) {
+                results.add(result.get());
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while replaying the traces", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException("Replaying a trace failed", e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+
+    public void setOutlierMode(final int outlierMode) {
+        this.outlierMode = outlierMode;
+    }
+
+    public void setStatisticFilterMode(final int statisticFilterMode) {
+        this.statisticFilterMode = statisticFilterMode;
+    }
+
+    public void setMapMatchingMode(final int mapMatchingMode) {
+        this.mapMatchingMode = mapMatchingMode;
+    }
+
+    /**
+     * Choose how the fingerprints are compared with the histograms. When many traces are replayed with
+     * {@link #replayAll(List)} the sequential mode (which is the default) is best, because the traces already keep
+     * all processors busy.
+     *
+     * @param matchingMode NeighbourSearch.MATCHING_MODE_SEQUENTIAL or NeighbourSearch.MATCHING_MODE_PARALLEL
+     * @param parallelThreshold the minimum number of candidates for which the parallel mode really uses threads
+     */
+    public void setMatchingMode(final int matchingMode, final int parallelThreshold) {
+        neighbourSearch.shutdown();
+        neighbourSearch = new NeighbourSearch(matchingMode, parallelThreshold);
+    }
+
+    /**
+     * Set the number of nearest fingerprints from which the position is interpolated (tracker_num_neighbours).
+     *
+     * @param numNeighbours the number of neighbours, > 0
+     */
+    public void setNumNeighbours(final int numNeighbours) {
+        this.numNeighbours = numNeighbours;
+    }
+
+    /**
+     * Set the threshold of the CentroidMedianEliminator (tracker_outlier_medianThresholdFactor).
+     *
+     * @param medianThresholdFactor the factor
+     */
+    public void setMedianThresholdFactor(final double medianThresholdFactor) {
+        this.medianThresholdFactor = medianThresholdFactor;
+    }
+
+    /**
+     * Set the number of recent positions for the statistic filter (tracker_history_size).
+     *
+     * @param historySize the number of positions, > 0
+     */
+    public void setHistorySize(final int historySize) {
+        this.historySize = historySize;
+    }
+
+    /**
+     * Set the maximum age of the scans that are included in the histogram (tracker_scanbuffer_maxage).
+     *
+     * @param scanBufferMaxAge the age in milliseconds; 0 to include all scans
+     */
+    public void setScanBufferMaxAge(final int scanBufferMaxAge) {
+        this.scanBufferMaxAge = scanBufferMaxAge;
+    }
+
+    /**
+     * Configure the {@link CandidateFilter} (tracker_candidates_*).
+     *
+     * @param minSharedAccessPoints the minimum number of access points a fingerprint must share with the histogram
+     * @param strongestAccessPoints how many of the strongest access points are considered; 0 disables that criterion
+     * @param minStrongestShare the share (0..1) of the strongest access points that is enough for a candidate
+     */
+    public void setCandidateFilter(final int minSharedAccessPoints, final int strongestAccessPoints,
+                                   final float minStrongestShare) {
+        this.minSharedAccessPoints = minSharedAccessPoints;
+        this.strongestAccessPoints = strongestAccessPoints;
+        this.minStrongestShare = minStrongestShare;
+    }
+
+    public FingerprintIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * Stop the threads of the parallel matching mode, if there are any.
+     */
+    public void shutdown() {
+        neighbourSearch.shutdown();
+    }
+
+
+    private OutlierEliminator<NicGeoPoint> makeOutlierEliminator() {
+        switch (outlierMode) {
+            case OUTLIER_MODE_NO_DETECTION:
+                return null;
+            case OUTLIER_MODE_PLASMONA:
+                return new PlasmonaOutlierEliminator<NicGeoPoint>(pointFactory);
+            case OUTLIER_MODE_CME:
+            default:
+                return new CentroidMedianEliminator<NicGeoPoint>(pointFactory, medianThresholdFactor);
+        }
+    }
+
+
+    /**
+     * A Session tracks one user, i.e. it processes the scans of one trace. It keeps the recent scans, the recent
+     * positions and the last edge of the way snapping. A Session is not thread-safe, but different sessions of the
+     * same pipeline can be used in parallel.
+     */
+    public final class Session {
+
+        private final HistogramBuilder histogramBuilder;
+
+        private final CandidateFilter candidateFilter;
+
+        private final OutlierEliminator<NicGeoPoint> outlierEliminator;
+
+        private final PositionInterpolator<NicGeoPoint> interpolator;
+
+        private final GridWaySnap waySnap;
+
+        private final List<NicGeoPoint> history;
+
+
+        private Session() {
+            histogramBuilder = new HistogramBuilder("session", scanBufferMaxAge);
+            candidateFilter = new CandidateFilter(index, minSharedAccessPoints, strongestAccessPoints,
+                                                  minStrongestShare);
+            outlierEliminator = makeOutlierEliminator();
+            // The same interpolation as in the UserLocator, so that a replay matches the app:
+            interpolator = new ReciprocalInterpolation<NicGeoPoint>(pointFactory);
+            final boolean snapToWays = (mapMatchingMode != MAP_MATCHING_MODE_NONE) &&
+                                       (edges != null) && !edges.isEmpty();
+            waySnap = snapToWays ? new GridWaySnap(pointFactory, edges) : null;
+            history = new LinkedList<NicGeoPoint>();
+        }
+
+
+        /**
+         * Process the next scan.
+         *
+         * @param batch the scan, which must not be older than the previous one
+         * @return the new position, or null if no fingerprint matched the scan
+         */
+        public TimedPosition addScan(final ScanBatch batch) {
+            histogramBuilder.addScanResults(batch.getTime(), batch.getScanResults());
+            final LevelVector measurement = index.encode(histogramBuilder, batch.getTime());
+
+            final int count = candidateFilter.select(measurement);
+            final List<Neighbour<NicGeoPoint>> neighbours =
+                    neighbourSearch.search(index, measurement, candidateFilter.getCandidates(), count,
+                                           numNeighbours, NeighbourSearch.ANY_CONFIDENCE);
+            if (outlierEliminator != null) {
+                outlierEliminator.removeOutliers(neighbours);
+            }
+            if (neighbours.isEmpty()) {
+                return null;
+            }
+
+            NicGeoPoint position = interpolator.interpolatePosition(neighbours);
+            if (waySnap != null) {
+                position = waySnap.snap(position);
+            }
+            return new TimedPosition(batch.getTime(), filter(position));
+        }
+
+        /**
+         * Get the CandidateFilter of this session, whose counts show how many fingerprints were evaluated and skipped.
+         *
+         * @return the CandidateFilter
+         */
+        public CandidateFilter getCandidateFilter() {
+            return candidateFilter;
+        }
+
+
+        private NicGeoPoint filter(final NicGeoPoint position) {
+            if (statisticFilterMode == STATISTIC_FILTER_MODE_NO_FILTER) {
+                return position;
+            }
+
+            if (history.size() == historySize) {
+                history.remove(0);
+            }
+            history.add(position);
+            final PointList<NicGeoPoint> points = new PointList<NicGeoPoint>(pointFactory, history);
+            if (statisticFilterMode == STATISTIC_FILTER_MODE_AVERAGE) {
+                return points.getAveragePoint();
+            }
+            return points.getMedianPoint();
+        }
+
+    }
+
+}
@@ -0,0 +1,39 @@
+package de.tarent.nic.tracker.pipeline;
+
+import de.tarent.nic.entities.WifiScanResult;
+
+import java.util.List;
+
+
+/**
+ * A ScanBatch is the result of one wifi scan: all the access points that were seen, together with the time of the
+ * scan. A sequence of ScanBatches is a trace, that can be replayed by the {@link LocalizationPipeline}.
+ */
+public final class ScanBatch {
+
+    private final long time;
+
+    private final List<WifiScanResult> scanResults;
+
+
+    /**
+     * Construct a new ScanBatch.
+     *
+     * @param time the time of the scan in milliseconds. Only the differences between the times of one trace matter.
+     * @param scanResults the access points that were seen; the list is not copied and must not be modified later
+     */
+    public ScanBatch(final long time, final List<WifiScanResult> scanResults) {
+        this.time = time;
+        this.scanResults = scanResults;
+    }
+
+
+    public long getTime() {
+        return time;
+    }
+
+    public List<WifiScanResult> getScanResults() {
+        return scanResults;
+    }
+
+}
@@ -0,0 +1,42 @@
+package de.tarent.nic.tracker.pipeline;
+
+import de.tarent.nic.entities.NicGeoPoint;
+
+
+/**
+ * A TimedPosition is a position of the user, as calculated by the {@link LocalizationPipeline}, together with the
+ * time of the scan from which it was calculated.
+ */
+public final class TimedPosition {
+
+    private final long time;
+
+    private final NicGeoPoint position;
+
+
+    /**
+     * Construct a new TimedPosition.
+     *
+     * @param time the time of the scan in milliseconds
+     * @param position the position of the user
+     */
+    public TimedPosition(final long time, final NicGeoPoint position) {
+        this.time = time;
+        this.position = position;
+    }
+
+
+    public long getTime() {
+        return time;
+    }
+
+    public NicGeoPoint getPosition() {
+        return position;
+    }
+
+    @Override
+    public String toString() {
+        return time + ": " + position;
+    }
+
+}
@@ -0,0 +1,181 @@
+package de.tarent.nic.tracker.trace;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+
+/**
+ * The constants and the low level encoding that the {@link ScanTraceWriter} and the {@link ScanTraceReader} share.
+ *
+ * A scan trace starts with the {@link #MAGIC} bytes and the {@link #VERSION}, followed by any number of records. Each
+ * record starts with its type:
+ * - {@link #RECORD_ACCESS_POINT}: the length of the BSSID and the BSSID in UTF-8. The access points are numbered in the
+ *   order in which they are defined, starting at 0. A definition always comes before the first scan that uses it.
+ * - {@link #RECORD_SCAN}: the difference between the time of this scan and of the previous one (the first scan is
+ *   relative to 0) in milliseconds, the number of access points, and for every access point its number and its level
+ *   as a signed byte.
+ * All numbers except the levels are varints: 7 bits per byte, least significant first, the high bit set on all but
+ * the last byte. Time differences are zigzag-encoded first, because the clock of a device may go backwards.
+ */
+final class ScanTraceFormat {
+
+    static final byte[] MAGIC = {'N', 'I', 'C', 'T'};
+
+    static final int VERSION = 1;
+
+    static final int RECORD_ACCESS_POINT = 1;
+
+    static final int RECORD_SCAN = 2;
+
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final int VARINT_BITS = 7;
+
+    private static final int VARINT_MASK = 0x7f;
+
+    private static final int VARINT_MORE = 0x80;
+
+    private static final int MAX_VARINT_SHIFT = 63;
+
+
+    private ScanTraceFormat() {
+    }
+
+
+    /**
+     * Zigzag-encode a signed number, so that numbers with a small absolute value become small varints.
+     *
+     * @param value the signed number
+     * @return the zigzag-encoded number
+     */
+    static long zigzag(final long value) {
+        return (value << 1) ^ (value >> MAX_VARINT_SHIFT);
+    }
+
+    /**
+     * Decode a zigzag-encoded number.
+     *
+     * @param value the zigzag-encoded number
+     * @return the signed number
+     */
+    static long unzigzag(final long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Clamp a signal level to the range of a signed byte.
+     *
+     * @param level the level in dBm
+     * @return the level as a byte
+     */
+    static byte toLevelByte(final int level) {
+        return (byte) Math.max(Byte.MIN_VALUE, Math.min(Byte.MAX_VALUE, level));
+    }
+
+    /**
+     * Read one varint.
+     *
+     * @param in the stream
+     * @return the number
+     * @throws IOException if the stream ends in the middle of the varint or the varint is too long
+     */
+    static long readVarint(final InputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift <= MAX_VARINT_SHIFT; shift += VARINT_BITS) {
+            final int b = readByte(in);
+            value |= (long) (b & VARINT_MASK) << shift;
+            if ((b & VARINT_MORE) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint in the scan trace");
+    }
+
+    /**
+     * Read one byte.
+     *
+     * @param in the stream
+     * @return the byte, 0..255
+     * @throws TruncatedTraceException if the stream has ended
+     */
+    static int readByte(final InputStream in) throws IOException {
+        final int b = in.read();
+        if (b < 0) {
+            throw new TruncatedTraceException();
+        }
+        return b;
+    }
+
+
+    /**
+     * A growable byte array, into which records are encoded. It only allocates when it has to grow, so that after a
+     * short warm-up encoding a scan does not allocate at all.
+     */
+    static final class Buffer {
+
+        private static final int INITIAL_CAPACITY = 1024;
+
+        private byte[] data = new byte[INITIAL_CAPACITY];
+
+        private int size;
+
+        void writeByte(final int b) {
+            ensureCapacity(1);
+            data[size++] = (byte) b;
+        }
+
+        void writeVarint(final long value) {
+            long rest = value;
+            while ((rest & ~VARINT_MASK) != 0) {
+                writeByte((int) ((rest & VARINT_MASK) | VARINT_MORE));
+                rest >>>= VARINT_BITS;
+            }
+            writeByte((int) rest);
+        }
+
+        void write(final byte[] bytes, final int offset, final int length) {
+            ensureCapacity(length);
+            System.arraycopy(bytes, offset, data, size, length);
+            size += length;
+        }
+
+        void write(final Buffer other) {
+            write(other.data, 0, other.size);
+        }
+
+        byte[] getData() {
+            return data;
+        }
+
+        int size() {
+            return size;
+        }
+
+        void clear() {
+            size = 0;
+        }
+
+        private void ensureCapacity(final int additional) {
+            if (size + additional > data.length) {
+                final byte[] larger = new byte[Math.max(data.length * 2, size + additional)];
+                System.arraycopy(data, 0, larger, 0, size);
+                data = larger;
+            }
+        }
+    }
+
+
+    /**
+     * Thrown when the trace ends in the middle of a record, which happens when the recording app was killed.
+     */
+    static final class TruncatedTraceException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        TruncatedTraceException() {
+            super("The scan trace ends in the middle of a record");
+        }
+    }
+
+}
@@ -0,0 +1,145 @@
+package de.tarent.nic.tracker.trace;
+
+import de.tarent.nic.entities.WifiScanResult;
+import de.tarent.nic.tracker.pipeline.ScanBatch;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * The ScanTraceReader reads the scans that a {@link ScanTraceWriter} has recorded. Every scan becomes a
+ * {@link ScanBatch}, so that a trace can be replayed directly by the
+ * {@link de.tarent.nic.tracker.pipeline.LocalizationPipeline}.
+ *
+ * A trace whose last record is incomplete, because the recording app was killed while writing, is read up to the last
+ * complete scan; {@link #isTruncated()} tells whether that happened.
+ */
+public class ScanTraceReader implements Closeable {
+
+    private final InputStream in;
+
+    private final List<String> dictionary = new ArrayList<String>();
+
+    private long time;
+
+    private boolean truncated;
+
+
+    /**
+     * Construct a new ScanTraceReader and read the header of the trace.
+     *
+     * @param in the stream with the trace. It will be closed by {@link #close()}.
+     * @throws IOException if the stream could not be read or does not contain a scan trace
+     */
+    public ScanTraceReader(final InputStream in) throws IOException {
+        this.in = new BufferedInputStream(in);
+        try {
+            for (final byte b : ScanTraceFormat.MAGIC) {
+                if (ScanTraceFormat.readByte(this.in) != b) {
+                    throw new IOException("The stream does not contain a scan trace");
+                }
+            }
+            final int version = ScanTraceFormat.readByte(this.in);
+            if (version != ScanTraceFormat.VERSION) {
+                throw new IOException("Unsupported scan trace version " + version);
+            }
+        } catch (ScanTraceFormat.TruncatedTraceException e) {
+            throw new IOException("The stream does not contain a scan trace");
+        }
+    }
+
+
+    /**
+     * Read the next scan.
+     *
+     * @return the scan, or null if there are no more complete scans
+     * @throws IOException if the stream could not be read or the trace is corrupt
+     */
+    public ScanBatch readScan() throws IOException {
+        if (truncated) {
+            return null;
+        }
+        try {
+            int type;
+            while ((type = in.read()) == ScanTraceFormat.RECORD_ACCESS_POINT) {
+                readAccessPoint();
+            }
+            if (type < 0) {
+                return null;
+            }
+            if (type != ScanTraceFormat.RECORD_SCAN) {
+                throw new IOException("Unknown record type " + type + " in the scan trace");
+            }
+            return readScanRecord();
+        } catch (ScanTraceFormat.TruncatedTraceException e) {
+            truncated = true;
+            return null;
+        }
+    }
+
+    /**
+     * Read all remaining scans.
+     *
+     * @return the scans, in the order in which they were recorded
+     * @throws IOException if the stream could not be read or the trace is corrupt
+     */
+    public List<ScanBatch> readAll() throws IOException {
+        final List<ScanBatch> scans = new ArrayList<ScanBatch>();
+        ScanBatch scan;
+        while ((scan = readScan()) != null) {
+            scans.add(scan);
+        }
+        return scans;
+    }
+
+    /**
+     * Tell whether the trace ended in the middle of a record.
+     *
+     * @return true if the last record was incomplete
+     */
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+
+    private void readAccessPoint() throws IOException {
+        final int length = (int) ScanTraceFormat.readVarint(in);
+        final byte[] bytes = new byte[length];
+        int read = 0;
+        while (read < length) {
+            final int n = in.read(bytes, read, length - read);
+            if (n < 0) {
+                throw new ScanTraceFormat.TruncatedTraceException();
+            }
+            read += n;
+        }
+        dictionary.add(new String(bytes, ScanTraceFormat.UTF8));
+    }
+
+    private ScanBatch readScanRecord() throws IOException {
+        final long scanTime = time + ScanTraceFormat.unzigzag(ScanTraceFormat.readVarint(in));
+        final int size = (int) ScanTraceFormat.readVarint(in);
+        final List<WifiScanResult> scanResults = new ArrayList<WifiScanResult>(size);
+        for (int i = 0; i < size; i++) {
+            final long id = ScanTraceFormat.readVarint(in);
+            final byte level = (byte) ScanTraceFormat.readByte(in);
+            if (id >= dictionary.size()) {
+                throw new IOException("Undefined access point " + id + " in the scan trace");
+            }
+            scanResults.add(new WifiScanResult(dictionary.get((int) id), level));
+        }
+        time = scanTime;
+        return new ScanBatch(scanTime, scanResults);
+    }
+
+}
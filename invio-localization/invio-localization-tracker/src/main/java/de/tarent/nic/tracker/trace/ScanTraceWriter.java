@@ -0,0 +1,251 @@
+package de.tarent.nic.tracker.trace;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * The ScanTraceWriter records wifi scans in the compact binary format that is described in {@link ScanTraceFormat}
+ * and that the {@link ScanTraceReader} can read again. One access point of a scan takes about two bytes.
+ *
+ * The scans are only encoded into a buffer by the calling thread; a background thread writes that buffer to the
+ * stream from time to time. So the caller (e.g. a BroadcastReceiver on the UI thread) never has to wait for I/O. Once
+ * the buffers have grown to their working size, recording a scan does not allocate anything, except when an access
+ * point is seen for the first time.
+ *
+ * A scan is written with {@link #beginScan(long)}, one {@link #addAccessPoint(String, int)} per access point, and
+ * {@link #endScan()}. These methods must always be called from the same thread. If writing fails, the recording stops
+ * silently and the error is available from {@link #getError()}, because a broken recording must never break the
+ * localisation.
+ */
+public class ScanTraceWriter implements Closeable {
+
+    /**
+     * The default time in milliseconds after which the buffered scans are written, even if there are only a few.
+     */
+    public static final long DEFAULT_FLUSH_INTERVAL = 10000;
+
+    // Write earlier if this many bytes have been buffered:
+    private static final int FLUSH_SIZE = 16 * 1024;
+
+    // Drop scans if this many bytes are buffered, i.e. if the stream blocks for a long time:
+    private static final int MAX_PENDING_SIZE = 1024 * 1024;
+
+    private final OutputStream out;
+
+    private final long flushInterval;
+
+    private final Thread writerThread;
+
+    // The numbers of the access points that have already been defined in the trace:
+    private final Map<String, Integer> dictionary = new HashMap<String, Integer>();
+
+    // The definitions of new access points and the entries of the current scan, only used by the calling thread:
+    private final ScanTraceFormat.Buffer definitions = new ScanTraceFormat.Buffer();
+
+    private final ScanTraceFormat.Buffer entries = new ScanTraceFormat.Buffer();
+
+    private long scanTime;
+
+    private long lastScanTime;
+
+    private int scanSize;
+
+    // Guards everything below:
+    private final Object lock = new Object();
+
+    // The encoded records that wait for the writer thread, and the buffer that it currently writes:
+    private ScanTraceFormat.Buffer pending = new ScanTraceFormat.Buffer();
+
+    private ScanTraceFormat.Buffer writing = new ScanTraceFormat.Buffer();
+
+    private boolean closed;
+
+    private IOException error;
+
+    private int droppedScans;
+
+
+    /**
+     * Construct a new ScanTraceWriter that writes the buffered scans every {@link #DEFAULT_FLUSH_INTERVAL} ms.
+     *
+     * @param out the stream for the trace. It will be closed by {@link #close()}. It does not need to be buffered.
+     */
+    public ScanTraceWriter(final OutputStream out) {
+        this(out, DEFAULT_FLUSH_INTERVAL);
+    }
+
+    /**
+     * Construct a new ScanTraceWriter.
+     *
+     * @param out the stream for the trace. It will be closed by {@link #close()}. It does not need to be buffered.
+     * @param flushInterval the time in milliseconds after which the buffered scans are written, > 0
+     */
+    public ScanTraceWriter(final OutputStream out, final long flushInterval) {
+        if (flushInterval <= 0) {
+            throw new IllegalArgumentException("The flush interval must be positive, but was " + flushInterval);
+        }
+        this.out = out;
+        this.flushInterval = flushInterval;
+
+        pending.write(ScanTraceFormat.MAGIC, 0, ScanTraceFormat.MAGIC.length);
+        pending.writeByte(ScanTraceFormat.VERSION);
+
+        writerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, "scanTraceWriter");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+
+    /**
+     * Begin a new scan.
+     *
+     * @param time the time of the scan in milliseconds
+     */
+    public void beginScan(final long time) {
+        scanTime = time;
+        scanSize = 0;
+        definitions.clear();
+        entries.clear();
+    }
+
+    /**
+     * Add an access point to the current scan.
+     *
+     * @param bssid the BSSID of the access point
+     * @param level the signal level in dBm; levels outside of the range of a byte are clamped
+     */
+    public void addAccessPoint(final String bssid, final int level) {
+        Integer id = dictionary.get(bssid);
+        if (id == null) {
+            id = dictionary.size();
+            dictionary.put(bssid, id);
+            final byte[] bytes = bssid.getBytes(ScanTraceFormat.UTF8);
+            definitions.writeByte(ScanTraceFormat.RECORD_ACCESS_POINT);
+            definitions.writeVarint(bytes.length);
+            definitions.write(bytes, 0, bytes.length);
+        }
+        entries.writeVarint(id);
+        entries.writeByte(ScanTraceFormat.toLevelByte(level));
+        scanSize++;
+    }
+
+    /**
+     * Finish the current scan and hand it to the background thread.
+     */
+    public void endScan() {
+        synchronized (lock) {
+            if (closed || (error != null)) {
+                return;
+            }
+            // The definitions are always kept, even if the scan is dropped, because later scans may need them:
+            pending.write(definitions);
+            if (pending.size() + entries.size() > MAX_PENDING_SIZE) {
+                droppedScans++;
+            } else {
+                pending.writeByte(ScanTraceFormat.RECORD_SCAN);
+                pending.writeVarint(ScanTraceFormat.zigzag(scanTime - lastScanTime));
+                pending.writeVarint(scanSize);
+                pending.write(entries);
+                lastScanTime = scanTime;
+            }
+            if (pending.size() >= FLUSH_SIZE) {
+                lock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Write all buffered scans, stop the background thread and close the stream.
+     *
+     * @throws IOException if writing the trace has failed at any time
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (lock) {
+            closed = true;
+            lock.notifyAll();
+        }
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        final IOException e = getError();
+        if (e != null) {
+            throw e;
+        }
+    }
+
+    /**
+     * Get the error that has stopped the recording.
+     *
+     * @return the IOException, or null if everything went fine so far
+     */
+    public IOException getError() {
+        synchronized (lock) {
+            return error;
+        }
+    }
+
+    /**
+     * Get the number of scans that were dropped because the stream could not keep up.
+     *
+     * @return the number of dropped scans
+     */
+    public int getDroppedScans() {
+        synchronized (lock) {
+            return droppedScans;
+        }
+    }
+
+
+    private void writeLoop() {
+        try {
+            boolean last = false;
+            while (!last) {
+                synchronized (lock) {
+                    if (!closed && (pending.size() < FLUSH_SIZE)) {
+                        lock.wait(flushInterval);
+                    }
+                    final ScanTraceFormat.Buffer full = pending;
+                    pending = writing;
+                    writing = full;
+                    last = closed;
+                }
+                if (writing.size() > 0) {
+                    out.write(writing.getData(), 0, writing.size());
+                    out.flush();
+                    writing.clear();
+                }
+            }
+        } catch (IOException e) {
+            setError(e);
+        } catch (InterruptedException e) {
+            setError(new IOException("The scan trace writer was interrupted"));
+        } finally {
+            try {
+                out.close();
+            } catch (IOException e) {
+                setError(e);
+            }
+        }
+    }
+
+    private void setError(final IOException e) {
+        synchronized (lock) {
+            if (error == null) {
+                error = e;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,73 @@
+package de.tarent.nic.tracker.wifi;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * The AccessPointDictionary interns BSSIDs, i.e. it assigns a small, dense int-id to every access point that it sees.
+ * The ids are handed out in the order in which the BSSIDs are first encountered, starting with 0. With these ids the
+ * inner loops of the tracker can work with primitive arrays instead of string-keyed maps.
+ */
+public class AccessPointDictionary {
+
+    /**
+     * The id that is returned for BSSIDs which are not part of the dictionary.
+     */
+    public static final int UNKNOWN = -1;
+
+    private final Map<String, Integer> ids = new HashMap<String, Integer>();
+
+    private final List<String> bssIds = new ArrayList<String>();
+
+
+    /**
+     * Get the id of a BSSID, adding it to the dictionary if it is not yet known.
+     *
+     * @param bssId the BSSID of the access point
+     * @return the id, >= 0
+     */
+    public int intern(final String bssId) {
+        final Integer id = ids.get(bssId);
+        if (id != null) {
+            return id;
+        }
+        final int newId = bssIds.size();
+        ids.put(bssId, newId);
+        bssIds.add(bssId);
+        return newId;
+    }
+
+    /**
+     * Get the id of a BSSID without modifying the dictionary.
+     *
+     * @param bssId the BSSID of the access point
+     * @return the id, or {@link #UNKNOWN} if this access point was never interned
+     */
+    public int getId(final String bssId) {
+        final Integer id = ids.get(bssId);
+        return (id == null) ? UNKNOWN : id;
+    }
+
+    /**
+     * Get the BSSID for an id.
+     *
+     * @param id the id, as returned by {@link #intern(String)}
+     * @return the BSSID
+     */
+    public String getBssId(final int id) {
+        return bssIds.get(id);
+    }
+
+    /**
+     * The number of access points in this dictionary. All ids are smaller than this.
+     *
+     * @return the number of interned BSSIDs
+     */
+    public int size() {
+        return bssIds.size();
+    }
+
+}
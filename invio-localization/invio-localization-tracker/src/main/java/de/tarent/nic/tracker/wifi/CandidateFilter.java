@@ -0,0 +1,199 @@
+package de.tarent.nic.tracker.wifi;
+
+import java.util.Arrays;
+
+
+/**
+ * The CandidateFilter decides which fingerprints of a {@link FingerprintIndex} are worth scoring for a measurement.
+ * It uses the inverted index to count, for every fingerprint, how many access points it shares with the measurement,
+ * so that only the fingerprints which have something in common with the measurement need to be visited at all.
+ *
+ * A fingerprint is a candidate if it shares at least a minimum number of access points with the measurement, or if it
+ * contains at least a minimum share of the strongest access points of the measurement. The minimum number is capped at
+ * the number of known access points in the measurement, so that a scan which only sees few access points can still be
+ * matched.
+ *
+ * The filter counts how many fingerprints were evaluated and how many were skipped, so that the thresholds can be
+ * tuned. It is not thread-safe, because it reuses its buffers for every measurement.
+ */
+public class CandidateFilter {
+
+    private final FingerprintIndex index;
+
+    private final int minSharedAccessPoints;
+
+    private final float minStrongestShare;
+
+    // For each fingerprint: the number of access points it shares with the current measurement.
+    private final int[] sharedCounts;
+
+    // For each fingerprint: the number of the strongest access points of the current measurement it contains.
+    private final int[] strongestCounts;
+
+    // The fingerprints that share at least one access point; later the candidates.
+    private final int[] candidates;
+
+    // The ids and levels of the strongest access points of the current measurement, strongest first.
+    private final int[] strongestIds;
+
+    private final float[] strongestLevels;
+
+    private long evaluatedCount;
+
+    private long skippedCount;
+
+
+    /**
+     * Construct a new CandidateFilter that only uses the number of shared access points.
+     *
+     * @param index the FingerprintIndex, whose fingerprints will be filtered
+     * @param minSharedAccessPoints the minimum number of access points a fingerprint must share with the measurement
+     */
+    public CandidateFilter(final FingerprintIndex index, final int minSharedAccessPoints) {
+        this(index, minSharedAccessPoints, 0, 0);
+    }
+
+    /**
+     * Construct a new CandidateFilter.
+     *
+     * @param index the FingerprintIndex, whose fingerprints will be filtered
+     * @param minSharedAccessPoints the minimum number of access points a fingerprint must share with the measurement
+     * @param strongestAccessPoints how many of the strongest access points of the measurement are considered for the
+     *                              alternative criterion; 0 disables it
+     * @param minStrongestShare the share (0..1) of those strongest access points that a fingerprint must contain to
+     *                          be a candidate, even if it does not share enough access points in total
+     */
+    public CandidateFilter(final FingerprintIndex index, final int minSharedAccessPoints,
+                           final int strongestAccessPoints, final float minStrongestShare) {
+        if (strongestAccessPoints < 0) {
+            throw new IllegalArgumentException("The number of strongest access points must not be negative, but was "
+                                               + strongestAccessPoints);
+        }
+        this.index = index;
+        this.minSharedAccessPoints = Math.max(1, minSharedAccessPoints);
+        this.minStrongestShare = minStrongestShare;
+
+        sharedCounts = new int[index.size()];
+        strongestCounts = new int[index.size()];
+        candidates = new int[index.size()];
+        strongestIds = new int[strongestAccessPoints];
+        strongestLevels = new float[strongestAccessPoints];
+    }
+
+
+    /**
+     * Select the candidates for a measurement. They are stored in {@link #getCandidates()}.
+     *
+     * @param measurement the measurement, encoded with the dictionary of the FingerprintIndex
+     * @return the number of candidates
+     */
+    public int select(final LevelVector measurement) {
+        final int[] ids = measurement.getAccessPointIds();
+        final float[] levels = measurement.getLevels();
+
+        int touched = 0;
+        int knownAccessPoints = 0;
+        int strongest = 0;
+        for (int n = 0; n < ids.length; n++) {
+            final int[] fingerprints = index.getFingerprintsWithAccessPoint(ids[n]);
+            if (fingerprints.length == 0) {
+                continue;
+            }
+            knownAccessPoints++;
+            strongest = insertStrongest(strongest, ids[n], levels[n]);
+            for (final int fingerprint : fingerprints) {
+                if (sharedCounts[fingerprint]++ == 0) {
+                    candidates[touched++] = fingerprint;
+                }
+            }
+        }
+
+        for (int s = 0; s < strongest; s++) {
+            for (final int fingerprint : index.getFingerprintsWithAccessPoint(strongestIds[s])) {
+                strongestCounts[fingerprint]++;
+            }
+        }
+
+        final int requiredShared = Math.min(minSharedAccessPoints, knownAccessPoints);
+        final int requiredStrongest = (int) Math.ceil(minStrongestShare * strongest);
+        final boolean useStrongest = (strongest > 0) && (minStrongestShare > 0);
+
+        int count = 0;
+        for (int t = 0; t < touched; t++) {
+            final int fingerprint = candidates[t];
+            if ((sharedCounts[fingerprint] >= requiredShared) ||
+                (useStrongest && (strongestCounts[fingerprint] >= requiredStrongest))) {
+                candidates[count++] = fingerprint;
+            }
+            sharedCounts[fingerprint] = 0;
+            strongestCounts[fingerprint] = 0;
+        }
+        // The fingerprints were collected in the order of the access points. Scoring them in the order of the index
+        // makes the results independent of that:
+        Arrays.sort(candidates, 0, count);
+
+        evaluatedCount += count;
+        skippedCount += index.size() - count;
+        return count;
+    }
+
+    /**
+     * Get the candidates of the last call to {@link #select(LevelVector)}.
+     *
+     * @return the indices of the candidates in the FingerprintIndex, in ascending order. Only the first n entries are
+     *         valid, where n is the value returned by select. The array is reused for the next measurement.
+     */
+    public int[] getCandidates() {
+        return candidates;
+    }
+
+    public FingerprintIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * The number of fingerprints that were selected for scoring, summed up over all measurements since the last
+     * {@link #resetCounts()}.
+     *
+     * @return the number of evaluated candidates
+     */
+    public long getEvaluatedCount() {
+        return evaluatedCount;
+    }
+
+    /**
+     * The number of fingerprints that were not selected for scoring, summed up over all measurements since the last
+     * {@link #resetCounts()}.
+     *
+     * @return the number of skipped candidates
+     */
+    public long getSkippedCount() {
+        return skippedCount;
+    }
+
+    /**
+     * Reset the evaluated and skipped counts to 0.
+     */
+    public void resetCounts() {
+        evaluatedCount = 0;
+        skippedCount = 0;
+    }
+
+
+    // Keep the strongest access points sorted by level, strongest first, dropping the weakest when there are too many.
+    private int insertStrongest(final int size, final int id, final float level) {
+        int i = (size < strongestIds.length) ? size : (strongestIds.length - 1);
+        if ((i < 0) || ((size == strongestIds.length) && (level <= strongestLevels[i]))) {
+            return size;
+        }
+        while ((i > 0) && (strongestLevels[i - 1] < level)) {
+            strongestIds[i] = strongestIds[i - 1];
+            strongestLevels[i] = strongestLevels[i - 1];
+            i--;
+        }
+        strongestIds[i] = id;
+        strongestLevels[i] = level;
+        return Math.min(size + 1, strongestIds.length);
+    }
+
+}
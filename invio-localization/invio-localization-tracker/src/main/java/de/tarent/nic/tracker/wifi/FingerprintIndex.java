@@ -0,0 +1,332 @@
+package de.tarent.nic.tracker.wifi;
+
+import de.tarent.nic.entities.Fingerprint;
+import de.tarent.nic.entities.Histogram;
+import de.tarent.nic.entities.NicGeoPoint;
+
+import java.util.List;
+
+
+/**
+ * The FingerprintIndex is a compiled, read-only form of a list of fingerprints. The fingerprints don't change between
+ * two scans, so there is no point in reducing their complete Histograms to RouterLevelHistograms again and again for
+ * every scan. This is done exactly once, when the index is built.
+ *
+ * For each fingerprint the index holds the reduced levels in primitive arrays ({@link LevelVector}s), sorted by the
+ * interned access point ids from an {@link AccessPointDictionary}, together with the precomputed sum of these levels.
+ * The cached RouterLevelHistograms are kept as well, for the divergence-algorithms that need them.
+ *
+ * An index can also be built from a {@link FingerprintTable}, without any Fingerprint-objects. Then only the points
+ * and the LevelVectors are kept, and Fingerprints and RouterLevelHistograms are only created when they are asked for.
+ *
+ * In addition the index is inverted: for each access point it knows which fingerprints contain it. That way the
+ * fingerprints which have nothing in common with a measurement can be skipped (see {@link CandidateFilter}).
+ */
+public class FingerprintIndex {
+
+    /**
+     * Reduce each access point to the median of its measured signal-strengths.
+     * See {@link RouterLevelHistogram#makeMedianHistogram(Histogram)}.
+     */
+    public static final int REDUCTION_MEDIAN = 1;
+
+    /**
+     * Reduce each access point to the weighted average of its measured signal-strengths.
+     * See {@link RouterLevelHistogram#makeAverageHistogram(Histogram)}.
+     */
+    public static final int REDUCTION_AVERAGE = 2;
+
+    private static final int[] NO_FINGERPRINTS = new int[0];
+
+    private final int reduction;
+
+    private final AccessPointDictionary dictionary;
+
+    // Either the fingerprints and their histograms, or the table from which they can be created:
+    private final Fingerprint[] fingerprints;
+
+    private final RouterLevelHistogram[] histograms;
+
+    private final FingerprintTable table;
+
+    private final NicGeoPoint[] points;
+
+    private final LevelVector[] vectors;
+
+    /**
+     * The inverted index: for each access point id the indices of all fingerprints that contain it, ascending.
+     */
+    private final int[][] fingerprintsByAccessPoint;
+
+
+    /**
+     * Build a new index, with median-reduction, from a list of fingerprints.
+     *
+     * @param fingerprints the fingerprints; the list itself is not referenced by the index.
+     */
+    public FingerprintIndex(final List<Fingerprint> fingerprints) {
+        this(fingerprints, REDUCTION_MEDIAN);
+    }
+
+    /**
+     * Build a new index from a list of fingerprints.
+     *
+     * @param fingerprints the fingerprints; the list itself is not referenced by the index.
+     * @param reduction how the histograms are reduced to one level per access point, i.e. {@link #REDUCTION_MEDIAN}
+     *                  or {@link #REDUCTION_AVERAGE}
+     */
+    public FingerprintIndex(final List<Fingerprint> fingerprints, final int reduction) {
+        if ((reduction != REDUCTION_MEDIAN) && (reduction != REDUCTION_AVERAGE)) {
+            throw new IllegalArgumentException("Unknown reduction: " + reduction);
+        }
+        this.reduction = reduction;
+        this.dictionary = new AccessPointDictionary();
+
+        final int size = fingerprints.size();
+        this.fingerprints = fingerprints.toArray(new Fingerprint[size]);
+        this.table = null;
+        histograms = new RouterLevelHistogram[size];
+        points = new NicGeoPoint[size];
+        vectors = new LevelVector[size];
+
+        for (int i = 0; i < size; i++) {
+            histograms[i] = reduce(this.fingerprints[i].getHistogram());
+            points[i] = this.fingerprints[i].getPoint();
+            vectors[i] = LevelVector.internHistogram(histograms[i], dictionary);
+        }
+
+        fingerprintsByAccessPoint = invert(vectors, dictionary.size());
+    }
+
+    /**
+     * Build a new index, with median-reduction, from a complete FingerprintTable.
+     *
+     * @param table the fingerprints, see {@link #FingerprintIndex(FingerprintTable, int)}
+     */
+    public FingerprintIndex(final FingerprintTable table) {
+        this(table, REDUCTION_MEDIAN);
+    }
+
+    /**
+     * Build a new index from a complete FingerprintTable. The index uses the dictionary of the table and keeps a
+     * reference to the table, which must not be changed anymore. Several indexes may share the same table.
+     *
+     * @param table the fingerprints
+     * @param reduction how the histograms are reduced to one level per access point, i.e. {@link #REDUCTION_MEDIAN}
+     *                  or {@link #REDUCTION_AVERAGE}
+     */
+    public FingerprintIndex(final FingerprintTable table, final int reduction) {
+        if ((reduction != REDUCTION_MEDIAN) && (reduction != REDUCTION_AVERAGE)) {
+            throw new IllegalArgumentException("Unknown reduction: " + reduction);
+        }
+        this.reduction = reduction;
+        this.dictionary = table.getDictionary();
+        this.table = table;
+        this.fingerprints = null;
+        this.histograms = null;
+
+        final int size = table.size();
+        points = new NicGeoPoint[size];
+        vectors = new LevelVector[size];
+        for (int i = 0; i < size; i++) {
+            points[i] = table.getPoint(i);
+            vectors[i] = table.reduce(i, reduction);
+        }
+
+        fingerprintsByAccessPoint = invert(vectors, dictionary.size());
+    }
+
+
+    /**
+     * Reduce a histogram in the same way in which the fingerprints of this index were reduced. Use this for the current
+     * measurement so that it can be compared to the fingerprints.
+     *
+     * @param histogram the complete Histogram
+     * @return the new RouterLevelHistogram
+     */
+    public RouterLevelHistogram reduce(final Histogram histogram) {
+        if (reduction == REDUCTION_AVERAGE) {
+            return RouterLevelHistogram.makeAverageHistogram(histogram);
+        }
+        return RouterLevelHistogram.makeMedianHistogram(histogram);
+    }
+
+    /**
+     * Reduce a histogram like {@link #reduce(Histogram)} and convert it into a LevelVector with the ids of this index.
+     * Access points that don't appear in any of the fingerprints get ids of their own, which never match.
+     *
+     * @param histogram the complete Histogram
+     * @return the new LevelVector
+     */
+    public LevelVector encode(final Histogram histogram) {
+        return LevelVector.fromHistogram(reduce(histogram), dictionary);
+    }
+
+    /**
+     * Reduce the current histogram of a HistogramBuilder in the same way in which the fingerprints of this index were
+     * reduced, without building the complete Histogram first.
+     *
+     * @param builder the HistogramBuilder with the scans of the measurement
+     * @param now the current time in milliseconds, against which the age of the scans is measured
+     * @return the new RouterLevelHistogram
+     */
+    public RouterLevelHistogram reduce(final HistogramBuilder builder, final long now) {
+        if (reduction == REDUCTION_AVERAGE) {
+            return builder.buildAverageHistogram(now);
+        }
+        return builder.buildMedianHistogram(now);
+    }
+
+    /**
+     * Reduce the current histogram of a HistogramBuilder like {@link #reduce(HistogramBuilder, long)} and convert it
+     * into a LevelVector with the ids of this index.
+     *
+     * @param builder the HistogramBuilder with the scans of the measurement
+     * @param now the current time in milliseconds, against which the age of the scans is measured
+     * @return the new LevelVector
+     */
+    public LevelVector encode(final HistogramBuilder builder, final long now) {
+        return LevelVector.fromHistogram(reduce(builder, now), dictionary);
+    }
+
+    /**
+     * The number of fingerprints in this index.
+     *
+     * @return the size
+     */
+    public int size() {
+        return vectors.length;
+    }
+
+    public int getReduction() {
+        return reduction;
+    }
+
+    /**
+     * Get the dictionary which maps the BSSIDs of this index to the ids used in {@link #getAccessPointIds(int)}.
+     *
+     * @return the AccessPointDictionary, which must not be modified.
+     */
+    public AccessPointDictionary getDictionary() {
+        return dictionary;
+    }
+
+    /**
+     * Get one of the fingerprints. For an index that was built from a FingerprintTable it is created from the table,
+     * as a new instance for every call.
+     *
+     * @param i the index of the fingerprint
+     * @return the Fingerprint
+     */
+    public Fingerprint getFingerprint(final int i) {
+        if (fingerprints == null) {
+            return table.getFingerprint(i);
+        }
+        return fingerprints[i];
+    }
+
+    public NicGeoPoint getPoint(final int i) {
+        return points[i];
+    }
+
+    /**
+     * Get the reduced histogram of one fingerprint. It is the same instance for every call, so don't modify it.
+     * For an index that was built from a FingerprintTable it is created from the LevelVector for every call instead.
+     *
+     * @param i the index of the fingerprint
+     * @return the RouterLevelHistogram
+     */
+    public RouterLevelHistogram getHistogram(final int i) {
+        if (histograms == null) {
+            final RouterLevelHistogram rlh = new RouterLevelHistogram();
+            final int[] ids = vectors[i].getAccessPointIds();
+            final float[] levels = vectors[i].getLevels();
+            for (int n = 0; n < ids.length; n++) {
+                rlh.put(dictionary.getBssId(ids[n]), levels[n]);
+            }
+            return rlh;
+        }
+        return histograms[i];
+    }
+
+    /**
+     * Get the access point ids of one fingerprint, in ascending order. The array must not be modified.
+     *
+     * @param i the index of the fingerprint
+     * @return the ids, from the {@link #getDictionary()}
+     */
+    public int[] getAccessPointIds(final int i) {
+        return vectors[i].getAccessPointIds();
+    }
+
+    /**
+     * Get the reduced levels of one fingerprint, in the same order as the ids from {@link #getAccessPointIds(int)}.
+     * The array must not be modified.
+     *
+     * @param i the index of the fingerprint
+     * @return the levels
+     */
+    public float[] getLevels(final int i) {
+        return vectors[i].getLevels();
+    }
+
+    /**
+     * Get the sum of all the reduced levels of one fingerprint, added up in ascending id-order. This is the value by
+     * which the histogram has to be divided to normalize it.
+     *
+     * @param i the index of the fingerprint
+     * @return the sum of the levels; 0 for an empty fingerprint
+     */
+    public float getLevelSum(final int i) {
+        return vectors[i].getLevelSum();
+    }
+
+    /**
+     * Get all the fingerprints that contain a specific access point.
+     *
+     * @param accessPointId the id of the access point, from the {@link #getDictionary()}
+     * @return the indices of the fingerprints, in ascending order; empty if the id is not part of this index.
+     *         The array must not be modified.
+     */
+    public int[] getFingerprintsWithAccessPoint(final int accessPointId) {
+        if ((accessPointId < 0) || (accessPointId >= fingerprintsByAccessPoint.length)) {
+            return NO_FINGERPRINTS;
+        }
+        return fingerprintsByAccessPoint[accessPointId];
+    }
+
+    /**
+     * Get the reduced levels of one fingerprint as a LevelVector.
+     *
+     * @param i the index of the fingerprint
+     * @return the LevelVector
+     */
+    public LevelVector getVector(final int i) {
+        return vectors[i];
+    }
+
+
+    private static int[][] invert(final LevelVector[] vectors, final int accessPointCount) {
+        // First count, then fill, so that every posting list is allocated with its exact size:
+        final int[] counts = new int[accessPointCount];
+        for (final LevelVector vector : vectors) {
+            for (final int id : vector.getAccessPointIds()) {
+                counts[id]++;
+            }
+        }
+
+        final int[][] inverted = new int[accessPointCount][];
+        for (int id = 0; id < accessPointCount; id++) {
+            inverted[id] = new int[counts[id]];
+            counts[id] = 0;
+        }
+
+        for (int i = 0; i < vectors.length; i++) {
+            for (final int id : vectors[i].getAccessPointIds()) {
+                inverted[id][counts[id]++] = i;
+            }
+        }
+        return inverted;
+    }
+
+}
@@ -0,0 +1,304 @@
+package de.tarent.nic.tracker.wifi;
+
+import de.tarent.nic.entities.NicGeoPoint;
+import de.tarent.nic.tracker.geopoint.PointFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+
+/**
+ * A FingerprintSnapshot is a {@link FingerprintTable} saved in a binary file, which can be opened again without parsing
+ * anything: the file is memory-mapped and the histograms are read straight from it, so that they take no heap at all.
+ * A snapshot is written once, after the fingerprints have been downloaded and parsed, and opened on later starts.
+ *
+ * The file starts with a header of {@link #HEADER_SIZE} bytes: the {@link #MAGIC} bytes, the {@link #VERSION}, the
+ * number of fingerprints, of access point entries, of levels and of BSSIDs in the dictionary, and the size of the
+ * string section. Then come the records, each kind with a fixed size, so that record n is found without searching:
+ * - per fingerprint: the latitude and longitude (E6), its first access point entry, the offset of its id in the
+ *   string section, or -1 if it has none, and its flags: {@link #FLAG_POINT} if it has a point at all.
+ * - per access point entry: the id of the BSSID in the dictionary and its first level.
+ * - per level: the level in dB as a short, and its fraction as an unsigned short, in steps of
+ *   1/{@link #FRACTION_STEPS}.
+ * - per BSSID: the offset of the BSSID in the string section.
+ * The string section holds the ids and BSSIDs, each as its length (an unsigned short) and its UTF-8 bytes. All
+ * numbers are big-endian.
+ */
+public final class FingerprintSnapshot {
+
+    static final byte[] MAGIC = {'N', 'I', 'C', 'F'};
+
+    static final int VERSION = 2;
+
+    static final int HEADER_SIZE = 32;
+
+    static final int FRACTION_STEPS = 0xffff;
+
+    static final int FLAG_POINT = 1;
+
+    private static final int FINGERPRINT_SIZE = 20;
+
+    private static final int ACCESS_POINT_SIZE = 8;
+
+    private static final int LEVEL_SIZE = 4;
+
+    private static final int BSSID_SIZE = 4;
+
+    private static final int STRING_LENGTH_SIZE = 2;
+
+    private static final int MAX_STRING_LENGTH = 0xffff;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final ByteBuffer buffer;
+
+    private final int fingerprintCount;
+
+    private final int accessPointCount;
+
+    private final int levelCount;
+
+    private final int bssIdCount;
+
+    // Where the different records and the strings start:
+    private final int fingerprints;
+    private final int accessPoints;
+    private final int levels;
+    private final int bssIds;
+    private final int strings;
+
+
+    private FingerprintSnapshot(final ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_SIZE) {
+            throw new IOException("Fingerprint snapshot is truncated");
+        }
+        final byte[] magic = new byte[MAGIC.length];
+        for (int i = 0; i < magic.length; i++) {
+            magic[i] = buffer.get(i);
+        }
+        if (!Arrays.equals(MAGIC, magic)) {
+            throw new IOException("Not a fingerprint snapshot");
+        }
+        final int version = buffer.getInt(4);
+        if (version != VERSION) {
+            throw new IOException("Unsupported fingerprint snapshot version " + version);
+        }
+        fingerprintCount = buffer.getInt(8);
+        accessPointCount = buffer.getInt(12);
+        levelCount = buffer.getInt(16);
+        bssIdCount = buffer.getInt(20);
+        final int stringsSize = buffer.getInt(24);
+
+        fingerprints = HEADER_SIZE;
+        accessPoints = fingerprints + fingerprintCount * FINGERPRINT_SIZE;
+        levels = accessPoints + accessPointCount * ACCESS_POINT_SIZE;
+        bssIds = levels + levelCount * LEVEL_SIZE;
+        strings = bssIds + bssIdCount * BSSID_SIZE;
+        if ((fingerprintCount < 0) || (accessPointCount < 0) || (levelCount < 0) || (bssIdCount < 0) ||
+            (stringsSize < 0) || ((long) strings + stringsSize != buffer.capacity())) {
+            throw new IOException("Fingerprint snapshot is truncated");
+        }
+    }
+
+
+    /**
+     * Write a complete table to a snapshot file. The file is written next to the target first and then renamed, so
+     * that an interrupted write never leaves a broken snapshot behind.
+     *
+     * @param table the table
+     * @param file the snapshot file, which is replaced if it exists
+     * @throws IOException if the file could not be written
+     */
+    public static void write(final FingerprintTable table, final File file) throws IOException {
+        final byte[][] ids = new byte[table.size()][];
+        final byte[][] bssIds = new byte[table.getDictionary().size()][];
+        int stringsSize = 0;
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = toBytes(table.getId(i));
+            stringsSize += (ids[i] == null) ? 0 : STRING_LENGTH_SIZE + ids[i].length;
+        }
+        for (int id = 0; id < bssIds.length; id++) {
+            bssIds[id] = toBytes(table.getDictionary().getBssId(id));
+            stringsSize += STRING_LENGTH_SIZE + bssIds[id].length;
+        }
+
+        final File temp = new File(file.getPath() + ".tmp");
+        boolean renamed = false;
+        try {
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            try {
+                out.write(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(table.size());
+                out.writeInt(table.accessPointCount());
+                out.writeInt(table.levelCount());
+                out.writeInt(bssIds.length);
+                out.writeInt(stringsSize);
+                out.writeInt(0);
+
+                int stringOffset = 0;
+                for (int i = 0; i < table.size(); i++) {
+                    final NicGeoPoint point = table.getPoint(i);
+                    out.writeInt((point == null) ? 0 : point.getLatitudeE6());
+                    out.writeInt((point == null) ? 0 : point.getLongitudeE6());
+                    out.writeInt(table.firstAccessPoint(i));
+                    if (ids[i] == null) {
+                        out.writeInt(-1);
+                    } else {
+                        out.writeInt(stringOffset);
+                        stringOffset += STRING_LENGTH_SIZE + ids[i].length;
+                    }
+                    out.writeInt((point == null) ? 0 : FLAG_POINT);
+                }
+                for (int a = 0; a < table.accessPointCount(); a++) {
+                    out.writeInt(table.accessPointId(a));
+                    out.writeInt(table.firstLevel(a));
+                }
+                for (int n = 0; n < table.levelCount(); n++) {
+                    out.writeShort(table.level(n));
+                    out.writeShort(Math.round(Math.max(0f, Math.min(1f, table.fraction(n))) * FRACTION_STEPS));
+                }
+                for (final byte[] bssId : bssIds) {
+                    out.writeInt(stringOffset);
+                    stringOffset += STRING_LENGTH_SIZE + bssId.length;
+                }
+
+                for (final byte[] id : ids) {
+                    writeString(out, id);
+                }
+                for (final byte[] bssId : bssIds) {
+                    writeString(out, bssId);
+                }
+            } finally {
+                out.close();
+            }
+
+            // Some file systems don't replace an existing file:
+            renamed = temp.renameTo(file) || (file.delete() && temp.renameTo(file));
+            if (!renamed) {
+                throw new IOException("Could not replace " + file);
+            }
+        } finally {
+            if (!renamed) {
+                temp.delete();
+            }
+        }
+    }
+
+    /**
+     * Open a snapshot file. The file is mapped into memory and stays mapped for as long as the table is used.
+     *
+     * @param file the snapshot file
+     * @param pointFactory the factory for the points of the fingerprints
+     * @return the FingerprintTable, which cannot be changed
+     * @throws IOException if the file could not be read or is not a snapshot of this version
+     */
+    public static FingerprintTable open(final File file, final PointFactory<? extends NicGeoPoint> pointFactory)
+            throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        final ByteBuffer buffer;
+        try {
+            // The mapping stays valid when the file is closed:
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        } finally {
+            raf.close();
+        }
+        return new FingerprintSnapshot(buffer).createTable(pointFactory);
+    }
+
+
+    /**
+     * Create the table that reads from this snapshot. Only the points and the dictionary are created on the heap.
+     */
+    private FingerprintTable createTable(final PointFactory<? extends NicGeoPoint> pointFactory) throws IOException {
+        final NicGeoPoint[] points = new NicGeoPoint[fingerprintCount];
+        for (int i = 0; i < fingerprintCount; i++) {
+            if ((buffer.getInt(fingerprints + i * FINGERPRINT_SIZE + 16) & FLAG_POINT) != 0) {
+                final NicGeoPoint point = pointFactory.newPoint();
+                point.setLatitudeE6(buffer.getInt(fingerprints + i * FINGERPRINT_SIZE));
+                point.setLongitudeE6(buffer.getInt(fingerprints + i * FINGERPRINT_SIZE + 4));
+                points[i] = point;
+            }
+        }
+
+        final FingerprintTable table = new FingerprintTable(this, points);
+        for (int id = 0; id < bssIdCount; id++) {
+            if (table.getDictionary().intern(readString(buffer.getInt(bssIds + id * BSSID_SIZE))) != id) {
+                throw new IOException("Fingerprint snapshot has a duplicate BSSID");
+            }
+        }
+        return table;
+    }
+
+    int getAccessPointCount() {
+        return accessPointCount;
+    }
+
+    int getLevelCount() {
+        return levelCount;
+    }
+
+    String getId(final int i) {
+        final int offset = buffer.getInt(fingerprints + i * FINGERPRINT_SIZE + 12);
+        return (offset < 0) ? null : readString(offset);
+    }
+
+    int getFirstAccessPoint(final int i) {
+        return (i == fingerprintCount) ? accessPointCount : buffer.getInt(fingerprints + i * FINGERPRINT_SIZE + 8);
+    }
+
+    int getAccessPointId(final int a) {
+        return buffer.getInt(accessPoints + a * ACCESS_POINT_SIZE);
+    }
+
+    int getFirstLevel(final int a) {
+        return (a == accessPointCount) ? levelCount : buffer.getInt(accessPoints + a * ACCESS_POINT_SIZE + 4);
+    }
+
+    int getLevel(final int n) {
+        return buffer.getShort(levels + n * LEVEL_SIZE);
+    }
+
+    float getFraction(final int n) {
+        return (buffer.getShort(levels + n * LEVEL_SIZE + 2) & FRACTION_STEPS) / (float) FRACTION_STEPS;
+    }
+
+
+    private String readString(final int offset) {
+        final int start = strings + offset;
+        final byte[] bytes = new byte[buffer.getShort(start) & MAX_STRING_LENGTH];
+        // Absolute gets only, so that several threads can read at the same time:
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(start + STRING_LENGTH_SIZE + i);
+        }
+        return new String(bytes, UTF8);
+    }
+
+    private static byte[] toBytes(final String string) throws IOException {
+        if (string == null) {
+            return null;
+        }
+        final byte[] bytes = string.getBytes(UTF8);
+        if (bytes.length > MAX_STRING_LENGTH) {
+            throw new IOException("String too long for a fingerprint snapshot: " + string.substring(0, 32) + "...");
+        }
+        return bytes;
+    }
+
+    private static void writeString(final DataOutputStream out, final byte[] bytes) throws IOException {
+        if (bytes != null) {
+            out.writeShort(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+}
@@ -0,0 +1,333 @@
+package de.tarent.nic.tracker.wifi;
+
+import de.tarent.nic.entities.Fingerprint;
+import de.tarent.nic.entities.Histogram;
+import de.tarent.nic.entities.NicGeoPoint;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * The FingerprintTable holds a list of fingerprints in a compact form: instead of a Histogram with maps of boxed levels
+ * for every fingerprint, all the measured levels and their fractions are stored in a few primitive arrays, and each
+ * BSSID is interned only once in an {@link AccessPointDictionary}. The table is filled one fingerprint at a time, e.g.
+ * by a streaming parser, so that a large set of fingerprints never has to exist as an object graph. A complete
+ * {@link Fingerprint} can still be created from it, when one is really needed (e.g. to show it on the map).
+ *
+ * A table is filled by a single thread. Once it is complete, e.g. compiled into a {@link FingerprintIndex}, it must not
+ * be changed anymore and can then be read by several threads.
+ *
+ * A complete table can be saved as a {@link FingerprintSnapshot}. A table that is opened from a snapshot reads the
+ * histograms straight from the memory-mapped file instead of the arrays, and cannot be changed at all.
+ */
+public class FingerprintTable {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final AccessPointDictionary dictionary = new AccessPointDictionary();
+
+    // The snapshot from which this table reads, or null if it was filled in memory:
+    private final FingerprintSnapshot snapshot;
+
+    // Per fingerprint. The access points of fingerprint i are firstAccessPoint[i] .. firstAccessPoint[i + 1] - 1, so
+    // the entry at "size" is where the fingerprint that is being added starts:
+    private String[] ids = new String[INITIAL_CAPACITY];
+    private NicGeoPoint[] points = new NicGeoPoint[INITIAL_CAPACITY];
+    private int[] firstAccessPoint = new int[INITIAL_CAPACITY + 1];
+    private int size;
+
+    // Per access point of a fingerprint. The levels of access point a are firstLevel[a] .. firstLevel[a + 1] - 1:
+    private int[] accessPointIds = new int[INITIAL_CAPACITY];
+    private int[] firstLevel = new int[INITIAL_CAPACITY + 1];
+    private int accessPointCount;
+
+    // Per measured level of an access point, in dB, ascending:
+    private short[] levels = new short[INITIAL_CAPACITY];
+    private float[] fractions = new float[INITIAL_CAPACITY];
+    private int levelCount;
+
+
+    /**
+     * Construct a new, empty FingerprintTable, which can then be filled.
+     */
+    public FingerprintTable() {
+        snapshot = null;
+    }
+
+    /**
+     * Construct a FingerprintTable which reads from a snapshot. The snapshot fills in the dictionary.
+     *
+     * @param snapshot the snapshot
+     * @param points the points of the fingerprints
+     */
+    FingerprintTable(final FingerprintSnapshot snapshot, final NicGeoPoint[] points) {
+        this.snapshot = snapshot;
+        this.points = points;
+        this.size = points.length;
+        this.ids = null;
+        this.firstAccessPoint = null;
+        this.accessPointIds = null;
+        this.firstLevel = null;
+        this.levels = null;
+        this.fractions = null;
+    }
+
+
+    /**
+     * Start the next access point of the fingerprint that is being added.
+     *
+     * @param bssId the BSSID of the access point
+     */
+    public void addAccessPoint(final String bssId) {
+        checkModifiable();
+        if (accessPointCount == accessPointIds.length) {
+            accessPointIds = Arrays.copyOf(accessPointIds, 2 * accessPointIds.length);
+            firstLevel = Arrays.copyOf(firstLevel, accessPointIds.length + 1);
+        }
+        accessPointIds[accessPointCount++] = dictionary.intern(bssId);
+        firstLevel[accessPointCount] = levelCount;
+    }
+
+    /**
+     * Add a measured level to the access point that was added last.
+     *
+     * @param level the signal strength, in dB
+     * @param fraction how often this level was measured, as a fraction of all measurements of the access point
+     */
+    public void addLevel(final int level, final float fraction) {
+        checkModifiable();
+        if (accessPointCount == firstAccessPoint[size]) {
+            throw new IllegalStateException("A level can only be added after its access point.");
+        }
+        if (levelCount == levels.length) {
+            levels = Arrays.copyOf(levels, 2 * levels.length);
+            fractions = Arrays.copyOf(fractions, levels.length);
+        }
+        // Keep the levels of each access point sorted, so that the median can be read directly. Usually there are only
+        // a handful, so a simple insertion is good enough:
+        int n = levelCount;
+        while ((n > firstLevel[accessPointCount - 1]) && (levels[n - 1] > level)) {
+            levels[n] = levels[n - 1];
+            fractions[n] = fractions[n - 1];
+            n--;
+        }
+        levels[n] = (short) level;
+        fractions[n] = fraction;
+        firstLevel[accessPointCount] = ++levelCount;
+    }
+
+    /**
+     * Complete the fingerprint that is being added, with all the access points and levels added since the last one.
+     *
+     * @param id the id of the fingerprint
+     * @param point the point where it was measured
+     */
+    public void endFingerprint(final String id, final NicGeoPoint point) {
+        checkModifiable();
+        if (size == ids.length) {
+            ids = Arrays.copyOf(ids, 2 * ids.length);
+            points = Arrays.copyOf(points, ids.length);
+            firstAccessPoint = Arrays.copyOf(firstAccessPoint, ids.length + 1);
+        }
+        ids[size] = id;
+        points[size] = point;
+        firstAccessPoint[++size] = accessPointCount;
+    }
+
+    /**
+     * Release the unused capacity of the arrays, once the table is complete.
+     */
+    public void trimToSize() {
+        if (snapshot != null) {
+            return;
+        }
+        ids = Arrays.copyOf(ids, size);
+        points = Arrays.copyOf(points, size);
+        firstAccessPoint = Arrays.copyOf(firstAccessPoint, size + 1);
+        accessPointIds = Arrays.copyOf(accessPointIds, accessPointCount);
+        firstLevel = Arrays.copyOf(firstLevel, accessPointCount + 1);
+        levels = Arrays.copyOf(levels, levelCount);
+        fractions = Arrays.copyOf(fractions, levelCount);
+    }
+
+
+    /**
+     * The number of complete fingerprints in this table.
+     *
+     * @return the size
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get the dictionary with the BSSIDs of all fingerprints, which must not be modified.
+     *
+     * @return the AccessPointDictionary
+     */
+    public AccessPointDictionary getDictionary() {
+        return dictionary;
+    }
+
+    public String getId(final int i) {
+        return (snapshot == null) ? ids[i] : snapshot.getId(i);
+    }
+
+    public NicGeoPoint getPoint(final int i) {
+        return points[i];
+    }
+
+    /**
+     * Create a complete Fingerprint, with its Histogram, from the table. It is a new instance for every call.
+     *
+     * @param i the index of the fingerprint
+     * @return the new Fingerprint
+     */
+    public Fingerprint getFingerprint(final int i) {
+        final Histogram histogram = new Histogram(getId(i));
+        for (int a = firstAccessPoint(i); a < firstAccessPoint(i + 1); a++) {
+            final Map<Integer, Float> accessPointLevels = new HashMap<Integer, Float>();
+            for (int n = firstLevel(a); n < firstLevel(a + 1); n++) {
+                accessPointLevels.put(level(n), fraction(n));
+            }
+            histogram.put(dictionary.getBssId(accessPointId(a)), accessPointLevels);
+        }
+        return new Fingerprint(histogram, points[i]);
+    }
+
+
+    /**
+     * Reduce the levels of one fingerprint to one level per access point, like
+     * {@link RouterLevelHistogram#makeMedianHistogram} or {@link RouterLevelHistogram#makeAverageHistogram}, straight
+     * into a LevelVector with the ids of this table's dictionary.
+     *
+     * @param i the index of the fingerprint
+     * @param reduction {@link FingerprintIndex#REDUCTION_MEDIAN} or {@link FingerprintIndex#REDUCTION_AVERAGE}
+     * @return the new LevelVector
+     */
+    LevelVector reduce(final int i, final int reduction) {
+        final int from = firstAccessPoint(i);
+        final int count = firstAccessPoint(i + 1) - from;
+        final int[] vectorIds = new int[count];
+        final float[] vectorLevels = new float[count];
+        int n = 0;
+        for (int a = from; a < from + count; a++) {
+            final float level = (reduction == FingerprintIndex.REDUCTION_AVERAGE) ? averageLevel(a) : medianLevel(a);
+            final int id = accessPointId(a);
+            // Sort by id while adding. A BSSID that appears twice keeps its last levels, as in a map:
+            int k = n;
+            while ((k > 0) && (vectorIds[k - 1] > id)) {
+                k--;
+            }
+            if ((k > 0) && (vectorIds[k - 1] == id)) {
+                vectorLevels[k - 1] = level;
+                continue;
+            }
+            System.arraycopy(vectorIds, k, vectorIds, k + 1, n - k);
+            System.arraycopy(vectorLevels, k, vectorLevels, k + 1, n - k);
+            vectorIds[k] = id;
+            vectorLevels[k] = level;
+            n++;
+        }
+        if (n < count) {
+            return new LevelVector(Arrays.copyOf(vectorIds, n), Arrays.copyOf(vectorLevels, n));
+        }
+        return new LevelVector(vectorIds, vectorLevels);
+    }
+
+    /**
+     * The number of access point entries of all fingerprints together.
+     *
+     * @return the number of entries
+     */
+    int accessPointCount() {
+        return (snapshot == null) ? accessPointCount : snapshot.getAccessPointCount();
+    }
+
+    /**
+     * The number of levels of all access points together.
+     *
+     * @return the number of levels
+     */
+    int levelCount() {
+        return (snapshot == null) ? levelCount : snapshot.getLevelCount();
+    }
+
+    /**
+     * The first access point entry of a fingerprint.
+     *
+     * @param i the index of the fingerprint, or size() for the end of the last one
+     * @return the index of the access point entry
+     */
+    int firstAccessPoint(final int i) {
+        return (snapshot == null) ? firstAccessPoint[i] : snapshot.getFirstAccessPoint(i);
+    }
+
+    /**
+     * The dictionary id of an access point entry.
+     *
+     * @param a the index of the access point entry
+     * @return the id
+     */
+    int accessPointId(final int a) {
+        return (snapshot == null) ? accessPointIds[a] : snapshot.getAccessPointId(a);
+    }
+
+    /**
+     * The first level of an access point entry.
+     *
+     * @param a the index of the access point entry, or accessPointCount() for the end of the last one
+     * @return the index of the level
+     */
+    int firstLevel(final int a) {
+        return (snapshot == null) ? firstLevel[a] : snapshot.getFirstLevel(a);
+    }
+
+    /**
+     * A measured level.
+     *
+     * @param n the index of the level
+     * @return the level, in dB
+     */
+    int level(final int n) {
+        return (snapshot == null) ? levels[n] : snapshot.getLevel(n);
+    }
+
+    /**
+     * The fraction of a measured level.
+     *
+     * @param n the index of the level
+     * @return the fraction
+     */
+    float fraction(final int n) {
+        return (snapshot == null) ? fractions[n] : snapshot.getFraction(n);
+    }
+
+
+    private void checkModifiable() {
+        if (snapshot != null) {
+            throw new IllegalStateException("A table that was opened from a snapshot cannot be changed.");
+        }
+    }
+
+    private float medianLevel(final int accessPoint) {
+        final int from = firstLevel(accessPoint);
+        final int count = firstLevel(accessPoint + 1) - from;
+        if (count == 0) {
+            return 0;
+        }
+        // For an even number of levels the median is the average of the two levels nearest to the middle:
+        return 0.5f * (level(from + count / 2) + level(from + (count - 1) / 2));
+    }
+
+    private float averageLevel(final int accessPoint) {
+        float average = 0;
+        for (int n = firstLevel(accessPoint); n < firstLevel(accessPoint + 1); n++) {
+            average += level(n) * fraction(n);
+        }
+        return average;
+    }
+
+}
@@ -3,21 +3,25 @@ package de.tarent.nic.tracker.wifi;
 import de.tarent.nic.entities.Histogram;
 import de.tarent.nic.entities.WifiScanResult;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.SortedMap;
 import java.util.TreeMap;
 
 /**
  * The HistogramBuilder is used to incrementally build up a Histogram from ScanResults.
  * It counts the measured signal strength levels and converts these numbers into fractions for the final Histogram.
  * Please note that there is no "reset"-method.
+ *
+ * The counts are kept up to date while scans are added and while they age out of the maxAge-window, so building a
+ * histogram only has to visit the access points that are currently visible, not every stored scan. The scans are
+ * stored in a ring buffer, oldest first, and are identified by their sequence number instead of their time.
  */
 public class HistogramBuilder {
 
+    private static final int INITIAL_CAPACITY = 8;
+
     private final String id;
 
     /**
@@ -26,9 +30,26 @@ public class HistogramBuilder {
     private int maxAge;
 
     /**
-     * In this map we store the scanresults, identified by currentTimeMillis.
+     * The level counts of all access points that appear in at least one of the stored scans, indexed by bssid.
+     */
+    private final Map<String, Levels> curves;
+
+    /**
+     * The stored scans. The scan with the sequence number n is stored at n % scans.length. The slots are reused.
+     */
+    private Scan[] scans;
+
+    /**
+     * The sequence number of the oldest stored scan.
+     */
+    private long firstSequence;
+
+    /**
+     * The sequence number that the next scan will get.
      */
-    private SortedMap<Long, List<WifiScanResult>> scanResults;
+    private long nextSequence;
+
+    private long lastTime = Long.MIN_VALUE;
 
 
     /**
@@ -49,7 +70,8 @@ public class HistogramBuilder {
     public HistogramBuilder(final String id, final int maxAge) {
         this.id = id;
         this.maxAge = maxAge;
-        scanResults = new TreeMap<Long, List<WifiScanResult>>();
+        curves = new HashMap<String, Levels>();
+        scans = new Scan[INITIAL_CAPACITY];
     }
 
 
@@ -60,9 +82,40 @@ public class HistogramBuilder {
      * @return this, for chaining (not that anyone would have multiple ScanResults at the same time).
      */
     public HistogramBuilder addScanResults(final List<WifiScanResult> scan) {
-        final List<WifiScanResult> scanCopy = new ArrayList<WifiScanResult>();
-        scanCopy.addAll(scan);
-        scanResults.put(makeUniqueTime(), scanCopy);
+        return addScanResults(System.currentTimeMillis(), scan);
+    }
+
+    /**
+     * Integrate new ScanResults into this Histogram, which were made at a known time, e.g. when recorded scans are
+     * replayed. The scans are expected in chronological order; a scan that is older than its predecessor (because the
+     * clock was set back) is treated as if it were made at the same time as its predecessor.
+     *
+     * @param time the time of the scan in milliseconds, on the same clock as the time passed to {@link #build(long)}
+     * @param scan the List of ScanResults. It is not kept, so the caller may reuse it.
+     * @return this, for chaining
+     */
+    public HistogramBuilder addScanResults(final long time, final List<WifiScanResult> scan) {
+        if (nextSequence - firstSequence == scans.length) {
+            grow();
+        }
+        final int slot = slot(nextSequence);
+        if (scans[slot] == null) {
+            scans[slot] = new Scan();
+        }
+        final Scan stored = scans[slot];
+
+        lastTime = Math.max(lastTime, time);
+        stored.reset(lastTime, scan.size());
+        for (final WifiScanResult accesspoint : scan) {
+            Levels levels = curves.get(accesspoint.getBssid());
+            if (levels == null) {
+                levels = new Levels(accesspoint.getBssid());
+                curves.put(accesspoint.getBssid(), levels);
+            }
+            levels.add(accesspoint.getLevel());
+            stored.add(levels, accesspoint.getLevel());
+        }
+        nextSequence++;
 
         return this;
     }
@@ -73,76 +126,127 @@ public class HistogramBuilder {
      * @return the new Histogram
      */
     public Histogram build() {
-        final Histogram histogram = new Histogram(id);
+        return build(System.currentTimeMillis());
+    }
 
-        // Make the mapping of bssid to signal-level-count-curve:
-        final Map<String, Levels> curves = makeCurves();
+    /**
+     * Build a new Histogram from the scanresults that were collected up to a specific time.
+     * @param now the current time in milliseconds, against which the age of the scanresults is measured
+     * @return the new Histogram
+     */
+    public Histogram build(final long now) {
+        removeOldScans(now);
 
-        for (Map.Entry<String, Levels> curve : curves.entrySet()) {
-            histogram.put(curve.getKey(), curve.getValue().getLevels());
+        final Histogram histogram = new Histogram(id);
+        for (final Levels levels : curves.values()) {
+            histogram.put(levels.bssid, levels.getLevels());
         }
         return histogram;
     }
 
+    /**
+     * Build a RouterLevelHistogram with the median level of each access point directly, i.e. without building the
+     * complete Histogram first. The result is the same as that of
+     * {@link RouterLevelHistogram#makeMedianHistogram(Histogram)} for {@link #build(long)}.
+     * @param now the current time in milliseconds, against which the age of the scanresults is measured
+     * @return the new RouterLevelHistogram
+     */
+    public RouterLevelHistogram buildMedianHistogram(final long now) {
+        removeOldScans(now);
+
+        final RouterLevelHistogram rlh = new RouterLevelHistogram();
+        for (final Levels levels : curves.values()) {
+            rlh.put(levels.bssid, levels.getMedian());
+        }
+        return rlh;
+    }
 
     /**
-     * This method generates a timestamp (in ms), which will be unique as far as the collection of scanresults in this
-     * HistogramBuilder-instance is concerned. To achieve this goal the method might wait for one millisecond.
-     * That should only happen during testing though, because it is unlikely that any device can scan so fast.
-     * @return the current (return-) time in milliseconds
+     * Build a RouterLevelHistogram with the weighted average level of each access point directly, i.e. without
+     * building the complete Histogram first. The result is the same as that of
+     * {@link RouterLevelHistogram#makeAverageHistogram(Histogram)} for {@link #build(long)}.
+     * @param now the current time in milliseconds, against which the age of the scanresults is measured
+     * @return the new RouterLevelHistogram
      */
-    private long makeUniqueTime() {
-        long time = System.currentTimeMillis();
-        if (scanResults.containsKey(time)) {
-            // Normally this method should not be called that fast. We must wait, because we want to use the current
-            // time as the index to our Map.
-            try {
-                Thread.sleep(1);
-                time = System.currentTimeMillis();
-            } catch (InterruptedException e) {
-                throw new IllegalStateException(
-                        "HistogramBuilder.addScanResults must not be called twice during one millisecond!");
-            }
+    public RouterLevelHistogram buildAverageHistogram(final long now) {
+        removeOldScans(now);
+
+        final RouterLevelHistogram rlh = new RouterLevelHistogram();
+        for (final Levels levels : curves.values()) {
+            rlh.put(levels.bssid, levels.getAverage());
         }
-        return time;
+        return rlh;
     }
 
     /**
-     * Add up the individual scan results into histogram-curves.
-     * @return the mapping of bssid->curve
+     * The number of scans that are currently stored. Scans that have become too old are only removed by the build
+     * methods.
+     * @return the number of scans
      */
-    private Map<String, Levels> makeCurves() {
-        final long oldestValidTime = (maxAge == 0) ? 0 : System.currentTimeMillis() - maxAge;
+    public int getScanCount() {
+        return (int) (nextSequence - firstSequence);
+    }
 
-        final Map<String, Levels> curves = new HashMap<String, Levels>();
-        // We use an iterator because it allows us to remove entries on the fly without mixing up our loop:
-        final Iterator<Map.Entry<Long, List<WifiScanResult>>> iterator = scanResults.entrySet().iterator();
 
-        while (iterator.hasNext()) {
-            final Map.Entry<Long, List<WifiScanResult>> scan = iterator.next();
-            if (scan.getKey() >= oldestValidTime) {
-                include(scan.getValue(), curves);
-            } else {
-                iterator.remove();
+    /**
+     * Remove the scans that are older than maxAge from the ring buffer and from the curves.
+     * @param now the current time in milliseconds
+     */
+    private void removeOldScans(final long now) {
+        if (maxAge == 0) {
+            return;
+        }
+        final long oldestValidTime = now - maxAge;
+        while ((firstSequence < nextSequence) && (scans[slot(firstSequence)].time < oldestValidTime)) {
+            final Scan scan = scans[slot(firstSequence)];
+            for (int i = 0; i < scan.size; i++) {
+                final Levels levels = scan.curves[i];
+                levels.remove(scan.levels[i]);
+                if (levels.count == 0) {
+                    curves.remove(levels.bssid);
+                }
+                scan.curves[i] = null;
             }
+            firstSequence++;
         }
+    }
 
-        return curves;
+    private int slot(final long sequence) {
+        return (int) (sequence % scans.length);
+    }
+
+    private void grow() {
+        final Scan[] larger = new Scan[scans.length * 2];
+        for (long sequence = firstSequence; sequence < nextSequence; sequence++) {
+            larger[(int) (sequence % larger.length)] = scans[slot(sequence)];
+        }
+        scans = larger;
     }
 
 
     /**
-     * Add a list of scaneresults to a map of curves.
-     * @param scanResults the NicScanResults
-     * @param curves the curves, indexed by bssid
+     * A stored scan: its time and, for each of its access points, the curve and the level that was counted in it, so
+     * that the counts can be taken back when the scan is removed.
      */
-    private void include(List<WifiScanResult> scanResults, Map<String, Levels> curves) {
-        for (WifiScanResult accesspoint : scanResults) {
-            if (!curves.containsKey(accesspoint.getBssid())) {
-                final Levels levels = new Levels();
-                curves.put(accesspoint.getBssid(), levels);
+    private static final class Scan {
+        private long time;
+        private int size;
+        private Levels[] curves = new Levels[0];
+        private int[] levels = new int[0];
+
+        void reset(final long scanTime, final int capacity) {
+            time = scanTime;
+            size = 0;
+            if (curves.length < capacity) {
+                curves = new Levels[capacity];
+                levels = new int[capacity];
             }
-            curves.get(accesspoint.getBssid()).add(accesspoint.getLevel());
+        }
+
+        void add(final Levels curve, final int level) {
+            curves[size] = curve;
+            levels[size] = level;
+            size++;
         }
     }
 
@@ -155,19 +259,32 @@ public class HistogramBuilder {
      * to know about them.
      */
     private static class Levels {
+        private static final int INITIAL_CAPACITY = 8;
+
+        private final String bssid;
+
         private int count;
 
         /**
-         * The levels map the signal strength to their number of occurrences.
+         * The distinct signal strengths that were measured, in ascending order, and their numbers of occurrences.
+         * Only the first size entries are valid.
          */
-        private final Map<Integer, Integer> levels;
+        private int[] levels;
+
+        private int[] counts;
+
+        private int size;
 
         /**
          * This is the normal constructor for when we want to start collecting data into a fresh, empty curve.
+         *
+         * @param bssid the bssid of the access point
          */
-        public Levels() {
+        public Levels(final String bssid) {
+            this.bssid = bssid;
             this.count = 0;
-            this.levels = new TreeMap<Integer, Integer>();
+            this.levels = new int[INITIAL_CAPACITY];
+            this.counts = new int[INITIAL_CAPACITY];
         }
 
         /**
@@ -176,14 +293,39 @@ public class HistogramBuilder {
          * @param level the new signal strength that was measured
          */
         public void add(final int level) {
-            if (levels.containsKey(level)) {
-                levels.put(level, levels.get(level) + 1);
+            int i = Arrays.binarySearch(levels, 0, size, level);
+            if (i >= 0) {
+                counts[i]++;
             } else {
-                levels.put(level, 1);
+                i = -i - 1;
+                if (size == levels.length) {
+                    levels = Arrays.copyOf(levels, size * 2);
+                    counts = Arrays.copyOf(counts, size * 2);
+                }
+                System.arraycopy(levels, i, levels, i + 1, size - i);
+                System.arraycopy(counts, i, counts, i + 1, size - i);
+                levels[i] = level;
+                counts[i] = 1;
+                size++;
             }
             count++;
         }
 
+        /**
+         * Take back a measurement that was added before.
+         *
+         * @param level the signal strength of the measurement
+         */
+        public void remove(final int level) {
+            final int i = Arrays.binarySearch(levels, 0, size, level);
+            if (--counts[i] == 0) {
+                System.arraycopy(levels, i + 1, levels, i, size - i - 1);
+                System.arraycopy(counts, i + 1, counts, i, size - i - 1);
+                size--;
+            }
+            count--;
+        }
+
         /**
          * Convert the counts into fractions according to the total number of measurements.
          *
@@ -191,12 +333,39 @@ public class HistogramBuilder {
          */
         public Map<Integer, Float> getLevels() {
             final Map<Integer, Float> result = new TreeMap<Integer, Float>();
-            for (Map.Entry<Integer, Integer> level : levels.entrySet()) {
-                result.put(level.getKey(), (float) level.getValue() / count);
+            for (int i = 0; i < size; i++) {
+                result.put(levels[i], (float) counts[i] / count);
             }
             return result;
         }
 
+        /**
+         * The median of the distinct signal strengths, calculated like RouterLevelHistogram does it.
+         *
+         * @return the median level
+         */
+        public float getMedian() {
+            if ((size % 2) == 1) {
+                return levels[size / 2];
+            }
+            return 0.5f * (levels[size / 2] + levels[(size - 1) / 2]);
+        }
+
+        /**
+         * The weighted average of the signal strengths, calculated like RouterLevelHistogram does it.
+         *
+         * @return the average level
+         */
+        public float getAverage() {
+            float average = 0;
+            for (int i = 0; i < size; i++) {
+                final float strength = levels[i];
+                final float probability = (float) counts[i] / count;
+                average += strength * probability;
+            }
+            return average;
+        }
+
     }
 
 }
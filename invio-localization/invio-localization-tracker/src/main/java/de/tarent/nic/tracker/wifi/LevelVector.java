@@ -0,0 +1,130 @@
+package de.tarent.nic.tracker.wifi;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+
+/**
+ * A LevelVector is the primitive form of a RouterLevelHistogram: the access points are replaced by ids from an
+ * {@link AccessPointDictionary} and the entries are sorted by these ids. That way two vectors can be intersected in a
+ * single merge-pass, without any lookups or boxing.
+ */
+public class LevelVector {
+
+    private final int[] accessPointIds;
+
+    private final float[] levels;
+
+    private final float levelSum;
+
+
+    /**
+     * Construct a new LevelVector from arrays that are already sorted by id. The arrays are not copied.
+     *
+     * @param accessPointIds the ids in strictly ascending order
+     * @param levels the levels, in the same order as the ids
+     */
+    public LevelVector(final int[] accessPointIds, final float[] levels) {
+        if (accessPointIds.length != levels.length) {
+            throw new IllegalArgumentException("There must be exactly one level per access point.");
+        }
+        this.accessPointIds = accessPointIds;
+        this.levels = levels;
+
+        float sum = 0;
+        for (final float level : levels) {
+            sum += level;
+        }
+        levelSum = sum;
+    }
+
+
+    /**
+     * Convert a RouterLevelHistogram into a LevelVector.
+     * Access points that are unknown to the dictionary are not added to it. Instead they get ids beyond the end of the
+     * dictionary, so that they still count for the size of the vector but can never match any other vector that was
+     * made with the same dictionary.
+     *
+     * @param rlh the RouterLevelHistogram
+     * @param dictionary the dictionary from which the ids are taken; it is not modified.
+     * @return the new LevelVector
+     */
+    public static LevelVector fromHistogram(final RouterLevelHistogram rlh, final AccessPointDictionary dictionary) {
+        final Map<Integer, Float> sorted = new TreeMap<Integer, Float>();
+        int unknownId = dictionary.size();
+        for (final Map.Entry<String, Float> accessPoint : rlh.entrySet()) {
+            int id = dictionary.getId(accessPoint.getKey());
+            if (id == AccessPointDictionary.UNKNOWN) {
+                id = unknownId++;
+            }
+            sorted.put(id, accessPoint.getValue());
+        }
+        return fromSortedMap(sorted);
+    }
+
+    /**
+     * Convert a RouterLevelHistogram into a LevelVector, adding all its access points to the dictionary.
+     *
+     * @param rlh the RouterLevelHistogram
+     * @param dictionary the dictionary which interns the BSSIDs
+     * @return the new LevelVector
+     */
+    public static LevelVector internHistogram(final RouterLevelHistogram rlh, final AccessPointDictionary dictionary) {
+        final Map<Integer, Float> sorted = new TreeMap<Integer, Float>();
+        for (final Map.Entry<String, Float> accessPoint : rlh.entrySet()) {
+            sorted.put(dictionary.intern(accessPoint.getKey()), accessPoint.getValue());
+        }
+        return fromSortedMap(sorted);
+    }
+
+
+    /**
+     * The number of access points in this vector.
+     *
+     * @return the size
+     */
+    public int size() {
+        return accessPointIds.length;
+    }
+
+    /**
+     * Get the ids of the access points, in ascending order. The array must not be modified.
+     *
+     * @return the ids
+     */
+    public int[] getAccessPointIds() {
+        return accessPointIds;
+    }
+
+    /**
+     * Get the levels, in the order of the ids. The array must not be modified.
+     *
+     * @return the levels
+     */
+    public float[] getLevels() {
+        return levels;
+    }
+
+    /**
+     * Get the sum of all levels, added up in ascending id-order (i.e. the L1-norm of this vector, with a sign).
+     *
+     * @return the sum; 0 for an empty vector
+     */
+    public float getLevelSum() {
+        return levelSum;
+    }
+
+
+    private static LevelVector fromSortedMap(final Map<Integer, Float> sorted) {
+        final int[] ids = new int[sorted.size()];
+        final float[] values = new float[sorted.size()];
+        int n = 0;
+        for (final Map.Entry<Integer, Float> accessPoint : sorted.entrySet()) {
+            ids[n] = accessPoint.getKey();
+            values[n] = accessPoint.getValue();
+            n++;
+        }
+        return new LevelVector(ids, values);
+    }
+
+}
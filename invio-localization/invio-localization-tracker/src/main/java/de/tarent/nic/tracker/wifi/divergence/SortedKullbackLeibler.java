@@ -0,0 +1,145 @@
+package de.tarent.nic.tracker.wifi.divergence;
+
+import de.tarent.nic.tracker.wifi.AccessPointDictionary;
+import de.tarent.nic.tracker.wifi.LevelVector;
+import de.tarent.nic.tracker.wifi.RouterLevelHistogram;
+
+
+/**
+ * This is the same algorithm as {@link KullbackLeibler}, but it works on {@link LevelVector}s, i.e. on access point
+ * ids and levels that are sorted by id. The intersection of the two histograms, their normalization and the divergence
+ * are all calculated by walking along both vectors at the same time, without creating any objects. That makes it
+ * suitable for the inner loop of the tracking, where one measurement is compared to every fingerprint.
+ *
+ * The results are the same as those of {@link KullbackLeibler}. The only possible difference lies in the last bits of
+ * the float-sums, because the access points are added up in id-order instead of hash-order.
+ */
+public class SortedKullbackLeibler implements RouterLevelDivergence {
+
+
+    private float symmetricalDivergence;
+
+    private float confidence;
+
+    /**
+     * Initialized means that all the data has been reset/deleted and the next histogram can be processed.
+     */
+    private boolean initialized = false;
+
+
+    /**
+     * {@inheritDoc}
+     * This converts both histograms into LevelVectors first. Use {@link #init(LevelVector, LevelVector)} if you
+     * compare the same histograms more than once.
+     */
+    @Override
+    public void init(final RouterLevelHistogram p, final RouterLevelHistogram q) {
+        final AccessPointDictionary dictionary = new AccessPointDictionary();
+        init(LevelVector.internHistogram(p, dictionary), LevelVector.internHistogram(q, dictionary));
+    }
+
+    /**
+     * Initialize the divergence-algorithm with two LevelVectors, which must use ids from the same dictionary.
+     * All previous results are overwritten.
+     *
+     * @param p one LevelVector
+     * @param q the other LevelVector
+     */
+    public void init(final LevelVector p, final LevelVector q) {
+        init(p.getAccessPointIds(), p.getLevels(), p.size(), q.getAccessPointIds(), q.getLevels(), q.size());
+    }
+
+    /**
+     * Initialize the divergence-algorithm with two sorted vectors. All previous results are overwritten.
+     * Only the first pLength/qLength entries of the arrays are used, so that the arrays can be reused buffers.
+     *
+     * @param pIds the access point ids of p, strictly ascending
+     * @param pLevels the levels of p, in the order of pIds
+     * @param pLength the number of entries in p
+     * @param qIds the access point ids of q, strictly ascending
+     * @param qLevels the levels of q, in the order of qIds
+     * @param qLength the number of entries in q
+     */
+    public void init(final int[] pIds, final float[] pLevels, final int pLength,
+                     final int[] qIds, final float[] qLevels, final int qLength) {
+        reset();
+
+        // Special case: if at least one histogram is empty then we can't compare anything and as a consequence we
+        // have no confidence. But we don't consider this a quantifiable divergence either.
+        if ((pLength > 0) && (qLength > 0)) {
+            // First pass: find the access points which are present in both vectors and sum up their levels, so that
+            // we can normalize with the remaining entries:
+            float pSum = 0;
+            float qSum = 0;
+            int shared = 0;
+            int i = 0;
+            int j = 0;
+            while ((i < pLength) && (j < qLength)) {
+                if (pIds[i] < qIds[j]) {
+                    i++;
+                } else if (pIds[i] > qIds[j]) {
+                    j++;
+                } else {
+                    pSum += pLevels[i++];
+                    qSum += qLevels[j++];
+                    shared++;
+                }
+            }
+
+            // Second pass: the divergence in both directions, over the normalized shared entries:
+            float pqDivergence = 0;
+            float qpDivergence = 0;
+            i = 0;
+            j = 0;
+            while ((i < pLength) && (j < qLength)) {
+                if (pIds[i] < qIds[j]) {
+                    i++;
+                } else if (pIds[i] > qIds[j]) {
+                    j++;
+                } else {
+                    final float pLevel = pLevels[i++] / pSum;
+                    final float qLevel = qLevels[j++] / qSum;
+                    pqDivergence += Math.log(pLevel / qLevel) * pLevel;
+                    qpDivergence += Math.log(qLevel / pLevel) * qLevel;
+                }
+            }
+
+            symmetricalDivergence = pqDivergence + qpDivergence;
+            // The average-divergence among all the shared accesspoints, see KullbackLeibler:
+            symmetricalDivergence /= shared;
+            confidence = ((float)(shared + shared)) / (pLength + qLength);
+        }
+
+        initialized = true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public float getDivergence() {
+        if (!initialized) {
+            throw new IllegalStateException("There is no data. Did you forget to call init?");
+        }
+        return symmetricalDivergence;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public float getConfidence() {
+        if (!initialized) {
+            throw new IllegalStateException("There is no data. Did you forget to call init?");
+        }
+        return confidence;
+    }
+
+
+    private void reset() {
+        initialized = false;
+        symmetricalDivergence = 0;
+        confidence = 0;
+    }
+
+}
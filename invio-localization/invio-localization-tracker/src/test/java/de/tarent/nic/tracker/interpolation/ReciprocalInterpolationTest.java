@@ -3,13 +3,17 @@ package de.tarent.nic.tracker.interpolation;
 import de.tarent.nic.entities.NicGeoPoint;
 import de.tarent.nic.tracker.geopoint.XYPoint;
 import de.tarent.nic.tracker.geopoint.XYPointFactory;
+import de.tarent.nic.tracker.neighbour.Neighbour;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.SortedSet;
 import java.util.TreeSet;
 
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotSame;
 import static junit.framework.Assert.assertTrue;
 
 public class ReciprocalInterpolationTest {
@@ -104,4 +108,31 @@ public class ReciprocalInterpolationTest {
         assertEquals(2.4925f, dstPoint.getY(), delta);
     }
 
+    @Test
+    public void testThreeNeighbours() {
+        List<Neighbour<NicGeoPoint>> neighbours = new ArrayList<Neighbour<NicGeoPoint>>();
+        neighbours.add(new Neighbour<NicGeoPoint>(p1, 0.4f, 0));
+        neighbours.add(new Neighbour<NicGeoPoint>(p3, 0.6f, 2));
+        neighbours.add(new Neighbour<NicGeoPoint>(p2, 1.1f, 1));
+
+        NicGeoPoint dstPoint = interpolator.interpolatePosition(neighbours);
+
+        assertEquals(1.8567f, dstPoint.getX(), delta);
+        assertEquals(2.4925f, dstPoint.getY(), delta);
+        assertEquals(0.0, p1.getDivergence());
+    }
+
+    @Test
+    public void testZeroDivergenceNeighbourIsNotReturnedItself() {
+        List<Neighbour<NicGeoPoint>> neighbours = new ArrayList<Neighbour<NicGeoPoint>>();
+        neighbours.add(new Neighbour<NicGeoPoint>(p1, 0.0, 0));
+        neighbours.add(new Neighbour<NicGeoPoint>(p2, 0.3, 1));
+
+        NicGeoPoint dstPoint = interpolator.interpolatePosition(neighbours);
+
+        assertNotSame(p1, dstPoint);
+        assertEquals(p1.getLatitudeE6(), dstPoint.getLatitudeE6());
+        assertEquals(p1.getLongitudeE6(), dstPoint.getLongitudeE6());
+    }
+
 }
@@ -0,0 +1,114 @@
+package de.tarent.nic.tracker.level;
+
+import de.tarent.nic.entities.Histogram;
+import de.tarent.nic.tracker.geopoint.XYPoint;
+import de.tarent.nic.tracker.wifi.FingerprintTable;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+
+public class LevelSummaryTest {
+
+    private static final int ACCESS_POINTS = 10;
+
+    private Map<Integer, LevelSummary> summaries;
+
+    @Before
+    public void setUp() {
+        summaries = new HashMap<Integer, LevelSummary>();
+        for (int level = 0; level <= 2; level++) {
+            summaries.put(level, new LevelSummary(makeTable(level)));
+        }
+        // A level without fingerprints:
+        summaries.put(3, null);
+    }
+
+
+    @Test
+    public void testTheStrongestAverageLevelOfEachAccessPointIsKept() {
+        final FingerprintTable table = new FingerprintTable();
+        table.addAccessPoint("ap");
+        table.addLevel(-60, 0.5f);
+        table.addLevel(-50, 0.5f);
+        table.endFingerprint("FP1", new XYPoint(0, 0));
+        table.addAccessPoint("ap");
+        table.addLevel(-70, 1f);
+        table.endFingerprint("FP2", new XYPoint(1, 0));
+
+        final LevelSummary summary = new LevelSummary(table);
+
+        assertEquals(1, summary.size());
+        assertEquals(-55f, summary.getLevel("ap"), 0.001f);
+        assertEquals(LevelSummary.MISSING_LEVEL, summary.getLevel("unknown"), 0.001f);
+        assertTrue(summary.getMemorySize() > 0);
+    }
+
+    @Test
+    public void testDetectLevel() {
+        assertEquals(Integer.valueOf(1), LevelSummary.detectLevel(summaries, makeScan(1, 1)));
+        assertEquals(Integer.valueOf(2), LevelSummary.detectLevel(summaries, makeScan(2, 2)));
+        assertEquals(Integer.valueOf(0), LevelSummary.detectLevel(summaries, makeScan(0, 0)));
+    }
+
+    @Test
+    public void testThatTheAccessPointsOfTheNeighbourLevelsDontDecide() {
+        // Near the stairs, the access points of level 1 are received weakly on level 2 as well:
+        final Histogram scan = makeScan(2, 2);
+        scan.putAll(makeScan(1, 2));
+        assertEquals(Integer.valueOf(2), LevelSummary.detectLevel(summaries, scan));
+    }
+
+    @Test
+    public void testThatAScanWithOnlyUnknownAccessPointsHasNoLevel() {
+        final Histogram unknown = new Histogram("scan");
+        unknown.put("unknown", levels(-50));
+        assertNull(LevelSummary.detectLevel(summaries, unknown));
+        assertNull(LevelSummary.detectLevel(summaries, new Histogram("empty")));
+    }
+
+
+    // Each level has its own access points, which are strong there and weak on the levels above and below:
+    private FingerprintTable makeTable(final int level) {
+        final FingerprintTable table = new FingerprintTable();
+        for (int i = 0; i < 10; i++) {
+            for (int other = level - 1; other <= level + 1; other++) {
+                for (int ap = 0; ap < ACCESS_POINTS; ap++) {
+                    table.addAccessPoint(bssId(other, ap));
+                    table.addLevel(getLevel(other, ap, level) - i % 3, 1f);
+                }
+            }
+            table.endFingerprint("FP" + i, new XYPoint(i, level));
+        }
+        return table;
+    }
+
+    private Histogram makeScan(final int level, final int onLevel) {
+        final Histogram histogram = new Histogram("scan");
+        for (int ap = 0; ap < ACCESS_POINTS; ap++) {
+            histogram.put(bssId(level, ap), levels(getLevel(level, ap, onLevel) - 1));
+        }
+        return histogram;
+    }
+
+    private int getLevel(final int level, final int ap, final int onLevel) {
+        return -40 - ap * 3 - ((level == onLevel) ? 0 : 30);
+    }
+
+    private String bssId(final int level, final int ap) {
+        return "level-" + level + "-ap-" + ap;
+    }
+
+    private Map<Integer, Float> levels(final int level) {
+        final Map<Integer, Float> levels = new HashMap<Integer, Float>();
+        levels.put(level, 1f);
+        return levels;
+    }
+
+}
@@ -0,0 +1,115 @@
+package de.tarent.nic.tracker.level;
+
+import de.tarent.nic.entities.Fingerprint;
+import de.tarent.nic.entities.Histogram;
+import de.tarent.nic.tracker.geopoint.XYPoint;
+import de.tarent.nic.tracker.neighbour.NeighbourSearch;
+import de.tarent.nic.tracker.wifi.FingerprintIndex;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+
+public class LevelTrackerTest {
+
+    private static final int ACCESS_POINTS = 10;
+
+    private Random random;
+
+    private LevelTracker tracker;
+
+    @Before
+    public void setUp() {
+        random = new Random(42);
+        Map<Integer, FingerprintIndex> indexes = new HashMap<Integer, FingerprintIndex>();
+        for (int level = 0; level <= 2; level++) {
+            List<Fingerprint> fingerprints = new ArrayList<Fingerprint>();
+            for (int i = 0; i < 10; i++) {
+                fingerprints.add(new Fingerprint(makeHistogram(level), new XYPoint(i, level)));
+            }
+            indexes.put(level, new FingerprintIndex(fingerprints, FingerprintIndex.REDUCTION_AVERAGE));
+        }
+        // A level without fingerprints:
+        indexes.put(3, null);
+
+        tracker = new LevelTracker(indexes, new NeighbourSearch(NeighbourSearch.MATCHING_MODE_SEQUENTIAL, 0), 3);
+    }
+
+
+    @Test
+    public void testDetectLevel() {
+        assertEquals(Arrays.asList(0, 1, 2), tracker.getLevels());
+
+        assertEquals(Integer.valueOf(1), tracker.detectLevel(makeHistogram(1)));
+        assertEquals(Integer.valueOf(2), tracker.detectLevel(makeHistogram(2)));
+        assertEquals(Integer.valueOf(0), tracker.detectLevel(makeHistogram(0)));
+
+        Histogram unknown = new Histogram("scan");
+        unknown.put("unknown", levels(-50));
+        assertNull(tracker.detectLevel(unknown));
+        // Detecting doesn't change the tracked level:
+        assertNull(tracker.getLevel());
+    }
+
+    @Test
+    public void testHysteresis() {
+        // The first level is taken at once:
+        assertEquals(Integer.valueOf(0), tracker.update(makeHistogram(0)));
+
+        // Single scans of another level don't count:
+        assertEquals(Integer.valueOf(0), tracker.update(makeHistogram(1)));
+        assertEquals(Integer.valueOf(0), tracker.update(makeHistogram(1)));
+        assertEquals(Integer.valueOf(0), tracker.update(makeHistogram(0)));
+        assertEquals(Integer.valueOf(0), tracker.update(makeHistogram(1)));
+        assertEquals(Integer.valueOf(0), tracker.update(makeHistogram(2)));
+
+        // But three in a row do:
+        assertEquals(Integer.valueOf(0), tracker.update(makeHistogram(2)));
+        assertEquals(Integer.valueOf(2), tracker.update(makeHistogram(2)));
+        assertEquals(Integer.valueOf(2), tracker.getLevel());
+    }
+
+    @Test
+    public void testSetLevel() {
+        tracker.update(makeHistogram(0));
+        tracker.update(makeHistogram(1));
+        tracker.update(makeHistogram(1));
+
+        tracker.setLevel(2);
+        assertEquals(Integer.valueOf(2), tracker.update(makeHistogram(1)));
+        assertEquals(Integer.valueOf(2), tracker.update(makeHistogram(1)));
+        assertEquals(Integer.valueOf(1), tracker.update(makeHistogram(1)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testThatSwitchingNeedsAScan() {
+        new LevelTracker(new HashMap<Integer, FingerprintIndex>(),
+                         new NeighbourSearch(NeighbourSearch.MATCHING_MODE_SEQUENTIAL, 0), 0);
+    }
+
+
+    // Each level has its own access points, which are received with slightly different levels everywhere:
+    private Histogram makeHistogram(int level) {
+        Histogram histogram = new Histogram("FP");
+        for (int ap = 0; ap < ACCESS_POINTS; ap++) {
+            histogram.put("level-" + level + "-ap-" + ap, levels(-40 - ap * 3 - random.nextInt(5)));
+        }
+        return histogram;
+    }
+
+    private Map<Integer, Float> levels(int level) {
+        Map<Integer, Float> levels = new HashMap<Integer, Float>();
+        levels.put(level, 1f);
+        return levels;
+    }
+
+}
@@ -0,0 +1,94 @@
+package de.tarent.nic.tracker.mapmatching;
+
+import de.tarent.nic.entities.Edge;
+import de.tarent.nic.entities.NicGeoPoint;
+import de.tarent.nic.tracker.geopoint.XYPoint;
+import de.tarent.nic.tracker.geopoint.XYPointFactory;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+
+public class GridWaySnapTest {
+
+    @Test
+    public void testWithoutEdges() {
+        NicGeoPoint point = new XYPoint(1000000, 1000000);
+
+        assertSame(point, new GridWaySnap(new XYPointFactory(), null).snap(point));
+        assertSame(point, new GridWaySnap(new XYPointFactory(), new ArrayList<Edge>()).snap(point));
+    }
+
+    @Test
+    public void testSnapToStraightEdge() {
+        List<Edge> edges = new ArrayList<Edge>();
+        edges.add(new Edge(new XYPoint(0, 0), new XYPoint(1000, 0)));
+        edges.add(new Edge(new XYPoint(0, 500), new XYPoint(1000, 500)));
+        GridWaySnap waySnap = new GridWaySnap(new XYPointFactory(), edges);
+
+        assertEquals(new XYPoint(300, 0), waySnap.snap(new XYPoint(300, 100)));
+        assertSame(edges.get(0), waySnap.getLastEdge());
+        assertEquals(new XYPoint(700, 500), waySnap.snap(new XYPoint(700, 400)));
+        assertSame(edges.get(1), waySnap.getLastEdge());
+        // Far outside of the grid, beyond the end of the edges:
+        assertEquals(new XYPoint(1000, 500), waySnap.snap(new XYPoint(5000, 9000)));
+    }
+
+    @Test
+    public void testTiesStayOnTheLastEdge() {
+        List<Edge> edges = new ArrayList<Edge>();
+        edges.add(new Edge(new XYPoint(0, 0), new XYPoint(0, 4000)));
+        edges.add(new Edge(new XYPoint(0, 0), new XYPoint(4000, 0)));
+        GridWaySnap waySnap = new GridWaySnap(new XYPointFactory(), edges);
+
+        assertNull(waySnap.getLastEdge());
+        // Near the second edge first:
+        assertEquals(new XYPoint(3000, 0), waySnap.snap(new XYPoint(3000, 1000)));
+        // Then exactly in the middle of the corner, which is a tie:
+        assertEquals(new XYPoint(1000, 0), waySnap.snap(new XYPoint(1000, 1000)));
+        assertSame(edges.get(1), waySnap.getLastEdge());
+
+        // Without a last edge the first edge wins the tie:
+        waySnap = new GridWaySnap(new XYPointFactory(), edges);
+        assertEquals(new XYPoint(0, 1000), waySnap.snap(new XYPoint(1000, 1000)));
+    }
+
+    /**
+     * On a random network of corridors, with many ties, the GridWaySnap must always choose the same points as the
+     * SimpleWaySnap, including the sticky last edge.
+     */
+    @Test
+    public void testSameResultsAsSimpleWaySnap() {
+        Random random = new Random(42);
+        List<Edge> edges = new ArrayList<Edge>();
+        for (int i = 0; i < 500; i++) {
+            int x = random.nextInt(100) * 100;
+            int y = random.nextInt(100) * 100;
+            int length = (1 + random.nextInt(10)) * 100;
+            if (random.nextBoolean()) {
+                edges.add(new Edge(new XYPoint(x, y), new XYPoint(x + length, y)));
+            } else {
+                edges.add(new Edge(new XYPoint(x, y), new XYPoint(x + random.nextInt(300), y + length)));
+            }
+        }
+        SimpleWaySnap simpleWaySnap = new SimpleWaySnap(new XYPointFactory(), edges);
+        GridWaySnap gridWaySnap = new GridWaySnap(new XYPointFactory(), edges);
+
+        int x = 5000;
+        int y = 5000;
+        for (int i = 0; i < 2000; i++) {
+            // Small steps, on a coarse raster so that there are many ties, and sometimes outside of the map:
+            x += (random.nextInt(5) - 2) * 50;
+            y += (random.nextInt(5) - 2) * 50;
+            NicGeoPoint point = new XYPoint(x, y);
+            assertEquals("step " + i, simpleWaySnap.snap(point), gridWaySnap.snap(point));
+        }
+    }
+
+}
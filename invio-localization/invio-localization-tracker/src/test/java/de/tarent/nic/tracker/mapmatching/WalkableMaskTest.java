@@ -0,0 +1,69 @@
+package de.tarent.nic.tracker.mapmatching;
+
+import de.tarent.nic.entities.Edge;
+import de.tarent.nic.entities.NicGeoPoint;
+import de.tarent.nic.tracker.geopoint.XYPoint;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+public class WalkableMaskTest {
+
+    @Test
+    public void testWithoutEdges() {
+        assertFalse(new WalkableMask(null, 2).isWalkable(0, 0));
+        assertFalse(new WalkableMask(new ArrayList<Edge>(), 2).isWalkable(0, 0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testThatTheWidthMustBePositive() {
+        new WalkableMask(new ArrayList<Edge>(), 0);
+    }
+
+    @Test
+    public void testCorridorsAlongTheEdges() {
+        // An L-shaped corridor, 2m wide:
+        List<Edge> edges = new ArrayList<Edge>();
+        edges.add(new Edge(makePoint(0, 0), makePoint(20, 0)));
+        edges.add(new Edge(makePoint(20, 0), makePoint(20, 20)));
+        WalkableMask mask = new WalkableMask(edges, 2);
+
+        assertEquals(0.5, mask.getCellSize(), 0.0001);
+        assertTrue(mask.isWalkable(10, 0));
+        assertTrue(mask.isWalkable(10, -0.9));
+        assertTrue(mask.isWalkable(makePoint(20.9, 10)));
+        assertTrue(mask.isWalkable(20, 20));
+
+        // Beside the corridors, inside of their bounding box:
+        assertFalse(mask.isWalkable(10, 3));
+        assertFalse(mask.isWalkable(10, 10));
+        assertFalse(mask.isWalkable(18, 18));
+        // Outside of the bounding box:
+        assertFalse(mask.isWalkable(-5, 0));
+        assertFalse(mask.isWalkable(20, 25));
+    }
+
+    @Test
+    public void testLargeAreasGetLargerCells() {
+        List<Edge> edges = new ArrayList<Edge>();
+        edges.add(new Edge(makePoint(0, 0), makePoint(5000, 5000)));
+        WalkableMask mask = new WalkableMask(edges, 1);
+
+        assertTrue(mask.getCellSize() > 0.25);
+        assertTrue(mask.isWalkable(2500, 2500));
+        assertFalse(mask.isWalkable(2500, 0));
+    }
+
+    private NicGeoPoint makePoint(final double x, final double y) {
+        final NicGeoPoint point = new XYPoint();
+        point.setXY(x, y);
+        return point;
+    }
+
+}
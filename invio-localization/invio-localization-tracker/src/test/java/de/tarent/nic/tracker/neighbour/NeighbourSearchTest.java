@@ -0,0 +1,130 @@
+package de.tarent.nic.tracker.neighbour;
+
+
+import de.tarent.nic.entities.Fingerprint;
+import de.tarent.nic.entities.Histogram;
+import de.tarent.nic.entities.NicGeoPoint;
+import de.tarent.nic.tracker.geopoint.XYPoint;
+import de.tarent.nic.tracker.wifi.FingerprintIndex;
+import de.tarent.nic.tracker.wifi.LevelVector;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class NeighbourSearchTest {
+
+    private static final int ACCESS_POINTS = 30;
+
+    private Random random;
+
+    private FingerprintIndex index;
+
+    private NeighbourSearch parallel;
+
+    @Before
+    public void setUp() {
+        random = new Random(42);
+        List<Fingerprint> fingerprints = new ArrayList<Fingerprint>();
+        for (int i = 0; i < 500; i++) {
+            fingerprints.add(new Fingerprint(makeHistogram(), new XYPoint(i, i)));
+        }
+        index = new FingerprintIndex(fingerprints);
+        parallel = new NeighbourSearch(NeighbourSearch.MATCHING_MODE_PARALLEL, 0, 4);
+    }
+
+    @After
+    public void tearDown() {
+        parallel.shutdown();
+    }
+
+
+    @Test
+    public void testParallelIsIdenticalToSequential() {
+        NeighbourSearch sequential = new NeighbourSearch(NeighbourSearch.MATCHING_MODE_SEQUENTIAL, 0);
+
+        for (int n = 0; n < 20; n++) {
+            LevelVector measurement = index.encode(makeHistogram());
+
+            List<Neighbour<NicGeoPoint>> expected = sequential.search(index, measurement, 5,
+                                                                      NeighbourSearch.ANY_CONFIDENCE);
+            List<Neighbour<NicGeoPoint>> actual = parallel.search(index, measurement, 5,
+                                                                  NeighbourSearch.ANY_CONFIDENCE);
+
+            assertEquals(5, actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.get(i).getIndex(), actual.get(i).getIndex());
+                assertEquals(expected.get(i).getDivergence(), actual.get(i).getDivergence(), 0);
+            }
+        }
+    }
+
+    @Test
+    public void testOnlyCandidatesAreScored() {
+        int[] candidates = new int[] {3, 17, 42, 99, 250, 251, 499};
+        LevelVector measurement = index.encode(makeHistogram());
+
+        List<Neighbour<NicGeoPoint>> neighbours =
+                parallel.search(index, measurement, candidates, 6, 10, NeighbourSearch.ANY_CONFIDENCE);
+
+        assertEquals(6, neighbours.size());
+        for (Neighbour<NicGeoPoint> neighbour : neighbours) {
+            assertTrue(neighbour.getIndex() != 499);
+        }
+    }
+
+    @Test
+    public void testMinConfidence() {
+        Histogram histogram = new Histogram("scan");
+        histogram.put("unknown", levels(-50));
+
+        List<Neighbour<NicGeoPoint>> neighbours = parallel.search(index, index.encode(histogram), 5, 0f);
+
+        assertTrue(neighbours.isEmpty());
+    }
+
+    @Test
+    public void testSearchAfterShutdown() {
+        LevelVector measurement = index.encode(makeHistogram());
+        List<Neighbour<NicGeoPoint>> expected = parallel.search(index, measurement, 3, NeighbourSearch.ANY_CONFIDENCE);
+
+        parallel.shutdown();
+
+        List<Neighbour<NicGeoPoint>> actual = parallel.search(index, measurement, 3, NeighbourSearch.ANY_CONFIDENCE);
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getIndex(), actual.get(i).getIndex());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownMatchingMode() {
+        new NeighbourSearch(42, 0);
+    }
+
+
+    private Histogram makeHistogram() {
+        Histogram histogram = new Histogram("FP");
+        for (int ap = 0; ap < ACCESS_POINTS; ap++) {
+            if (random.nextInt(3) > 0) {
+                histogram.put("ap-" + ap, levels(-30 - random.nextInt(60)));
+            }
+        }
+        return histogram;
+    }
+
+    private Map<Integer, Float> levels(int level) {
+        Map<Integer, Float> levels = new HashMap<Integer, Float>();
+        levels.put(level, 1f);
+        return levels;
+    }
+
+}
@@ -0,0 +1,135 @@
+package de.tarent.nic.tracker.neighbour;
+
+
+import de.tarent.nic.entities.NicGeoPoint;
+import de.tarent.nic.tracker.geopoint.XYPoint;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class NeighbourSelectorTest {
+
+    private NeighbourSelector<NicGeoPoint> selector;
+
+    @Before
+    public void setup() {
+        selector = new NeighbourSelector<NicGeoPoint>(3);
+    }
+
+
+    @Test
+    public void testEmpty() {
+        assertEquals(0, selector.size());
+        assertTrue(selector.getNeighbours().isEmpty());
+    }
+
+    @Test
+    public void testFewerCandidatesThanCapacity() {
+        NicGeoPoint p1 = new XYPoint(1, 1);
+        NicGeoPoint p2 = new XYPoint(2, 2);
+        selector.offer(p1, 0.5, 0);
+        selector.offer(p2, 0.1, 1);
+
+        List<Neighbour<NicGeoPoint>> neighbours = selector.getNeighbours();
+
+        assertEquals(2, neighbours.size());
+        assertSame(p2, neighbours.get(0).getPoint());
+        assertEquals(0.1, neighbours.get(0).getDivergence(), 0);
+        assertSame(p1, neighbours.get(1).getPoint());
+    }
+
+    @Test
+    public void testPointsAreNotModified() {
+        NicGeoPoint p1 = new XYPoint(1, 1);
+        p1.setDivergence(42);
+        selector.offer(p1, 0.5, 0);
+
+        selector.getNeighbours();
+
+        assertEquals(42, p1.getDivergence(), 0);
+    }
+
+    @Test
+    public void testTiesAreOrderedByIndex() {
+        NicGeoPoint point = new XYPoint(1, 1);
+        for (int i = 5; i >= 0; i--) {
+            selector.offer(point, 1.0, i);
+        }
+
+        List<Neighbour<NicGeoPoint>> neighbours = selector.getNeighbours();
+
+        assertEquals(0, neighbours.get(0).getIndex());
+        assertEquals(1, neighbours.get(1).getIndex());
+        assertEquals(2, neighbours.get(2).getIndex());
+    }
+
+    @Test
+    public void testNaNIsTheFarthest() {
+        selector.offer(new XYPoint(), Double.NaN, 0);
+        selector.offer(new XYPoint(), 7, 1);
+        selector.offer(new XYPoint(), 3, 2);
+        selector.offer(new XYPoint(), 5, 3);
+
+        List<Neighbour<NicGeoPoint>> neighbours = selector.getNeighbours();
+
+        assertEquals(2, neighbours.get(0).getIndex());
+        assertEquals(3, neighbours.get(1).getIndex());
+        assertEquals(1, neighbours.get(2).getIndex());
+    }
+
+    @Test
+    public void testSameResultAsSorting() {
+        Random random = new Random(42);
+        selector = new NeighbourSelector<NicGeoPoint>(5);
+
+        for (int n = 0; n < 100; n++) {
+            selector.reset();
+            List<Neighbour<NicGeoPoint>> all = new ArrayList<Neighbour<NicGeoPoint>>();
+            for (int i = 0; i < 50; i++) {
+                // Few different values, so that we get many ties:
+                double divergence = random.nextInt(20) / 10.0;
+                all.add(new Neighbour<NicGeoPoint>(new XYPoint(i, i), divergence, i));
+                selector.offer(all.get(i).getPoint(), divergence, i);
+            }
+            Collections.sort(all);
+
+            List<Neighbour<NicGeoPoint>> neighbours = selector.getNeighbours();
+
+            assertEquals(5, neighbours.size());
+            for (int i = 0; i < 5; i++) {
+                assertEquals(all.get(i).getIndex(), neighbours.get(i).getIndex());
+            }
+        }
+    }
+
+    @Test
+    public void testAddAll() {
+        NeighbourSelector<NicGeoPoint> other = new NeighbourSelector<NicGeoPoint>(3);
+        selector.offer(new XYPoint(), 0.4, 0);
+        selector.offer(new XYPoint(), 0.2, 1);
+        selector.offer(new XYPoint(), 0.9, 2);
+        other.offer(new XYPoint(), 0.3, 3);
+        other.offer(new XYPoint(), 0.1, 4);
+
+        selector.addAll(other);
+        List<Neighbour<NicGeoPoint>> neighbours = selector.getNeighbours();
+
+        assertEquals(4, neighbours.get(0).getIndex());
+        assertEquals(1, neighbours.get(1).getIndex());
+        assertEquals(3, neighbours.get(2).getIndex());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testZeroCapacity() {
+        new NeighbourSelector<NicGeoPoint>(0);
+    }
+
+}
@@ -3,11 +3,15 @@ package de.tarent.nic.tracker.outlier;
 import de.tarent.nic.entities.NicGeoPoint;
 import de.tarent.nic.tracker.exception.NicTrackerException;
 import de.tarent.nic.tracker.geopoint.XYPointFactory;
+import de.tarent.nic.tracker.neighbour.Neighbour;
 import de.tarent.nic.tracker.outlier.fixtures.CandidateFixtures;
 import org.junit.Before;
 import org.junit.Ignore;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import static org.junit.Assert.assertEquals;
@@ -148,4 +152,23 @@ public class PlasmonaOutlierEliminatorTest {
 
         assertEquals(expected, geoPointsOut);
     }
+
+    @Test
+    public void testThatTheOutlierIsRemovedFromTheNeighbours() throws NicTrackerException {
+        final List<Neighbour<NicGeoPoint>> neighboursIn = new ArrayList<Neighbour<NicGeoPoint>>();
+        for (NicGeoPoint point : CandidateFixtures.createCandidatesWithAnObviousOutlier()) {
+            neighboursIn.add(new Neighbour<NicGeoPoint>(point, neighboursIn.size(), neighboursIn.size()));
+        }
+
+        final Set<NicGeoPoint> expected = CandidateFixtures.createCandidatesWithAnObviousOutlierExpected();
+
+        final List<Neighbour<NicGeoPoint>> neighboursOut = poe.removeOutliers(neighboursIn);
+
+        final Set<NicGeoPoint> pointsOut = new HashSet<NicGeoPoint>();
+        for (Neighbour<NicGeoPoint> neighbour : neighboursOut) {
+            pointsOut.add(neighbour.getPoint());
+        }
+        assertEquals(expected, pointsOut);
+    }
+
 }
@@ -0,0 +1,157 @@
+package de.tarent.nic.tracker.pipeline;
+
+
+import de.tarent.nic.entities.Edge;
+import de.tarent.nic.entities.Fingerprint;
+import de.tarent.nic.entities.Histogram;
+import de.tarent.nic.entities.NicGeoPoint;
+import de.tarent.nic.entities.WifiScanResult;
+import de.tarent.nic.tracker.geopoint.XYPoint;
+import de.tarent.nic.tracker.geopoint.XYPointFactory;
+import de.tarent.nic.tracker.wifi.FingerprintIndex;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class LocalizationPipelineTest {
+
+    private static final int POSITIONS = 10;
+
+    // Every access point is seen from this many positions on each side:
+    private static final int RANGE = 4;
+
+    private List<XYPoint> points;
+
+    private LocalizationPipeline pipeline;
+
+    @Before
+    public void setUp() {
+        points = new ArrayList<XYPoint>();
+        List<Fingerprint> fingerprints = new ArrayList<Fingerprint>();
+        for (int position = 0; position < POSITIONS; position++) {
+            points.add(new XYPoint(50.72 + position * 0.0001, 7.06));
+            fingerprints.add(new Fingerprint(makeHistogram(position), points.get(position)));
+        }
+        pipeline = new LocalizationPipeline(new FingerprintIndex(fingerprints), null, new XYPointFactory());
+    }
+
+
+    @Test
+    public void testPositionOfTheMatchingFingerprint() {
+        pipeline.setOutlierMode(LocalizationPipeline.OUTLIER_MODE_NO_DETECTION);
+        pipeline.setStatisticFilterMode(LocalizationPipeline.STATISTIC_FILTER_MODE_NO_FILTER);
+        // Every scan is far away from the previous one, so that only the last scan counts:
+        pipeline.setScanBufferMaxAge(1000);
+
+        List<TimedPosition> positions = pipeline.replay(makeTrace(3, 7, 5));
+
+        assertEquals(3, positions.size());
+        assertEquals(0, positions.get(0).getTime());
+        assertEquals(points.get(3), positions.get(0).getPosition());
+        assertEquals(10000, positions.get(1).getTime());
+        assertEquals(points.get(7), positions.get(1).getPosition());
+        assertEquals(points.get(5), positions.get(2).getPosition());
+    }
+
+    @Test
+    public void testMedianFilter() {
+        pipeline.setOutlierMode(LocalizationPipeline.OUTLIER_MODE_NO_DETECTION);
+        pipeline.setScanBufferMaxAge(1000);
+
+        List<TimedPosition> positions = pipeline.replay(makeTrace(2, 2, 8));
+
+        // Two of the three recent positions were at 2:
+        assertEquals(points.get(2).getLatitudeE6(), positions.get(2).getPosition().getLatitudeE6(), 1);
+    }
+
+    @Test
+    public void testSnapToWays() {
+        pipeline = new LocalizationPipeline(pipeline.getIndex(), makeWay(), new XYPointFactory());
+        pipeline.setScanBufferMaxAge(1000);
+
+        List<TimedPosition> positions = pipeline.replay(makeTrace(4));
+
+        // The way runs along the fingerprints, but a little to the east (the E6-coordinates are only precise to 0.1m):
+        NicGeoPoint position = positions.get(0).getPosition();
+        assertEquals(points.get(4).getY(), position.getY(), 0.5);
+        assertEquals(points.get(4).getX() + 10, position.getX(), 0.5);
+    }
+
+    @Test
+    public void testUnknownAccessPoints() {
+        List<WifiScanResult> scan = new ArrayList<WifiScanResult>();
+        scan.add(new WifiScanResult("unknown", -50));
+
+        TimedPosition position = pipeline.newSession().addScan(new ScanBatch(0, scan));
+
+        assertNull(position);
+    }
+
+    @Test
+    public void testReplayAllIsTheSameAsReplay() {
+        List<List<ScanBatch>> traces = new ArrayList<List<ScanBatch>>();
+        for (int i = 0; i < 20; i++) {
+            traces.add(makeTrace(i % POSITIONS, (i * 7) % POSITIONS, (i * 3) % POSITIONS, (i * 5) % POSITIONS));
+        }
+
+        List<List<TimedPosition>> results = pipeline.replayAll(traces, 4);
+
+        assertEquals(traces.size(), results.size());
+        for (int i = 0; i < traces.size(); i++) {
+            List<TimedPosition> expected = pipeline.replay(traces.get(i));
+            assertEquals(expected.size(), results.get(i).size());
+            for (int n = 0; n < expected.size(); n++) {
+                assertEquals(expected.get(n).getTime(), results.get(i).get(n).getTime());
+                assertEquals(expected.get(n).getPosition(), results.get(i).get(n).getPosition());
+            }
+        }
+    }
+
+
+    // Make a trace with one scan every 10 seconds, at the given positions.
+    private List<ScanBatch> makeTrace(int... positions) {
+        List<ScanBatch> trace = new ArrayList<ScanBatch>();
+        for (int i = 0; i < positions.length; i++) {
+            List<WifiScanResult> scan = new ArrayList<WifiScanResult>();
+            for (Map.Entry<String, Map<Integer, Float>> accessPoint : makeHistogram(positions[i]).entrySet()) {
+                int level = accessPoint.getValue().keySet().iterator().next();
+                scan.add(new WifiScanResult(accessPoint.getKey(), level));
+            }
+            trace.add(new ScanBatch(i * 10000L, scan));
+        }
+        return trace;
+    }
+
+    private Histogram makeHistogram(int position) {
+        Histogram histogram = new Histogram("FP-" + position);
+        for (int accessPoint = 0; accessPoint < POSITIONS; accessPoint++) {
+            int distance = Math.abs(accessPoint - position);
+            if (distance <= RANGE) {
+                Map<Integer, Float> levels = new HashMap<Integer, Float>();
+                levels.put(-30 - 6 * distance, 1f);
+                histogram.put("ap-" + accessPoint, levels);
+            }
+        }
+        return histogram;
+    }
+
+    private Set<Edge> makeWay() {
+        XYPoint start = new XYPoint();
+        start.setXY(points.get(0).getX() + 10, points.get(0).getY());
+        XYPoint end = new XYPoint();
+        end.setXY(points.get(POSITIONS - 1).getX() + 10, points.get(POSITIONS - 1).getY());
+        Set<Edge> edges = new HashSet<Edge>();
+        edges.add(new Edge(start, end));
+        return edges;
+    }
+
+}
@@ -0,0 +1,148 @@
+package de.tarent.nic.tracker.trace;
+
+import de.tarent.nic.entities.WifiScanResult;
+import de.tarent.nic.tracker.pipeline.ScanBatch;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ScanTraceTest {
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ScanTraceWriter writer = new ScanTraceWriter(out);
+        writeScan(writer, 1400000000000L, "00:00:00:00:00:01", -50, "00:00:00:00:00:02", -70);
+        writeScan(writer, 1400000002500L, "00:00:00:00:00:02", -65, "00:00:00:00:00:03", -90);
+        // The clock of the device was set back:
+        writeScan(writer, 1400000001000L, "00:00:00:00:00:01", -200);
+        writer.close();
+
+        ScanTraceReader reader = new ScanTraceReader(new ByteArrayInputStream(out.toByteArray()));
+        List<ScanBatch> scans = reader.readAll();
+        reader.close();
+
+        assertEquals(3, scans.size());
+        assertFalse(reader.isTruncated());
+
+        assertEquals(1400000000000L, scans.get(0).getTime());
+        assertScanResults(scans.get(0), "00:00:00:00:00:01", -50, "00:00:00:00:00:02", -70);
+        assertEquals(1400000002500L, scans.get(1).getTime());
+        assertScanResults(scans.get(1), "00:00:00:00:00:02", -65, "00:00:00:00:00:03", -90);
+        assertEquals(1400000001000L, scans.get(2).getTime());
+        // The level is clamped to a byte:
+        assertScanResults(scans.get(2), "00:00:00:00:00:01", (int) Byte.MIN_VALUE);
+    }
+
+    @Test
+    public void testEmptyScan() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ScanTraceWriter writer = new ScanTraceWriter(out);
+        writeScan(writer, 42);
+        writer.close();
+
+        ScanTraceReader reader = new ScanTraceReader(new ByteArrayInputStream(out.toByteArray()));
+        ScanBatch scan = reader.readScan();
+
+        assertNotNull(scan);
+        assertEquals(42, scan.getTime());
+        assertTrue(scan.getScanResults().isEmpty());
+        assertNull(reader.readScan());
+    }
+
+    @Test
+    public void testCompactness() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ScanTraceWriter writer = new ScanTraceWriter(out);
+        Object[] accessPoints = new Object[60];
+        for (int i = 0; i < 30; i++) {
+            accessPoints[2 * i] = String.format("00:11:22:33:44:%02x", i);
+            accessPoints[2 * i + 1] = -40 - i;
+        }
+        // One scan every 3 seconds for a minute:
+        long time = 1400000000000L;
+        for (int n = 0; n < 20; n++) {
+            writeScan(writer, time, accessPoints);
+            time += 3000;
+        }
+        writer.close();
+
+        // 30 definitions of about 19 bytes, and 20 scans with about 2 bytes per access point:
+        assertTrue("The trace has " + out.size() + " bytes", out.size() < 2000);
+        assertEquals(20, new ScanTraceReader(new ByteArrayInputStream(out.toByteArray())).readAll().size());
+    }
+
+    @Test
+    public void testTruncatedTrace() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ScanTraceWriter writer = new ScanTraceWriter(out);
+        writeScan(writer, 1000, "00:00:00:00:00:01", -50);
+        writeScan(writer, 2000, "00:00:00:00:00:02", -60, "00:00:00:00:00:03", -70);
+        writer.close();
+        byte[] bytes = Arrays.copyOf(out.toByteArray(), out.size() - 1);
+
+        ScanTraceReader reader = new ScanTraceReader(new ByteArrayInputStream(bytes));
+        List<ScanBatch> scans = reader.readAll();
+
+        assertEquals(1, scans.size());
+        assertTrue(reader.isTruncated());
+    }
+
+    @Test(expected = IOException.class)
+    public void testNoTrace() throws IOException {
+        new ScanTraceReader(new ByteArrayInputStream("{\"fingerprints\":[]}".getBytes("UTF-8")));
+    }
+
+    @Test
+    public void testWriteErrorStopsRecording() throws IOException {
+        OutputStream failing = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("disk full");
+            }
+        };
+        ScanTraceWriter writer = new ScanTraceWriter(failing);
+        writeScan(writer, 1000, "00:00:00:00:00:01", -50);
+
+        try {
+            writer.close();
+        } catch (IOException e) {
+            assertEquals("disk full", e.getMessage());
+            // Recording more scans is ignored and does not throw:
+            writeScan(writer, 2000, "00:00:00:00:00:01", -50);
+            return;
+        }
+        throw new AssertionError("The write error was not reported");
+    }
+
+
+    // Write one scan; the accessPoints are pairs of bssid and level.
+    private void writeScan(ScanTraceWriter writer, long time, Object... accessPoints) {
+        writer.beginScan(time);
+        for (int i = 0; i < accessPoints.length; i += 2) {
+            writer.addAccessPoint((String) accessPoints[i], (Integer) accessPoints[i + 1]);
+        }
+        writer.endScan();
+    }
+
+    private void assertScanResults(ScanBatch scan, Object... accessPoints) {
+        List<WifiScanResult> scanResults = scan.getScanResults();
+        assertEquals(accessPoints.length / 2, scanResults.size());
+        for (int i = 0; i < scanResults.size(); i++) {
+            assertEquals(accessPoints[2 * i], scanResults.get(i).getBssid());
+            assertEquals(accessPoints[2 * i + 1], scanResults.get(i).getLevel());
+        }
+    }
+
+}
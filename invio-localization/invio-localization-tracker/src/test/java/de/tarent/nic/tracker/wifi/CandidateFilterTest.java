@@ -0,0 +1,143 @@
+package de.tarent.nic.tracker.wifi;
+
+
+import de.tarent.nic.entities.Fingerprint;
+import de.tarent.nic.entities.Histogram;
+import de.tarent.nic.tracker.geopoint.XYPoint;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class CandidateFilterTest {
+
+    private FingerprintIndex index;
+
+    @Before
+    public void setUp() {
+        List<Fingerprint> fingerprints = new ArrayList<Fingerprint>();
+        fingerprints.add(makeFingerprint("FP-0", "aa", -40, "bb", -50, "cc", -60));
+        fingerprints.add(makeFingerprint("FP-1", "aa", -45, "dd", -70));
+        fingerprints.add(makeFingerprint("FP-2", "ee", -50, "ff", -55));
+        fingerprints.add(makeFingerprint("FP-3", "bb", -65, "cc", -60, "dd", -80));
+        index = new FingerprintIndex(fingerprints);
+    }
+
+
+    @Test
+    public void testInvertedIndex() {
+        AccessPointDictionary dictionary = index.getDictionary();
+
+        assertArrayEquals(new int[] {0, 1}, index.getFingerprintsWithAccessPoint(dictionary.getId("aa")));
+        assertArrayEquals(new int[] {0, 3}, index.getFingerprintsWithAccessPoint(dictionary.getId("cc")));
+        assertArrayEquals(new int[] {2}, index.getFingerprintsWithAccessPoint(dictionary.getId("ff")));
+        assertEquals(0, index.getFingerprintsWithAccessPoint(AccessPointDictionary.UNKNOWN).length);
+        assertEquals(0, index.getFingerprintsWithAccessPoint(dictionary.size()).length);
+    }
+
+    @Test
+    public void testFingerprintsWithoutSharedAccessPointsAreSkipped() {
+        CandidateFilter filter = new CandidateFilter(index, 1);
+
+        int count = filter.select(index.encode(makeHistogram("aa", -40, "xx", -30)));
+
+        assertEquals(2, count);
+        assertEquals(0, filter.getCandidates()[0]);
+        assertEquals(1, filter.getCandidates()[1]);
+        assertEquals(2, filter.getEvaluatedCount());
+        assertEquals(2, filter.getSkippedCount());
+    }
+
+    @Test
+    public void testMinSharedAccessPoints() {
+        CandidateFilter filter = new CandidateFilter(index, 2);
+
+        int count = filter.select(index.encode(makeHistogram("aa", -40, "bb", -50, "dd", -70)));
+
+        // FP-0 shares aa and bb, FP-1 shares aa and dd, FP-3 shares bb and dd:
+        assertEquals(3, count);
+        assertEquals(0, filter.getCandidates()[0]);
+        assertEquals(1, filter.getCandidates()[1]);
+        assertEquals(3, filter.getCandidates()[2]);
+
+        count = filter.select(index.encode(makeHistogram("aa", -40, "bb", -50, "cc", -60)));
+
+        // FP-1 only shares aa:
+        assertEquals(2, count);
+        assertEquals(0, filter.getCandidates()[0]);
+        assertEquals(3, filter.getCandidates()[1]);
+        assertEquals(5, filter.getEvaluatedCount());
+        assertEquals(3, filter.getSkippedCount());
+    }
+
+    @Test
+    public void testMinSharedIsCappedByTheKnownAccessPoints() {
+        CandidateFilter filter = new CandidateFilter(index, 3);
+
+        int count = filter.select(index.encode(makeHistogram("ee", -40, "xx", -50, "yy", -60)));
+
+        assertEquals(1, count);
+        assertEquals(2, filter.getCandidates()[0]);
+    }
+
+    @Test
+    public void testStrongestAccessPoints() {
+        // Three shared access points would be needed, or one of the two strongest:
+        CandidateFilter filter = new CandidateFilter(index, 3, 2, 0.5f);
+
+        int count = filter.select(index.encode(makeHistogram("aa", -80, "bb", -40, "cc", -50, "dd", -90)));
+
+        // FP-0 and FP-3 share three access points; FP-1 only shares the two weakest:
+        assertEquals(2, count);
+        assertEquals(0, filter.getCandidates()[0]);
+        assertEquals(3, filter.getCandidates()[1]);
+
+        count = filter.select(index.encode(makeHistogram("aa", -40, "ee", -80, "ff", -85)));
+
+        // FP-1 contains the strongest access point, FP-2 shares both others:
+        assertEquals(3, count);
+        assertEquals(0, filter.getCandidates()[0]);
+        assertEquals(1, filter.getCandidates()[1]);
+        assertEquals(2, filter.getCandidates()[2]);
+    }
+
+    @Test
+    public void testResetCounts() {
+        CandidateFilter filter = new CandidateFilter(index, 1);
+        filter.select(index.encode(makeHistogram("aa", -40)));
+
+        filter.resetCounts();
+
+        assertEquals(0, filter.getEvaluatedCount());
+        assertEquals(0, filter.getSkippedCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeStrongestAccessPoints() {
+        new CandidateFilter(index, 1, -1, 0.5f);
+    }
+
+
+    private Fingerprint makeFingerprint(String id, Object... bssIdsAndLevels) {
+        Histogram histogram = makeHistogram(bssIdsAndLevels);
+        histogram.setId(id);
+        return new Fingerprint(histogram, new XYPoint(0, 0));
+    }
+
+    private Histogram makeHistogram(Object... bssIdsAndLevels) {
+        Histogram histogram = new Histogram("scan");
+        for (int i = 0; i < bssIdsAndLevels.length; i += 2) {
+            Map<Integer, Float> levels = new HashMap<Integer, Float>();
+            levels.put((Integer) bssIdsAndLevels[i + 1], 1f);
+            histogram.put((String) bssIdsAndLevels[i], levels);
+        }
+        return histogram;
+    }
+
+}
@@ -0,0 +1,124 @@
+package de.tarent.nic.tracker.wifi;
+
+
+import de.tarent.nic.entities.Fingerprint;
+import de.tarent.nic.entities.Histogram;
+import de.tarent.nic.tracker.geopoint.XYPoint;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class FingerprintIndexTest {
+
+    private List<Fingerprint> fingerprints;
+
+    @Before
+    public void setUp() {
+        fingerprints = new ArrayList<Fingerprint>();
+
+        Histogram h1 = new Histogram("FP-1");
+        h1.put("cc:cc:cc:cc:cc:cc", levels(-40, 0.5f, -44, 0.5f));
+        h1.put("aa:aa:aa:aa:aa:aa", levels(-60, 1f));
+        fingerprints.add(new Fingerprint(h1, new XYPoint(1, 2)));
+
+        Histogram h2 = new Histogram("FP-2");
+        h2.put("bb:bb:bb:bb:bb:bb", levels(-70, 0.25f, -72, 0.75f));
+        h2.put("aa:aa:aa:aa:aa:aa", levels(-50, 1f));
+        h2.put("cc:cc:cc:cc:cc:cc", levels(-30, 1f));
+        fingerprints.add(new Fingerprint(h2, new XYPoint(3, 4)));
+    }
+
+
+    @Test
+    public void testEmpty() {
+        FingerprintIndex index = new FingerprintIndex(new ArrayList<Fingerprint>());
+
+        assertEquals(0, index.size());
+        assertEquals(0, index.getDictionary().size());
+    }
+
+    @Test
+    public void testAccessPointsAreInternedOnce() {
+        FingerprintIndex index = new FingerprintIndex(fingerprints);
+
+        assertEquals(2, index.size());
+        assertEquals(3, index.getDictionary().size());
+        assertEquals(AccessPointDictionary.UNKNOWN, index.getDictionary().getId("dd:dd:dd:dd:dd:dd"));
+        for (int i = 0; i < index.size(); i++) {
+            int[] ids = index.getAccessPointIds(i);
+            for (int n = 1; n < ids.length; n++) {
+                assertTrue(ids[n - 1] < ids[n]);
+            }
+        }
+    }
+
+    @Test
+    public void testMedianLevels() {
+        FingerprintIndex index = new FingerprintIndex(fingerprints);
+
+        assertSame(fingerprints.get(1).getPoint(), index.getPoint(1));
+        assertEquals(RouterLevelHistogram.makeMedianHistogram(fingerprints.get(1).getHistogram()),
+                     index.getHistogram(1));
+
+        RouterLevelHistogram expected = index.getHistogram(1);
+        int[] ids = index.getAccessPointIds(1);
+        float[] levels = index.getLevels(1);
+        assertEquals(3, ids.length);
+        for (int n = 0; n < ids.length; n++) {
+            String bssId = index.getDictionary().getBssId(ids[n]);
+            assertEquals(expected.get(bssId), levels[n], 0f);
+        }
+        assertEquals(-50f - 30f - 71f, index.getLevelSum(1), 0.0001f);
+        assertEquals(-60f - 42f, index.getLevelSum(0), 0.0001f);
+    }
+
+    @Test
+    public void testAverageLevels() {
+        FingerprintIndex index = new FingerprintIndex(fingerprints, FingerprintIndex.REDUCTION_AVERAGE);
+
+        assertEquals(RouterLevelHistogram.makeAverageHistogram(fingerprints.get(1).getHistogram()),
+                     index.getHistogram(1));
+        assertEquals(-50f - 30f - 71.5f, index.getLevelSum(1), 0.0001f);
+        assertEquals(index.getHistogram(0), index.reduce(fingerprints.get(0).getHistogram()));
+    }
+
+    @Test
+    public void testEncodeMeasurement() {
+        FingerprintIndex index = new FingerprintIndex(fingerprints);
+        Histogram measurement = new Histogram("scan");
+        measurement.put("aa:aa:aa:aa:aa:aa", levels(-55, 1f));
+        measurement.put("dd:dd:dd:dd:dd:dd", levels(-80, 1f));
+
+        LevelVector vector = index.encode(measurement);
+
+        assertEquals(2, vector.size());
+        assertEquals(index.getDictionary().getId("aa:aa:aa:aa:aa:aa"), vector.getAccessPointIds()[0]);
+        assertEquals(-55f, vector.getLevels()[0], 0f);
+        // The unknown access point is counted, but not added to the dictionary:
+        assertEquals(3, vector.getAccessPointIds()[1]);
+        assertEquals(3, index.getDictionary().size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownReduction() {
+        new FingerprintIndex(fingerprints, 42);
+    }
+
+
+    private Map<Integer, Float> levels(Object... levelsAndFractions) {
+        Map<Integer, Float> levels = new HashMap<Integer, Float>();
+        for (int i = 0; i < levelsAndFractions.length; i += 2) {
+            levels.put((Integer) levelsAndFractions[i], (Float) levelsAndFractions[i + 1]);
+        }
+        return levels;
+    }
+
+}
@@ -0,0 +1,192 @@
+package de.tarent.nic.tracker.wifi;
+
+
+import de.tarent.nic.entities.Fingerprint;
+import de.tarent.nic.tracker.geopoint.XYPoint;
+import de.tarent.nic.tracker.geopoint.XYPointFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FingerprintSnapshotTest {
+
+    private FingerprintTable table;
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        table = new FingerprintTable();
+
+        table.addAccessPoint("cc:cc:cc:cc:cc:cc");
+        table.addLevel(-40, 0.5f);
+        table.addLevel(-44, 0.5f);
+        table.addAccessPoint("aa:aa:aa:aa:aa:aa");
+        table.addLevel(-60, 1f);
+        table.endFingerprint("FP-1", point(53000000, 7000000));
+
+        table.addAccessPoint("bb:bb:bb:bb:bb:bb");
+        table.addLevel(-72, 0.7f);
+        table.addLevel(-70, 0.3f);
+        table.addAccessPoint("aa:aa:aa:aa:aa:aa");
+        table.addLevel(-50, 1f);
+        table.endFingerprint(null, point(-53000001, -7000001));
+
+        for (int i = 0; i < 50; i++) {
+            table.addAccessPoint("dd:dd:dd:dd:dd:" + (i % 10));
+            table.addLevel(-80 - (i % 7), 1f);
+            table.endFingerprint("FP-" + (i + 3), point(i, i));
+        }
+        table.trimToSize();
+
+        file = File.createTempFile("fingerprints", ".snapshot");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+
+    @Test
+    public void testTheSnapshotHasTheSameFingerprints() throws IOException {
+        FingerprintSnapshot.write(table, file);
+        final FingerprintTable snapshot = FingerprintSnapshot.open(file, new XYPointFactory());
+
+        assertEquals(table.size(), snapshot.size());
+        assertEquals(table.getDictionary().size(), snapshot.getDictionary().size());
+        for (int id = 0; id < table.getDictionary().size(); id++) {
+            assertEquals(table.getDictionary().getBssId(id), snapshot.getDictionary().getBssId(id));
+        }
+        assertNull(snapshot.getId(1));
+        for (int i = 0; i < table.size(); i++) {
+            final Fingerprint expected = table.getFingerprint(i);
+            final Fingerprint fingerprint = snapshot.getFingerprint(i);
+            assertEquals(expected.getId(), fingerprint.getId());
+            assertEquals(expected.getPoint().getLatitudeE6(), fingerprint.getPoint().getLatitudeE6());
+            assertEquals(expected.getPoint().getLongitudeE6(), fingerprint.getPoint().getLongitudeE6());
+            assertEquals(expected.getHistogram().keySet(), fingerprint.getHistogram().keySet());
+            for (Map.Entry<String, Map<Integer, Float>> entry : expected.getHistogram().entrySet()) {
+                final Map<Integer, Float> levels = fingerprint.getHistogram().get(entry.getKey());
+                assertEquals(entry.getValue().keySet(), levels.keySet());
+                for (Map.Entry<Integer, Float> level : entry.getValue().entrySet()) {
+                    // The fractions are stored in 16 bits:
+                    assertEquals(level.getValue(), levels.get(level.getKey()), 0.0001f);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testTheIndexOfTheSnapshotIsTheSameAsTheIndexOfTheTable() throws IOException {
+        FingerprintSnapshot.write(table, file);
+        final FingerprintTable snapshot = FingerprintSnapshot.open(file, new XYPointFactory());
+
+        for (final int reduction : new int[] {FingerprintIndex.REDUCTION_MEDIAN, FingerprintIndex.REDUCTION_AVERAGE}) {
+            final FingerprintIndex expected = new FingerprintIndex(table, reduction);
+            final FingerprintIndex index = new FingerprintIndex(snapshot, reduction);
+            assertEquals(expected.size(), index.size());
+            for (int i = 0; i < index.size(); i++) {
+                assertEquals(expected.getLevelSum(i), index.getLevelSum(i), 0.01f);
+            }
+        }
+        assertEquals(-71.4f, new FingerprintIndex(snapshot, FingerprintIndex.REDUCTION_AVERAGE).getHistogram(1)
+                .get("bb:bb:bb:bb:bb:bb"), 0.01f);
+    }
+
+    @Test
+    public void testAFingerprintWithoutAPointKeepsNoPoint() throws IOException {
+        final FingerprintTable withoutPoint = new FingerprintTable();
+        withoutPoint.addAccessPoint("aa:aa:aa:aa:aa:aa");
+        withoutPoint.addLevel(-60, 1f);
+        withoutPoint.endFingerprint("FP-1", null);
+        withoutPoint.addAccessPoint("aa:aa:aa:aa:aa:aa");
+        withoutPoint.addLevel(-70, 1f);
+        withoutPoint.endFingerprint("FP-2", point(0, 0));
+
+        FingerprintSnapshot.write(withoutPoint, file);
+        final FingerprintTable snapshot = FingerprintSnapshot.open(file, new XYPointFactory());
+
+        assertNull(snapshot.getPoint(0));
+        assertEquals(0, snapshot.getPoint(1).getLatitudeE6());
+        assertEquals(0, snapshot.getPoint(1).getLongitudeE6());
+    }
+
+    @Test
+    public void testEmptyTable() throws IOException {
+        FingerprintSnapshot.write(new FingerprintTable(), file);
+        final FingerprintTable snapshot = FingerprintSnapshot.open(file, new XYPointFactory());
+
+        assertEquals(0, snapshot.size());
+        assertEquals(0, new FingerprintIndex(snapshot).size());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testTheSnapshotCannotBeChanged() throws IOException {
+        FingerprintSnapshot.write(table, file);
+        FingerprintSnapshot.open(file, new XYPointFactory()).addAccessPoint("ee:ee:ee:ee:ee:ee");
+    }
+
+    @Test(expected = IOException.class)
+    public void testOtherVersion() throws IOException {
+        FingerprintSnapshot.write(table, file);
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(FingerprintSnapshot.MAGIC.length);
+            raf.writeInt(FingerprintSnapshot.VERSION + 1);
+        } finally {
+            raf.close();
+        }
+        FingerprintSnapshot.open(file, new XYPointFactory());
+    }
+
+    @Test(expected = IOException.class)
+    public void testTruncatedSnapshot() throws IOException {
+        FingerprintSnapshot.write(table, file);
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(raf.length() - 1);
+        } finally {
+            raf.close();
+        }
+        FingerprintSnapshot.open(file, new XYPointFactory());
+    }
+
+    @Test
+    public void testAFailedWriteLeavesNoTemporaryFile() throws IOException {
+        // A directory that is not empty can neither be replaced nor deleted:
+        final File directory = new File(file.getPath() + ".dir");
+        final File child = new File(directory, "child");
+        assertTrue(directory.mkdir());
+        assertTrue(child.createNewFile());
+        try {
+            FingerprintSnapshot.write(table, directory);
+            fail("The directory was replaced");
+        } catch (IOException e) {
+            assertFalse(new File(directory.getPath() + ".tmp").exists());
+        } finally {
+            child.delete();
+            directory.delete();
+        }
+    }
+
+
+    private static XYPoint point(final int latitudeE6, final int longitudeE6) {
+        final XYPoint point = new XYPoint(0, 0);
+        point.setLatitudeE6(latitudeE6);
+        point.setLongitudeE6(longitudeE6);
+        return point;
+    }
+
+}
@@ -0,0 +1,118 @@
+package de.tarent.nic.tracker.wifi;
+
+
+import de.tarent.nic.entities.Fingerprint;
+import de.tarent.nic.entities.Histogram;
+import de.tarent.nic.tracker.geopoint.XYPoint;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class FingerprintTableTest {
+
+    private FingerprintTable table;
+
+    @Before
+    public void setUp() {
+        table = new FingerprintTable();
+
+        table.addAccessPoint("cc:cc:cc:cc:cc:cc");
+        table.addLevel(-40, 0.5f);
+        table.addLevel(-44, 0.5f);
+        table.addAccessPoint("aa:aa:aa:aa:aa:aa");
+        table.addLevel(-60, 1f);
+        table.endFingerprint("FP-1", new XYPoint(1, 2));
+
+        table.addAccessPoint("bb:bb:bb:bb:bb:bb");
+        table.addLevel(-72, 0.75f);
+        table.addLevel(-70, 0.25f);
+        table.addAccessPoint("aa:aa:aa:aa:aa:aa");
+        table.addLevel(-50, 1f);
+        table.addAccessPoint("cc:cc:cc:cc:cc:cc");
+        table.addLevel(-30, 1f);
+        table.endFingerprint("FP-2", new XYPoint(3, 4));
+
+        // A lot of fingerprints, so that the arrays have to grow:
+        for (int i = 0; i < 100; i++) {
+            table.addAccessPoint("dd:dd:dd:dd:dd:" + (i % 10));
+            table.addLevel(-80 - (i % 7), 1f);
+            table.endFingerprint("FP-" + (i + 3), new XYPoint(i, i));
+        }
+    }
+
+
+    @Test
+    public void testFingerprintsAreCreatedFromTheTable() {
+        assertEquals(102, table.size());
+        assertEquals(13, table.getDictionary().size());
+
+        final Fingerprint fingerprint = table.getFingerprint(1);
+        assertEquals("FP-2", fingerprint.getId());
+        assertSame(table.getPoint(1), fingerprint.getPoint());
+        final Histogram histogram = fingerprint.getHistogram();
+        assertEquals(3, histogram.size());
+        assertEquals(0.75f, histogram.get("bb:bb:bb:bb:bb:bb").get(-72), 0f);
+        assertEquals(0.25f, histogram.get("bb:bb:bb:bb:bb:bb").get(-70), 0f);
+        assertEquals(1f, histogram.get("cc:cc:cc:cc:cc:cc").get(-30), 0f);
+
+        assertEquals("FP-102", table.getFingerprint(101).getId());
+        assertEquals(-81, (int) table.getFingerprint(101).getHistogram().get("dd:dd:dd:dd:dd:9").keySet()
+                .iterator().next());
+    }
+
+    @Test
+    public void testTheIndexOfTheTableIsTheSameAsTheIndexOfTheFingerprints() {
+        table.trimToSize();
+        final List<Fingerprint> fingerprints = new ArrayList<Fingerprint>();
+        for (int i = 0; i < table.size(); i++) {
+            fingerprints.add(table.getFingerprint(i));
+        }
+
+        for (final int reduction : new int[] {FingerprintIndex.REDUCTION_MEDIAN, FingerprintIndex.REDUCTION_AVERAGE}) {
+            final FingerprintIndex expected = new FingerprintIndex(fingerprints, reduction);
+            final FingerprintIndex index = new FingerprintIndex(table, reduction);
+
+            assertEquals(expected.size(), index.size());
+            assertSame(table.getDictionary(), index.getDictionary());
+            for (int i = 0; i < index.size(); i++) {
+                assertSame(table.getPoint(i), index.getPoint(i));
+                assertEquals(expected.getHistogram(i), index.getHistogram(i));
+                assertEquals(expected.getLevelSum(i), index.getLevelSum(i), 0.0001f);
+                final int[] ids = index.getAccessPointIds(i);
+                for (int n = 1; n < ids.length; n++) {
+                    assertEquals(true, ids[n - 1] < ids[n]);
+                }
+            }
+            for (int id = 0; id < index.getDictionary().size(); id++) {
+                final String bssId = index.getDictionary().getBssId(id);
+                assertArrayEquals(expected.getFingerprintsWithAccessPoint(expected.getDictionary().getId(bssId)),
+                                  index.getFingerprintsWithAccessPoint(id));
+            }
+        }
+    }
+
+    @Test
+    public void testMedianAndAverage() {
+        final FingerprintIndex median = new FingerprintIndex(table);
+        final FingerprintIndex average = new FingerprintIndex(table, FingerprintIndex.REDUCTION_AVERAGE);
+
+        final Map<String, Float> medianLevels = median.getHistogram(1);
+        assertEquals(-71f, medianLevels.get("bb:bb:bb:bb:bb:bb"), 0f);
+        assertEquals(-42f, median.getHistogram(0).get("cc:cc:cc:cc:cc:cc"), 0f);
+        assertEquals(-71.5f, average.getHistogram(1).get("bb:bb:bb:bb:bb:bb"), 0.0001f);
+        assertEquals(-50f - 30f - 71.5f, average.getLevelSum(1), 0.0001f);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testLevelWithoutAccessPoint() {
+        table.addLevel(-50, 1f);
+    }
+
+}
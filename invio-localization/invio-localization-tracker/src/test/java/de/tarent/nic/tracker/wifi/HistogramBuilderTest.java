@@ -10,8 +10,10 @@ import org.mockito.runners.MockitoJUnitRunner;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.MockitoAnnotations.initMocks;
 
 
@@ -156,4 +158,95 @@ public class HistogramBuilderTest {
         assert (levels.get(-44) == 0.5f);
     }
 
+    /**
+     * Add scan-results with explicit times, as if they were replayed, and check that the age is measured against the
+     * time that is passed to build.
+     */
+    @Test
+    public void testAgingBuildWithRecordedTimes() {
+        HistogramBuilder builder = new HistogramBuilder("replayed histogram", 6000);
+
+        List<WifiScanResult> scanResults = new ArrayList<WifiScanResult>();
+        scanResults.add(new WifiScanResult("00:01:02:03:04:05", -50));
+        builder.addScanResults(1000, scanResults);
+
+        scanResults = new ArrayList<WifiScanResult>();
+        scanResults.add(new WifiScanResult("00:01:02:03:04:05", -40));
+        builder.addScanResults(5000, scanResults);
+        // A second scan at the same time must not replace the first one:
+        scanResults = new ArrayList<WifiScanResult>();
+        scanResults.add(new WifiScanResult("00:01:02:03:04:05", -44));
+        builder.addScanResults(5000, scanResults);
+
+        Map<Integer, Float> levels = builder.build(6000).get("00:01:02:03:04:05");
+        assertEquals(3, levels.size());
+
+        levels = builder.build(10000).get("00:01:02:03:04:05");
+        assertEquals(2, levels.size());
+        assertEquals(0.5f, levels.get(-40), 0f);
+        assertEquals(0.5f, levels.get(-44), 0f);
+    }
+
+    /**
+     * Slide a window over many random scans and compare the incrementally maintained histogram with one that is built
+     * from scratch from the scans inside of the window. This also makes the ring buffer grow and wrap around.
+     */
+    @Test
+    public void testSlidingWindowMatchesRebuild() {
+        Random random = new Random(42);
+        HistogramBuilder builder = new HistogramBuilder("sliding", 6000);
+        List<Long> times = new ArrayList<Long>();
+        List<List<WifiScanResult>> scans = new ArrayList<List<WifiScanResult>>();
+
+        long time = 1000;
+        for (int n = 0; n < 200; n++) {
+            // Irregular intervals, so that the number of scans in the window changes:
+            time += (n < 100) ? 100 + random.nextInt(2000) : random.nextInt(200);
+            List<WifiScanResult> scan = new ArrayList<WifiScanResult>();
+            for (int ap = 0; ap < 10; ap++) {
+                if (random.nextBoolean()) {
+                    scan.add(new WifiScanResult("ap" + ap, -40 - random.nextInt(8)));
+                }
+            }
+            builder.addScanResults(time, scan);
+            times.add(time);
+            scans.add(scan);
+
+            HistogramBuilder expected = new HistogramBuilder("expected");
+            for (int i = 0; i < scans.size(); i++) {
+                if (times.get(i) >= time - 6000) {
+                    expected.addScanResults(times.get(i), scans.get(i));
+                }
+            }
+            assertEquals(expected.build(time), builder.build(time));
+            assertTrue(builder.getScanCount() <= scans.size());
+        }
+    }
+
+    /**
+     * The RouterLevelHistograms that are built directly must be the same as those that are made from the Histogram.
+     */
+    @Test
+    public void testDirectRouterLevelHistograms() {
+        HistogramBuilder builder = new HistogramBuilder("direct", 5000);
+        int[][] levels = {{-50, -60, -55}, {-50, -42}, {-71, -70, -70, -49}};
+        long time = 0;
+        for (int[] scanLevels : levels) {
+            List<WifiScanResult> scan = new ArrayList<WifiScanResult>();
+            for (int i = 0; i < scanLevels.length; i++) {
+                scan.add(new WifiScanResult("ap" + i, scanLevels[i]));
+            }
+            time += 2000;
+            builder.addScanResults(time, scan);
+        }
+
+        for (long now = time; now < time + 6000; now += 1000) {
+            Histogram histogram = builder.build(now);
+            assertEquals(RouterLevelHistogram.makeMedianHistogram(histogram), builder.buildMedianHistogram(now));
+            assertEquals(RouterLevelHistogram.makeAverageHistogram(histogram), builder.buildAverageHistogram(now));
+        }
+        assertEquals(0, builder.build(time + 6000).size());
+        assertEquals(0, builder.getScanCount());
+    }
+
 }
@@ -0,0 +1,160 @@
+package de.tarent.nic.tracker.wifi.divergence;
+
+
+import de.tarent.nic.tracker.wifi.AccessPointDictionary;
+import de.tarent.nic.tracker.wifi.LevelVector;
+import de.tarent.nic.tracker.wifi.RouterLevelHistogram;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SortedKullbackLeiblerTest {
+
+    private SortedKullbackLeibler kl;
+
+    @Before
+    public void setup() {
+        kl = new SortedKullbackLeibler();
+    }
+
+
+    @Test
+    public void testBothEmpty() {
+        kl.init(new RouterLevelHistogram(), new RouterLevelHistogram());
+
+        assertTrue(Float.compare(0f, kl.getConfidence()) == 0);
+        assertTrue(Float.compare(0f, kl.getDivergence()) == 0);
+    }
+
+    @Test
+    public void testIdentity() {
+        RouterLevelHistogram p = new RouterLevelHistogram();
+        p.put("00:01:02:03:04:05", -25.0f);
+        p.put("a0:b0:c0:d0:e0:f0", -30.5f);
+
+        kl.init(p, p);
+
+        assertTrue(Float.compare(1f, kl.getConfidence()) == 0);
+        assertTrue(Float.compare(0f, kl.getDivergence()) == 0);
+    }
+
+    @Test
+    public void testDivergingHistograms() {
+        RouterLevelHistogram p = new RouterLevelHistogram();
+        p.put("01:01:02:03:04:05", -25.0f);
+        p.put("02:00:00:00:00:01", -25.0f);
+        p.put("03:23:45:67:89:ab", -40.0f);
+        p.put("04:b0:c0:d0:e0:f0", -30.5f);
+        p.put("05:77:77:77:77:77", -40.0f);
+        RouterLevelHistogram q = new RouterLevelHistogram();
+        q.put("01:01:02:03:04:05", -25.0f);
+        q.put("02:00:00:00:00:01", -20.0f);
+        q.put("03:23:45:67:89:ab", -30.0f);
+        q.put("06:bb:cc:dd:ee:ff", -50.0f);
+
+        kl.init(p, q);
+
+        assertEquals(0.01526f / 3f, kl.getDivergence(), 0.00001);
+        assertEquals(0.66667f, kl.getConfidence(), 0.00001);
+    }
+
+    @Test
+    public void testEmptyIntersectionIsTheSameAsKullbackLeibler() {
+        RouterLevelHistogram p = new RouterLevelHistogram();
+        p.put("00:01:02:03:04:05", -25.0f);
+        RouterLevelHistogram q = new RouterLevelHistogram();
+        q.put("aa:bb:cc:dd:ee:ff", -40.0f);
+        KullbackLeibler reference = new KullbackLeibler();
+        reference.init(p, q);
+
+        kl.init(p, q);
+
+        assertEquals(reference.getDivergence(), kl.getDivergence(), 0f);
+        assertEquals(reference.getConfidence(), kl.getConfidence(), 0f);
+    }
+
+    @Test
+    public void testUnknownAccessPointsReduceTheConfidence() {
+        AccessPointDictionary dictionary = new AccessPointDictionary();
+        RouterLevelHistogram fingerprint = new RouterLevelHistogram();
+        fingerprint.put("00:01:02:03:04:05", -25.0f);
+        fingerprint.put("a0:b0:c0:d0:e0:f0", -30.5f);
+        LevelVector q = LevelVector.internHistogram(fingerprint, dictionary);
+        RouterLevelHistogram measurement = new RouterLevelHistogram(fingerprint);
+        measurement.put("aa:bb:cc:dd:ee:ff", -40.0f);
+        measurement.put("ab:bb:cc:dd:ee:ff", -45.0f);
+        LevelVector p = LevelVector.fromHistogram(measurement, dictionary);
+
+        kl.init(p, q);
+
+        assertEquals(2, dictionary.size());
+        assertEquals(4, p.size());
+        assertEquals(4f / 6f, kl.getConfidence(), 0f);
+        assertEquals(0f, kl.getDivergence(), 0f);
+    }
+
+    @Test
+    public void testSameResultsAsKullbackLeibler() {
+        KullbackLeibler reference = new KullbackLeibler();
+        Random random = new Random(4711);
+
+        for (int n = 0; n < 1000; n++) {
+            RouterLevelHistogram p = randomHistogram(random);
+            RouterLevelHistogram q = randomHistogram(random);
+            reference.init(p, q);
+
+            kl.init(p, q);
+
+            assertEquals(reference.getConfidence(), kl.getConfidence(), 0f);
+            assertEquals(reference.getDivergence(), kl.getDivergence(),
+                         Math.abs(reference.getDivergence()) * 0.00001f);
+        }
+    }
+
+    @Test
+    public void testSymmetry() {
+        RouterLevelHistogram p = new RouterLevelHistogram();
+        p.put("00:01:02:03:04:05", -25.0f);
+        p.put("a0:b0:c0:d0:e0:f0", -30.5f);
+        RouterLevelHistogram q = new RouterLevelHistogram();
+        q.put("00:01:02:03:04:05", -20.0f);
+        q.put("a0:b0:c0:d0:e0:f0", -40.0f);
+        q.put("aa:bb:cc:dd:ee:ff", -40.0f);
+
+        kl.init(p, q);
+        float divergencePQ = kl.getDivergence();
+        float confidencePQ = kl.getConfidence();
+
+        kl.init(q, p);
+        float divergenceQP = kl.getDivergence();
+        float confidenceQP = kl.getConfidence();
+
+        assertTrue(Float.compare(divergencePQ, divergenceQP) == 0);
+        assertTrue(Float.compare(confidencePQ, confidenceQP) == 0);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testNoInitNoDivergence() {
+        kl.getDivergence();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testNoIniNoConfidence() {
+        kl.getConfidence();
+    }
+
+
+    private RouterLevelHistogram randomHistogram(Random random) {
+        RouterLevelHistogram rlh = new RouterLevelHistogram();
+        int size = 1 + random.nextInt(12);
+        for (int i = 0; i < size; i++) {
+            rlh.put("00:00:00:00:00:" + random.nextInt(20), -30f - random.nextInt(60) - 0.5f * random.nextInt(2));
+        }
+        return rlh;
+    }
+
+}
@@ -26,6 +26,7 @@ import android.widget.Button;
 import android.widget.TextView;
 import android.widget.Toast;
 import android.widget.ToggleButton;
+import de.tarent.invio.linuxtag2014.map.GroupData;
 import de.tarent.invio.linuxtag2014.map.InvioIndoorMap;
 import de.tarent.invio.linuxtag2014.map.InvioMultiMap;
 import de.tarent.invio.linuxtag2014.products.Product;
@@ -42,7 +43,6 @@ import de.tarent.nic.mapserver.MapServerClientImpl;
 import org.osmdroid.DefaultResourceProxyImpl;
 import org.osmdroid.views.overlay.ItemizedIconOverlay;
 
-import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
@@ -386,12 +386,15 @@ public class MapActivity extends AbstractMapActivity implements ItemizedIconOver
         productOverlay.removeAllItems();
         //Then get product items only for the current selected or detected map
         final Set<ProductItem> productItems = multiMap.getMapByShortName(currentMapShortName).getProductItems();
-        for (ProductItem productItem : productItems) {
-            final Product product = productItem.getProduct();
-            if(productNames.contains(product.getShortName())) {
-                addProductItemToMap(productItem, true);
-            } else {
-                addProductItemToMap(productItem, false);
+        // There are none while the floor data of the map is not loaded (yet):
+        if (productItems != null) {
+            for (ProductItem productItem : productItems) {
+                final Product product = productItem.getProduct();
+                if(productNames.contains(product.getShortName())) {
+                    addProductItemToMap(productItem, true);
+                } else {
+                    addProductItemToMap(productItem, false);
+                }
             }
         }
         mapView.postInvalidate();
@@ -526,10 +529,10 @@ public class MapActivity extends AbstractMapActivity implements ItemizedIconOver
         task.execute();
     }
 
-    private DownloadListener<File> makeGroupDataDownloadListener() {
-        return new DownloadListener<File>() {
+    private DownloadListener<GroupData> makeGroupDataDownloadListener() {
+        return new DownloadListener<GroupData>() {
             @Override
-            public void onDownloadFinished(DownloadTask task, boolean success, File data) {
+            public void onDownloadFinished(DownloadTask task, boolean success, GroupData data) {
                 if(success) {
                     //TODO: Create multilevel fingerprint manager here somehow
                     // TODO: Don't forget about the ways, angle and scale for the user locator, dead reckoning and
@@ -0,0 +1,166 @@
+package de.tarent.invio.linuxtag2014.map;
+
+import de.tarent.nic.android.base.cache.MapResourceCache;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * The GroupData is the zip with the data of all maps of a group, as it was downloaded from the mapserver. It contains
+ * one directory per map, with the map data, the fingerprints and the tiles. The entries are read directly from the
+ * zip, nothing is unzipped. The zip can be read by several threads at the same time.
+ *
+ * Files that are derived from the entries (e.g. fingerprint snapshots) are stored in a directory per map, outside of
+ * the zip. When the zip belongs to a {@link MapResourceCache}, the group is open in the cache until the GroupData is
+ * closed.
+ */
+public class GroupData {
+
+    private final ZipFile zipFile;
+
+    private final File file;
+
+    private final File directory;
+
+    private final List<String> mapNames;
+
+    private final MapResourceCache cache;
+
+    private final String groupName;
+
+
+    /**
+     * Open the zip with the group data and find the maps in it.
+     *
+     * @param file the zip
+     * @param directory the directory for the files that are derived from the entries
+     * @throws IOException if the zip can't be opened
+     */
+    public GroupData(final File file, final File directory) throws IOException {
+        this(file, directory, null, null);
+    }
+
+    /**
+     * Open the zip with the group data from the {@link MapResourceCache} and find the maps in it. The group is open in
+     * the cache until {@link #close()}, so that it is not evicted while the zip is read.
+     *
+     * @param file the zip
+     * @param cache the cache to which the zip belongs
+     * @param groupName the name of the group in the cache
+     * @throws IOException if the zip can't be opened
+     */
+    public GroupData(final File file, final MapResourceCache cache, final String groupName) throws IOException {
+        this(file, cache.open(groupName), cache, groupName);
+    }
+
+    private GroupData(final File file, final File directory, final MapResourceCache cache, final String groupName)
+            throws IOException {
+        this.file = file;
+        this.directory = directory;
+        this.cache = cache;
+        this.groupName = groupName;
+        try {
+            zipFile = new ZipFile(file);
+        } catch (IOException e) {
+            closeCache();
+            throw e;
+        }
+
+        // The maps are the top level directories, in the order in which they appear in the zip:
+        final Set<String> names = new LinkedHashSet<String>();
+        final Enumeration<? extends ZipEntry> entries = zipFile.entries();
+        while (entries.hasMoreElements()) {
+            final String name = entries.nextElement().getName();
+            final int slash = name.indexOf('/');
+            if (slash > 0) {
+                names.add(name.substring(0, slash));
+            }
+        }
+        mapNames = new ArrayList<String>(names);
+    }
+
+
+    /**
+     * Get the names of all maps in the zip.
+     *
+     * @return the names of the maps, which are also the names of their directories in the zip
+     */
+    public List<String> getMapNames() {
+        return mapNames;
+    }
+
+    /**
+     * Get the zip itself, e.g. for reading the tiles of the maps. It must not be closed by the caller.
+     *
+     * @return the {@link ZipFile}
+     */
+    public ZipFile getZipFile() {
+        return zipFile;
+    }
+
+    /**
+     * Get the time when the zip was last written. Everything that was derived from it before that time is outdated.
+     *
+     * @return the time in milliseconds
+     */
+    public long getLastModified() {
+        return file.lastModified();
+    }
+
+    /**
+     * Get the directory for the files that are derived from the entries of one map.
+     *
+     * @param mapName the name of the map
+     * @return the directory, which may not exist yet
+     */
+    public File getDirectory(final String mapName) {
+        return new File(directory, mapName);
+    }
+
+    /**
+     * Open an entry of a map.
+     *
+     * @param mapName the name of the map
+     * @param path the path of the entry inside the directory of the map, e.g. "tiles/tilemapresource.xml"
+     * @return the stream, which must be closed by the caller
+     * @throws FileNotFoundException if there is no such entry
+     * @throws IOException if the entry can't be read
+     */
+    public InputStream openEntry(final String mapName, final String path) throws IOException {
+        final String name = mapName + "/" + path;
+        final ZipEntry entry = zipFile.getEntry(name);
+        if (entry == null) {
+            throw new FileNotFoundException("ERROR: " + name + " was expected in " + file);
+        }
+        return zipFile.getInputStream(entry);
+    }
+
+    /**
+     * Close the zip. The entries can't be opened anymore afterwards.
+     */
+    public void close() {
+        try {
+            zipFile.close();
+        } catch (IOException e) {
+            // There is nothing we could do about it.
+        }
+        closeCache();
+    }
+
+
+    private void closeCache() {
+        if (cache != null) {
+            cache.close(groupName);
+        }
+    }
+
+}
@@ -2,23 +2,46 @@ package de.tarent.invio.linuxtag2014.map;
 
 import de.tarent.invio.linuxtag2014.products.ProductItem;
 import de.tarent.invio.linuxtag2014.task.InvioOsmParserKeys;
-import de.tarent.invio.linuxtag2014.task.ZipFingerprintsTask;
 import de.tarent.nic.android.base.task.DownloadListener;
 import de.tarent.nic.android.base.task.DownloadTask;
+import de.tarent.nic.android.base.tileprovider.TileBitmapCache;
+import de.tarent.nic.android.base.tileprovider.ZipTileArchive;
+import de.tarent.invio.linuxtag2014.task.ZipFingerprintsTask;
 import de.tarent.invio.linuxtag2014.task.ZipMapDataTask;
 import de.tarent.nic.entities.Edge;
+import de.tarent.nic.tracker.level.LevelSummary;
+import de.tarent.nic.tracker.wifi.FingerprintIndex;
+import de.tarent.nic.tracker.wifi.FingerprintTable;
 import org.osmdroid.util.BoundingBoxE6;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.*;
 
 /**
  * An IndoorMap consists of an overlay, to display the fingerprint icons, a boundingbox, and a max and min zoom level.
  * These fields are stored here until they are needed for the MapView.
+ *
+ * The edges, the product items and the fingerprints for the localisation are the floor data, which is only needed
+ * while the user is on or near this floor. It can be unloaded, to save memory, and loaded again by the same tasks that
+ * loaded it the first time. Everything else, including a {@link LevelSummary} of the fingerprints for the detection of
+ * the level, is small and stays.
+ *
+ * The same tasks load the small data and the floor data, but they only keep the floor data while it is wanted (see
+ * {@link #setFloorDataWanted}), so that the maps can be created without loading the floor data of every map.
  */
 public class InvioIndoorMap implements DownloadListener {
 
-    private String fingerprintsJson;
+    // Rough estimates of the heap that the floor data needs, for the memory budget of the InvioMultiMap:
+    private static final int EDGE_BYTES = 64;
+    private static final int PRODUCT_ITEM_BYTES = 256;
+    private static final int FINGERPRINT_BYTES = 96;
+    private static final int ACCESS_POINT_BYTES = 12;
+
+    private FingerprintIndex fingerprintIndex;
+
+    private LevelSummary levelSummary;
 
     private int minZoomLevel;
 
@@ -32,16 +55,37 @@ public class InvioIndoorMap implements DownloadListener {
 
     private Integer baseAngle;
 
+    private GroupData groupData;
+
     private File mapDirectory;
 
+    private ZipTileArchive tileArchive;
+
     private String name;
 
     private String shortName;
 
     private Set<ProductItem> productItems;
 
-    public InvioIndoorMap(File mapDirectory) {
-        this.mapDirectory = mapDirectory;
+    private long fingerprintBytes;
+
+    // Whether the tasks that load the floor data have finished, successfully or not:
+    private boolean mapDataLoaded;
+
+    private boolean fingerprintsLoaded;
+
+    // Whether the tasks keep the floor data, which is read by the background threads of the tasks:
+    private volatile boolean floorDataWanted;
+
+    /**
+     * Constructor.
+     *
+     * @param groupData the zip that contains the map
+     * @param mapName the name of the directory of the map in the zip
+     */
+    public InvioIndoorMap(final GroupData groupData, final String mapName) {
+        this.groupData = groupData;
+        this.mapDirectory = groupData.getDirectory(mapName);
     }
 
     /**
@@ -79,10 +123,43 @@ public class InvioIndoorMap implements DownloadListener {
         return edges;
     }
 
+    /**
+     * Get the directory for the files that are derived from the data of this map. Its name is the name of the map.
+     *
+     * @return the directory, which may not exist yet
+     */
     public File getMapDirectory() {
         return mapDirectory;
     }
 
+    public GroupData getGroupData() {
+        return groupData;
+    }
+
+    /**
+     * Get the tiles of this map, which are read directly from the zip with the group data.
+     *
+     * @return the {@link ZipTileArchive}, which is the same for every call, so that its index is only built once
+     */
+    public synchronized ZipTileArchive getTileArchive() {
+        if (tileArchive == null) {
+            tileArchive = new ZipTileArchive(groupData.getZipFile(), mapDirectory.getName() + "/tiles/",
+                    TileBitmapCache.getInstance());
+        }
+        return tileArchive;
+    }
+
+    /**
+     * Open a file of this map, directly from the zip with the group data.
+     *
+     * @param path the path of the file inside the directory of the map, e.g. "tiles/tilemapresource.xml"
+     * @return the stream, which must be closed by the caller
+     * @throws IOException if there is no such file or it can't be read
+     */
+    public InputStream openEntry(final String path) throws IOException {
+        return groupData.openEntry(mapDirectory.getName(), path);
+    }
+
     public String getName() {
         return name;
     }
@@ -97,26 +174,124 @@ public class InvioIndoorMap implements DownloadListener {
 
     @Override
     public void onDownloadFinished(DownloadTask task, boolean success, Object data) {
-        if (success) {
-            if(task instanceof ZipMapDataTask) {
-                edges = (List<Edge>) ((Map<String, Collection>)data).get(InvioOsmParserKeys.EDGES);
+        if(task instanceof ZipMapDataTask) {
+            mapDataLoaded = floorDataWanted;
+            if (success) {
+                if (floorDataWanted) {
+                    edges = (List<Edge>) ((Map<String, Collection>)data).get(InvioOsmParserKeys.EDGES);
+                    productItems =
+                            ((Set<ProductItem>)((Map<String, Collection>)data).get(InvioOsmParserKeys.PRODUCTITEMS));
+                }
                 scale = ((List<Float>)((Map<String, Collection>)data).get(InvioOsmParserKeys.INDOOR_SCALE)).get(0);
                 baseAngle = ((List<Integer>)((Map<String, Collection>)data).get(InvioOsmParserKeys.NORTH_ANGLE)).get(0);
                 name = ((List<Map<String, String>>)((Map<String, Collection>)data).get(InvioOsmParserKeys.NAMESPACE))
                         .get(0).get("namespace_map_name");
-                productItems = ((Set<ProductItem>)((Map<String, Collection>)data).get(InvioOsmParserKeys.PRODUCTITEMS));
                 shortName = ((List<Map<String, String>>)((Map<String, Collection>)data).get(InvioOsmParserKeys.NAMESPACE))
                         .get(0).get("namespace_short_name");
-                return;
-            } else if (task instanceof ZipFingerprintsTask) {
-                final String jsonString = (String) data;
-                fingerprintsJson = jsonString;
             }
+        } else if (task instanceof ZipFingerprintsTask) {
+            fingerprintsLoaded = floorDataWanted;
         }
     }
 
-    public String getFingerprintsJson() {
-        return fingerprintsJson;
+    /**
+     * Set whether the floor data is wanted, i.e. whether the tasks that load this map keep it. It is not wanted at
+     * first. This must only be called in the UI thread, before the tasks are started.
+     *
+     * @param wanted true if the floor data is wanted
+     */
+    public void setFloorDataWanted(final boolean wanted) {
+        floorDataWanted = wanted;
+    }
+
+    /**
+     * Set the fingerprints of this map and summarize them for the detection of the level, unless that was already
+     * done before. They are only compiled for the localisation, too, if the floor data is wanted; otherwise the
+     * FingerprintTable is not kept at all. This takes a while for large maps, so it should be called in the
+     * background.
+     *
+     * @param fingerprints the complete FingerprintTable
+     */
+    public void setFingerprints(final FingerprintTable fingerprints) {
+        final LevelSummary summary = (getLevelSummary() != null) ? getLevelSummary() : new LevelSummary(fingerprints);
+        FingerprintIndex index = null;
+        long bytes = 0;
+        if (floorDataWanted) {
+            index = new FingerprintIndex(fingerprints);
+            for (int i = 0; i < index.size(); i++) {
+                bytes += FINGERPRINT_BYTES + ACCESS_POINT_BYTES * index.getAccessPointIds(i).length;
+            }
+        }
+        synchronized (this) {
+            fingerprintIndex = index;
+            levelSummary = summary;
+            fingerprintBytes = bytes;
+        }
+    }
+
+    /**
+     * Has the floor data been loaded, or at least tried to load? This is only changed in the UI thread.
+     *
+     * @return true if the tasks that load the floor data have finished
+     */
+    public boolean isLoaded() {
+        return mapDataLoaded && fingerprintsLoaded;
+    }
+
+    /**
+     * Forget the floor data, so that it can be garbage collected, and don't want it anymore. It has to be loaded again
+     * before the map can be shown. This must only be called in the UI thread.
+     */
+    public void unload() {
+        floorDataWanted = false;
+        mapDataLoaded = false;
+        fingerprintsLoaded = false;
+        edges = null;
+        productItems = null;
+        synchronized (this) {
+            fingerprintIndex = null;
+            fingerprintBytes = 0;
+        }
+    }
+
+    /**
+     * Estimate how much memory the data of this map needs: the floor data, if it is loaded, and the LevelSummary.
+     *
+     * @return the size in bytes, roughly
+     */
+    public long getMemorySize() {
+        long bytes;
+        synchronized (this) {
+            bytes = fingerprintBytes;
+            if (levelSummary != null) {
+                bytes += levelSummary.getMemorySize();
+            }
+        }
+        if (edges != null) {
+            bytes += EDGE_BYTES * edges.size();
+        }
+        if (productItems != null) {
+            bytes += PRODUCT_ITEM_BYTES * productItems.size();
+        }
+        return bytes;
+    }
+
+    /**
+     * Get the compiled fingerprints of this map.
+     *
+     * @return the FingerprintIndex, or null if the fingerprints have not been loaded (yet)
+     */
+    public synchronized FingerprintIndex getFingerprintIndex() {
+        return fingerprintIndex;
+    }
+
+    /**
+     * Get the summary of the fingerprints of this map for the detection of the level.
+     *
+     * @return the LevelSummary, or null if the fingerprints have not been loaded (yet)
+     */
+    public synchronized LevelSummary getLevelSummary() {
+        return levelSummary;
     }
 
     public Float getScale() {
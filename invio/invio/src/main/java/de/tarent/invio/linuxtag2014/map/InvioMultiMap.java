@@ -5,8 +5,6 @@ import android.os.Handler;
 import android.os.Looper;
 import android.view.Display;
 import android.widget.Toast;
-import com.google.gson.GsonBuilder;
-import com.google.gson.reflect.TypeToken;
 import de.tarent.invio.linuxtag2014.MapActivity;
 import de.tarent.invio.linuxtag2014.R;
 import de.tarent.invio.linuxtag2014.products.ProductItem;
@@ -16,38 +14,59 @@ import de.tarent.invio.linuxtag2014.task.ZipFingerprintsTask;
 import de.tarent.invio.linuxtag2014.task.ZipMapDataTask;
 import de.tarent.invio.linuxtag2014.task.ZipMapResourceTask;
 import de.tarent.nic.android.base.AbstractMapActivity;
-import de.tarent.nic.android.base.json.NicGeoPointDeserializer;
 import de.tarent.nic.android.base.mapmatching.WayManager;
 import de.tarent.nic.android.base.task.DownloadListener;
 import de.tarent.nic.android.base.task.DownloadTask;
+import de.tarent.nic.android.base.position.UserPositionManager;
+import de.tarent.nic.android.base.tileprovider.NicTileSource;
+import de.tarent.nic.android.base.tileprovider.TileBitmapCache;
+import de.tarent.nic.android.base.tileprovider.TilePrefetcher;
 import de.tarent.nic.android.base.tileprovider.TileProviderFactory;
+import de.tarent.nic.android.base.tileprovider.ZipTileArchive;
 import de.tarent.nic.android.base.wifi.FingerprintManager;
 import de.tarent.nic.android.base.wifi.UserLocator;
 import de.tarent.nic.android.base.wifi.WifiCapturer;
-import de.tarent.nic.entities.Fingerprint;
 import de.tarent.nic.entities.Histogram;
-import de.tarent.nic.entities.NicGeoPoint;
+import de.tarent.nic.tracker.level.LevelSummary;
+import de.tarent.nic.tracker.wifi.FingerprintIndex;
 import de.tarent.nic.tracker.wifi.HistogramConsumer;
-import de.tarent.nic.tracker.wifi.RouterLevelHistogram;
-import de.tarent.nic.tracker.wifi.divergence.KullbackLeibler;
-import de.tarent.nic.tracker.wifi.divergence.RouterLevelDivergence;
 import org.osmdroid.tileprovider.MapTileProviderBase;
 import org.osmdroid.tileprovider.tilesource.ITileSource;
 import org.osmdroid.util.BoundingBoxE6;
 import org.osmdroid.views.MapView;
 
-import java.io.File;
-import java.lang.reflect.Type;
 import java.util.*;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A InvioMultiMap bundles one or more instances of InvioIndoorMap together to form a multi-level building.
+ *
+ * The floor data of a map (see {@link InvioIndoorMap}) is loaded lazily: at the start, only the small data of every
+ * floor is loaded. Then the active floor and the floors directly above and below it are always loaded. Other floors
+ * are unloaded, the least recently used first, as soon as the data of all floors together exceeds the memory budget.
+ * When the user switches to an unloaded floor, its data is loaded before it is shown. The small data that is needed
+ * for the detection of the level, the floor buttons and the search stays loaded for all floors.
+ *
+ * The tiles along the way of the user are prefetched by a {@link TilePrefetcher}. As long as the detected level is
+ * not the one that is shown, the tiles of the detected level are prefetched, too, or those of the levels above and
+ * below if no level was detected.
  */
 public class InvioMultiMap implements DownloadListener, HistogramConsumer {
 
     private static final int DOWNLOADS_PER_MAP = 3;
 
-    protected File groupDir;
+    // The maps are loaded by a few threads at the same time, but not by more, so that the parsers don't need too much
+    // memory at once and don't slow down the UI:
+    private static final int LOADER_THREADS =
+            Math.max(1, Math.min(DOWNLOADS_PER_MAP, Runtime.getRuntime().availableProcessors()));
+
+    private static final long LOADER_KEEP_ALIVE_SECONDS = 1;
+
+    private static final long KILOBYTE = 1024;
+
+    protected GroupData groupData;
 
     protected MapActivity activity;
 
@@ -65,22 +84,59 @@ public class InvioMultiMap implements DownloadListener, HistogramConsumer {
 
     private WifiCapturer wifiCapturer;
 
+    // The summaries of the fingerprints of all maps, for the detection of the level, by the position in the mapsList:
+    private Map<Integer, LevelSummary> levelSummaries;
+
     //TODO Multilevel: this is the position of the level inside the mapsList (kinda wrong)
     private int level = 0;
 
     InvioIndoorMap userSelectedMap;
 
-    public InvioMultiMap(final File groupDir, final MapActivity activity, final MapView mapView) {
-        this.groupDir = groupDir;
+    // The map that is shown, or that will be shown as soon as its floor data is loaded:
+    private InvioIndoorMap activeMap;
+
+    // The maps whose floor data is loaded, the least recently used first:
+    private final LinkedList<InvioIndoorMap> loadedMaps = new LinkedList<InvioIndoorMap>();
+
+    // The maps whose floor data is being loaded:
+    private final Set<InvioIndoorMap> loadingMaps = new HashSet<InvioIndoorMap>();
+
+    private final long memoryBudget;
+
+    private ThreadPoolExecutor loader;
+
+    private final TilePrefetcher tilePrefetcher;
+
+    // The level of the last scan, which is null if it matched no level:
+    private volatile Integer detectedLevel;
+
+    public InvioMultiMap(final GroupData groupData, final MapActivity activity, final MapView mapView) {
+        this.groupData = groupData;
         this.activity = activity;
         this.mapView = mapView;
+        this.memoryBudget = activity.getResources().getInteger(R.integer.multilevel_memory_budget_kb) * KILOBYTE;
+        tilePrefetcher = new TilePrefetcher(TileBitmapCache.getInstance(),
+                activity.getResources().getInteger(R.integer.tile_prefetch_threads),
+                activity.getResources().getInteger(R.integer.tile_prefetch_budget_kb) * KILOBYTE);
+        final UserPositionManager userPositionManager = activity.getUserPositionManager();
+        if(userPositionManager != null) {
+            userPositionManager.setTilePrefetcher(tilePrefetcher);
+        }
         createMaps();
     }
 
     public void detach(){
+        loader.shutdownNow();
+        final UserPositionManager userPositionManager = activity.getUserPositionManager();
+        if(userPositionManager != null) {
+            userPositionManager.setTilePrefetcher(null);
+        }
+        tilePrefetcher.shutdown();
+        // The tile provider reads from the zip, so it must stop before the zip is closed:
         if(provider != null) {
             provider.detach();
         }
+        groupData.close();
     }
 
     public int getLevel() {
@@ -88,29 +144,98 @@ public class InvioMultiMap implements DownloadListener, HistogramConsumer {
     }
 
     /**
-     * Create indoor maps per directory inside the unzipped group data directory.
+     * Create indoor maps per directory inside the zip with the group data. Their data, tilemapresources and
+     * fingerprints are read directly from the zip, by a bounded number of threads, in the order of the maps. Only the
+     * small data of the maps is kept, because no floor data is wanted yet.
      */
     private void createMaps() {
         mapsList = new ArrayList<InvioIndoorMap>();
-        if(groupDir.exists() && groupDir.isDirectory()) {
-            File[] mapDirs = groupDir.listFiles();
-            for(int i = 0; i < mapDirs.length; i++) {
-                InvioIndoorMap map = new InvioIndoorMap(mapDirs[i]);
-                mapsList.add(map);
+        for(final String mapName : groupData.getMapNames()) {
+            mapsList.add(new InvioIndoorMap(groupData, mapName));
+        }
+
+        loader = new ThreadPoolExecutor(LOADER_THREADS, LOADER_THREADS,
+                LOADER_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        // The threads end when there is nothing to load:
+        loader.allowCoreThreadTimeOut(true);
+        for(InvioIndoorMap map : mapsList) {
+            final ZipMapDataTask mapDataTask = new ZipMapDataTask(map, map, new InvioOsmParser(map.getShortName()));
+            mapDataTask.addDownloadListener(this);
+            mapDataTask.addDownloadListener(ProductManager.getMainProductManager());
+            mapDataTask.executeOnExecutor(loader);
+            final ZipMapResourceTask mapResourceTask = new ZipMapResourceTask(this, map);
+            mapResourceTask.executeOnExecutor(loader);
+            final ZipFingerprintsTask fingerprintsTask = new ZipFingerprintsTask(map, map);
+            fingerprintsTask.addDownloadListener(this);
+            fingerprintsTask.executeOnExecutor(loader);
+        }
+    }
+
+    /**
+     * Load the floor data of a map, for the first time or again after it was unloaded. Nothing is loaded anymore once
+     * the multimap has been detached, because the loader doesn't accept any tasks then.
+     *
+     * @param map the map
+     */
+    private void reload(final InvioIndoorMap map) {
+        if(loader.isShutdown()) {
+            return;
+        }
+        map.setFloorDataWanted(true);
+        loadingMaps.add(map);
+        final DownloadListener listener = new DownloadListener() {
+            @Override
+            public void onDownloadFinished(final DownloadTask task, final boolean success, final Object data) {
+                onFloorDataLoaded();
             }
+        };
+        final ZipMapDataTask mapDataTask = new ZipMapDataTask(map, map, new InvioOsmParser(map.getShortName()));
+        mapDataTask.addDownloadListener(listener);
+        mapDataTask.executeOnExecutor(loader);
+        final ZipFingerprintsTask fingerprintsTask = new ZipFingerprintsTask(map, map);
+        fingerprintsTask.addDownloadListener(listener);
+        fingerprintsTask.executeOnExecutor(loader);
+    }
 
-            for(InvioIndoorMap map : mapsList) {
-                final ZipMapDataTask mapDataTask = new ZipMapDataTask(map, map.getMapDirectory(), new InvioOsmParser(map.getShortName()));
-                mapDataTask.addDownloadListener(this);
-                mapDataTask.addDownloadListener(ProductManager.getMainProductManager());
-                mapDataTask.execute();
-                final ZipMapResourceTask mapResourceTask = new ZipMapResourceTask(this, map);
-                mapResourceTask.execute();
-                final ZipFingerprintsTask fingerprintsTask = new ZipFingerprintsTask(map, map);
-                fingerprintsTask.addDownloadListener(this);
-                fingerprintsTask.execute();
+    /**
+     * Take note of the maps whose floor data has been loaded since the last call, show the active map if it is one of
+     * them, and unload the floors that exceed the memory budget.
+     */
+    private void onFloorDataLoaded() {
+        for(final InvioIndoorMap map : mapsList) {
+            if(map.isLoaded() && loadingMaps.remove(map)) {
+                loadedMaps.add(map);
+                if(map == activeMap) {
+                    show(map);
+                }
             }
         }
+        trim();
+    }
+
+    /**
+     * Unload the floor data of the least recently used maps that are not near the active map, until the data of all
+     * maps fits into the memory budget. The small data of the maps counts, too, but it can't be unloaded.
+     */
+    private void trim() {
+        long size = 0;
+        for(final InvioIndoorMap map : mapsList) {
+            size += map.getMemorySize();
+        }
+        final Iterator<InvioIndoorMap> iterator = loadedMaps.iterator();
+        while((size > memoryBudget) && iterator.hasNext()) {
+            final InvioIndoorMap map = iterator.next();
+            if(!isNearActiveMap(map)) {
+                final long loadedSize = map.getMemorySize();
+                map.unload();
+                size -= loadedSize - map.getMemorySize();
+                iterator.remove();
+            }
+        }
+    }
+
+    private boolean isNearActiveMap(final InvioIndoorMap map) {
+        return (activeMap != null) && (Math.abs(mapsList.indexOf(map) - mapsList.indexOf(activeMap)) <= 1);
     }
 
     /**
@@ -120,7 +245,40 @@ public class InvioMultiMap implements DownloadListener, HistogramConsumer {
      */
     private void switchMapForReal(final InvioIndoorMap map){
         final Handler mainHandler = new Handler(Looper.getMainLooper());
-        mainHandler.post(getNewRunnable(map));
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                activate(map);
+            }
+        });
+    }
+
+    /**
+     * Make a map the active map and make sure that the floor data of it and its neighbours is loaded. The map is shown
+     * right away, if its floor data is already loaded, or else as soon as it is. This must only be called in the UI
+     * thread.
+     *
+     * @param map the map
+     */
+    private void activate(final InvioIndoorMap map) {
+        activeMap = map;
+        final int index = mapsList.indexOf(map);
+        for(int i = Math.max(0, index - 1); i <= Math.min(mapsList.size() - 1, index + 1); i++) {
+            final InvioIndoorMap neighbour = mapsList.get(i);
+            if(!neighbour.isLoaded() && !loadingMaps.contains(neighbour)) {
+                reload(neighbour);
+            }
+        }
+        if(map.isLoaded()) {
+            show(map);
+        }
+        trim();
+    }
+
+    private void show(final InvioIndoorMap map) {
+        loadedMaps.remove(map);
+        loadedMaps.add(map);
+        getNewRunnable(map).run();
         activity.dismissProgressDialog();
     }
 
@@ -151,7 +309,10 @@ public class InvioMultiMap implements DownloadListener, HistogramConsumer {
                 final FingerprintManager fingerprintManager = activity.getFingerprintManager();
                 if(fingerprintManager != null) {
                     fingerprintManager.removeAllFingerprintFromOverlay();
-                    fingerprintManager.setFingerprintsJson(map.getFingerprintsJson());
+                    final FingerprintIndex fingerprintIndex = map.getFingerprintIndex();
+                    if(fingerprintIndex != null) {
+                        fingerprintManager.setFingerprints(fingerprintIndex);
+                    }
                 }
                 final WayManager wayManager = activity.getWayManager();
                 if (wayManager != null) {
@@ -207,27 +368,23 @@ public class InvioMultiMap implements DownloadListener, HistogramConsumer {
     public void addHistogram(final Histogram histogram) {
         wifiCapturer.stopSensors();
 
-        final RouterLevelHistogram rlh = RouterLevelHistogram.makeAverageHistogram(histogram);
-        final SortedMap<Float, Integer> divergenceMap = new TreeMap<Float, Integer>();
-
-        for(int i = 0; i < mapsList.size(); i++) {
-            calculateLevelDivergence(i, rlh, divergenceMap);
-        }
+        final Integer closestLevel = LevelSummary.detectLevel(levelSummaries, histogram);
+        detectedLevel = closestLevel;
 
         if (userSelectedMap == null) {
-            if (divergenceMap.isEmpty()) {
+            if (closestLevel == null) {
                 switchMapForReal(maps.get(activity.getString(R.string.multilevel_default_map_short_name)));
                 // TODO hardcoded
                 activity.setLevelFocus(1);
             } else {
-                level = findClosestLevel(divergenceMap);
+                level = closestLevel;
                 activity.setLevelFocus(level);
                 switchMapForReal(mapsList.get(level));
             }
             activity.startScan();
         } else {
             switchMapForReal(userSelectedMap);
-            if ((!divergenceMap.isEmpty()) && (userSelectedMap == mapsList.get(findClosestLevel(divergenceMap)))) {
+            if ((closestLevel != null) && (userSelectedMap == mapsList.get(closestLevel))) {
                 activity.startScan();
             } else {
                 activity.stopScan();
@@ -236,75 +393,15 @@ public class InvioMultiMap implements DownloadListener, HistogramConsumer {
     }
 
     /**
-     * Calculate the divergence from one histogram to all the fingerprints on one level and add them to a map.
-     * @param level the level to analyse
-     * @param rlh the current histogram
-     * @param divergenceMap map of divergence -> level where we add the data for the level
-     */
-    private void calculateLevelDivergence(final int level,
-                                          final RouterLevelHistogram rlh,
-                                          final SortedMap<Float, Integer> divergenceMap) {
-
-        final List<Fingerprint> fingerprints = parseJson(mapsList.get(level).getFingerprintsJson());
-        if(fingerprints == null || fingerprints.isEmpty()) {
-            return;
-        }
-        final RouterLevelDivergence divergenceAlgorithm = new KullbackLeibler();
-
-        for (Fingerprint fingerprint : fingerprints) {
-            final RouterLevelHistogram fingerprintRlh =
-                    RouterLevelHistogram.makeAverageHistogram(fingerprint.getHistogram());
-            divergenceAlgorithm.init(rlh, fingerprintRlh);
-            // A confidence < 0.4 is not considered relevant enough:
-            if (divergenceAlgorithm.getConfidence() > 0.4f) {
-                // TODO: in case of identical divergence this will overwrite the old value!!
-                divergenceMap.put(divergenceAlgorithm.getDivergence(), level);
-            }
-        }
-    }
-
-    /**
-     * Find the level that we most probably are on. At the moment that is the first level to reach 5 fingerprints,
-     * counted from the beginning of the divergenceMap.
-     * @param divergenceMap a sorted mapping of divergence to level number
-     * @return the current level number
+     * Collect the summaries for the detection of the level, which the ZipFingerprintsTasks have already made. The
+     * levels are the positions of the maps in the mapsList. A single scan decides here, the tracking itself is done by
+     * the FingerprintManager.
      */
-    private int findClosestLevel(final SortedMap<Float, Integer> divergenceMap) {
-        final Map<Integer, Integer> hitList = new HashMap<Integer, Integer>();
-
-
-        for (Integer level : divergenceMap.values()) {
-            Integer count = hitList.get(level);
-            if (count == null) {
-                count = 0;
-            }
-            hitList.put(level, ++count);
-            if (count == 5) {
-                return level;
-            }
+    private void createLevelSummaries() {
+        levelSummaries = new HashMap<Integer, LevelSummary>();
+        for(int i = 0; i < mapsList.size(); i++) {
+            levelSummaries.put(i, mapsList.get(i).getLevelSummary());
         }
-
-        // Too few fingerprints for any level to reach 3!?
-        return divergenceMap.get(divergenceMap.firstKey());
-    }
-
-    /**
-     * Create Fingerprints from json-string.
-     *
-     * @param json the json that contains the serialized fingerprints
-     * @return the List of Fingerprints
-     */
-    //TODO Refactoring: THIS CODE IS STRICTLY DUPLICATE FROM FingerprintManager
-    protected List<Fingerprint> parseJson(final String json) {
-        // We need this TypeToken-thingy because it is not possible to have a Class-object for a generic type.
-        // But we must tell gson what kind of object it is supposed to create. That's how we can do is:
-        final Type genericFingerprintArrayListType = new TypeToken<ArrayList<Fingerprint>>() {
-        }.getType();
-        final GsonBuilder gsonBuilder = new GsonBuilder();
-        gsonBuilder.registerTypeAdapter(NicGeoPoint.class, new NicGeoPointDeserializer());
-
-        final List<Fingerprint> fingerprints = gsonBuilder.create().fromJson(json, genericFingerprintArrayListType);
-        return fingerprints;
     }
 
     private void configureMapView(final InvioIndoorMap map) {
@@ -345,17 +442,45 @@ public class InvioMultiMap implements DownloadListener, HistogramConsumer {
     private ITileSource makeTileSource(final InvioIndoorMap map) {
         // TODO: maybe we need to dispose of the old provider/source?
         final TileProviderFactory factory = new TileProviderFactory(activity);
-        provider = factory.buildWebTileProvider(
+        // The tiles are read from the zip with the group data, the server is only asked for missing tiles:
+        provider = factory.buildZipTileProvider(map.getTileArchive(),
                 activity.getResources().getString(de.tarent.nic.android.base.R.string.map_provider_url_schema),
                 map.getMapDirectory().getName());
+        tilePrefetcher.setLevels((NicTileSource) provider.getTileSource(), map.getTileArchive(),
+                getLikelyLevels(map));
         return provider.getTileSource();
     }
 
+    /**
+     * Get the tiles of the levels that the user will probably change to, because the last scan didn't match the map
+     * that is shown.
+     *
+     * @param map the map that is shown
+     * @return the tiles of the detected level, or of the levels above and below if no level was detected, or none if
+     *         the detected level is shown
+     */
+    private List<ZipTileArchive> getLikelyLevels(final InvioIndoorMap map) {
+        final List<ZipTileArchive> levels = new ArrayList<ZipTileArchive>();
+        final Integer detected = detectedLevel;
+        final int index = mapsList.indexOf(map);
+        if(detected == null) {
+            for(int i = Math.max(0, index - 1); i <= Math.min(mapsList.size() - 1, index + 1); i++) {
+                if(i != index) {
+                    levels.add(mapsList.get(i).getTileArchive());
+                }
+            }
+        } else if(detected != index) {
+            levels.add(mapsList.get(detected).getTileArchive());
+        }
+        return levels;
+    }
+
 
     @Override
     public void onDownloadFinished(DownloadTask task, boolean success, Object data) {
         //Count all part downloads - map data, fingerprints and tilemapresource, no matter if it was successful or not.
         partDownloads++;
+        onFloorDataLoaded();
 
         //Then count only the successful downloads
         if(success) {
@@ -380,6 +505,7 @@ public class InvioMultiMap implements DownloadListener, HistogramConsumer {
             activity.configureSearch();
 
             createHashMapFromMapsList();
+            createLevelSummaries();
             switchMap(null);
             //Create the level buttons in the map view
             activity.createLevelButtons(mapsList);
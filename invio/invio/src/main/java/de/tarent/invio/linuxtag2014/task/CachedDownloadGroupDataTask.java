@@ -1,104 +1,106 @@
 package de.tarent.invio.linuxtag2014.task;
 
-import android.app.ProgressDialog;
 import android.os.Environment;
 import android.util.Log;
+import de.tarent.invio.linuxtag2014.map.GroupData;
+import de.tarent.nic.android.base.cache.CachedResource;
+import de.tarent.nic.android.base.cache.MapResourceCache;
 import de.tarent.nic.android.base.task.DownloadListener;
 import de.tarent.nic.android.base.task.DownloadTask;
 import de.tarent.nic.mapserver.MapServerClient;
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.lang.Override;
 import java.lang.String;
 import java.lang.Void;
-import java.util.Enumeration;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
 
 /**
- *
+ * The CachedDownloadGroupDataTask downloads the zip with the data of all maps of a group into the
+ * {@link MapResourceCache} and opens it as {@link GroupData}. The download is streamed right into the cache, and the
+ * zip is not unzipped at all: the maps read their entries directly from it. While the zip is fresh, or when the server
+ * still has the same zip, the cached zip is used as it is. When the download fails, the cached zip is used as well.
  */
-public class CachedDownloadGroupDataTask extends DownloadTask<Void, Void, File> {
+public class CachedDownloadGroupDataTask extends DownloadTask<Void, Void, GroupData> {
 
     private static final String TAG = CachedDownloadGroupDataTask.class.getName();
 
-    final private static String GROUP_DATA_DIR = Environment.getExternalStorageDirectory() + File.separator + "invio";
+    // Before there was the MapResourceCache, the group data was stored here:
+    final private static String LEGACY_GROUP_DATA_DIR =
+            Environment.getExternalStorageDirectory() + File.separator + "invio";
+
+    final private static String GROUP_DATA_FILE = "group_data.zip";
+
+    // Before the maps were read from the zip, it was unzipped here:
+    final private static String LEGACY_MAPS_DIR = "maps";
 
     final private String groupName;
 
     final private MapServerClient client;
 
-    public CachedDownloadGroupDataTask(final DownloadListener<File> listener, final String groupName, MapServerClient client) {
+    public CachedDownloadGroupDataTask(final DownloadListener<GroupData> listener, final String groupName,
+                                       final MapServerClient client) {
         downloadListeners.add(listener);
         this.groupName = groupName;
         this.client = client;
     }
 
     @Override
-    protected File doInBackground(final Void... params) {
-
-        final File groupDataFile = new File(GROUP_DATA_DIR+ File.separator + groupName + "_data.zip");
-        ensureDirExists(groupDataFile);
-        final File unzipDir = new File(GROUP_DATA_DIR+ File.separator + groupName);
-        ensureDirExists(unzipDir);
+    protected GroupData doInBackground(final Void... params) {
+        final MapResourceCache cache = MapResourceCache.getInstance();
+        // The GroupData keeps the group open on its own, we only need it open until then:
+        final File groupDir = cache.open(groupName);
         try {
-            final InputStream in = client.getGroupData(groupName, 6000);
-            final OutputStream os = new FileOutputStream(groupDataFile);
-            IOUtils.copy(in, os);
-            IOUtils.closeQuietly(in);
-            IOUtils.closeQuietly(os);
-            unzipFile(groupDataFile, unzipDir);
-            success = true;
-        } catch (IOException e) {
-            Log.e(TAG, "Map group data download/persistence or unzip failed! Falling back to cache (if such exists).");
-
-        }
-
-        // If we don't have any maps inside the unzipped group directory, then something went wrong and we must signal
-        // it.
-        if(unzipDir.listFiles() == null || unzipDir.listFiles().length == 0 ) {
-            success = false;
-        } else {
-            success = true;
+            return openGroupData(cache, groupDir);
+        } finally {
+            cache.close(groupName);
         }
-
-        return unzipDir;
     }
 
-    private void ensureDirExists(final File directory){
-        File groupDataFileParent = directory.getParentFile();
-        if(!groupDataFileParent.exists()) {
-            if(groupDataFileParent.mkdirs()) {
-                Log.d(TAG, "Created directory: " + directory.getPath());
-            } else {
-                Log.e(TAG, "Could not create directory: " + directory.getPath());
+    private GroupData openGroupData(final MapResourceCache cache, final File groupDir) {
+        deleteLegacyGroupData(cache, groupDir);
+
+        final CachedResource groupData = cache.getResource(groupName, GROUP_DATA_FILE);
+        if (!groupData.isFresh()) {
+            try {
+                final InputStream in = client.getGroupData(groupName, 6000);
+                try {
+                    groupData.update(in);
+                } finally {
+                    IOUtils.closeQuietly(in);
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Map group data download/persistence failed! Falling back to cache (if such exists).");
             }
         }
-    }
 
-    protected void unzipFile (final File fileToUnzip, final File directory) throws IOException {
-        final ZipFile zipFile = new ZipFile(fileToUnzip);
-        final Enumeration<? extends ZipEntry> entries = zipFile.entries();
-        while (entries.hasMoreElements()) {
-            final ZipEntry entry = entries.nextElement();
-            final File entryFile = new File(directory, entry.getName());
-            ensureDirExists(entryFile);
-            if(entry.isDirectory()) {
-                entryFile.mkdirs();
-            } else {
-                final InputStream is = zipFile.getInputStream(entry);
-                final OutputStream os = new FileOutputStream(entryFile);
-                IOUtils.copy(is, os);
-                IOUtils.closeQuietly(is);
-                IOUtils.closeQuietly(os);
+        // If we don't have any maps inside the zip, then something went wrong and we must signal it.
+        success = false;
+        if (groupData.exists()) {
+            try {
+                final GroupData data = new GroupData(groupData.getFile(), cache, groupName);
+                if (!data.getMapNames().isEmpty()) {
+                    success = true;
+                    return data;
+                }
+                data.close();
+            } catch (IOException e) {
+                Log.e(TAG, "Map group data could not be opened: " + e.getMessage());
             }
         }
+        return null;
     }
 
+    private void deleteLegacyGroupData(final MapResourceCache cache, final File groupDir) {
+        FileUtils.deleteQuietly(new File(groupDir, LEGACY_MAPS_DIR));
+        final File legacyUnzipDir = new File(LEGACY_GROUP_DATA_DIR + File.separator + groupName);
+        if (!legacyUnzipDir.equals(cache.getRoot())) {
+            FileUtils.deleteQuietly(new File(LEGACY_GROUP_DATA_DIR + File.separator + groupName + "_data.zip"));
+            FileUtils.deleteQuietly(legacyUnzipDir);
+        }
+    }
 
 }
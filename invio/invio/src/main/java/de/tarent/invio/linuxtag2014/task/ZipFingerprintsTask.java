@@ -2,21 +2,34 @@ package de.tarent.invio.linuxtag2014.task;
 
 import android.util.Log;
 import de.tarent.invio.linuxtag2014.map.InvioIndoorMap;
+import de.tarent.nic.android.base.json.FingerprintJsonReader;
+import de.tarent.nic.android.base.position.NicGeoPointFactory;
 import de.tarent.nic.android.base.task.DownloadListener;
 import de.tarent.nic.android.base.task.DownloadTask;
-import org.apache.commons.io.FileUtils;
+import de.tarent.nic.tracker.wifi.FingerprintIndex;
+import de.tarent.nic.tracker.wifi.FingerprintSnapshot;
+import de.tarent.nic.tracker.wifi.FingerprintTable;
 
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
 
 /**
+ * The ZipFingerprintsTask loads the fingerprints of an {@link InvioIndoorMap} directly from the zip with the group
+ * data. The fingerprints are streamed from the zip, summarized and compiled right here in the background and stored in
+ * the map, so that neither the level detection nor the FingerprintManager has to parse them again. The result is the
+ * compiled FingerprintIndex, which is null while the floor data of the map is not wanted.
  *
+ * The first time the fingerprints of a map are loaded, a {@link FingerprintSnapshot} is written into the directory of
+ * the map. On later starts it is mapped instead, as long as it is not older than the zip, so that nothing has to be
+ * parsed.
  */
-public class ZipFingerprintsTask extends DownloadTask<Void, Void, String> {
+public class ZipFingerprintsTask extends DownloadTask<Void, Void, FingerprintIndex> {
 
     private final static String TAG = ZipFingerprintsTask.class.getCanonicalName();
 
+    private static final String SNAPSHOT_FILE = "fingerprints_data.snapshot";
+
     private final InvioIndoorMap indoorMap;
 
 
@@ -26,28 +39,51 @@ public class ZipFingerprintsTask extends DownloadTask<Void, Void, String> {
     }
 
     @Override
-    protected String doInBackground(final Void... params) {
-        String jsonString = new String();
+    protected FingerprintIndex doInBackground(final Void... params) {
         try {
-            jsonString = getJsonString();
+            indoorMap.setFingerprints(readFingerprints());
             success = true;
         } catch (IOException e) {
             success = false;
             Log.e(TAG, e.getMessage());
         }
-        return jsonString;
+        return indoorMap.getFingerprintIndex();
     }
 
 
-    protected String getJsonString() throws IOException {
-        final File fingerprintsFile = new File(indoorMap.getMapDirectory()
-                + File.separator + "fingerprints" + File.separator + "fingerprints_data.json");
-        if(fingerprintsFile.exists()) {
-            final String result = FileUtils.readFileToString(fingerprintsFile, "UTF-8");
-            return result;
-        } else {
-            throw new FileNotFoundException("ERROR: No fingerprints file found! " +
-                    "Was expected here: " + fingerprintsFile.getPath());
+    private FingerprintTable readFingerprints() throws IOException {
+        final File snapshot = new File(getFingerprintsDirectory(), SNAPSHOT_FILE);
+        if (snapshot.exists() && (snapshot.lastModified() >= indoorMap.getGroupData().getLastModified())) {
+            try {
+                return FingerprintSnapshot.open(snapshot, new NicGeoPointFactory());
+            } catch (IOException e) {
+                Log.w(TAG, "Fingerprint snapshot is unusable: " + e);
+            }
+        }
+
+        final FingerprintTable fingerprints;
+        final InputStream in = getInputStream();
+        try {
+            fingerprints = FingerprintJsonReader.read(in);
+        } finally {
+            in.close();
         }
+        try {
+            if (!getFingerprintsDirectory().exists() && !getFingerprintsDirectory().mkdirs()) {
+                throw new IOException("Could not create " + getFingerprintsDirectory());
+            }
+            FingerprintSnapshot.write(fingerprints, snapshot);
+        } catch (IOException e) {
+            Log.e(TAG, "Fingerprint snapshot could not be written: " + e.getMessage());
+        }
+        return fingerprints;
+    }
+
+    private File getFingerprintsDirectory() {
+        return new File(indoorMap.getMapDirectory(), "fingerprints");
+    }
+
+    protected InputStream getInputStream() throws IOException {
+        return indoorMap.openEntry("fingerprints/fingerprints_data.json");
     }
 }
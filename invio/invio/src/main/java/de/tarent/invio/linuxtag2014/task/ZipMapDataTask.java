@@ -1,5 +1,6 @@
 package de.tarent.invio.linuxtag2014.task;
 
+import de.tarent.invio.linuxtag2014.map.InvioIndoorMap;
 import de.tarent.nic.android.base.task.DownloadListener;
 import de.tarent.nic.android.base.task.DownloadTask;
 import de.tarent.nic.android.base.task.OsmParser;
@@ -11,12 +12,12 @@ import java.util.Map;
 
 
 /**
- * The {@link ZipMapDataTask} will try to parse the concrete map data from the unzipped group directory.
+ * The {@link ZipMapDataTask} will try to parse the concrete map data, directly from the zip with the group data.
  */
 public class ZipMapDataTask extends DownloadTask<Void, Void, Map<String, Collection>> {
 
-    //The concrete map directory inside the unzipped group data directory
-    private final File unzippedMapDir;
+    //The map whose data shall be parsed
+    private final InvioIndoorMap indoorMap;
 
     //The {@link OsmParser}
     private final OsmParser parser;
@@ -26,14 +27,14 @@ public class ZipMapDataTask extends DownloadTask<Void, Void, Map<String, Collect
      * Constructor.
      *
      * @param downloadListener where to push the map data
-     * @param unzippedMapDir   directory of the concrete unzipped map
+     * @param indoorMap        the map whose data shall be parsed
      * @param parser           the parser that shall be used to parse the map data
      */
     public ZipMapDataTask (final DownloadListener<Map<String, Collection>> downloadListener,
-                           final File unzippedMapDir,
+                           final InvioIndoorMap indoorMap,
                            final OsmParser parser) {
         downloadListeners.add(downloadListener);
-        this.unzippedMapDir = unzippedMapDir;
+        this.indoorMap = indoorMap;
         this.parser = parser;
     }
 
@@ -55,16 +56,7 @@ public class ZipMapDataTask extends DownloadTask<Void, Void, Map<String, Collect
         return result;
     }
 
-    protected InputStream getXmlStream() throws FileNotFoundException {
-        final String mapDataPath = unzippedMapDir + File.separator + "data" + File.separator +
-                unzippedMapDir.getName()+".osm";
-        final File mapDataFile = new File(mapDataPath);
-        if(mapDataFile.exists()) {
-            final InputStream stream = new FileInputStream(mapDataFile);
-            return stream;
-        } else {
-            throw new FileNotFoundException("ERROR: No map data found! Was expected here: " + mapDataPath);
-        }
-
+    protected InputStream getXmlStream() throws IOException {
+        return indoorMap.openEntry("data/" + indoorMap.getMapDirectory().getName() + ".osm");
     }
 }
@@ -5,7 +5,7 @@ import de.tarent.invio.linuxtag2014.map.InvioIndoorMap;
 import de.tarent.nic.android.base.task.DownloadListener;
 import de.tarent.nic.android.base.task.DownloadTask;
 import de.tarent.nic.mapserver.exception.NicException;
-import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.osmdroid.util.BoundingBoxE6;
 
 import java.io.*;
@@ -37,7 +37,7 @@ public class ZipMapResourceTask extends DownloadTask {
     private BoundingBoxE6 boundingBox;
 
 
-    //The concrete map directory inside the unzipped group data directory
+    //The map whose tilemapresource shall be read from the zip with the group data
     private final InvioIndoorMap indoorMap;
 
 
@@ -67,14 +67,11 @@ public class ZipMapResourceTask extends DownloadTask {
     }
 
     protected String getXmlString() throws IOException {
-        final File resourceFile = new File(indoorMap.getMapDirectory()
-                + File.separator + "tiles" + File.separator + "tilemapresource.xml");
-        if(resourceFile.exists()) {
-            final String result = FileUtils.readFileToString(resourceFile, "UTF-8");
-            return result;
-        } else {
-            throw new FileNotFoundException("ERROR: No tilemapresource found! " +
-                    "Was expected here: " + resourceFile.getPath());
+        final InputStream in = indoorMap.openEntry("tiles/tilemapresource.xml");
+        try {
+            return IOUtils.toString(in, "UTF-8");
+        } finally {
+            in.close();
         }
     }
 
@@ -0,0 +1,76 @@
+package de.tarent.invio.linuxtag2014.map;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertEquals;
+
+public class GroupDataTest {
+
+    private File directory;
+
+    private GroupData groupData;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = File.createTempFile("groupdata", "");
+        directory.delete();
+        directory.mkdirs();
+
+        final File zip = new File(directory, "group_data.zip");
+        final ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip));
+        try {
+            for (final String name : new String[] {"EG/", "EG/data/EG.osm", "OG1/tiles/tilemapresource.xml",
+                                                   "EG/tiles/18/1/2.png", "readme.txt"}) {
+                out.putNextEntry(new ZipEntry(name));
+                out.write(name.getBytes("UTF-8"));
+                out.closeEntry();
+            }
+        } finally {
+            out.close();
+        }
+        groupData = new GroupData(zip, directory);
+    }
+
+    @After
+    public void tearDown() {
+        groupData.close();
+        FileUtils.deleteQuietly(directory);
+    }
+
+
+    @Test
+    public void testTheMapsAreTheTopLevelDirectories() {
+        assertEquals(Arrays.asList("EG", "OG1"), groupData.getMapNames());
+        assertEquals(new File(directory, "OG1"), groupData.getDirectory("OG1"));
+    }
+
+    @Test
+    public void testEntriesAreReadFromTheZip() throws Exception {
+        final InputStream in = groupData.openEntry("OG1", "tiles/tilemapresource.xml");
+        try {
+            assertEquals("OG1/tiles/tilemapresource.xml", IOUtils.toString(in, "UTF-8"));
+        } finally {
+            in.close();
+        }
+        // Nothing was unzipped:
+        assertEquals(1, directory.listFiles().length);
+    }
+
+    @Test(expected = FileNotFoundException.class)
+    public void testAMissingEntry() throws Exception {
+        groupData.openEntry("OG1", "data/OG1.osm");
+    }
+
+}
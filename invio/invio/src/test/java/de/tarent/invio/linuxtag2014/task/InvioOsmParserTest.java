@@ -153,6 +153,23 @@ public class InvioOsmParserTest {
         assertEquals(expectedName, actualName);
     }
 
+    @Test
+    public void testParseProductsWithTheirTagsInAnyOrder() throws IOException {
+        final String productXml = "<?xml version='1.0' encoding='UTF-8'?>\n" +
+                "<osm version='0.6'><node lat='0.5' lon='0.25' id='12'><tag k='price' v='219' />" +
+                "<tag k='shop' v='bakery' /><tag k='name' v='Brot' /><tag k='EAN-13' v='1234567890123' /></node>" +
+                "<node id='13' lat='0.5' lon='0.5'><tag k='name' v='Ohne Preis' /><tag k='EAN-13' v='1' /></node>" +
+                "</osm>";
+
+        parser.parse(new ByteArrayInputStream(productXml.getBytes("UTF-8")));
+        Collection<ProductItem> productItems = parser.getResults().get(InvioOsmParserKeys.PRODUCTITEMS);
+
+        // The node without a price is no product:
+        assertEquals(1, productItems.size());
+        assertEquals(new ProductItem(new Product(1234567890123L, "Brot", 219), new NicGeoPointImpl(0.5f, 0.25f)),
+                productItems.iterator().next());
+    }
+
     @Test
     public void testParseProductItems() throws IOException {
 